@@ -32,10 +32,10 @@ module ___LoggingAnalysis___ {
         CREATE_FUN, // fields: iid, function-enter-iid, obj-id.  NOTE: proto-obj-id is always obj-id + 1
         PUTFIELD, // fields: iid, base-obj-id, prop-name, val-obj-id
         WRITE, // fields: iid, name, obj-id
-        LAST_USE, // fields: obj-id, timestamp, sourceId (sid + ':' + iid)
+        LAST_USE, // fields: obj-id, timestamp, sourceId (sid + ':' + iid).  NOTE: legacy, superseded by LAST_USE_COMPACT
         FUNCTION_ENTER, // fields: iid, function-object-id.  NOTE: only emitted when CALL is not emitted
         FUNCTION_EXIT, // fields: iid
-        TOP_LEVEL_FLUSH, // fields: sourceId (sid + ':' + iid)
+        TOP_LEVEL_FLUSH, // fields: sourceId (sid + ':' + iid).  NOTE: legacy, superseded by TOP_LEVEL_FLUSH_COMPACT
         UPDATE_IID, // fields: obj-id, new-iid
         DEBUG, // fields: call-iid, obj-id
         RETURN, // fields: obj-id
@@ -51,7 +51,10 @@ module ___LoggingAnalysis___ {
         FREE_VARS, // fields: iid, array-of-names or ANY
         SOURCE_MAPPING, // fields: iid, startLine, startColumn, endLine, endColumn
         UPDATE_CURRENT_SCRIPT, // fields: scriptID
-        END_LAST_USE // fields: none
+        END_LAST_USE, // fields: none
+        UNREACHABLE, // fields: sourceId (sid + ':' + iid), object-id, time.  NOTE: only written by the lifetime analysis
+        LAST_USE_COMPACT, // fields: obj-id, timestamp, sid, iid
+        TOP_LEVEL_FLUSH_COMPACT // fields: sid, iid
     }
 
     /**
@@ -63,8 +66,7 @@ module ___LoggingAnalysis___ {
         MAX_BUF_SIZE = 64000
     }
 
-    // sentinel source locs for top-level flushes
-    export var ALREADY_FLUSHED = "ALREADY_FLUSHED";
+    // sentinel source loc for top-level flushes
     export var UNKNOWN_FLUSH_LOC = "0:-1";
 
     export var GLOBAL_OBJ = (function () {return this})();
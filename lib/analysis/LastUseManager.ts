@@ -32,10 +32,11 @@ module ___LoggingAnalysis___ {
         private lastUseTime: Array<number> = [];
 
         /**
-         * maps objects to their last use source ID (sid + ':' + iid)
+         * maps objects to the script ID and IID of their last use
          * @type {Array}
          */
-        private lastUseSourceID: Array<string> = [];
+        private lastUseSid: Array<number> = [];
+        private lastUseIID: Array<number> = [];
 
         private logger: Logger;
 
@@ -58,12 +59,13 @@ module ___LoggingAnalysis___ {
             var logger = this.logger;
             this.lastUseTime.forEach((val,idx) => {
                 if (val !== -1) {
-                    logger.logLastUse(idx, val, this.lastUseSourceID[idx]);
+                    logger.logLastUse(idx, val, this.lastUseSid[idx], this.lastUseIID[idx]);
                 }
             });
             logger.endLastUse();
             this.lastUseTime = [];
-            this.lastUseSourceID = [];
+            this.lastUseSid = [];
+            this.lastUseIID = [];
         }
 
         getSourceId(iid: number): string {
@@ -71,12 +73,13 @@ module ___LoggingAnalysis___ {
         }
 
         updateLastUse(objId: number, iid: number, time: number) {
-            var sourceId = this.getSourceId(iid);
+            var sid = J$.sid;
             if (this.eagerFlush) {
-                this.logger.logLastUse(objId, time, sourceId);
+                this.logger.logLastUse(objId, time, sid, iid);
             } else {
                 this.lastUseTime[objId] = time;
-                this.lastUseSourceID[objId] = sourceId;
+                this.lastUseSid[objId] = sid;
+                this.lastUseIID[objId] = iid;
             }
         }
     }
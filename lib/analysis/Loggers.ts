@@ -35,7 +35,7 @@ module ___LoggingAnalysis___ {
         logWrite(iid: number, name: string, objId: number): void
         // indicates that a block of last use entries is ending
         endLastUse(): void
-        logLastUse(objId: number, timestamp: number, sourceId: string): void
+        logLastUse(objId: number, timestamp: number, sid: number, iid: number): void
         logFunctionEnter(iid: number, funObjId: number): void
         logFunctionExit(iid: number): void
         logUpdateIID(objId: number, newIID: number): void
@@ -55,7 +55,7 @@ module ___LoggingAnalysis___ {
         logSourceMapping(iid: number, startLine: number, startColumn: number, endLine: number, endColumn: number): void
 
         getTime(): number
-        getFlushIID(): string
+        hasPendingFlush(): boolean
         setFlushIID(sourceFileId: number, iid: number): void
         stopTracing(): void
         end(cb: () => void): void
@@ -83,7 +83,7 @@ module ___LoggingAnalysis___ {
         logWrite(iid:number, name:string, objId:number):void {
         }
 
-        logLastUse(objId:number, timestamp:number, sourceId: string):void {
+        logLastUse(objId:number, timestamp:number, sid: number, iid: number):void {
         }
 
         endLastUse(): void {}
@@ -140,7 +140,7 @@ module ___LoggingAnalysis___ {
             return undefined;
         }
 
-        getFlushIID():string {
+        hasPendingFlush():boolean {
             return undefined;
         }
 
@@ -178,11 +178,13 @@ module ___LoggingAnalysis___ {
          */
         lastUseFlushTime:number = 0;
         /**
-         * either the IID of the most recent top-level expression, or -1 if
-         * we've already emitted a TOP_LEVEL_FLUSH for that most-recent expression
-         * @type {number}
+         * true if we have yet to emit a TOP_LEVEL_FLUSH for the most recent
+         * top-level expression, whose location is flushSid:flushIID
+         * @type {boolean}
          */
-        flushIID:string = ALREADY_FLUSHED;
+        flushPending:boolean = false;
+        flushSid:number = 0;
+        flushIID:number = 0;
         tracingStopped:boolean = false;
 
         /**
@@ -200,14 +202,16 @@ module ___LoggingAnalysis___ {
         }
 
         setFlushIID(sourceFileId:number,iid:number):void {
-            if (this.flushIID !== ALREADY_FLUSHED) {
-                throw new Error("invalid flush IID value " + this.flushIID);
+            if (this.flushPending) {
+                throw new Error("invalid flush IID value " + this.flushSid + ':' + this.flushIID);
             }
-            this.flushIID = sourceFileId + ':' + iid;
+            this.flushPending = true;
+            this.flushSid = sourceFileId;
+            this.flushIID = iid;
         }
 
-        getFlushIID(): string {
-            return this.flushIID;
+        hasPendingFlush(): boolean {
+            return this.flushPending;
         }
         stopTracing():void {
             this.tracingStopped = true;
@@ -237,10 +241,10 @@ module ___LoggingAnalysis___ {
                 // metadata, so don't update the time
             }
             // check if we should log a top-level flush
-            if (this.flushIID !== ALREADY_FLUSHED) {
-                this.logTopLevelFlush(this.flushIID);
+            if (this.flushPending) {
+                this.logTopLevelFlush(this.flushSid, this.flushIID);
                 time += 1;
-                this.flushIID = ALREADY_FLUSHED;
+                this.flushPending = false;
             }
             // for the entry to be logged
             time += 1;
@@ -248,7 +252,7 @@ module ___LoggingAnalysis___ {
             return true;
         }
 
-        protected logTopLevelFlush(slId: string): void {
+        protected logTopLevelFlush(sid: number, iid: number): void {
             throw new Error("should be overridden by subclass!");
         }
 
@@ -332,10 +336,10 @@ module ___LoggingAnalysis___ {
                 .writeString(name).writeInt(objId);
         }
 
-        logLastUse(objId:number, timestamp:number, sourceId: string):void {
+        logLastUse(objId:number, timestamp:number, sid: number, iid: number):void {
             if (!this.beforeLog(true)) return;
-            this.flushIfNeeded(1+2*4+4+this.strLength(sourceId)).writeByte(LogEntryType.LAST_USE).writeInt(objId)
-                .writeInt(timestamp).writeString(sourceId);
+            this.flushIfNeeded(1+4*4).writeByte(LogEntryType.LAST_USE_COMPACT).writeInt(objId)
+                .writeInt(timestamp).writeInt(sid).writeInt(iid);
             // this shouldn't have incremented the time since it is metadata
             // so, subtract 1
             this.time--;
@@ -455,8 +459,8 @@ module ___LoggingAnalysis___ {
             this.flushIfNeeded(5).writeTypeAndIID(LogEntryType.UPDATE_CURRENT_SCRIPT,scriptID);
         }
 
-        protected logTopLevelFlush(slId: string): void {
-            this.flushIfNeeded(1+4+this.strLength(slId)).writeByte(LogEntryType.TOP_LEVEL_FLUSH).writeString(slId);
+        protected logTopLevelFlush(sid: number, iid: number): void {
+            this.flushIfNeeded(1+2*4).writeByte(LogEntryType.TOP_LEVEL_FLUSH_COMPACT).writeInt(sid).writeInt(iid);
         }
 
         end(cb:() => void): void {
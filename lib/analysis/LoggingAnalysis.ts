@@ -509,7 +509,7 @@ module ___LoggingAnalysis___ {
         }
 
         endExpression(iid: number): void {
-            if (this.logger.getFlushIID() === ALREADY_FLUSHED) {
+            if (!this.logger.hasPendingFlush()) {
                 this.logger.setFlushIID(J$.sid, iid);
                 // at this point, we can empty the map from native objects to iids,
                 // since after a flush we won't be storing them anywhere
@@ -113,6 +113,10 @@ export function parseTrace(filename: string): string {
                 readInt(true); break;
             case LogEntryType.END_LAST_USE:
                 break;
+            case LogEntryType.LAST_USE_COMPACT:
+                readInt(); readInt(); readInt(); readInt(true); break;
+            case LogEntryType.TOP_LEVEL_FLUSH_COMPACT:
+                readInt(); readInt(true); break;
             default:
                 throw new Error("unknown entry type " + entryType);
         }
@@ -148,7 +152,10 @@ enum LogEntryType {
     FREE_VARS, // fields: iid, array-of-names or ANY
     SOURCE_MAPPING, // fields: iid, startLine, startColumn, endLine, endColumn
     UPDATE_CURRENT_SCRIPT, // fields: scriptID
-    END_LAST_USE // fields: none
+    END_LAST_USE, // fields: none
+    UNREACHABLE, // fields: sourceId (sid + ':' + iid), object-id, time.  NOTE: only written by the lifetime analysis
+    LAST_USE_COMPACT, // fields: obj-id, timestamp, sid, iid
+    TOP_LEVEL_FLUSH_COMPACT // fields: sid, iid
 }
 
 
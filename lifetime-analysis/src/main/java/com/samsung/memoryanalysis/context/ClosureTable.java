@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.context;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * The context each function object closes over, keyed by the function's
+ * object id.  Contexts are held strongly until the function is
+ * {@link #release(int) released}, as unreachable; after that only weakly, in
+ * case the function turns out to be called again, and the entry goes once the
+ * context is collected.
+ *
+ * Open addressing with linear probing; removal shifts later entries back
+ * instead of leaving tombstones, and the table shrinks again once most
+ * functions are gone, so it stays proportional to the functions in use.
+ */
+final class ClosureTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MIN_CAPACITY = 64;
+
+    private transient int[] ids;
+
+    /**
+     * a {@link Context}, a {@link Released} context, or null for an empty
+     * entry
+     */
+    private transient Object[] values;
+
+    private transient int size;
+
+    private transient ReferenceQueue<Context> collected;
+
+    ClosureTable() {
+        clear(MIN_CAPACITY);
+    }
+
+    private void clear(int capacity) {
+        ids = new int[capacity];
+        values = new Object[capacity];
+        size = 0;
+        collected = new ReferenceQueue<Context>();
+    }
+
+    private static final class Released extends WeakReference<Context> {
+        final int functionId;
+
+        Released(int functionId, Context c, ReferenceQueue<Context> q) {
+            super(c, q);
+            this.functionId = functionId;
+        }
+    }
+
+    /**
+     * @return the context of the given function, or null if none
+     */
+    Context get(int functionId) {
+        int i = find(functionId);
+        if (i < 0)
+            return null;
+        Object v = values[i];
+        return v instanceof Context ? (Context) v : ((Released) v).get();
+    }
+
+    void put(int functionId, Context c) {
+        expunge();
+        int mask = ids.length - 1;
+        int i = hash(functionId) & mask;
+        while (values[i] != null) {
+            if (ids[i] == functionId) {
+                values[i] = c;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        ids[i] = functionId;
+        values[i] = c;
+        if (2 * ++size > ids.length)
+            resize(2 * ids.length);
+    }
+
+    /**
+     * stop holding the context of the given function strongly
+     */
+    void release(int functionId) {
+        expunge();
+        int i = find(functionId);
+        if (i >= 0 && values[i] instanceof Context)
+            values[i] = new Released(functionId, (Context) values[i], collected);
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int find(int functionId) {
+        int mask = ids.length - 1;
+        for (int i = hash(functionId) & mask; values[i] != null; i = (i + 1) & mask) {
+            if (ids[i] == functionId)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * remove the entries whose released context was collected
+     */
+    private void expunge() {
+        Reference<? extends Context> r;
+        while ((r = collected.poll()) != null) {
+            int i = find(((Released) r).functionId);
+            // the function id may have been reused since
+            if (i >= 0 && values[i] == r)
+                removeAt(i);
+        }
+    }
+
+    private void removeAt(int i) {
+        int mask = ids.length - 1;
+        // shift back the entries that probed past i
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = hash(ids[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                ids[i] = ids[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        values[i] = null;
+        if (8 * --size < ids.length && ids.length > MIN_CAPACITY)
+            resize(ids.length / 2);
+    }
+
+    private void resize(int capacity) {
+        int[] oldIds = ids;
+        Object[] oldValues = values;
+        ids = new int[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldIds.length; j++) {
+            if (oldValues[j] != null) {
+                int i = hash(oldIds[j]) & mask;
+                while (values[i] != null)
+                    i = (i + 1) & mask;
+                ids[i] = oldIds[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * written as (id, context, released) triples, leaving out the collected
+     * contexts
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        for (int i = 0; i < ids.length; i++) {
+            Object v = values[i];
+            boolean released = v instanceof Released;
+            Context c = released ? ((Released) v).get() : (Context) v;
+            if (c != null) {
+                out.writeBoolean(true);
+                out.writeInt(ids[i]);
+                out.writeObject(c);
+                out.writeBoolean(released);
+            }
+        }
+        out.writeBoolean(false);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        clear(MIN_CAPACITY);
+        while (in.readBoolean()) {
+            int id = in.readInt();
+            put(id, (Context) in.readObject());
+            if (in.readBoolean())
+                release(id);
+        }
+    }
+}
@@ -15,28 +15,83 @@
  */
 package com.samsung.memoryanalysis.context;
 
-import java.util.Collections;
-import java.util.Map;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
-import com.ibm.wala.util.collections.HashMapFactory;
-import com.ibm.wala.util.collections.HashSetFactory;
+import com.samsung.memoryanalysis.traceparser.FreeVariables;
 
 /**
  *
  * A context is a set of variable bindings, typically associated with a
- * function execution / closure.
+ * function execution / closure.  Variable names are canonical (see
+ * {@link com.samsung.memoryanalysis.traceparser.NameTable}) and are compared
+ * by identity.
+ *
+ * Variables are kept in parallel slot arrays in declaration order, found by a
+ * linear scan in small scopes and through an open-addressing index past
+ * {@link #LINEAR_LIMIT} slots.  Sealing trims the slots down to the variables
+ * captured by closures.
+ *
+ * Captures are counted on the owning slot as closures are created, so that
+ * sealing only looks at the exiting context.  While a context is live, its
+ * enclosing contexts are either sealed or suspended below it on the stack, so
+ * the only thing that can change where a captured name resolves is a later
+ * declaration in the context itself; that moves the capture to the new slot.
  *
  * @author s.jensen
  */
-public class Context {
+public class Context implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * scopes with at most this many variables are scanned instead of indexed
+     */
+    private static final int LINEAR_LIMIT = 8;
+
+    private static final String[] NO_NAMES = new String[0];
+    private static final int[] NO_VALUES = new int[0];
 
     private final Context parent;
+    private final Scopes scopes;
+    private final long id;
     private final String iidString;
-    private Map<String, Variable> variables = HashMapFactory.make();
-    private Set<String> referencedNames = HashSetFactory.make();
+
+    /**
+     * variable names and values, by slot; slots [0, size) are in use
+     */
+    private String[] names = NO_NAMES;
+    private int[] values = NO_VALUES;
+    private int size = 0;
+
+    /**
+     * open-addressing table of (slot + 1), or 0 for an empty entry; null
+     * while the scope is small enough to scan
+     */
+    private int[] index;
+
+    /**
+     * number of contexts whose closures capture each slot; allocated on the
+     * first capture, and dropped on sealing, when every remaining slot is
+     * captured
+     */
+    private int[] captures;
+
+    /**
+     * names referenced by closures created in this context, or null if none
+     */
+    private Set<String> capturedNames;
     private boolean isLive = true;
 
+    /**
+     * whether some context has this one as parent
+     */
+    private boolean hasInnerScopes = false;
+
     /**
      * get parent, or null if no parent
      */
@@ -44,9 +99,30 @@ public class Context {
         return parent;
     }
 
+    /**
+     * the counters of a global context, shared by every context under it
+     */
+    private static final class Scopes implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * contexts created so far
+         */
+        long contextCount = 0;
+
+        /**
+         * bumped whenever a context with inner scopes gains or loses
+         * variables; see {@link Context#scopeEpoch()}
+         */
+        int scopeEpoch = 0;
+    }
+
     private Context() {
         iidString = "GLOBAL";
         parent = null;
+        scopes = new Scopes();
+        id = scopes.contextCount++;
     }
 
     public boolean isLive() {
@@ -59,6 +135,18 @@ public class Context {
             throw new IllegalArgumentException("Null parent only allowed for global");
         }
         this.parent = parent;
+        this.scopes = parent.scopes;
+        this.id = scopes.contextCount++;
+        parent.hasInnerScopes = true;
+    }
+
+    /**
+     * contexts are numbered densely from 0, the global context, in order of
+     * creation; the numbering is separate for each global context.  Ids are
+     * never reused, so they are longs, which do not wrap
+     */
+    public long getId() {
+        return id;
     }
 
     /**
@@ -74,14 +162,17 @@ public class Context {
     }
 
     public void newVariable(String name, int objectId) {
-//        assert !variables.containsKey(name) : "already saw declaration of variable " + name;
-        if (!variables.containsKey(name)) { // just ignore if we've already seen the variable
-            variables.put(name, new Variable(objectId));
+//        assert slotOf(name) < 0 : "already saw declaration of variable " + name;
+        if (slotOf(name) < 0) { // just ignore if we've already seen the variable
+            if (!isLive) {
+                throw new UnsupportedOperationException("context " + this + " is sealed");
+            }
+            addSlot(name, objectId);
         }
     }
 
     public boolean hasVariable(String name) {
-        return variables.containsKey(name);
+        return slotOf(name) >= 0;
     }
 
     /**
@@ -91,9 +182,15 @@ public class Context {
      * @param names
      */
     public void markReferenced(Set<String> names) {
-        if (names == null)
+        if (names == null || names.isEmpty())
             return ;
-        this.referencedNames.addAll(names);
+        if (capturedNames == null)
+            capturedNames = FreeVariables.makeNameSet(names.size());
+        for (String name : names) {
+            if (capturedNames.add(name)) {
+                capture(name, 1);
+            }
+        }
     }
 
     /**
@@ -103,32 +200,38 @@ public class Context {
      * therefore no longer reachable from this context.
      */
     public Set<String> seal() {
-    	// first, appropriately mark all referenced variables in this context
-    	// and parents
-        Set<String> work = HashSetFactory.make(referencedNames);
-        Context c = this;
-        while (!c.isGlobal()) {
-            for (Map.Entry<String, Variable> v : c.variables.entrySet()) {
-                if (work.contains(v.getKey())) {
-                    v.getValue().makeReferenced();
-                    work.remove(v.getKey());
+        capturedNames = null;
+        isLive = false;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (isCaptured(captures, i))
+                kept++;
+        }
+        // the dropped names are a view of the slots from before sealing, so
+        // the arrays are replaced rather than compacted in place
+        Set<String> res = new Unreferenced(names, size, index, captures, size - kept);
+        if (kept < size) {
+            String[] keptNames = kept == 0 ? NO_NAMES : new String[kept];
+            int[] keptValues = kept == 0 ? NO_VALUES : new int[kept];
+            for (int i = 0, j = 0; j < kept; i++) {
+                if (captures[i] > 0) {
+                    keptNames[j] = names[i];
+                    keptValues[j++] = values[i];
                 }
             }
-            c = c.parent;
-        }
-        // we can GC the referenced names set now that we are sealing
-        referencedNames = null;
-        isLive = false;
-        Set<String> res = HashSetFactory.make();
-        for (Map.Entry<String, Variable> v: variables.entrySet()) {
-            if (!v.getValue().isReferenced()) {
-                res.add(v.getKey());
+            names = keptNames;
+            values = keptValues;
+            size = kept;
+            index = null;
+            if (size > LINEAR_LIMIT) {
+                reindex();
             }
+            scopesChanged();
+        } else if (names.length > size) {
+            names = Arrays.copyOf(names, size);
+            values = Arrays.copyOf(values, size);
         }
-        for (String s : res) {
-            variables.remove(s);
-        }
-        variables = Collections.unmodifiableMap(variables);
+        captures = null;
         return res;
     }
 
@@ -140,8 +243,9 @@ public class Context {
     public Context writeToVariable(String name, int objectId) {
         Context c = this;
         while (c != null) {
-            if (c.hasVariable(name)) {
-                c.variables.get(name).setValue(objectId);
+            int slot = c.slotOf(name);
+            if (slot >= 0) {
+                c.values[slot] = objectId;
                 return c;
             }
             if (c.isGlobal()) {
@@ -152,4 +256,196 @@ public class Context {
         }
         throw new IllegalStateException();
     }
+
+    /**
+     * Resolutions of a name to a slot of an outer context hold as long as this
+     * does not change.  Only variables of non-global contexts with inner scopes
+     * count, as the global context is the last one looked in and its slots
+     * only move when it is sealed at the end of execution.
+     */
+    int scopeEpoch() {
+        return scopes.scopeEpoch;
+    }
+
+    private void scopesChanged() {
+        if (hasInnerScopes && parent != null)
+            scopes.scopeEpoch++;
+    }
+
+    void setValue(int slot, int objectId) {
+        values[slot] = objectId;
+    }
+
+    int getValue(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * @return the slot holding the variable with the given name, or -1
+     */
+    int slotOf(String name) {
+        return find(names, size, index, name);
+    }
+
+    private static int find(String[] names, int size, int[] index, String name) {
+        if (index == null) {
+            for (int i = 0; i < size; i++) {
+                if (names[i] == name)
+                    return i;
+            }
+            return -1;
+        }
+        int mask = index.length - 1;
+        int s;
+        for (int i = hash(name) & mask; (s = index[i]) != 0; i = (i + 1) & mask) {
+            if (names[s - 1] == name)
+                return s - 1;
+        }
+        return -1;
+    }
+
+    private static boolean isCaptured(int[] captures, int slot) {
+        return captures != null && captures[slot] > 0;
+    }
+
+    private void addSlot(String name, int objectId) {
+        // captures are not counted in the global context
+        boolean captured = parent != null && capturedNames != null && capturedNames.contains(name);
+        if (captured) {
+            // a closure created here captured the name before it was declared
+            // here, so it resolved further out
+            capture(name, -1);
+        }
+        if (size == names.length) {
+            int n = Math.max(4, 2 * size);
+            names = Arrays.copyOf(names, n);
+            values = Arrays.copyOf(values, n);
+            if (captures != null)
+                captures = Arrays.copyOf(captures, n);
+        }
+        int slot = size++;
+        names[slot] = name;
+        values[slot] = objectId;
+        scopesChanged();
+        if (captured) {
+            countCapture(slot, 1);
+        }
+        if (index != null && 2 * size <= index.length) {
+            insert(index, slot);
+        } else if (size > LINEAR_LIMIT) {
+            reindex();
+        }
+    }
+
+    /**
+     * adds delta to the captures of the variable name resolves to from here,
+     * if not global
+     */
+    private void capture(String name, int delta) {
+        for (Context c = this; !c.isGlobal(); c = c.parent) {
+            int slot = c.slotOf(name);
+            if (slot >= 0) {
+                c.countCapture(slot, delta);
+                return;
+            }
+        }
+    }
+
+    private void countCapture(int slot, int delta) {
+        if (!isLive) {
+            // every variable left in a sealed context is captured
+            return;
+        }
+        if (captures == null)
+            captures = new int[names.length];
+        captures[slot] += delta;
+    }
+
+    private void reindex() {
+        int n = 4 * LINEAR_LIMIT;
+        while (n < 2 * size)
+            n *= 2;
+        index = new int[n];
+        for (int slot = 0; slot < size; slot++)
+            insert(index, slot);
+    }
+
+    private void insert(int[] table, int slot) {
+        int mask = table.length - 1;
+        int i = hash(names[slot]) & mask;
+        while (table[i] != 0)
+            i = (i + 1) & mask;
+        table[i] = slot + 1;
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * the variables a context dropped when it was sealed, as a view of its
+     * slots from before
+     */
+    private static final class Unreferenced extends AbstractSet<String> {
+
+        private final String[] names;
+        private final int slots;
+        private final int[] index;
+        private final int[] captures;
+        private final int size;
+
+        Unreferenced(String[] names, int slots, int[] index, int[] captures, int size) {
+            this.names = names;
+            this.slots = slots;
+            this.index = index;
+            this.captures = captures;
+            this.size = size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof String))
+                return false;
+            int slot = find(names, slots, index, (String) o);
+            return slot >= 0 && !isCaptured(captures, slot);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int next = advance(0);
+
+                private int advance(int slot) {
+                    while (slot < slots && isCaptured(captures, slot))
+                        slot++;
+                    return slot;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next < slots;
+                }
+
+                @Override
+                public String next() {
+                    if (next >= slots)
+                        throw new NoSuchElementException();
+                    String res = names[next];
+                    next = advance(next + 1);
+                    return res;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
 }
@@ -17,7 +17,6 @@ package com.samsung.memoryanalysis.context;
 
 import java.util.Set;
 
-import com.samsung.memoryanalysis.referencecounter.heap.ContextOrObjectId;
 import com.samsung.memoryanalysis.traceparser.SourceMap;
 import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
 import com.samsung.memoryanalysis.traceparser.Timer;
@@ -68,9 +67,9 @@ public interface ContextAwareAnalysis<T> {
 
     public void removeDOMChild(int parentId, int childId);
 
-	public void addToChildSet(SourceLocId slId, ContextOrObjectId parentNode, String name, ContextOrObjectId childNode);
+	public void addToChildSet(SourceLocId slId, int parentId, String name, int childId);
 
-	public void removeFromChildSet(SourceLocId slId, ContextOrObjectId parentNode, String name, ContextOrObjectId childNode);
+	public void removeFromChildSet(SourceLocId slId, int parentId, String name, int childId);
 
 	public void domRoot(int nodeId);
 
@@ -24,4 +24,12 @@ public interface ContextListener {
     public Context getGlobal();
     public Context getCurrent();
     public Collection<Context> getLiveContexts();
+
+    /**
+     * Tells the context provider that a function object is unreachable, so it
+     * need not keep the context the function closes over.  The context is
+     * still found if the function is called again before it is collected.
+     * Until this is called, the provider holds the context strongly.
+     */
+    public void functionUnreachable(int objectId);
 }
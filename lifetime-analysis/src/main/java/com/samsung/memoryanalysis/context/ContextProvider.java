@@ -15,16 +15,15 @@
  */
 package com.samsung.memoryanalysis.context;
 
-import java.lang.ref.WeakReference;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Deque;
-import java.util.Map;
 import java.util.Set;
 
-import com.ibm.wala.util.collections.HashMapFactory;
 import com.samsung.memoryanalysis.options.MemoryAnalysisOptions;
-import com.samsung.memoryanalysis.referencecounter.heap.ContextOrObjectId;
 import com.samsung.memoryanalysis.traceparser.SourceMap;
 import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
 import com.samsung.memoryanalysis.traceparser.Timer;
@@ -34,16 +33,24 @@ import com.samsung.memoryanalysis.traceparser.TraceAnalysis;
  * Context provider for analyses that need context information.
  * @author s.jensen
  */
-public class ContextProvider <T> implements TraceAnalysis<T> {
+public class ContextProvider <T> implements TraceAnalysis<T>, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private final ContextAwareAnalysis<T> callbacks;
 
     private final Deque<Context> contextStack = new ArrayDeque<Context>();
 
-    private final Map<Integer, WeakReference<Context>> contexts = HashMapFactory.make();
+    /**
+     * the context of each function object, until the client reports the
+     * function unreachable; see {@link ContextListener#functionUnreachable(int)}
+     */
+    private final ClosureTable contexts = new ClosureTable();
 
     private final Context GLOBAL;
 
+    private transient WriteSiteCache writes = new WriteSiteCache();
+
     private final MemoryAnalysisOptions options;
 
     public static final int GLOBAL_OBJECT_ID = 1;
@@ -59,23 +66,36 @@ public class ContextProvider <T> implements TraceAnalysis<T> {
     public void init(Timer timer, SourceMap iidMap) {
         contextStack.push(GLOBAL);
         this.iidMap = iidMap;
-        ContextListener c = new ContextListener() {
-            @Override
-            public Context getGlobal() {
-                return GLOBAL;
-            }
-
-            @Override
-            public Context getCurrent() {
-                return contextStack.peek();
-            }
-
-            @Override
-            public Collection<Context> getLiveContexts() {
-                return contextStack;
-            }
-        };
-        callbacks.init(timer, c, iidMap);
+        callbacks.init(timer, new StackListener(), iidMap);
+    }
+
+    private class StackListener implements ContextListener, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Context getGlobal() {
+            return GLOBAL;
+        }
+
+        @Override
+        public Context getCurrent() {
+            return contextStack.peek();
+        }
+
+        @Override
+        public Collection<Context> getLiveContexts() {
+            return contextStack;
+        }
+
+        @Override
+        public void functionUnreachable(int objectId) {
+            contexts.release(objectId);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        writes = new WriteSiteCache();
     }
 
     @Override
@@ -99,7 +119,7 @@ public class ContextProvider <T> implements TraceAnalysis<T> {
     public void createFun(SourceLocId slId, int objectId, int prototypeId, SourceLocId functionEnterIID, Set<String> namesReferencedByClosures) {
         Context curr = contextStack.peek();
         curr.markReferenced(namesReferencedByClosures);
-        contexts.put(objectId, new WeakReference<Context>(curr));
+        contexts.put(objectId, curr);
         callbacks.createFun(slId, objectId, prototypeId, functionEnterIID,namesReferencedByClosures, contextStack.peek());
     }
 
@@ -126,7 +146,7 @@ public class ContextProvider <T> implements TraceAnalysis<T> {
     		objectId = 0;
     	}
         Context ctx = contextStack.peek();
-        Context res = ctx.writeToVariable(name,objectId);
+        Context res = writes.write(slId, ctx, name, objectId);
         callbacks.write(slId,name,objectId, res);
     }
 
@@ -138,10 +158,9 @@ public class ContextProvider <T> implements TraceAnalysis<T> {
 
     @Override
 	public void functionEnter(SourceLocId slId, int functionId, SourceLocId callSiteIID) {
-        WeakReference<Context> contextWeakRef = contexts.get(functionId);
-        assert contextWeakRef != null : "no context ever discovered!!! slId " + slId + " functionId " + functionId + " callSiteIID " + callSiteIID;
-        Context context = contextWeakRef.get();
+        Context context = contexts.get(functionId);
         if (context == null) {
+            // the function was reported unreachable, and its context collected
             // System.err.println("missing context!!! iid " + iid +
             // " function id " + functionId + " call site IID " + callSiteIID);
             // TODO this could cause imprecision. eventually, need a way to
@@ -209,9 +228,7 @@ public class ContextProvider <T> implements TraceAnalysis<T> {
 			// we don't care about tracking pointers to global object
 			return;
 		}
-		ContextOrObjectId parentNode = parent == GLOBAL_OBJECT_ID ? ContextOrObjectId.make(GLOBAL) : ContextOrObjectId.make(parent);
-		ContextOrObjectId childNode = ContextOrObjectId.make(child);
-		callbacks.addToChildSet(slId,parentNode,name,childNode);
+		callbacks.addToChildSet(slId,parent,name,child);
 	}
 
 	@Override
@@ -220,9 +237,7 @@ public class ContextProvider <T> implements TraceAnalysis<T> {
 			// we don't care about tracking pointers to global object
 			return;
 		}
-		ContextOrObjectId parentNode = parent == GLOBAL_OBJECT_ID ? ContextOrObjectId.make(GLOBAL) : ContextOrObjectId.make(parent);
-		ContextOrObjectId childNode = ContextOrObjectId.make(child);
-		callbacks.removeFromChildSet(slId,parentNode,name,childNode);
+		callbacks.removeFromChildSet(slId,parent,name,child);
 	}
 
 	@Override
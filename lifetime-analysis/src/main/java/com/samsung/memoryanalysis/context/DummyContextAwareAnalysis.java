@@ -15,9 +15,9 @@
  */
 package com.samsung.memoryanalysis.context;
 
+import java.io.Serializable;
 import java.util.Set;
 
-import com.samsung.memoryanalysis.referencecounter.heap.ContextOrObjectId;
 import com.samsung.memoryanalysis.traceparser.SourceMap;
 import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
 import com.samsung.memoryanalysis.traceparser.Timer;
@@ -26,12 +26,15 @@ import com.samsung.memoryanalysis.traceparser.Timer;
  * Dummy {@link ContextAwareAnalysis} that does nothing.
  * Created by s.jensen on 6/10/14.
  */
-public class DummyContextAwareAnalysis<T> implements ContextAwareAnalysis<T> {
+public class DummyContextAwareAnalysis<T> implements ContextAwareAnalysis<T>, Serializable {
 
+    private static final long serialVersionUID = 1L;
+
+    private ContextListener contexts;
 
     @Override
     public void init(Timer timer, ContextListener list, SourceMap iidMap) {
-
+        this.contexts = list;
     }
 
     @Override
@@ -46,7 +49,9 @@ public class DummyContextAwareAnalysis<T> implements ContextAwareAnalysis<T> {
 
     @Override
     public void createFun(SourceLocId slId, int objectId, int prototypeId, SourceLocId functionEnterIID, Set<String> namesReferencedByClosures, Context context) {
-
+        // no reachability is tracked, so don't make the provider keep the
+        // context alive
+        contexts.functionUnreachable(objectId);
     }
 
     @Override
@@ -119,13 +124,13 @@ public class DummyContextAwareAnalysis<T> implements ContextAwareAnalysis<T> {
     }
 
 	@Override
-	public void addToChildSet(SourceLocId slId, ContextOrObjectId parentNode,
-			String name, ContextOrObjectId childNode) {
+	public void addToChildSet(SourceLocId slId, int parentId,
+			String name, int childId) {
 	}
 
 	@Override
-	public void removeFromChildSet(SourceLocId slId, ContextOrObjectId parentNode,
-			String name, ContextOrObjectId childNode) {
+	public void removeFromChildSet(SourceLocId slId, int parentId,
+			String name, int childId) {
 	}
 
 	@Override
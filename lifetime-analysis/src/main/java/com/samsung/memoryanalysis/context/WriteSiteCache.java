@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.context;
+
+import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
+
+/**
+ * Remembers, per write site, which context and slot a variable write resolved
+ * to, so that repeated writes from a nested function to an outer variable
+ * skip the walk up the scope chain.  An entry is keyed by the site, the name
+ * and the scope the walk started from (the parent of the writing context),
+ * and holds while the {@link Context#scopeEpoch() scope epoch} is unchanged.
+ * The writing context itself is always looked in first, as each call gets a
+ * fresh one.
+ *
+ * Writes that create an implicit global are cached like any other, once the
+ * global exists; a later declaration of the name in a scope in between bumps
+ * the epoch.
+ *
+ * The table is direct-mapped, so it holds on to at most {@link #SIZE} sealed
+ * contexts.
+ */
+final class WriteSiteCache {
+
+    private static final int SIZE = 1024;
+
+    private final SourceLocId[] sites = new SourceLocId[SIZE];
+    private final String[] names = new String[SIZE];
+    private final Context[] scopes = new Context[SIZE];
+    private final int[] epochs = new int[SIZE];
+    private final Context[] owners = new Context[SIZE];
+    private final int[] slots = new int[SIZE];
+
+    /**
+     * writes objectId to the variable name as seen from ctx, as
+     * {@link Context#writeToVariable(String, int)} does
+     *
+     * @return the context holding the variable
+     */
+    Context write(SourceLocId site, Context ctx, String name, int objectId) {
+        int slot = ctx.slotOf(name);
+        if (slot >= 0) {
+            ctx.setValue(slot, objectId);
+            return ctx;
+        }
+        Context scope = ctx.getParent();
+        if (scope == null || site == null) {
+            return ctx.writeToVariable(name, objectId);
+        }
+        int h = site.hashCode();
+        int i = (h ^ (h >>> 16)) & (SIZE - 1);
+        int epoch = ctx.scopeEpoch();
+        if (scopes[i] == scope && names[i] == name && epochs[i] == epoch && site.equals(sites[i])) {
+            Context owner = owners[i];
+            owner.setValue(slots[i], objectId);
+            return owner;
+        }
+        Context owner = scope.writeToVariable(name, objectId);
+        sites[i] = site;
+        names[i] = name;
+        scopes[i] = scope;
+        epochs[i] = epoch;
+        owners[i] = owner;
+        slots[i] = owner.slotOf(name);
+        return owner;
+    }
+}
@@ -26,8 +26,11 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.List;
 import java.util.Map;
 
+import javax.management.JMException;
+
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
@@ -40,39 +43,144 @@ import com.samsung.memoryanalysis.context.ContextProvider;
 import com.samsung.memoryanalysis.options.MemoryAnalysisOptions;
 import com.samsung.memoryanalysis.referencecounter.DummyUnreachabilityAnalysis;
 import com.samsung.memoryanalysis.referencecounter.ReferenceCounter;
+import com.samsung.memoryanalysis.referencecounter.heap.ArrayHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.BufferHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.FlushStats;
 import com.samsung.memoryanalysis.referencecounter.heap.JGraphHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph;
+import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph.CycleCollector;
 import com.samsung.memoryanalysis.staleness.StreamingStalenessAnalysis;
 import com.samsung.memoryanalysis.traceparser.EnhancedTraceAnalysisRunner;
 import com.samsung.memoryanalysis.traceparser.ProgressMonitor;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysis;
 import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner;
+import com.samsung.memoryanalysis.traceparser.TraceIndex;
+import com.samsung.memoryanalysis.traceparser.TraceMetrics;
+import com.samsung.memoryanalysis.traceparser.TraceInput;
 import com.samsung.memoryanalysis.traceparser.TracePrettyPrinter;
+import com.samsung.memoryanalysis.util.ResumableFileOutputStream;
 
 /**
  * Created by s.jensen on 6/12/14.
  */
 public class CommandLineDriver {
 
-    private static int lastPercent = -1;
-
-    public static void printProgBar(int total, int prog) {
-        final int percent = (int) (((float) prog) / ((float) total) * 100);
-        if (percent > lastPercent) {
-            lastPercent = percent;
-        } else
-            return;
-
-        final StringBuilder bar = new StringBuilder("[");
-        for (int i = 0; i < 50; i++) {
-            if (i < (percent / 2)) {
-                bar.append("=");
-            } else if (i == (percent / 2)) {
-                bar.append(">");
-            } else {
-                bar.append(" ");
+    /**
+     * prints a progress bar with the throughput, the size of the heap graph
+     * and the estimated time remaining
+     */
+    private static class ProgressBar implements ProgressMonitor {
+
+        /**
+         * heap graph of the analysis, or null
+         */
+        private final ReferenceCountedHeapGraph heap;
+
+        private long startPosition;
+
+        private long size;
+
+        private long startTime;
+
+        ProgressBar(ReferenceCountedHeapGraph heap) {
+            this.heap = heap;
+        }
+
+        @Override
+        public void start(long position, long size) {
+            this.startPosition = position;
+            this.size = size;
+            this.startTime = System.nanoTime();
+        }
+
+        @Override
+        public void tick(long position, long events) {
+            double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+            final StringBuilder bar = new StringBuilder();
+            if (size > 0) {
+                int percent = (int) (100 * position / size);
+                bar.append('[');
+                for (int i = 0; i < 50; i++) {
+                    if (i < (percent / 2)) {
+                        bar.append("=");
+                    } else if (i == (percent / 2)) {
+                        bar.append(">");
+                    } else {
+                        bar.append(" ");
+                    }
+                }
+                bar.append(String.format("] %3d%%  ", percent));
+            }
+            bar.append(String.format("%d events  %.0f events/s  %.1f MB/s", events, events / seconds,
+                    (position - startPosition) / seconds / (1024 * 1024)));
+            if (heap != null) {
+                bar.append(String.format("  %d nodes", heap.nodeCount()));
             }
+            if (size > 0 && position > startPosition) {
+                long eta = (long) ((size - position) * seconds / (position - startPosition));
+                bar.append(String.format("  ETA %d:%02d:%02d", eta / 3600, eta / 60 % 60, eta % 60));
+            }
+            bar.append("    ");
+            System.out.print("\r" + bar.toString());
+        }
+    }
+
+    /**
+     * create a runner that memory-maps traceFile if it is non-null, and
+     * otherwise reads from traceStream
+     */
+    private static TraceAnalysisRunner runner(File traceFile, InputStream traceStream, ProgressMonitor prog, File dir) throws IOException {
+        if (traceFile != null) {
+            return new TraceAnalysisRunner(traceFile, prog, dir);
+        }
+        return new TraceAnalysisRunner(traceStream, prog, dir);
+    }
+
+    /**
+     * if an index interval was requested, have runner build a {@link TraceIndex};
+     * optionally decode the trace on a separate thread
+     */
+    private static <R extends TraceAnalysisRunner> R configure(R runner, int indexInterval, boolean pipelined) {
+        if (indexInterval > 0) {
+            runner.buildIndex(indexInterval);
+        }
+        runner.setPipelined(pipelined);
+        if (checkpointTicks > 0) {
+            runner.checkpointEvery(checkpointTicks, checkpointFile);
+        }
+        runner.setMetrics(metrics);
+        return runner;
+    }
+
+    /**
+     * if set, write a checkpoint to checkpointFile every checkpointTicks timestamps
+     */
+    private static long checkpointTicks = 0;
+
+    private static File checkpointFile;
+
+    /**
+     * per event type metrics, or null
+     */
+    private static TraceMetrics metrics = null;
+
+    /**
+     * run a on runner, or, with --resume, continue from the last checkpoint
+     * instead
+     */
+    private static <T> T run(TraceAnalysisRunner runner, TraceAnalysis<T> a, boolean resume) throws IOException {
+        return resume ? runner.<T>resume(checkpointFile) : runner.runAnalysis(a);
+    }
+
+    /**
+     * open an output file that can be saved in a checkpoint if checkpointing
+     * is enabled
+     */
+    private static OutputStream output(File file) throws IOException {
+        if (checkpointTicks > 0) {
+            return new ResumableFileOutputStream(file);
         }
-        bar.append(String.format("]    %d%%   (%d/%d)    ", percent, prog, total));
-        System.out.print("\r" + bar.toString());
+        return new BufferedOutputStream(new FileOutputStream(file));
     }
 
     public static void main(String[] args) throws IOException, InterruptedException {
@@ -86,17 +194,38 @@ public class CommandLineDriver {
                 "Reads object ids on stdin and timestamp on stdin, prints access paths on stdout");
         parser.accepts("nodejs", "Model the module scope of nodejs");
         parser.accepts("site-stats", "Run the analysis that computes statistics for allocation sites");
+        parser.accepts("pipeline", "Decode the trace on a separate thread");
+        parser.accepts("compress-output", "With --staleness, gzip lastuse-trace, unreachable-trace and updiid-trace");
+        parser.accepts("array-heap", "With --ref, --staleness or --access-paths, keep the heap graph in primitive arrays instead of a JGraphT graph");
         OptionSpec<String> traceOpt = parser.accepts("trace", "Trace file to analyze").withRequiredArg()
                 .describedAs("trace file").ofType(String.class);
         OptionSpec<String> dirOpt = parser.accepts("directory", "Directory containing the instrumented source code")
                 .withRequiredArg().describedAs("directory").ofType(String.class);
+        OptionSpec<Long> checkpointOpt = parser.accepts("checkpoint", "With --ref, --context, --staleness or --access-paths, save the analysis state to <directory>/checkpoint periodically")
+                .withRequiredArg().describedAs("timestamps between checkpoints").ofType(Long.class);
+        parser.accepts("resume", "Continue the analysis from <directory>/checkpoint");
+        OptionSpec<Integer> metricsOpt = parser.accepts("metrics", "Count events per type, publish the counts over JMX and write them to <directory>/metrics.json; with an argument n, also time one in n callbacks of each type")
+                .withOptionalArg().describedAs("power of two").ofType(Integer.class).defaultsTo(0);
+        parser.accepts("trial-deletion", "With --ref, --staleness or --access-paths, find garbage cycles by trial deletion from the queued nodes instead of marking from the live contexts");
+        OptionSpec<Long> concurrentMarkOpt = parser.accepts("concurrent-mark", "With --ref, --staleness or --access-paths, mark from the live contexts on a separate thread, finishing each cycle queue flush the given number of timestamps after it starts.  Only 0 is accepted, as later finishes may report different unreachable objects")
+                .withOptionalArg().describedAs("timestamps").ofType(Long.class).defaultsTo(0L);
+        OptionSpec<Integer> parallelMarkOpt = parser.accepts("parallel-mark", "With --ref, --staleness or --access-paths, mark from the live contexts on this many threads in cycle queue flushes.  With one processor this only adds overhead")
+                .withOptionalArg().describedAs("threads").ofType(Integer.class).defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSpec<Integer> adaptiveOpt = parser.accepts("adaptive-cycle-queue", "With --ref, --staleness or --access-paths, raise or cut the cycle queue limit after each flush, depending on how much of the queue it collected, within the given bounds")
+                .withOptionalArg().describedAs("min,max").ofType(Integer.class).withValuesSeparatedBy(',').defaultsTo(1000, 1000000);
+        OptionSpec<String> offHeapOpt = parser.accepts("off-heap", "With --ref, --staleness or --access-paths, keep the heap graph outside the Java heap, in direct buffers, or in files mapped from the given directory")
+                .withOptionalArg().describedAs("directory").ofType(String.class);
+        OptionSpec<Integer> indexOpt = parser.accepts("index", "While analyzing, write a seek index for the trace to <trace>.idx")
+                .withOptionalArg().describedAs("timestamps between checkpoints").ofType(Integer.class)
+                .defaultsTo(TraceIndex.DEFAULT_INTERVAL);
         final OptionSet options = parser.parse(args);
-        InputStream traceStream;
+        InputStream traceStream = null;
+        File traceFile = null;
         File dir = null;
         if (options.has(traceOpt)) {
-            String file = options.valueOf(traceOpt);
-            traceStream = new BufferedInputStream(new FileInputStream(file));
-            dir = new File(file).getParentFile();
+            // trace files are memory-mapped; see runner()
+            traceFile = new File(options.valueOf(traceOpt));
+            dir = traceFile.getParentFile();
         } else {
             traceStream = System.in;
             if (options.has(dirOpt))
@@ -107,47 +236,124 @@ public class CommandLineDriver {
             }
 
         }
-
-        ProgressMonitor prog = new ProgressMonitor() {
-            int total;
-
-            @Override
-            public void start(int total) {
-                this.total = total;
+        int indexInterval = 0;
+        if (options.has(indexOpt)) {
+            if (traceFile == null) {
+                System.out.println("--index requires a trace file (with --trace)");
+                System.exit(1);
+            }
+            indexInterval = options.valueOf(indexOpt);
+        }
+        if (options.has(offHeapOpt) && options.has("array-heap")) {
+            System.out.println("--off-heap and --array-heap are mutually exclusive");
+            System.exit(1);
+        }
+        boolean pipelined = options.has("pipeline");
+        boolean resume = options.has("resume");
+        if (options.has(checkpointOpt) || resume) {
+            if (!(options.has("ref") || options.has("context") || options.has("staleness") || options.has("access-paths"))) {
+                System.out.println("--checkpoint and --resume require --ref, --context, --staleness or --access-paths");
+                System.exit(1);
+            }
+            if (pipelined || indexInterval > 0 || options.has("compress-output")) {
+                System.out.println("--checkpoint and --resume cannot be combined with --pipeline, --index or --compress-output");
+                System.exit(1);
+            }
+            checkpointFile = new File(dir, "checkpoint");
+            if (options.has(checkpointOpt)) {
+                checkpointTicks = options.valueOf(checkpointOpt);
             }
+        }
+        if (options.has(metricsOpt)) {
+            metrics = new TraceMetrics(options.valueOf(metricsOpt));
+            metrics.setReportFile(new File(dir, "metrics.json"));
+            try {
+                metrics.registerMBean();
+            } catch (JMException e) {
+                System.err.println("could not register " + TraceMetrics.OBJECT_NAME + ": " + e);
+            }
+        }
+        TraceAnalysisRunner traceRunner = null;
 
-            @Override
-            public void tick(int progress) {
-                if (!options.has("no-progress"))
-                    printProgBar(total, progress);
+        // the heap graph shared by the analyses that use one; a resumed
+        // analysis has its own
+        ReferenceCountedHeapGraph heap;
+        if (options.has(offHeapOpt)) {
+            heap = new BufferHeap(options.hasArgument(offHeapOpt) ? new File(options.valueOf(offHeapOpt)) : null);
+        } else if (options.has("array-heap")) {
+            heap = new ArrayHeap();
+        } else {
+            heap = new JGraphHeap();
+        }
+        boolean usesHeap = !resume && (options.has("ref") || options.has("staleness") || options.has("access-paths"));
+        ProgressMonitor prog = null;
+        if (!options.has("no-progress")) {
+            prog = new ProgressBar(usesHeap ? heap : null);
+        }
+        if (metrics != null && usesHeap) {
+            metrics.addSection("cycleQueueFlushes", heap.getFlushStats());
+            try {
+                heap.getFlushStats().registerMBean();
+            } catch (JMException e) {
+                System.err.println("could not register " + FlushStats.OBJECT_NAME + ": " + e);
             }
-        };
+        }
         MemoryAnalysisOptions refOptions = new MemoryAnalysisOptions();
         if (options.has("nodejs")) {
             refOptions.setModuleScope();
         }
+        if (options.has("trial-deletion")) {
+            refOptions.setCycleCollector(CycleCollector.TRIAL_DELETION);
+        }
+        if (options.has(concurrentMarkOpt)) {
+            if (options.valueOf(concurrentMarkOpt) != 0) {
+                System.out.println("--concurrent-mark only accepts 0 timestamps");
+                System.exit(1);
+            }
+            refOptions.setConcurrentMarkLag(options.valueOf(concurrentMarkOpt));
+        }
+        if (options.has(adaptiveOpt)) {
+            List<Integer> bounds = options.valuesOf(adaptiveOpt);
+            if (bounds.size() != 2) {
+                System.out.println("--adaptive-cycle-queue takes two bounds, min,max");
+                System.exit(1);
+            }
+            refOptions.setCycleQueueLimitBounds(bounds.get(0), bounds.get(1));
+        }
+        if (options.has(parallelMarkOpt)) {
+            refOptions.setMarkThreads(options.valueOf(parallelMarkOpt));
+        }
         if (options.has("ref")) {
-            ReferenceCounter<Void> f = new ReferenceCounter<Void>(new JGraphHeap(), null, refOptions);
-            new TraceAnalysisRunner(traceStream, prog, dir).runAnalysis(new ContextProvider<Void>(f, refOptions));
+            ReferenceCounter<Void> f = new ReferenceCounter<Void>(heap, null, refOptions);
+            traceRunner = configure(runner(traceFile, traceStream, prog, dir), indexInterval, pipelined);
+            run(traceRunner, new ContextProvider<Void>(f, refOptions), resume);
             // System.out.println(res);
         } else if (options.has("context")) {
-            new TraceAnalysisRunner(traceStream, prog, dir).runAnalysis(new ContextProvider<Void>(null, refOptions));
+            traceRunner = configure(runner(traceFile, traceStream, prog, dir), indexInterval, pipelined);
+            run(traceRunner, new ContextProvider<Void>(null, refOptions), resume);
         } else if (options.has("staleness")) {
             OutputStream out = null, lastUseOut = null, unreachOut = null, iidOut = null;
             try {
-                out = new BufferedOutputStream(new FileOutputStream(new File(
-                        dir, "staleness-trace")));
-                lastUseOut = new BufferedOutputStream(new FileOutputStream(
-                        new File(dir, "lastuse-trace")));
-                unreachOut = new BufferedOutputStream(new FileOutputStream(
-                        new File(dir, "unreachable-trace")));
-                iidOut = new BufferedOutputStream(new FileOutputStream(
-                        new File(dir, "updiid-trace")));
-                ReferenceCounter<Void> f = new ReferenceCounter<Void>(
-                        new JGraphHeap(), new StreamingStalenessAnalysis(out,
-                                lastUseOut, unreachOut, iidOut), refOptions);
-                new TraceAnalysisRunner(traceStream, prog, dir)
-                        .runAnalysis(new ContextProvider<Void>(f, refOptions));
+                traceRunner = configure(runner(traceFile, traceStream, prog, dir), indexInterval, pipelined);
+                if (resume) {
+                    // the output files are reopened from the checkpoint
+                    traceRunner.resume(checkpointFile);
+                } else {
+                    out = output(new File(dir, "staleness-trace"));
+                    lastUseOut = output(new File(dir, "lastuse-trace"));
+                    unreachOut = output(new File(dir, "unreachable-trace"));
+                    iidOut = output(new File(dir, "updiid-trace"));
+                    if (options.has("compress-output")) {
+                        // read back transparently by EnhancedTraceAnalysisRunner
+                        lastUseOut = TraceInput.compressing(lastUseOut);
+                        unreachOut = TraceInput.compressing(unreachOut);
+                        iidOut = TraceInput.compressing(iidOut);
+                    }
+                    ReferenceCounter<Void> f = new ReferenceCounter<Void>(
+                            heap, new StreamingStalenessAnalysis(out,
+                                    lastUseOut, unreachOut, iidOut), refOptions);
+                    traceRunner.runAnalysis(new ContextProvider<Void>(f, refOptions));
+                }
             } finally {
                 if (out != null) out.close();
                 if (lastUseOut != null) lastUseOut.close();
@@ -162,7 +368,11 @@ public class CommandLineDriver {
                 unreachIn = new BufferedInputStream(new FileInputStream(new File(dir, "unreachable-trace")));
                 iidIn = new BufferedInputStream(new FileInputStream(new File(dir, "updiid-trace")));
                 AllocationSiteStats allocStats = new AllocationSiteStats();
-                Map<String, AllocSiteResult> results = new EnhancedTraceAnalysisRunner(traceStream, lastUseIn, unreachIn, iidIn, prog, dir).runAnalysis(allocStats);
+                EnhancedTraceAnalysisRunner enhanced = configure(traceFile != null
+                        ? new EnhancedTraceAnalysisRunner(traceFile, lastUseIn, unreachIn, iidIn, prog, dir)
+                        : new EnhancedTraceAnalysisRunner(traceStream, lastUseIn, unreachIn, iidIn, prog, dir), indexInterval, pipelined);
+                traceRunner = enhanced;
+                Map<String, AllocSiteResult> results = enhanced.runAnalysis(allocStats);
                 memJSOut = new PrintWriter(new File(dir, "siteStats.json"));
                 Gson gson = new Gson();
                 String json = gson.toJson(results);
@@ -174,7 +384,8 @@ public class CommandLineDriver {
                 if (memJSOut != null) memJSOut.close();
             }
         } else if (options.has("pretty-print")) {
-            new TraceAnalysisRunner(traceStream, prog, dir).runAnalysis(new TracePrettyPrinter());
+            traceRunner = configure(runner(traceFile, traceStream, prog, dir), indexInterval, pipelined);
+            traceRunner.runAnalysis(new TracePrettyPrinter());
         } else if (options.has("access-paths")) {
             BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
             final Map<Integer, Integer> watchList = HashMapFactory.make();
@@ -187,9 +398,13 @@ public class CommandLineDriver {
                 watchList.put(objectId, printAtTime);
             }
             refOptions.setAccessPathObjects(watchList);
-            ReferenceCounter<Void> f = new ReferenceCounter<Void>(new JGraphHeap(),
+            ReferenceCounter<Void> f = new ReferenceCounter<Void>(heap,
                     new DummyUnreachabilityAnalysis<Void>(), refOptions);
-            new TraceAnalysisRunner(traceStream, prog, dir).runAnalysis(new ContextProvider<Void>(f, refOptions));
+            traceRunner = configure(runner(traceFile, traceStream, prog, dir), indexInterval, pipelined);
+            run(traceRunner, new ContextProvider<Void>(f, refOptions), resume);
+        }
+        if (traceRunner != null && traceRunner.getIndex() != null) {
+            traceRunner.getIndex().write(TraceIndex.sidecarFile(traceFile));
         }
     }
 }
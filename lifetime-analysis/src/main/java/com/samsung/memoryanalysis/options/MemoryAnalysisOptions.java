@@ -15,12 +15,17 @@
  */
 package com.samsung.memoryanalysis.options;
 
+import java.io.Serializable;
 import java.util.Map;
 
+import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph.CycleCollector;
+
 /**
  * Created by s.jensen on 6/17/14.
  */
-public class MemoryAnalysisOptions {
+public class MemoryAnalysisOptions implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private boolean moduleScope = false;
 
@@ -48,6 +53,94 @@ public class MemoryAnalysisOptions {
 
     private int cycleQueueLimit = -1;
 
+    private int minCycleQueueLimit = -1;
+
+    private int maxCycleQueueLimit = -1;
+
+    /**
+     * adapt the cycle queue limit to what flushes collect, between min and
+     * max
+     */
+    public void setCycleQueueLimitBounds(int min, int max) {
+        this.minCycleQueueLimit = min;
+        this.maxCycleQueueLimit = max;
+    }
+
+    /**
+     * @return the lower bound of an adaptive cycle queue limit, or -1 for a
+     * fixed limit
+     */
+    public int getMinCycleQueueLimit() {
+        return minCycleQueueLimit;
+    }
+
+    /**
+     * @return the upper bound of an adaptive cycle queue limit, or -1 for a
+     * fixed limit
+     */
+    public int getMaxCycleQueueLimit() {
+        return maxCycleQueueLimit;
+    }
+
+    private CycleCollector cycleCollector = CycleCollector.MARK_FROM_ROOTS;
+
+    public CycleCollector getCycleCollector() {
+        return cycleCollector;
+    }
+
+    public void setCycleCollector(CycleCollector cycleCollector) {
+        this.cycleCollector = cycleCollector;
+    }
+
+    private long concurrentMarkLag = -1;
+
+    /**
+     * ticks a cycle queue flush may mark in the background before it must
+     * finish, or -1 to mark on the analysis thread
+     */
+    public long getConcurrentMarkLag() {
+        return concurrentMarkLag;
+    }
+
+    /**
+     * only 0 and -1 are accepted: a flush finished later than it started
+     * may report different unreachable objects than marking on the
+     * analysis thread
+     */
+    public void setConcurrentMarkLag(long concurrentMarkLag) {
+        if (concurrentMarkLag < -1 || concurrentMarkLag > 0)
+            throw new IllegalArgumentException("concurrent mark lag must be 0 or -1, not " + concurrentMarkLag);
+        this.concurrentMarkLag = concurrentMarkLag;
+    }
+
+    private int markThreads = 1;
+
+    /**
+     * threads that mark from the live contexts in a cycle queue flush
+     */
+    public int getMarkThreads() {
+        return markThreads;
+    }
+
+    public void setMarkThreads(int markThreads) {
+        this.markThreads = markThreads;
+    }
+
+    private boolean rcVerbose = System.getProperty("rcverbose", "").equals("yes");
+
+    /**
+     * print the allocation site, time and location of each object found
+     * unreachable when the reference counter ends; by default, when the
+     * rcverbose system property is yes
+     */
+    public boolean isRCVerbose() {
+        return rcVerbose;
+    }
+
+    public void setRCVerbose(boolean rcVerbose) {
+        this.rcVerbose = rcVerbose;
+    }
+
     public void setAccessPathObjects(Map<Integer, Integer> accessPathObjects) {
         this.accessPathObjects = accessPathObjects;
     }
@@ -15,6 +15,7 @@
  */
 package com.samsung.memoryanalysis.referencecounter;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -24,11 +25,15 @@ import com.ibm.wala.util.collections.HashMapFactory;
 /**
  * Created by s.jensen on 7/25/14.
  */
-public class AccessPath {
+public class AccessPath implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     public static final AccessPath NO_PATH = new AccessPath();
 
 
-    public static class AccessPathElement {
+    public static class AccessPathElement implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         public final String node;
         public final String prop;
 
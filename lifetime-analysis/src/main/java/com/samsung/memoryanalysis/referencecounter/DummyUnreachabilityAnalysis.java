@@ -15,6 +15,7 @@
  */
 package com.samsung.memoryanalysis.referencecounter;
 
+import java.io.Serializable;
 import java.util.Set;
 
 import com.samsung.memoryanalysis.context.Context;
@@ -25,7 +26,9 @@ import com.samsung.memoryanalysis.traceparser.Timer;
 /**
  * Created by s.jensen on 6/23/14.
  */
-public class DummyUnreachabilityAnalysis<T> implements UnreachabilityAwareAnalysis<T> {
+public class DummyUnreachabilityAnalysis<T> implements UnreachabilityAwareAnalysis<T>, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
 	@Override
 	public void init(Timer t, SourceMap iidMap) {
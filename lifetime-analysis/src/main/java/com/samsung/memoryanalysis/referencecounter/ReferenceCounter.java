@@ -17,6 +17,8 @@ package com.samsung.memoryanalysis.referencecounter;
 
 import static com.samsung.memoryanalysis.util.Util.makeRelative;
 
+import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
@@ -41,6 +43,7 @@ import com.samsung.memoryanalysis.referencecounter.heap.ContextOrObjectId;
 import com.samsung.memoryanalysis.referencecounter.heap.HeapEdge;
 import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph;
 import com.samsung.memoryanalysis.referencecounter.heap.Unreachability;
+import com.samsung.memoryanalysis.traceparser.FreeVariables;
 import com.samsung.memoryanalysis.traceparser.SourceMap;
 import com.samsung.memoryanalysis.traceparser.SourceLocation;
 import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
@@ -50,7 +53,9 @@ import com.samsung.memoryanalysis.traceparser.Timer;
  *
  * Created by s.jensen on 6/10/14.
  */
-public class ReferenceCounter<T> implements ContextAwareAnalysis<T> {
+public class ReferenceCounter<T> implements ContextAwareAnalysis<T>, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private final ReferenceCountedHeapGraph graph;
     private final MemoryAnalysisOptions options;
@@ -68,6 +73,18 @@ public class ReferenceCounter<T> implements ContextAwareAnalysis<T> {
 
     private final UnreachabilityAwareAnalysis<T> client;
     private final Set<Integer> domNodes = HashSetFactory.make();
+
+    /**
+     * functions, by entry IID, seen to create closures or that use eval; their
+     * contexts go straight into the graph rather than starting as frames (see
+     * {@link ReferenceCountedHeapGraph#newFrame(Context, int)})
+     */
+    private final Set<SourceLocId> capturingFunctions = HashSetFactory.make();
+
+    /**
+     * entry IIDs of the functions on the call stack
+     */
+    private final Deque<SourceLocId> enterSites = new ArrayDeque<SourceLocId>();
     private ContextListener contextInfo;
     public Map<Integer, Set<AccessPath>> accessPaths = HashMapFactory.make();
 
@@ -76,26 +93,40 @@ public class ReferenceCounter<T> implements ContextAwareAnalysis<T> {
         this.graph = e;
         this.options = o;
         this.client = client != null ? client : new DummyUnreachabilityAnalysis<T>();
-        e.setUnreachableCallback(new VoidFunction<Unreachability>() {
-
-            @Override
-            public void apply(Unreachability f) {
-                if (ignoredObjects.contains(f.objId))
-                    return;
-                ReferenceCounter.this.client.unreachableObject(f.slId, f.objId, f.time, graph.getOutDegree(f.objId));
-                if (isRCVerbose()) {
-                    SourceLocation allocSourceLoc = allocationSites.get(f.objId);
-                    assert allocSourceLoc != null : "no allocation site map entry for " + f.objId;
-                    endOutput.put(f.objId, String.format("Id: %-5d Alloc: %-40s Time: %-10d Loc: %s", f.objId, makeRelative(allocSourceLoc), f.time,
-                            makeRelative(iidMap.get(f.slId))));
-                }
-
-            }
-        });
+        e.setUnreachableCallback(new UnreachableCallback());
         int cycleQueueLimit = o.getCycleQueuelimit();
         if (cycleQueueLimit != -1) {
             e.setCycleQueueLimit(cycleQueueLimit);
         }
+        if (o.getMaxCycleQueueLimit() != -1) {
+            e.setCycleQueueLimitBounds(o.getMinCycleQueueLimit(), o.getMaxCycleQueueLimit());
+        }
+        e.setCycleCollector(o.getCycleCollector());
+        e.setConcurrentMarkLag(o.getConcurrentMarkLag());
+        e.setMarkThreads(o.getMarkThreads());
+    }
+
+    /**
+     * a named class, so that it is serialized with checkpoints
+     */
+    private class UnreachableCallback implements VoidFunction<Unreachability>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void apply(Unreachability f) {
+            contextInfo.functionUnreachable(f.objId);
+            if (ignoredObjects.contains(f.objId))
+                return;
+            client.unreachableObject(f.slId, f.objId, f.time, graph.getOutDegree(f.objId));
+            if (isRCVerbose()) {
+                SourceLocation allocSourceLoc = allocationSites.get(f.objId);
+                assert allocSourceLoc != null : "no allocation site map entry for " + f.objId;
+                endOutput.put(f.objId, String.format("Id: %-5d Alloc: %-40s Time: %-10d Loc: %s", f.objId, makeRelative(allocSourceLoc), f.time,
+                        makeRelative(iidMap.get(f.slId))));
+            }
+
+        }
     }
 
     public ReferenceCounter(ReferenceCountedHeapGraph e, UnreachabilityAwareAnalysis<T> client) {
@@ -116,19 +147,30 @@ public class ReferenceCounter<T> implements ContextAwareAnalysis<T> {
             for (Map.Entry<Integer,Integer> e : map.entrySet()) {
                 final Integer objectId = e.getKey();
                 Integer printAtTime = e.getValue();
-                timer.registerAlarm(printAtTime, new VoidFunction<Long>() {
-                    @Override
-                    public void apply(Long v) {
-                        computeAccessPath(objectId);
-
-                    }
-                });
+                timer.registerAlarm(printAtTime, new AccessPathAlarm(objectId));
             }
         }
     }
 
+    private class AccessPathAlarm implements VoidFunction<Long>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int objectId;
+
+        AccessPathAlarm(int objectId) {
+            this.objectId = objectId;
+        }
+
+        @Override
+        public void apply(Long v) {
+            computeAccessPath(objectId);
+        }
+    }
+
     private void computeAccessPath(int objectId) {
-        Set<AccessPath> p = new AccessPathComputer(ContextOrObjectId.make(objectId)).run();
+        graph.materializeFrames(returnValues);
+        Set<AccessPath> p = new AccessPathComputer(graph.nodeFor(objectId)).run();
         accessPaths.put(objectId,p);
     }
 
@@ -214,8 +256,13 @@ public class ReferenceCounter<T> implements ContextAwareAnalysis<T> {
                           final Set<String> namesReferencedByClosures, final Context context) {
         graph.newObject(objectId);
         graph.newObject(prototypeId);
-        if (!context.isGlobal())
+        if (namesReferencedByClosures == FreeVariables.ANY)
+            capturingFunctions.add(functionEnterIID);
+        if (!context.isGlobal()) {
+            if (graph.isFrame(context))
+                capturingFunctions.add(enterSites.peek());
             graph.addClosureReference(objectId, context);
+        }
         graph.addObjectReference(objectId, "prototype", prototypeId, slId);
         saveAllocationSite(objectId, slId);
         saveAllocationSite(prototypeId, slId);
@@ -256,7 +303,11 @@ public class ReferenceCounter<T> implements ContextAwareAnalysis<T> {
 
     @Override
     public void functionEnter(final SourceLocId slId, final int funId, SourceLocId callSiteIID, final Context newContext) {
-        graph.newContext(newContext, funId);
+        if (capturingFunctions.contains(slId))
+            graph.newContext(newContext, funId);
+        else
+            graph.newFrame(newContext, funId);
+        enterSites.push(slId);
         client.functionEnter(slId, funId, callSiteIID, newContext, timer.currentTime());
     }
 
@@ -265,6 +316,7 @@ public class ReferenceCounter<T> implements ContextAwareAnalysis<T> {
         graph.contextSealed(calleeContext, unReferenced, slId);
         graph.flush(slId, returnValues, contextInfo.getLiveContexts());
         graph.functionExit(returnValues);
+        enterSites.pop();
         client.functionExit(slId, calleeContext, unReferenced, timer.currentTime());
     }
 
@@ -332,7 +384,7 @@ public class ReferenceCounter<T> implements ContextAwareAnalysis<T> {
     }
 
     private boolean isRCVerbose() {
-        return System.getProperty("rcverbose", "").equals("yes");
+        return options.isRCVerbose();
     }
 
 
@@ -361,19 +413,30 @@ public class ReferenceCounter<T> implements ContextAwareAnalysis<T> {
     }
 
 	@Override
-	public void addToChildSet(SourceLocId slId, ContextOrObjectId parentNode,
-			String name, ContextOrObjectId childNode) {
+	public void addToChildSet(SourceLocId slId, int parentId,
+			String name, int childId) {
+		ContextOrObjectId parentNode = childSetParent(parentId);
+		ContextOrObjectId childNode = graph.nodeFor(childId);
 		graph.addToChildSet(parentNode, name, childNode);
 		client.addToChildSet(slId, parentNode.getId(), name, childNode.getId());
 	}
 
 	@Override
-	public void removeFromChildSet(SourceLocId slId, ContextOrObjectId parentNode,
-			String name, ContextOrObjectId childNode) {
+	public void removeFromChildSet(SourceLocId slId, int parentId,
+			String name, int childId) {
+		ContextOrObjectId parentNode = childSetParent(parentId);
+		ContextOrObjectId childNode = graph.nodeFor(childId);
 		graph.removeFromChildSet(parentNode, name, childNode, slId);
 		client.removeFromChildSet(slId, parentNode.getId(), name, childNode.getId());
 	}
 
+	/**
+	 * the global object's child sets hang off the global context
+	 */
+	private ContextOrObjectId childSetParent(int parentId) {
+		return parentId == ContextProvider.GLOBAL_OBJECT_ID ? graph.nodeFor(contextInfo.getGlobal()) : graph.nodeFor(parentId);
+	}
+
 	@Override
 	public void domRoot(int nodeId) {
 		client.domRoot(nodeId);
@@ -0,0 +1,703 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.ibm.wala.util.collections.HashSetFactory;
+import com.ibm.wala.util.functions.VoidFunction;
+
+/**
+ * Heap representation backed by primitive arrays.  Nodes live in dense
+ * int-indexed slots with an explicit reference count, and edges live in a
+ * pooled table indexed by an open-addressing hash on (source slot, name id),
+ * or (source slot, name id, target slot) for multi-edges.  Outgoing and
+ * incoming edges of a node are kept in insertion order, and listed named
+ * edges first, so that traversals (and thus unreachability callbacks)
+ * happen in the same order as with {@link JGraphHeap}.
+ */
+public class ArrayHeap extends ReferenceCountedHeapGraph {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int NONE = -1;
+
+    /**
+     * set in the name id of multi-edges, so they never collide with field edges
+     */
+    private static final int MULTI = 0x80000000;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /*
+     * nodes, indexed by slot; free slots have a null node
+     */
+    private ContextOrObjectId[] nodes = new ContextOrObjectId[INITIAL_CAPACITY];
+    private int[] refCount = new int[INITIAL_CAPACITY];
+    private int[] outDegree = new int[INITIAL_CAPACITY];
+    private int[] firstOut = new int[INITIAL_CAPACITY];
+    private int[] lastOut = new int[INITIAL_CAPACITY];
+    private int[] firstIn = new int[INITIAL_CAPACITY];
+    private int[] lastIn = new int[INITIAL_CAPACITY];
+    private int[] freeSlots = new int[16];
+    private int freeSlotCount = 0;
+    private int slotLimit = 0;
+    private int nodeCount = 0;
+
+    /**
+     * node to slot, hashed by node hash code
+     */
+    private int[] slotTable = newTable(2 * INITIAL_CAPACITY);
+
+    /*
+     * names, indexed by name id.  names are canonical, so they are compared
+     * by identity
+     */
+    private String[] names = new String[INITIAL_CAPACITY];
+    private int nameCount = 0;
+    private int[] nameTable = newTable(2 * INITIAL_CAPACITY);
+
+    /*
+     * edges, indexed by edge id.  the out and in lists are doubly linked
+     * through these arrays, and free edges are chained through nextOut
+     */
+    private int[] edgeFrom = new int[INITIAL_CAPACITY];
+    private int[] edgeTo = new int[INITIAL_CAPACITY];
+    private int[] edgeName = new int[INITIAL_CAPACITY];
+    private int[] nextOut = new int[INITIAL_CAPACITY];
+    private int[] prevOut = new int[INITIAL_CAPACITY];
+    private int[] nextIn = new int[INITIAL_CAPACITY];
+    private int[] prevIn = new int[INITIAL_CAPACITY];
+    private int freeEdge = NONE;
+    private int edgeLimit = 0;
+    private int edgeCount = 0;
+    private int[] edgeTable = newTable(2 * INITIAL_CAPACITY);
+
+    /*
+     * the field last probed, so that reading a field and then overwriting it
+     * takes one probe: its node and name, their packed (slot, name id) key,
+     * and its edge, or NONE.  link, unlink and removeNode keep it current
+     */
+    private transient ContextOrObjectId probedNode;
+    private transient String probedName;
+    private transient long probedField;
+    private transient int probedEdge = NONE;
+
+    private static int[] newTable(int size) {
+        int[] table = new int[size];
+        Arrays.fill(table, NONE);
+        return table;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int nodeHash(ContextOrObjectId node) {
+        return mix(node.hashCode());
+    }
+
+    private static int nameHash(String name) {
+        return mix(name == null ? 0 : name.hashCode());
+    }
+
+    private static int edgeHash(int from, int name, int to) {
+        int h = from * 31 + name;
+        if ((name & MULTI) != 0)
+            h = h * 31 + to;
+        return mix(h);
+    }
+
+    private int hashOfEntry(int[] table, int v) {
+        return table == edgeTable ? edgeHash(edgeFrom[v], edgeName[v], edgeTo[v]) : nodeHash(nodes[v]);
+    }
+
+    /**
+     * removes the entry at index i of the slot or edge table, shifting back
+     * later entries of the same probe run
+     */
+    private void deleteEntry(int[] table, int i) {
+        int mask = table.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            int v = table[j];
+            if (v == NONE)
+                break;
+            int k = hashOfEntry(table, v) & mask;
+            if (i <= j ? (i < k && k <= j) : (i < k || k <= j))
+                continue;
+            table[i] = v;
+            i = j;
+        }
+        table[i] = NONE;
+    }
+
+    private void insertEntry(int[] table, int hash, int v) {
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while (table[i] != NONE)
+            i = (i + 1) & mask;
+        table[i] = v;
+    }
+
+    private int slotIndex(ContextOrObjectId node) {
+        int mask = slotTable.length - 1;
+        for (int i = nodeHash(node) & mask; ; i = (i + 1) & mask) {
+            int s = slotTable[i];
+            if (s == NONE || node.equals(nodes[s]))
+                return i;
+        }
+    }
+
+    private int slotOf(ContextOrObjectId node) {
+        return slotTable[slotIndex(node)];
+    }
+
+    @Override
+    protected int nodeIndex(ContextOrObjectId node) {
+        return slotOf(node);
+    }
+
+    @Override
+    protected int nodeIndexLimit() {
+        return slotLimit;
+    }
+
+    @Override
+    protected ContextOrObjectId nodeAtIndex(int index) {
+        return index < slotLimit ? nodes[index] : null;
+    }
+
+    private int vertex(ContextOrObjectId node) {
+        int s = slotOf(node);
+        if (s == NONE)
+            throw new IllegalArgumentException("no such vertex in graph: " + node);
+        return s;
+    }
+
+    /**
+     * @return id of name, or NONE if name is new and add is false
+     */
+    private int nameId(String name, boolean add) {
+        int mask = nameTable.length - 1;
+        int i = nameHash(name) & mask;
+        for (; nameTable[i] != NONE; i = (i + 1) & mask) {
+            if (names[nameTable[i]] == name)
+                return nameTable[i];
+        }
+        if (!add)
+            return NONE;
+        if (nameCount == names.length)
+            names = Arrays.copyOf(names, 2 * nameCount);
+        int id = nameCount++;
+        names[id] = name;
+        nameTable[i] = id;
+        if (2 * nameCount > nameTable.length) {
+            nameTable = newTable(2 * nameTable.length);
+            for (int n = 0; n < nameCount; n++)
+                insertEntry(nameTable, nameHash(names[n]), n);
+        }
+        return id;
+    }
+
+    private int findEdge(int from, int name, int to) {
+        int mask = edgeTable.length - 1;
+        for (int i = edgeHash(from, name, to) & mask; ; i = (i + 1) & mask) {
+            int e = edgeTable[i];
+            if (e == NONE)
+                return NONE;
+            if (edgeFrom[e] == from && edgeName[e] == name && ((name & MULTI) == 0 || edgeTo[e] == to))
+                return e;
+        }
+    }
+
+    /**
+     * @return id of edge, or NONE if it is not in the heap
+     */
+    private int findEdge(HeapEdge edge) {
+        int from = slotOf(edge.getFrom());
+        if (from == NONE)
+            return NONE;
+        int name = nameId(edge.getName(), false);
+        if (name == NONE)
+            return NONE;
+        if (edge instanceof NamedMultiEdge) {
+            int to = slotOf(((NamedMultiEdge) edge).getChild());
+            return to == NONE ? NONE : findEdge(from, name | MULTI, to);
+        }
+        return findEdge(from, name, NONE);
+    }
+
+    private static long fieldKey(int from, int name) {
+        return (long) from << 32 | name & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return the edge of the field, or NONE.  remembers the field if its
+     * node and name are in the heap
+     */
+    private int probe(ContextOrObjectId from, String name) {
+        if (from == probedNode && name == probedName)
+            return probedEdge;
+        int f = slotOf(from);
+        int n = f == NONE ? NONE : nameId(name, false);
+        if (n == NONE)
+            return NONE;
+        probedNode = from;
+        probedName = name;
+        probedField = fieldKey(f, n);
+        return probedEdge = findEdge(f, n, NONE);
+    }
+
+    @Override
+    protected ContextOrObjectId getField(ContextOrObjectId from, String name) {
+        int e = probe(from, name);
+        return e == NONE ? null : nodes[edgeTo[e]];
+    }
+
+    @Override
+    protected void setField(ContextOrObjectId from, String name, ContextOrObjectId to) {
+        int t = vertex(to);
+        if (probe(from, name) != NONE)
+            return;
+        if (from == probedNode && name == probedName)
+            link((int) (probedField >>> 32), (int) probedField, t);
+        else
+            link(vertex(from), nameId(name, true), t);
+    }
+
+    @Override
+    protected void removeField(ContextOrObjectId from, String name) {
+        int e = probe(from, name);
+        if (e != NONE)
+            unlink(e);
+    }
+
+    @Override
+    protected void forEachField(ContextOrObjectId from, VoidFunction<String> f) {
+        int s = slotOf(from);
+        if (s == NONE)
+            return;
+        for (int e = firstOut[s]; e != NONE; ) {
+            // read before f, which may free the edge
+            int next = nextOut[e];
+            if ((edgeName[e] & MULTI) == 0)
+                f.apply(names[edgeName[e]]);
+            e = next;
+        }
+    }
+
+    private HeapEdge toEdge(int e) {
+        int name = edgeName[e];
+        if ((name & MULTI) != 0)
+            return new NamedMultiEdge(nodes[edgeFrom[e]], names[name & ~MULTI], nodes[edgeTo[e]]);
+        return new NamedEdge(nodes[edgeFrom[e]], names[name]);
+    }
+
+    /**
+     * @return the count edges of the list starting at first, named edges
+     * first and then multi-edges, as JGraphHeap lists them
+     */
+    private List<HeapEdge> toEdges(int first, int[] next, int count) {
+        List<HeapEdge> result = new ArrayList<HeapEdge>(count);
+        for (int e = first; e != NONE; e = next[e]) {
+            if ((edgeName[e] & MULTI) == 0)
+                result.add(toEdge(e));
+        }
+        if (result.size() < count) {
+            for (int e = first; e != NONE; e = next[e]) {
+                if ((edgeName[e] & MULTI) != 0)
+                    result.add(toEdge(e));
+            }
+        }
+        return result;
+    }
+
+    private void ensureSlots(int size) {
+        if (size <= nodes.length)
+            return;
+        int n = Math.max(size, 2 * nodes.length);
+        nodes = Arrays.copyOf(nodes, n);
+        refCount = Arrays.copyOf(refCount, n);
+        outDegree = Arrays.copyOf(outDegree, n);
+        firstOut = Arrays.copyOf(firstOut, n);
+        lastOut = Arrays.copyOf(lastOut, n);
+        firstIn = Arrays.copyOf(firstIn, n);
+        lastIn = Arrays.copyOf(lastIn, n);
+    }
+
+    private void ensureEdges(int size) {
+        if (size <= edgeFrom.length)
+            return;
+        int n = Math.max(size, 2 * edgeFrom.length);
+        edgeFrom = Arrays.copyOf(edgeFrom, n);
+        edgeTo = Arrays.copyOf(edgeTo, n);
+        edgeName = Arrays.copyOf(edgeName, n);
+        nextOut = Arrays.copyOf(nextOut, n);
+        prevOut = Arrays.copyOf(prevOut, n);
+        nextIn = Arrays.copyOf(nextIn, n);
+        prevIn = Arrays.copyOf(prevIn, n);
+    }
+
+    private void rehashSlots(int size) {
+        slotTable = newTable(size);
+        for (int s = 0; s < slotLimit; s++) {
+            if (nodes[s] != null)
+                insertEntry(slotTable, nodeHash(nodes[s]), s);
+        }
+    }
+
+    private void link(int from, int name, int to) {
+        int e;
+        if (freeEdge != NONE) {
+            e = freeEdge;
+            freeEdge = nextOut[e];
+        } else {
+            ensureEdges(edgeLimit + 1);
+            e = edgeLimit++;
+        }
+        edgeFrom[e] = from;
+        edgeTo[e] = to;
+        edgeName[e] = name;
+        nextOut[e] = NONE;
+        prevOut[e] = lastOut[from];
+        if (lastOut[from] == NONE)
+            firstOut[from] = e;
+        else
+            nextOut[lastOut[from]] = e;
+        lastOut[from] = e;
+        nextIn[e] = NONE;
+        prevIn[e] = lastIn[to];
+        if (lastIn[to] == NONE)
+            firstIn[to] = e;
+        else
+            nextIn[lastIn[to]] = e;
+        lastIn[to] = e;
+        outDegree[from]++;
+        refCount[to]++;
+        edgeCount++;
+        if (probedNode != null && fieldKey(from, name) == probedField)
+            probedEdge = e;
+        if (2 * edgeCount > edgeTable.length) {
+            edgeTable = newTable(2 * edgeTable.length);
+            for (int f = 0; f < slotLimit; f++) {
+                if (nodes[f] == null)
+                    continue;
+                for (int o = firstOut[f]; o != NONE; o = nextOut[o])
+                    insertEntry(edgeTable, edgeHash(f, edgeName[o], edgeTo[o]), o);
+            }
+        } else {
+            insertEntry(edgeTable, edgeHash(from, name, to), e);
+        }
+    }
+
+    private void unlink(int e) {
+        int mask = edgeTable.length - 1;
+        int i = edgeHash(edgeFrom[e], edgeName[e], edgeTo[e]) & mask;
+        while (edgeTable[i] != e)
+            i = (i + 1) & mask;
+        deleteEntry(edgeTable, i);
+        int from = edgeFrom[e];
+        int to = edgeTo[e];
+        if (prevOut[e] == NONE)
+            firstOut[from] = nextOut[e];
+        else
+            nextOut[prevOut[e]] = nextOut[e];
+        if (nextOut[e] == NONE)
+            lastOut[from] = prevOut[e];
+        else
+            prevOut[nextOut[e]] = prevOut[e];
+        if (prevIn[e] == NONE)
+            firstIn[to] = nextIn[e];
+        else
+            nextIn[prevIn[e]] = nextIn[e];
+        if (nextIn[e] == NONE)
+            lastIn[to] = prevIn[e];
+        else
+            prevIn[nextIn[e]] = prevIn[e];
+        outDegree[from]--;
+        refCount[to]--;
+        edgeCount--;
+        if (e == probedEdge)
+            probedEdge = NONE;
+        nextOut[e] = freeEdge;
+        freeEdge = e;
+    }
+
+    @Override
+    public void newNode(ContextOrObjectId o) {
+        int i = slotIndex(o);
+        if (slotTable[i] != NONE)
+            return;
+        int s;
+        if (freeSlotCount > 0) {
+            s = freeSlots[--freeSlotCount];
+        } else {
+            ensureSlots(slotLimit + 1);
+            s = slotLimit++;
+        }
+        nodes[s] = o;
+        refCount[s] = 0;
+        outDegree[s] = 0;
+        firstOut[s] = lastOut[s] = NONE;
+        firstIn[s] = lastIn[s] = NONE;
+        slotTable[i] = s;
+        nodeCount++;
+        if (2 * nodeCount > slotTable.length)
+            rehashSlots(2 * slotTable.length);
+    }
+
+    @Override
+    protected void addEdge(NamedEdge edge, ContextOrObjectId to) {
+        int f = vertex(edge.getFrom());
+        int t = vertex(to);
+        int name = nameId(edge.getName(), true);
+        if (findEdge(f, name, t) == NONE)
+            link(f, name, t);
+    }
+
+    @Override
+    protected void addNamedMultiEdge(NamedMultiEdge edge) {
+        addChild(edge.getFrom(), edge.getName(), edge.getChild());
+    }
+
+    @Override
+    protected void addChild(ContextOrObjectId parent, String name, ContextOrObjectId child) {
+        int f = vertex(parent);
+        int t = vertex(child);
+        int n = nameId(name, true) | MULTI;
+        if (findEdge(f, n, t) == NONE)
+            link(f, n, t);
+    }
+
+    @Override
+    protected void removeChild(ContextOrObjectId parent, String name, ContextOrObjectId child) {
+        int f = slotOf(parent);
+        int t = slotOf(child);
+        int n = nameId(name, false);
+        if (f == NONE || t == NONE || n == NONE)
+            return;
+        int e = findEdge(f, n | MULTI, t);
+        if (e != NONE)
+            unlink(e);
+    }
+
+    @Override
+    protected void removeEdge(HeapEdge edge) {
+        int e = findEdge(edge);
+        if (e != NONE)
+            unlink(e);
+    }
+
+    @Override
+    protected void removeNode(ContextOrObjectId node) {
+        int i = slotIndex(node);
+        int s = slotTable[i];
+        if (s == NONE)
+            return;
+        while (firstOut[s] != NONE)
+            unlink(firstOut[s]);
+        while (firstIn[s] != NONE)
+            unlink(firstIn[s]);
+        deleteEntry(slotTable, i);
+        nodes[s] = null;
+        probedNode = null;
+        if (freeSlotCount == freeSlots.length)
+            freeSlots = Arrays.copyOf(freeSlots, 2 * freeSlotCount);
+        freeSlots[freeSlotCount++] = s;
+        nodeCount--;
+    }
+
+    private List<ContextOrObjectId> bfs(int start, boolean[] visited, List<ContextOrObjectId> result) {
+        int head = result.size();
+        visited[start] = true;
+        result.add(nodes[start]);
+        while (head < result.size()) {
+            int s = slotOf(result.get(head++));
+            for (int e = firstOut[s]; e != NONE; e = nextOut[e]) {
+                int t = edgeTo[e];
+                if (!visited[t]) {
+                    visited[t] = true;
+                    result.add(nodes[t]);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    protected Iterator<ContextOrObjectId> bfsIterator(ContextOrObjectId start) {
+        assert containsNode(start);
+        return bfs(slotOf(start), new boolean[slotLimit], new ArrayList<ContextOrObjectId>()).iterator();
+    }
+
+    @Override
+    protected Iterator<ContextOrObjectId> bfsIterator() {
+        boolean[] visited = new boolean[slotLimit];
+        List<ContextOrObjectId> result = new ArrayList<ContextOrObjectId>(nodeCount);
+        for (int s = 0; s < slotLimit; s++) {
+            if (nodes[s] != null && !visited[s])
+                bfs(s, visited, result);
+        }
+        return result.iterator();
+    }
+
+    @Override
+    protected int referenceCount(ContextOrObjectId node) {
+        int s = slotOf(node);
+        return s == NONE ? 0 : refCount[s];
+    }
+
+    @Override
+    public boolean containsNode(ContextOrObjectId v) {
+        return slotOf(v) != NONE;
+    }
+
+    @Override
+    public Set<HeapEdge> incoming(ContextOrObjectId c) {
+        int s = vertex(c);
+        return new EdgeSet(toEdges(firstIn[s], nextIn, refCount[s]));
+    }
+
+    /**
+     * writes the graph in DOT, one node per slot and one edge per field or
+     * child set member, labeled with its name.  child set members are dashed
+     */
+    @Override
+    public void toDot(Writer w) {
+        PrintWriter out = new PrintWriter(w);
+        out.println("digraph heap {");
+        for (int s = 0; s < slotLimit; s++) {
+            if (nodes[s] != null)
+                out.println("  n" + s + " [label=" + dotString(nodes[s].toString()) + "];");
+        }
+        for (int s = 0; s < slotLimit; s++) {
+            if (nodes[s] == null)
+                continue;
+            for (int e = firstOut[s]; e != NONE; e = nextOut[e]) {
+                int name = edgeName[e];
+                out.println("  n" + s + " -> n" + edgeTo[e] + " [label=" + dotString(names[name & ~MULTI])
+                        + ((name & MULTI) != 0 ? ", style=dashed" : "") + "];");
+            }
+        }
+        out.println("}");
+        out.flush();
+    }
+
+    /**
+     * a view of the nodes, in slot order
+     */
+    @Override
+    public Set<ContextOrObjectId> getAllNodes() {
+        return new AbstractSet<ContextOrObjectId>() {
+            @Override
+            public Iterator<ContextOrObjectId> iterator() {
+                return new Iterator<ContextOrObjectId>() {
+                    private int next = advance(0);
+
+                    private int advance(int s) {
+                        while (s < slotLimit && nodes[s] == null)
+                            s++;
+                        return s;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < slotLimit;
+                    }
+
+                    @Override
+                    public ContextOrObjectId next() {
+                        if (next >= slotLimit)
+                            throw new NoSuchElementException();
+                        ContextOrObjectId result = nodes[next];
+                        next = advance(next + 1);
+                        return result;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof ContextOrObjectId && containsNode((ContextOrObjectId) o);
+            }
+
+            @Override
+            public int size() {
+                return nodeCount;
+            }
+        };
+    }
+
+    @Override
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    protected int getOutDegree(ContextOrObjectId obj) {
+        int s = slotOf(obj);
+        return s == NONE ? 0 : outDegree[s];
+    }
+
+    @Override
+    public Set<HeapEdge> getOutEdges(ContextOrObjectId node) {
+        int s = slotOf(node);
+        if (s == NONE)
+            return Collections.emptySet();
+        return new EdgeSet(toEdges(firstOut[s], nextOut, outDegree[s]));
+    }
+
+    @Override
+    public Set<NamedEdge> getNamedOutEdges(ContextOrObjectId node) {
+        Set<NamedEdge> result = HashSetFactory.make();
+        int s = slotOf(node);
+        if (s == NONE)
+            return result;
+        for (int e = firstOut[s]; e != NONE; e = nextOut[e]) {
+            if ((edgeName[e] & MULTI) == 0)
+                result.add(new NamedEdge(nodes[s], names[edgeName[e]]));
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @param e
+     * @return target of edge, or null if no such edge in heap
+     */
+    @Override
+    public ContextOrObjectId getTarget(HeapEdge edge) {
+        int e = findEdge(edge);
+        return e == NONE ? null : nodes[edgeTo[e]];
+    }
+}
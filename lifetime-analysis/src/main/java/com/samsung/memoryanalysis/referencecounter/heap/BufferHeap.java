@@ -0,0 +1,788 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.ibm.wala.util.collections.HashMapFactory;
+import com.ibm.wala.util.collections.HashSetFactory;
+import com.ibm.wala.util.functions.VoidFunction;
+
+/**
+ * Heap representation whose node, edge and hash tables live outside the
+ * Java heap, in direct buffers or in buffers mapped from a temporary file.
+ * The layout follows {@link ArrayHeap}: fixed-size node and edge records
+ * with their own free lists, open-addressing tables from object id to node
+ * and from (source node, name id) to edge, and per-node edge lists in
+ * insertion order.  Only contexts and names are kept on the Java heap.
+ */
+public class BufferHeap extends ReferenceCountedHeapGraph {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int NONE = -1;
+
+    /**
+     * set in the name id of multi-edges, so they never collide with field edges
+     */
+    private static final int MULTI = 0x80000000;
+
+    private static final int INITIAL_TABLE_SIZE = 1 << 12;
+
+    /*
+     * node record layout.  Free records are chained through FIRST_OUT
+     */
+    private static final int NODE_SIZE = 8;
+    private static final int KEY = 0;
+    private static final int KIND = 1;
+    private static final int REF_COUNT = 2;
+    private static final int OUT_DEGREE = 3;
+    private static final int FIRST_OUT = 4;
+    private static final int LAST_OUT = 5;
+    private static final int FIRST_IN = 6;
+    private static final int LAST_IN = 7;
+
+    private static final int FREE = 0;
+    private static final int OBJECT = 1;
+    private static final int CONTEXT = 2;
+
+    /*
+     * edge record layout.  Free records are chained through NEXT_OUT
+     */
+    private static final int EDGE_SIZE = 8;
+    private static final int FROM = 0;
+    private static final int TO = 1;
+    private static final int NAME = 2;
+    private static final int NEXT_OUT = 3;
+    private static final int PREV_OUT = 4;
+    private static final int NEXT_IN = 5;
+    private static final int PREV_IN = 6;
+
+    /**
+     * directory for the files backing mapped tables, or null for direct buffers
+     */
+    private final File dir;
+
+    /*
+     * the off-heap tables, saved by writeObject.  Hash table entries are
+     * node or edge index + 1, so that 0 is empty
+     */
+    private transient IntPages nodeRecords;
+    private transient IntPages objectTable;
+    private transient IntPages edgeRecords;
+    private transient IntPages edgeTable;
+
+    private int nodeLimit = 0;
+    private int freeNode = NONE;
+    private int nodeCount = 0;
+    private int objectCount = 0;
+    private int objectTableSize = INITIAL_TABLE_SIZE;
+
+    private int edgeLimit = 0;
+    private int freeEdge = NONE;
+    private int edgeCount = 0;
+    private int edgeTableSize = INITIAL_TABLE_SIZE;
+
+    private final Map<ContextOrObjectId, Integer> contextSlots = HashMapFactory.make();
+    private final Map<Integer, ContextOrObjectId> contextNodes = HashMapFactory.make();
+
+    /*
+     * names are canonical, so they are compared by identity
+     */
+    private final Map<String, Integer> nameIds = new IdentityHashMap<String, Integer>();
+    private final List<String> names = new ArrayList<String>();
+
+    /*
+     * the field last probed, so that reading a field and then overwriting it
+     * takes one probe: its node and name, their packed (slot, name id) key,
+     * and its edge, or NONE.  link, unlink and removeNode keep it current
+     */
+    private transient ContextOrObjectId probedNode;
+    private transient String probedName;
+    private transient long probedField;
+    private transient int probedEdge = NONE;
+
+    /**
+     * keep the tables in direct buffers
+     */
+    public BufferHeap() {
+        this(null);
+    }
+
+    /**
+     * @param dir directory for the files backing memory-mapped tables, or null
+     * to use direct buffers
+     */
+    public BufferHeap(File dir) {
+        this.dir = dir;
+        allocateTables();
+    }
+
+    private void allocateTables() {
+        nodeRecords = new IntPages(dir, nodeLimit * NODE_SIZE);
+        objectTable = new IntPages(dir, objectTableSize);
+        edgeRecords = new IntPages(dir, edgeLimit * EDGE_SIZE);
+        edgeTable = new IntPages(dir, edgeTableSize);
+    }
+
+    /**
+     * @return bytes allocated for the tables outside the Java heap
+     */
+    public long offHeapBytes() {
+        return nodeRecords.bytes() + objectTable.bytes() + edgeRecords.bytes() + edgeTable.bytes();
+    }
+
+    private int node(int s, int field) {
+        return nodeRecords.get(s * NODE_SIZE + field);
+    }
+
+    private void setNode(int s, int field, int v) {
+        nodeRecords.put(s * NODE_SIZE + field, v);
+    }
+
+    private int edge(int e, int field) {
+        return edgeRecords.get(e * EDGE_SIZE + field);
+    }
+
+    private void setEdge(int e, int field, int v) {
+        edgeRecords.put(e * EDGE_SIZE + field, v);
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int edgeHash(int from, int name, int to) {
+        int h = from * 31 + name;
+        if ((name & MULTI) != 0)
+            h = h * 31 + to;
+        return mix(h);
+    }
+
+    private int edgeHash(int e) {
+        return edgeHash(edge(e, FROM), edge(e, NAME), edge(e, TO));
+    }
+
+    /**
+     * @return index of id in the object table, or of the empty entry where it
+     * belongs
+     */
+    private int objectIndex(int id) {
+        int mask = objectTableSize - 1;
+        for (int i = mix(id) & mask; ; i = (i + 1) & mask) {
+            int s = objectTable.get(i) - 1;
+            if (s == NONE || node(s, KEY) == id)
+                return i;
+        }
+    }
+
+    /**
+     * removes entry i of the object or edge table, shifting back later
+     * entries of the same probe run
+     */
+    private void deleteEntry(IntPages table, int size, int i) {
+        int mask = size - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            int v = table.get(j);
+            if (v == 0)
+                break;
+            int k = (table == edgeTable ? edgeHash(v - 1) : mix(node(v - 1, KEY))) & mask;
+            if (i <= j ? (i < k && k <= j) : (i < k || k <= j))
+                continue;
+            table.put(i, v);
+            i = j;
+        }
+        table.put(i, 0);
+    }
+
+    private static void insertEntry(IntPages table, int size, int hash, int v) {
+        int mask = size - 1;
+        int i = hash & mask;
+        while (table.get(i) != 0)
+            i = (i + 1) & mask;
+        table.put(i, v);
+    }
+
+    private void growObjectTable() {
+        IntPages old = objectTable;
+        int oldSize = objectTableSize;
+        objectTableSize *= 2;
+        objectTable = new IntPages(dir, objectTableSize);
+        for (int i = 0; i < oldSize; i++) {
+            int v = old.get(i);
+            if (v != 0)
+                insertEntry(objectTable, objectTableSize, mix(node(v - 1, KEY)), v);
+        }
+        old.release();
+    }
+
+    private void growEdgeTable() {
+        IntPages old = edgeTable;
+        int oldSize = edgeTableSize;
+        edgeTableSize *= 2;
+        edgeTable = new IntPages(dir, edgeTableSize);
+        for (int i = 0; i < oldSize; i++) {
+            int v = old.get(i);
+            if (v != 0)
+                insertEntry(edgeTable, edgeTableSize, edgeHash(v - 1), v);
+        }
+        old.release();
+    }
+
+    private int slotOf(ContextOrObjectId node) {
+        if (node.type == ContextOrObjectId.Type.ID)
+            return objectTable.get(objectIndex(node.getId())) - 1;
+        Integer s = contextSlots.get(node);
+        return s == null ? NONE : s;
+    }
+
+    @Override
+    protected int nodeIndex(ContextOrObjectId node) {
+        return slotOf(node);
+    }
+
+    @Override
+    protected int nodeIndexLimit() {
+        return nodeLimit;
+    }
+
+    @Override
+    protected ContextOrObjectId nodeAtIndex(int index) {
+        return index < nodeLimit && node(index, KIND) != FREE ? nodeAt(index) : null;
+    }
+
+    private int vertex(ContextOrObjectId node) {
+        int s = slotOf(node);
+        if (s == NONE)
+            throw new IllegalArgumentException("no such vertex in graph: " + node);
+        return s;
+    }
+
+    private ContextOrObjectId nodeAt(int s) {
+        return node(s, KIND) == OBJECT ? lookupNode(node(s, KEY)) : contextNodes.get(s);
+    }
+
+    /**
+     * @return id of name, or NONE if name is new and add is false
+     */
+    private int nameId(String name, boolean add) {
+        Integer id = nameIds.get(name);
+        if (id != null)
+            return id;
+        if (!add)
+            return NONE;
+        id = names.size();
+        names.add(name);
+        nameIds.put(name, id);
+        return id;
+    }
+
+    private int findEdge(int from, int name, int to) {
+        int mask = edgeTableSize - 1;
+        for (int i = edgeHash(from, name, to) & mask; ; i = (i + 1) & mask) {
+            int e = edgeTable.get(i) - 1;
+            if (e == NONE)
+                return NONE;
+            if (edge(e, FROM) == from && edge(e, NAME) == name && ((name & MULTI) == 0 || edge(e, TO) == to))
+                return e;
+        }
+    }
+
+    /**
+     * @return index of edge, or NONE if it is not in the heap
+     */
+    private int findEdge(HeapEdge edge) {
+        int from = slotOf(edge.getFrom());
+        if (from == NONE)
+            return NONE;
+        int name = nameId(edge.getName(), false);
+        if (name == NONE)
+            return NONE;
+        if (edge instanceof NamedMultiEdge) {
+            int to = slotOf(((NamedMultiEdge) edge).getChild());
+            return to == NONE ? NONE : findEdge(from, name | MULTI, to);
+        }
+        return findEdge(from, name, NONE);
+    }
+
+    private static long fieldKey(int from, int name) {
+        return (long) from << 32 | name & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return the edge of the field, or NONE.  remembers the field if its
+     * node and name are in the heap
+     */
+    private int probe(ContextOrObjectId from, String name) {
+        if (from == probedNode && name == probedName)
+            return probedEdge;
+        int f = slotOf(from);
+        int n = f == NONE ? NONE : nameId(name, false);
+        if (n == NONE)
+            return NONE;
+        probedNode = from;
+        probedName = name;
+        probedField = fieldKey(f, n);
+        return probedEdge = findEdge(f, n, NONE);
+    }
+
+    @Override
+    protected ContextOrObjectId getField(ContextOrObjectId from, String name) {
+        int e = probe(from, name);
+        return e == NONE ? null : nodeAt(edge(e, TO));
+    }
+
+    @Override
+    protected void setField(ContextOrObjectId from, String name, ContextOrObjectId to) {
+        int t = vertex(to);
+        if (probe(from, name) != NONE)
+            return;
+        if (from == probedNode && name == probedName)
+            link((int) (probedField >>> 32), (int) probedField, t);
+        else
+            link(vertex(from), nameId(name, true), t);
+    }
+
+    @Override
+    protected void removeField(ContextOrObjectId from, String name) {
+        int e = probe(from, name);
+        if (e != NONE)
+            unlink(e);
+    }
+
+    @Override
+    protected void forEachField(ContextOrObjectId from, VoidFunction<String> f) {
+        int s = slotOf(from);
+        if (s == NONE)
+            return;
+        for (int e = node(s, FIRST_OUT); e != NONE; ) {
+            // read before f, which may free the edge
+            int next = edge(e, NEXT_OUT);
+            int name = edge(e, NAME);
+            if ((name & MULTI) == 0)
+                f.apply(names.get(name));
+            e = next;
+        }
+    }
+
+    private HeapEdge toEdge(int e) {
+        int name = edge(e, NAME);
+        if ((name & MULTI) != 0)
+            return new NamedMultiEdge(nodeAt(edge(e, FROM)), names.get(name & ~MULTI), nodeAt(edge(e, TO)));
+        return new NamedEdge(nodeAt(edge(e, FROM)), names.get(name));
+    }
+
+    /**
+     * @return the count edges of the list starting at first and linked
+     * through field next, named edges first and then multi-edges, as
+     * JGraphHeap lists them
+     */
+    private List<HeapEdge> toEdges(int first, int next, int count) {
+        List<HeapEdge> result = new ArrayList<HeapEdge>(count);
+        for (int e = first; e != NONE; e = edge(e, next)) {
+            if ((edge(e, NAME) & MULTI) == 0)
+                result.add(toEdge(e));
+        }
+        if (result.size() < count) {
+            for (int e = first; e != NONE; e = edge(e, next)) {
+                if ((edge(e, NAME) & MULTI) != 0)
+                    result.add(toEdge(e));
+            }
+        }
+        return result;
+    }
+
+    private int allocateNode(int kind, int key) {
+        int s;
+        if (freeNode != NONE) {
+            s = freeNode;
+            freeNode = node(s, FIRST_OUT);
+        } else {
+            nodeRecords.ensure((long) (nodeLimit + 1) * NODE_SIZE);
+            s = nodeLimit++;
+        }
+        setNode(s, KEY, key);
+        setNode(s, KIND, kind);
+        setNode(s, REF_COUNT, 0);
+        setNode(s, OUT_DEGREE, 0);
+        setNode(s, FIRST_OUT, NONE);
+        setNode(s, LAST_OUT, NONE);
+        setNode(s, FIRST_IN, NONE);
+        setNode(s, LAST_IN, NONE);
+        nodeCount++;
+        return s;
+    }
+
+    private void link(int from, int name, int to) {
+        int e;
+        if (freeEdge != NONE) {
+            e = freeEdge;
+            freeEdge = edge(e, NEXT_OUT);
+        } else {
+            edgeRecords.ensure((long) (edgeLimit + 1) * EDGE_SIZE);
+            e = edgeLimit++;
+        }
+        setEdge(e, FROM, from);
+        setEdge(e, TO, to);
+        setEdge(e, NAME, name);
+        int last = node(from, LAST_OUT);
+        setEdge(e, NEXT_OUT, NONE);
+        setEdge(e, PREV_OUT, last);
+        if (last == NONE)
+            setNode(from, FIRST_OUT, e);
+        else
+            setEdge(last, NEXT_OUT, e);
+        setNode(from, LAST_OUT, e);
+        last = node(to, LAST_IN);
+        setEdge(e, NEXT_IN, NONE);
+        setEdge(e, PREV_IN, last);
+        if (last == NONE)
+            setNode(to, FIRST_IN, e);
+        else
+            setEdge(last, NEXT_IN, e);
+        setNode(to, LAST_IN, e);
+        setNode(from, OUT_DEGREE, node(from, OUT_DEGREE) + 1);
+        setNode(to, REF_COUNT, node(to, REF_COUNT) + 1);
+        insertEntry(edgeTable, edgeTableSize, edgeHash(from, name, to), e + 1);
+        if (2 * ++edgeCount > edgeTableSize)
+            growEdgeTable();
+        if (probedNode != null && fieldKey(from, name) == probedField)
+            probedEdge = e;
+    }
+
+    private void unlink(int e) {
+        int mask = edgeTableSize - 1;
+        int i = edgeHash(e) & mask;
+        while (edgeTable.get(i) != e + 1)
+            i = (i + 1) & mask;
+        deleteEntry(edgeTable, edgeTableSize, i);
+        int from = edge(e, FROM);
+        int to = edge(e, TO);
+        int next = edge(e, NEXT_OUT);
+        int prev = edge(e, PREV_OUT);
+        if (prev == NONE)
+            setNode(from, FIRST_OUT, next);
+        else
+            setEdge(prev, NEXT_OUT, next);
+        if (next == NONE)
+            setNode(from, LAST_OUT, prev);
+        else
+            setEdge(next, PREV_OUT, prev);
+        next = edge(e, NEXT_IN);
+        prev = edge(e, PREV_IN);
+        if (prev == NONE)
+            setNode(to, FIRST_IN, next);
+        else
+            setEdge(prev, NEXT_IN, next);
+        if (next == NONE)
+            setNode(to, LAST_IN, prev);
+        else
+            setEdge(next, PREV_IN, prev);
+        setNode(from, OUT_DEGREE, node(from, OUT_DEGREE) - 1);
+        setNode(to, REF_COUNT, node(to, REF_COUNT) - 1);
+        edgeCount--;
+        if (e == probedEdge)
+            probedEdge = NONE;
+        setEdge(e, NEXT_OUT, freeEdge);
+        freeEdge = e;
+    }
+
+    @Override
+    public void newNode(ContextOrObjectId o) {
+        if (o.type == ContextOrObjectId.Type.ID) {
+            int i = objectIndex(o.getId());
+            if (objectTable.get(i) != 0)
+                return;
+            objectTable.put(i, allocateNode(OBJECT, o.getId()) + 1);
+            if (2 * ++objectCount > objectTableSize)
+                growObjectTable();
+        } else if (!contextSlots.containsKey(o)) {
+            int s = allocateNode(CONTEXT, 0);
+            contextSlots.put(o, s);
+            contextNodes.put(s, o);
+        }
+    }
+
+    @Override
+    protected void addEdge(NamedEdge edge, ContextOrObjectId to) {
+        int f = vertex(edge.getFrom());
+        int t = vertex(to);
+        int name = nameId(edge.getName(), true);
+        if (findEdge(f, name, t) == NONE)
+            link(f, name, t);
+    }
+
+    @Override
+    protected void addNamedMultiEdge(NamedMultiEdge edge) {
+        addChild(edge.getFrom(), edge.getName(), edge.getChild());
+    }
+
+    @Override
+    protected void addChild(ContextOrObjectId parent, String name, ContextOrObjectId child) {
+        int f = vertex(parent);
+        int t = vertex(child);
+        int n = nameId(name, true) | MULTI;
+        if (findEdge(f, n, t) == NONE)
+            link(f, n, t);
+    }
+
+    @Override
+    protected void removeChild(ContextOrObjectId parent, String name, ContextOrObjectId child) {
+        int f = slotOf(parent);
+        int t = slotOf(child);
+        int n = nameId(name, false);
+        if (f == NONE || t == NONE || n == NONE)
+            return;
+        int e = findEdge(f, n | MULTI, t);
+        if (e != NONE)
+            unlink(e);
+    }
+
+    @Override
+    protected void removeEdge(HeapEdge edge) {
+        int e = findEdge(edge);
+        if (e != NONE)
+            unlink(e);
+    }
+
+    @Override
+    protected void removeNode(ContextOrObjectId node) {
+        int s = slotOf(node);
+        if (s == NONE)
+            return;
+        int e;
+        while ((e = node(s, FIRST_OUT)) != NONE)
+            unlink(e);
+        while ((e = node(s, FIRST_IN)) != NONE)
+            unlink(e);
+        if (node.type == ContextOrObjectId.Type.ID) {
+            deleteEntry(objectTable, objectTableSize, objectIndex(node.getId()));
+            objectCount--;
+        } else {
+            contextSlots.remove(node);
+            contextNodes.remove(s);
+        }
+        probedNode = null;
+        setNode(s, KIND, FREE);
+        setNode(s, FIRST_OUT, freeNode);
+        freeNode = s;
+        nodeCount--;
+    }
+
+    private List<ContextOrObjectId> bfs(int start, boolean[] visited, List<ContextOrObjectId> result) {
+        List<Integer> queue = new ArrayList<Integer>();
+        visited[start] = true;
+        queue.add(start);
+        for (int head = 0; head < queue.size(); head++) {
+            int s = queue.get(head);
+            result.add(nodeAt(s));
+            for (int e = node(s, FIRST_OUT); e != NONE; e = edge(e, NEXT_OUT)) {
+                int t = edge(e, TO);
+                if (!visited[t]) {
+                    visited[t] = true;
+                    queue.add(t);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    protected Iterator<ContextOrObjectId> bfsIterator(ContextOrObjectId start) {
+        assert containsNode(start);
+        return bfs(slotOf(start), new boolean[nodeLimit], new ArrayList<ContextOrObjectId>()).iterator();
+    }
+
+    @Override
+    protected Iterator<ContextOrObjectId> bfsIterator() {
+        boolean[] visited = new boolean[nodeLimit];
+        List<ContextOrObjectId> result = new ArrayList<ContextOrObjectId>(nodeCount);
+        for (int s = 0; s < nodeLimit; s++) {
+            if (node(s, KIND) != FREE && !visited[s])
+                bfs(s, visited, result);
+        }
+        return result.iterator();
+    }
+
+    @Override
+    protected int referenceCount(ContextOrObjectId node) {
+        int s = slotOf(node);
+        return s == NONE ? 0 : node(s, REF_COUNT);
+    }
+
+    @Override
+    public boolean containsNode(ContextOrObjectId v) {
+        return slotOf(v) != NONE;
+    }
+
+    @Override
+    public Set<HeapEdge> incoming(ContextOrObjectId c) {
+        int s = vertex(c);
+        return new EdgeSet(toEdges(node(s, FIRST_IN), NEXT_IN, node(s, REF_COUNT)));
+    }
+
+    /**
+     * writes the graph in DOT, as {@link ArrayHeap#toDot(Writer)} does
+     */
+    @Override
+    public void toDot(Writer w) {
+        PrintWriter out = new PrintWriter(w);
+        out.println("digraph heap {");
+        for (int s = 0; s < nodeLimit; s++) {
+            if (node(s, KIND) != FREE)
+                out.println("  n" + s + " [label=" + dotString(nodeAt(s).toString()) + "];");
+        }
+        for (int s = 0; s < nodeLimit; s++) {
+            if (node(s, KIND) == FREE)
+                continue;
+            for (int e = node(s, FIRST_OUT); e != NONE; e = edge(e, NEXT_OUT)) {
+                int name = edge(e, NAME);
+                out.println("  n" + s + " -> n" + edge(e, TO) + " [label=" + dotString(names.get(name & ~MULTI))
+                        + ((name & MULTI) != 0 ? ", style=dashed" : "") + "];");
+            }
+        }
+        out.println("}");
+        out.flush();
+    }
+
+    /**
+     * a view of the nodes, in slot order
+     */
+    @Override
+    public Set<ContextOrObjectId> getAllNodes() {
+        return new AbstractSet<ContextOrObjectId>() {
+            @Override
+            public Iterator<ContextOrObjectId> iterator() {
+                return new Iterator<ContextOrObjectId>() {
+                    private int next = advance(0);
+
+                    private int advance(int s) {
+                        while (s < nodeLimit && node(s, KIND) == FREE)
+                            s++;
+                        return s;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < nodeLimit;
+                    }
+
+                    @Override
+                    public ContextOrObjectId next() {
+                        if (next >= nodeLimit)
+                            throw new NoSuchElementException();
+                        ContextOrObjectId result = nodeAt(next);
+                        next = advance(next + 1);
+                        return result;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof ContextOrObjectId && containsNode((ContextOrObjectId) o);
+            }
+
+            @Override
+            public int size() {
+                return nodeCount;
+            }
+        };
+    }
+
+    @Override
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    protected int getOutDegree(ContextOrObjectId obj) {
+        int s = slotOf(obj);
+        return s == NONE ? 0 : node(s, OUT_DEGREE);
+    }
+
+    @Override
+    public Set<HeapEdge> getOutEdges(ContextOrObjectId node) {
+        int s = slotOf(node);
+        if (s == NONE)
+            return Collections.emptySet();
+        return new EdgeSet(toEdges(node(s, FIRST_OUT), NEXT_OUT, node(s, OUT_DEGREE)));
+    }
+
+    @Override
+    public Set<NamedEdge> getNamedOutEdges(ContextOrObjectId node) {
+        Set<NamedEdge> result = HashSetFactory.make();
+        int s = slotOf(node);
+        if (s == NONE)
+            return result;
+        for (int e = node(s, FIRST_OUT); e != NONE; e = edge(e, NEXT_OUT)) {
+            int name = edge(e, NAME);
+            if ((name & MULTI) == 0)
+                result.add(new NamedEdge(node, names.get(name)));
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @param e
+     * @return target of edge, or null if no such edge in heap
+     */
+    @Override
+    public ContextOrObjectId getTarget(HeapEdge edge) {
+        int e = findEdge(edge);
+        return e == NONE ? null : nodeAt(edge(e, TO));
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        nodeRecords.write(out, nodeLimit * NODE_SIZE);
+        objectTable.write(out, objectTableSize);
+        edgeRecords.write(out, edgeLimit * EDGE_SIZE);
+        edgeTable.write(out, edgeTableSize);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        allocateTables();
+        nodeRecords.read(in, nodeLimit * NODE_SIZE);
+        objectTable.read(in, objectTableSize);
+        edgeRecords.read(in, edgeLimit * EDGE_SIZE);
+        edgeTable.read(in, edgeTableSize);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The members of all child sets of one parent, as packed (name id, child
+ * object id) keys in insertion order.  Up to {@link #THRESHOLD} keys are
+ * found by a scan; past that, through an open-addressing index of their
+ * positions.  Removed keys leave holes, which are squeezed out once they
+ * outnumber the keys.
+ */
+final class ChildSet implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int THRESHOLD = 16;
+
+    static final long HOLE = Long.MIN_VALUE;
+
+    private static final int EMPTY = -1;
+
+    private long[] keys = new long[2];
+
+    private int limit = 0;
+
+    private int size = 0;
+
+    /**
+     * positions of keys, or null while the set is small
+     */
+    private int[] index = null;
+
+    static long key(int name, int child) {
+        return (long) name << 32 | child & 0xFFFFFFFFL;
+    }
+
+    static int name(long key) {
+        return (int) (key >>> 32);
+    }
+
+    static int child(long key) {
+        return (int) key;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the end of the positions in use
+     */
+    int limit() {
+        return limit;
+    }
+
+    /**
+     * @return the key at position i, or HOLE
+     */
+    long keyAt(int i) {
+        return keys[i];
+    }
+
+    boolean contains(long key) {
+        return find(key) != EMPTY;
+    }
+
+    boolean add(long key) {
+        assert key != HOLE;
+        if (find(key) != EMPTY)
+            return false;
+        if (limit == keys.length) {
+            if (2 * size <= limit)
+                squeeze();
+            else
+                keys = Arrays.copyOf(keys, 2 * limit);
+        }
+        keys[limit] = key;
+        if (index != null)
+            index[freeSlot(key)] = limit;
+        limit++;
+        size++;
+        if (index == null ? size > THRESHOLD : 2 * size > index.length)
+            reindex();
+        return true;
+    }
+
+    boolean remove(long key) {
+        int p = find(key);
+        if (p == EMPTY)
+            return false;
+        keys[p] = HOLE;
+        size--;
+        if (index != null)
+            unindex(key, p);
+        if (2 * size < limit - THRESHOLD)
+            squeeze();
+        return true;
+    }
+
+    static int hash(long key) {
+        int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return position of key, or EMPTY
+     */
+    private int find(long key) {
+        if (index == null) {
+            for (int i = 0; i < limit; i++) {
+                if (keys[i] == key)
+                    return i;
+            }
+            return EMPTY;
+        }
+        int mask = index.length - 1;
+        for (int i = hash(key) & mask; index[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[index[i]] == key)
+                return index[i];
+        }
+        return EMPTY;
+    }
+
+    private int freeSlot(long key) {
+        int mask = index.length - 1;
+        int i = hash(key) & mask;
+        while (index[i] != EMPTY)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * removes position p of key from the index, shifting back later entries
+     * of the same probe run
+     */
+    private void unindex(long key, int p) {
+        int mask = index.length - 1;
+        int i = hash(key) & mask;
+        while (index[i] != p)
+            i = (i + 1) & mask;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            int v = index[j];
+            if (v == EMPTY)
+                break;
+            int k = hash(keys[v]) & mask;
+            if (i <= j ? (i < k && k <= j) : (i < k || k <= j))
+                continue;
+            index[i] = v;
+            i = j;
+        }
+        index[i] = EMPTY;
+    }
+
+    private void squeeze() {
+        int n = 0;
+        for (int i = 0; i < limit; i++) {
+            if (keys[i] != HOLE)
+                keys[n++] = keys[i];
+        }
+        Arrays.fill(keys, n, limit, HOLE);
+        limit = n;
+        if (index != null)
+            reindex();
+    }
+
+    private void reindex() {
+        if (size <= THRESHOLD) {
+            index = null;
+            return;
+        }
+        int capacity = 4 * THRESHOLD;
+        while (capacity < 4 * size)
+            capacity *= 2;
+        index = new int[capacity];
+        Arrays.fill(index, EMPTY);
+        for (int i = 0; i < limit; i++) {
+            if (keys[i] != HOLE)
+                index[freeSlot(keys[i])] = i;
+        }
+    }
+}
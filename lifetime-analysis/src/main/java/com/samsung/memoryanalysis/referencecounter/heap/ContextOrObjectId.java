@@ -15,20 +15,19 @@
  */
 package com.samsung.memoryanalysis.referencecounter.heap;
 
-import java.lang.ref.WeakReference;
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.io.Serializable;
 
-import com.ibm.wala.util.collections.HashMapFactory;
 import com.samsung.memoryanalysis.context.Context;
 
 /**
  * Created by s.jensen on 6/10/14.
+ *
+ * Nodes are handed out by a {@link NodeTable}, and are equal when they have
+ * the same object id or the same context.
  */
-public class ContextOrObjectId {
+public class ContextOrObjectId implements Serializable {
 
-    private final static Map<Integer, WeakReference<ContextOrObjectId>> intMap = HashMapFactory.make();
-    private final static WeakHashMap<Context, WeakReference<ContextOrObjectId>> contextMap = new WeakHashMap<Context, WeakReference<ContextOrObjectId>>();
+    private static final long serialVersionUID = 1L;
 
     public enum Type {
         CONTEXT, ID;
@@ -39,39 +38,35 @@ public class ContextOrObjectId {
     final private int id;
     final private Context context;
 
-    public static ContextOrObjectId make(Context c) {
-        WeakReference<ContextOrObjectId> ref = contextMap.get(c);
-        ContextOrObjectId res = ref == null ? null : ref.get();
-        if (res == null) {
-            res = new ContextOrObjectId(c);
-            contextMap.put(c, new WeakReference<ContextOrObjectId>(res));
-        }
-        return res;
-    }
-
-    public static ContextOrObjectId make(int id) {
-        WeakReference<ContextOrObjectId> ref = intMap.get(id);
-        ContextOrObjectId res = ref == null ? null : ref.get();
-        if (res == null) {
-            res = new ContextOrObjectId(id);
-            intMap.put(id, new WeakReference<ContextOrObjectId>(res));
-        }
-        return res;
-    }
-
-    private ContextOrObjectId(Context c) {
+    ContextOrObjectId(Context c) {
         id = -1;
         this.context = c;
         type = Type.CONTEXT;
     }
 
-    private ContextOrObjectId(int id) {
+    ContextOrObjectId(int id) {
         this.id = id;
 
         this.context = null;
         type = Type.ID;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ContextOrObjectId)) return false;
+        ContextOrObjectId other = (ContextOrObjectId) o;
+        return type == Type.ID ? other.type == Type.ID && id == other.id : context == other.context;
+    }
+
+    @Override
+    public int hashCode() {
+        if (type == Type.ID)
+            return id;
+        long c = context.getId();
+        return ~(int) (c ^ (c >>> 32));
+    }
+
     @Override
     public String toString() {
         switch (type) {
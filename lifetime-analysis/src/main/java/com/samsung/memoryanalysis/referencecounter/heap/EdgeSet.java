@@ -13,39 +13,32 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package com.samsung.memoryanalysis.context;
+package com.samsung.memoryanalysis.referencecounter.heap;
 
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 
 /**
- *
- * @author s.jensen
+ * a snapshot of distinct edges, materialized from a heap that does not keep
+ * edge objects
  */
-public class Variable {
-    private int value;
-    private boolean referencedByClosure = false;
-
-    public Variable(int valueId) {
-        this.value = valueId;
-    }
+class EdgeSet extends AbstractSet<HeapEdge> {
 
-    @Override
-    public String toString() {
-        return "Variable{" + value +'}';
-    }
+    private final List<HeapEdge> edges;
 
-    public int getValue() {
-        return value;
+    EdgeSet(List<HeapEdge> edges) {
+        this.edges = edges;
     }
 
-    public void setValue(int value) {
-        this.value = value;
-    }
-
-    public void makeReferenced() {
-        this.referencedByClosure = true;
+    @Override
+    public Iterator<HeapEdge> iterator() {
+        return Collections.unmodifiableList(edges).iterator();
     }
 
-    public boolean isReferenced() {
-        return this.referencedByClosure;
+    @Override
+    public int size() {
+        return edges.size();
     }
 }
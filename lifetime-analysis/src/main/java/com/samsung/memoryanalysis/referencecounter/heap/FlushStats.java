@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.samsung.memoryanalysis.traceparser.TraceMetrics;
+
+/**
+ * What the cycle queue flushes of a {@link ReferenceCountedHeapGraph} found
+ * and how long they took.  Flush times go into a histogram with one bucket
+ * per power of two nanoseconds.  Only the analysis thread updates the
+ * statistics, so reading them over JMX while it runs gives approximate
+ * values.
+ */
+public class FlushStats implements FlushStatsMBean, TraceMetrics.Section, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String OBJECT_NAME = "com.samsung.memoryanalysis:type=CycleQueueFlushes";
+
+    private static final int BUCKETS = 64;
+
+    private long flushes;
+    private long deferredFlushes;
+    private long keptNodes;
+    private long releasedNodes;
+    private long queuedNodes;
+    private long markedNodes;
+    private long collectedNodes;
+    private long totalNanos;
+    private final long[] histogram = new long[BUCKETS];
+
+    private int lastQueued;
+    private int lastMarked;
+    private int lastCollected;
+
+    private int cycleQueueLimit;
+    private long limitRaises;
+    private long limitCuts;
+
+    void record(int queued, int marked, int collected, long nanos) {
+        flushes++;
+        queuedNodes += queued;
+        markedNodes += marked;
+        collectedNodes += collected;
+        totalNanos += nanos;
+        histogram[nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos)]++;
+        lastQueued = queued;
+        lastMarked = marked;
+        lastCollected = collected;
+    }
+
+    void deferred() {
+        deferredFlushes++;
+    }
+
+    void finished(int kept, int released) {
+        keptNodes += kept;
+        releasedNodes += released;
+    }
+
+    void setCycleQueueLimit(int limit) {
+        if (limit > cycleQueueLimit && flushes > 0)
+            limitRaises++;
+        else if (limit < cycleQueueLimit && flushes > 0)
+            limitCuts++;
+        cycleQueueLimit = limit;
+    }
+
+    @Override
+    public long getFlushes() {
+        return flushes;
+    }
+
+    @Override
+    public long getDeferredFlushes() {
+        return deferredFlushes;
+    }
+
+    @Override
+    public long getKeptNodes() {
+        return keptNodes;
+    }
+
+    @Override
+    public long getReleasedNodes() {
+        return releasedNodes;
+    }
+
+    @Override
+    public long getQueuedNodes() {
+        return queuedNodes;
+    }
+
+    @Override
+    public long getMarkedNodes() {
+        return markedNodes;
+    }
+
+    @Override
+    public long getCollectedNodes() {
+        return collectedNodes;
+    }
+
+    @Override
+    public long getTotalMillis() {
+        return totalNanos / 1000000;
+    }
+
+    @Override
+    public int getCycleQueueLimit() {
+        return cycleQueueLimit;
+    }
+
+    /**
+     * @return the number of times an adaptive limit was raised
+     */
+    public long getLimitRaises() {
+        return limitRaises;
+    }
+
+    /**
+     * @return the number of times an adaptive limit was cut
+     */
+    public long getLimitCuts() {
+        return limitCuts;
+    }
+
+    @Override
+    public JsonObject toJson() {
+        JsonObject res = new JsonObject();
+        res.addProperty("flushes", flushes);
+        res.addProperty("deferredFlushes", deferredFlushes);
+        res.addProperty("keptNodes", keptNodes);
+        res.addProperty("releasedNodes", releasedNodes);
+        res.addProperty("queuedNodes", queuedNodes);
+        res.addProperty("markedNodes", markedNodes);
+        res.addProperty("collectedNodes", collectedNodes);
+        res.addProperty("totalMillis", getTotalMillis());
+        res.addProperty("cycleQueueLimit", cycleQueueLimit);
+        res.addProperty("limitRaises", limitRaises);
+        res.addProperty("limitCuts", limitCuts);
+        if (flushes > 0) {
+            JsonObject last = new JsonObject();
+            last.addProperty("queued", lastQueued);
+            last.addProperty("marked", lastMarked);
+            last.addProperty("collected", lastCollected);
+            res.add("last", last);
+            int top = BUCKETS - 1;
+            while (top > 0 && histogram[top] == 0) {
+                top--;
+            }
+            JsonArray buckets = new JsonArray();
+            for (int b = 0; b <= top; b++) {
+                buckets.add(new JsonPrimitive(histogram[b]));
+            }
+            res.add("log2NanosHistogram", buckets);
+        }
+        return res;
+    }
+
+    @Override
+    public String getReport() {
+        return new Gson().toJson(toJson());
+    }
+
+    /**
+     * register with the platform MBean server as {@link #OBJECT_NAME},
+     * replacing an earlier registration
+     */
+    public void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+/**
+ * JMX view of the {@link FlushStats} of a heap graph
+ */
+public interface FlushStatsMBean {
+
+    /**
+     * @return number of cycle queue flushes so far
+     */
+    public long getFlushes();
+
+    /**
+     * @return number of regular flushes put off because a background mark
+     * had not finished
+     */
+    public long getDeferredFlushes();
+
+    /**
+     * @return number of nodes a background mark did not reach that were
+     * kept because the trace used them before the mark finished
+     */
+    public long getKeptNodes();
+
+    /**
+     * @return number of nodes a background mark reached that were released
+     * when it finished, because it collected all their references
+     */
+    public long getReleasedNodes();
+
+    /**
+     * @return number of queued nodes examined by all flushes
+     */
+    public long getQueuedNodes();
+
+    /**
+     * @return number of nodes marked live by all flushes
+     */
+    public long getMarkedNodes();
+
+    /**
+     * @return number of nodes removed by all flushes
+     */
+    public long getCollectedNodes();
+
+    /**
+     * @return wall-clock time spent in flushes, in milliseconds
+     */
+    public long getTotalMillis();
+
+    /**
+     * @return the current cycle queue limit
+     */
+    public int getCycleQueueLimit();
+
+    /**
+     * @return the statistics as JSON
+     */
+    public String getReport();
+}
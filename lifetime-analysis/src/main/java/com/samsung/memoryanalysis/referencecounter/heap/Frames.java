@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.samsung.memoryanalysis.context.Context;
+import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
+
+/**
+ * The contexts of running calls that are kept out of the heap graph.  Each
+ * such frame holds its variables, and its parent context, as a short list of
+ * (name, target) slots in the order the graph would list the fields of the
+ * context node, and the references from frames are counted apart from those
+ * in the graph.  Frames are on a stack, in call order, and so in order of
+ * context id.
+ */
+final class Frames implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * a frame with more variables goes into the graph
+     */
+    static final int MAX_SLOTS = 16;
+
+    static final class Frame implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final Context context;
+        final ContextOrObjectId node;
+        final ContextOrObjectId parent;
+
+        String[] names;
+        ContextOrObjectId[] targets;
+        int size = 0;
+
+        /**
+         * where the frame was sealed, or null while it is live; a sealed
+         * frame has no variables left, and stays on the stack until flushed
+         */
+        SourceLocId sealedAt;
+
+        Frame(Context context, ContextOrObjectId node, ContextOrObjectId parent) {
+            this.context = context;
+            this.node = node;
+            this.parent = parent;
+        }
+
+        /**
+         * @return the slot of the variable, or -1; names are canonical, and
+         * so compared by identity
+         */
+        int slotOf(String name) {
+            for (int i = 0; i < size; i++) {
+                if (names[i] == name)
+                    return i;
+            }
+            return -1;
+        }
+
+        void add(String name, ContextOrObjectId target) {
+            if (names == null) {
+                names = new String[4];
+                targets = new ContextOrObjectId[4];
+            } else if (size == names.length) {
+                names = Arrays.copyOf(names, 2 * size);
+                targets = Arrays.copyOf(targets, 2 * size);
+            }
+            names[size] = name;
+            targets[size++] = target;
+        }
+
+        /**
+         * removes the slot, keeping the others in order
+         */
+        void remove(int slot) {
+            size--;
+            System.arraycopy(names, slot + 1, names, slot, size - slot);
+            System.arraycopy(targets, slot + 1, targets, slot, size - slot);
+            names[size] = null;
+            targets[size] = null;
+        }
+    }
+
+    private final List<Frame> stack = new ArrayList<Frame>();
+
+    /**
+     * references from frames to objects, by object id.  References to
+     * contexts are counted in the node table, by context slot
+     */
+    private int[] objectRefs = new int[1024];
+
+    private final NodeTable nodeTable;
+
+    Frames(NodeTable nodeTable) {
+        this.nodeTable = nodeTable;
+    }
+
+    Frame push(Context context, ContextOrObjectId node, ContextOrObjectId parent) {
+        Frame f = new Frame(context, node, parent);
+        if (parent != null)
+            reference(parent, 1);
+        stack.add(f);
+        return f;
+    }
+
+    /**
+     * @return the frame of the given live context, or null if its context is
+     * in the graph
+     */
+    Frame of(Context context) {
+        return context.isLive() ? find(context) : null;
+    }
+
+    /**
+     * @return the frame of the given context, or null if its context is in
+     * the graph; a frame stays on the stack until its context is collected
+     */
+    Frame find(Context context) {
+        int top = stack.size() - 1;
+        if (top < 0)
+            return null;
+        Frame f = stack.get(top);
+        if (f.context == context)
+            return f;
+        long id = context.getId();
+        int lo = 0, hi = top - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            f = stack.get(mid);
+            long fid = f.context.getId();
+            if (fid == id)
+                return f.context == context ? f : null;
+            if (fid < id)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        return null;
+    }
+
+    boolean isEmpty() {
+        return stack.isEmpty();
+    }
+
+    /**
+     * removes the frame, and its references to its parent and variables
+     */
+    void remove(Frame f) {
+        if (f.parent != null)
+            reference(f.parent, -1);
+        for (int i = 0; i < f.size; i++)
+            reference(f.targets[i], -1);
+        int top = stack.size() - 1;
+        if (stack.get(top) == f)
+            stack.remove(top);
+        else
+            stack.remove(f);
+    }
+
+    /**
+     * @return the sealed frames, outermost first
+     */
+    List<Frame> sealed() {
+        List<Frame> res = new ArrayList<Frame>();
+        for (Frame f : stack) {
+            if (f.sealedAt != null)
+                res.add(f);
+        }
+        return res;
+    }
+
+    /**
+     * removes and returns all frames, outermost first
+     */
+    List<Frame> removeAll() {
+        List<Frame> res = new ArrayList<Frame>(stack);
+        for (int i = res.size() - 1; i >= 0; i--)
+            remove(res.get(i));
+        return res;
+    }
+
+    /**
+     * object ids must not be negative
+     */
+    void reference(ContextOrObjectId node, int delta) {
+        if (node.type == ContextOrObjectId.Type.ID) {
+            int id = node.getId();
+            if (id >= objectRefs.length)
+                objectRefs = Arrays.copyOf(objectRefs, Math.max(2 * objectRefs.length, id + 1));
+            objectRefs[id] += delta;
+        } else {
+            nodeTable.frameReference(node.getContext(), delta);
+        }
+    }
+
+    /**
+     * @return the number of references to node from frames
+     */
+    int references(ContextOrObjectId node) {
+        if (node.type == ContextOrObjectId.Type.ID) {
+            int id = node.getId();
+            return id >= 0 && id < objectRefs.length ? objectRefs[id] : 0;
+        }
+        return nodeTable.frameReferences(node.getContext());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+/**
+ * A growable array of ints outside the Java heap, held in pages of direct
+ * buffers, or of buffers mapped from an unlinked temporary file.  New
+ * entries are zero.
+ */
+final class IntPages {
+
+    static final int PAGE_SHIFT = 18;
+
+    static final int PAGE_INTS = 1 << PAGE_SHIFT;
+
+    private static final int PAGE_MASK = PAGE_INTS - 1;
+
+    /**
+     * backing file of mapped pages, or null for direct buffers
+     */
+    private final FileChannel channel;
+
+    private IntBuffer[] pages = new IntBuffer[1];
+
+    private long capacity = 0;
+
+    /**
+     * @param dir directory for the backing file of mapped pages, or null for
+     * direct buffers
+     */
+    IntPages(File dir, int size) {
+        if (dir == null) {
+            channel = null;
+        } else {
+            try {
+                File file = File.createTempFile("heap", ".pages", dir);
+                channel = new RandomAccessFile(file, "rw").getChannel();
+                if (!file.delete())
+                    file.deleteOnExit();
+            } catch (IOException e) {
+                throw new Error("could not create heap pages in " + dir, e);
+            }
+        }
+        ensure(size);
+    }
+
+    int get(int i) {
+        return pages[i >>> PAGE_SHIFT].get(i & PAGE_MASK);
+    }
+
+    void put(int i, int v) {
+        pages[i >>> PAGE_SHIFT].put(i & PAGE_MASK, v);
+    }
+
+    /**
+     * make indices below size valid.  Below one page, the single page is
+     * reallocated at twice the size; beyond that, whole pages are added
+     */
+    void ensure(long size) {
+        if (size <= capacity)
+            return;
+        if (capacity < PAGE_INTS) {
+            int n = (int) Math.max(1024, 2 * capacity);
+            while (n < size && n < PAGE_INTS)
+                n *= 2;
+            n = Math.min(n, PAGE_INTS);
+            IntBuffer p = allocate(0, n);
+            if (pages[0] != null && channel == null) {
+                IntBuffer old = pages[0].duplicate();
+                old.clear();
+                p.put(old);
+            }
+            pages[0] = p;
+            capacity = n;
+            if (size <= capacity)
+                return;
+        }
+        int count = (int) ((size + PAGE_MASK) >>> PAGE_SHIFT);
+        if (count > pages.length)
+            pages = Arrays.copyOf(pages, Math.max(count, 2 * pages.length));
+        for (int i = (int) (capacity >>> PAGE_SHIFT); i < count; i++)
+            pages[i] = allocate((long) i << PAGE_SHIFT, PAGE_INTS);
+        capacity = (long) count << PAGE_SHIFT;
+    }
+
+    private IntBuffer allocate(long index, int ints) {
+        ByteBuffer b;
+        if (channel == null) {
+            b = ByteBuffer.allocateDirect(4 * ints);
+        } else {
+            try {
+                b = channel.map(MapMode.READ_WRITE, 4 * index, 4L * ints);
+            } catch (IOException e) {
+                throw new Error("could not map heap pages", e);
+            }
+        }
+        return b.order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * @return bytes allocated outside the Java heap
+     */
+    long bytes() {
+        return 4 * capacity;
+    }
+
+    /**
+     * drop the pages; direct buffers are freed, and mappings unmapped, once
+     * they are collected
+     */
+    void release() {
+        pages = null;
+        capacity = 0;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // the file is already unlinked; nothing to clean up
+            }
+        }
+    }
+
+    void write(ObjectOutputStream out, int size) throws IOException {
+        for (int i = 0; i < size; i++)
+            out.writeInt(get(i));
+    }
+
+    void read(ObjectInputStream in, int size) throws IOException {
+        ensure(size);
+        for (int i = 0; i < size; i++)
+            put(i, in.readInt());
+    }
+}
@@ -15,25 +15,127 @@
  */
 package com.samsung.memoryanalysis.referencecounter.heap;
 
+import java.io.Serializable;
 import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.jgrapht.DirectedGraph;
 import org.jgrapht.graph.DirectedPseudograph;
-import org.jgrapht.traverse.BreadthFirstIterator;
 
+import com.ibm.wala.util.collections.HashMapFactory;
 import com.ibm.wala.util.collections.HashSetFactory;
+import com.ibm.wala.util.functions.VoidFunction;
 
 /**
  * Heap representation backed by JGraphT
  * Created by s.jensen on 6/11/14.
+ *
+ * Child sets (DOM children and the like) can have millions of members, so
+ * they are kept outside the graph, as packed (name id, child id) keys per
+ * parent, and their edges are only built when asked for.  Edges out of (and
+ * into) a node list its named edges first, then its child set edges, each
+ * in insertion order.
+ *
+ * Named edges are also kept in a map from each edge to itself, so that a
+ * field is found from its node and name through a reused {@link FieldKey},
+ * without building an edge.
  */
 public class JGraphHeap extends ReferenceCountedHeapGraph {
 
+    private static final long serialVersionUID = 1L;
+
     private final DirectedGraph<ContextOrObjectId, HeapEdge> heap;
 
+    private final Map<ContextOrObjectId, ChildSet> childSets = HashMapFactory.make();
+
+    /**
+     * the named edges in the graph, each mapped to itself
+     */
+    private final Map<Object, NamedEdge> fields = HashMapFactory.make();
+
+    private transient FieldKey fieldKey;
+
+    private transient String[] fieldNames;
+
+    /**
+     * a key that equals, and hashes as, the named edge with its node and
+     * name, so that it finds the edge in {@link #fields}
+     */
+    private static final class FieldKey {
+
+        ContextOrObjectId from;
+
+        String name;
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NamedEdge))
+                return false;
+            NamedEdge e = (NamedEdge) o;
+            return e.getName() == name && from.equals(e.getFrom());
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * from.hashCode() + (name != null ? name.hashCode() : 0);
+        }
+    }
+
+    /**
+     * for each child, the child sets holding it
+     */
+    private final Map<ContextOrObjectId, Holders> holders = HashMapFactory.make();
+
+    /*
+     * names of child sets, indexed by name id.  names are canonical, so they
+     * are compared by identity
+     */
+    private final Map<String, Integer> nameIds = new IdentityHashMap<String, Integer>();
+    private final List<String> names = new ArrayList<String>();
+
+    /**
+     * parents and names of the child sets holding a child, in insertion order
+     */
+    private static final class Holders implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        ContextOrObjectId[] parents = new ContextOrObjectId[1];
+        int[] names = new int[1];
+        int size = 0;
+
+        void add(ContextOrObjectId parent, int name) {
+            if (size == parents.length) {
+                parents = Arrays.copyOf(parents, 2 * size);
+                names = Arrays.copyOf(names, 2 * size);
+            }
+            parents[size] = parent;
+            names[size] = name;
+            size++;
+        }
+
+        void remove(ContextOrObjectId parent, int name) {
+            for (int i = 0; i < size; i++) {
+                if (names[i] == name && parents[i].equals(parent)) {
+                    size--;
+                    System.arraycopy(parents, i + 1, parents, i, size - i);
+                    System.arraycopy(names, i + 1, names, i, size - i);
+                    parents[size] = null;
+                    return;
+                }
+            }
+        }
+    }
+
     public JGraphHeap(){
         heap = new DirectedPseudograph<ContextOrObjectId, HeapEdge>(HeapEdge.class);
     }
@@ -46,35 +148,192 @@ public class JGraphHeap extends ReferenceCountedHeapGraph {
 
     @Override
     public void addEdge(NamedEdge e, ContextOrObjectId to) {
-        heap.addEdge(e.getFrom(), to, e);
+        if (heap.addEdge(e.getFrom(), to, e))
+            fields.put(e, e);
     }
 
     @Override
     protected void removeEdge(HeapEdge e) {
-    	heap.removeEdge(e);
+        if (e instanceof NamedMultiEdge) {
+            NamedMultiEdge m = (NamedMultiEdge) e;
+            removeChild(m.getFrom(), m.getName(), m.getChild());
+        } else {
+            NamedEdge f = fields.remove(e);
+            if (f != null)
+                heap.removeEdge(f);
+        }
+    }
+
+    private FieldKey fieldKey(ContextOrObjectId from, String name) {
+        FieldKey k = fieldKey;
+        if (k == null)
+            k = fieldKey = new FieldKey();
+        k.from = from;
+        k.name = name;
+        return k;
+    }
+
+    @Override
+    protected ContextOrObjectId getField(ContextOrObjectId from, String name) {
+        NamedEdge e = fields.get(fieldKey(from, name));
+        return e == null ? null : heap.getEdgeTarget(e);
+    }
+
+    @Override
+    protected void setField(ContextOrObjectId from, String name, ContextOrObjectId to) {
+        if (!fields.containsKey(fieldKey(from, name)))
+            addEdge(new NamedEdge(from, name), to);
+    }
+
+    @Override
+    protected void removeField(ContextOrObjectId from, String name) {
+        NamedEdge e = fields.remove(fieldKey(from, name));
+        if (e != null)
+            heap.removeEdge(e);
+    }
+
+    /**
+     * the graph lists the out edges of a node in a set that removing a field
+     * changes, so the names are copied first, into a reused array
+     */
+    @Override
+    protected void forEachField(ContextOrObjectId from, VoidFunction<String> f) {
+        if (!heap.containsVertex(from))
+            return;
+        Set<HeapEdge> out = heap.outgoingEdgesOf(from);
+        int n = out.size();
+        if (fieldNames == null || fieldNames.length < n)
+            fieldNames = new String[Math.max(16, Integer.highestOneBit(n) << 1)];
+        String[] a = fieldNames;
+        int i = 0;
+        for (HeapEdge e : out)
+            a[i++] = ((NamedEdge) e).getName();
+        for (i = 0; i < n; i++) {
+            String name = a[i];
+            a[i] = null;
+            f.apply(name);
+        }
+    }
+
+    private int nameId(String name) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    @Override
+    protected void addChild(ContextOrObjectId parent, String name, ContextOrObjectId child) {
+        assert heap.containsVertex(parent) && heap.containsVertex(child);
+        assert child.type == ContextOrObjectId.Type.ID;
+        ChildSet set = childSets.get(parent);
+        if (set == null) {
+            set = new ChildSet();
+            childSets.put(parent, set);
+        }
+        int n = nameId(name);
+        if (set.add(ChildSet.key(n, child.getId()))) {
+            Holders h = holders.get(child);
+            if (h == null) {
+                h = new Holders();
+                holders.put(child, h);
+            }
+            h.add(parent, n);
+        }
+    }
+
+    @Override
+    protected void removeChild(ContextOrObjectId parent, String name, ContextOrObjectId child) {
+        Integer n = nameIds.get(name);
+        if (n != null && removeFromSet(parent, ChildSet.key(n, child.getId()))) {
+            Holders h = holders.get(child);
+            h.remove(parent, n);
+            if (h.size == 0)
+                holders.remove(child);
+        }
+    }
+
+    private boolean removeFromSet(ContextOrObjectId parent, long key) {
+        ChildSet set = childSets.get(parent);
+        if (set == null || !set.remove(key))
+            return false;
+        if (set.isEmpty())
+            childSets.remove(parent);
+        return true;
     }
 
     protected void removeNode(ContextOrObjectId node) {
      //   System.out.printf("Removing: " + node + "\n");
+        if (heap.containsVertex(node)) {
+            for (HeapEdge e : heap.outgoingEdgesOf(node))
+                fields.remove(e);
+            for (HeapEdge e : heap.incomingEdgesOf(node))
+                fields.remove(e);
+        }
         heap.removeVertex(node);
+        ChildSet set = childSets.remove(node);
+        if (set != null) {
+            for (int i = 0; i < set.limit(); i++) {
+                long key = set.keyAt(i);
+                if (key == ChildSet.HOLE)
+                    continue;
+                ContextOrObjectId child = nodeFor(ChildSet.child(key));
+                Holders h = holders.get(child);
+                h.remove(node, ChildSet.name(key));
+                if (h.size == 0)
+                    holders.remove(child);
+            }
+        }
+        Holders h = holders.remove(node);
+        if (h != null) {
+            for (int i = 0; i < h.size; i++)
+                removeFromSet(h.parents[i], ChildSet.key(h.names[i], node.getId()));
+        }
+    }
+
+    private List<ContextOrObjectId> bfs(ContextOrObjectId start, Set<ContextOrObjectId> visited, List<ContextOrObjectId> result) {
+        Deque<ContextOrObjectId> queue = new ArrayDeque<ContextOrObjectId>();
+        visited.add(start);
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            ContextOrObjectId n = queue.poll();
+            result.add(n);
+            for (HeapEdge e : getOutEdges(n)) {
+                ContextOrObjectId t = getTarget(e);
+                if (visited.add(t))
+                    queue.add(t);
+            }
+        }
+        return result;
     }
 
     @Override
     protected java.util.Iterator<ContextOrObjectId> bfsIterator(ContextOrObjectId start) {
         assert heap.containsVertex(start);
-        return new BreadthFirstIterator<ContextOrObjectId, HeapEdge>(heap, start);
+        Set<ContextOrObjectId> visited = HashSetFactory.make();
+        return bfs(start, visited, new ArrayList<ContextOrObjectId>()).iterator();
     }
 
     @Override
     protected Iterator<ContextOrObjectId> bfsIterator() {
-        return new BreadthFirstIterator<ContextOrObjectId, HeapEdge>(heap);
+        Set<ContextOrObjectId> visited = HashSetFactory.make();
+        List<ContextOrObjectId> result = new ArrayList<ContextOrObjectId>();
+        for (ContextOrObjectId n : heap.vertexSet()) {
+            if (!visited.contains(n))
+                bfs(n, visited, result);
+        }
+        return result.iterator();
     }
 
     @Override
     public int referenceCount(ContextOrObjectId node) {
         if (!heap.containsVertex(node))
             return 0;
-        return heap.inDegreeOf(node);
+        Holders h = holders.get(node);
+        return heap.inDegreeOf(node) + (h == null ? 0 : h.size);
     }
 
     @Override
@@ -84,7 +343,13 @@ public class JGraphHeap extends ReferenceCountedHeapGraph {
 
     @Override
     public Set<HeapEdge> incoming(ContextOrObjectId c) {
-    	return heap.incomingEdgesOf(c);
+        Holders h = holders.get(c);
+        if (h == null)
+            return heap.incomingEdgesOf(c);
+        List<HeapEdge> result = new ArrayList<HeapEdge>(heap.incomingEdgesOf(c));
+        for (int i = 0; i < h.size; i++)
+            result.add(new NamedMultiEdge(h.parents[i], names.get(h.names[i]), c));
+        return new EdgeSet(result);
 //    	Set<NamedEdge> result = new LinkedHashSet<>();
 //    	heap.incomingEdgesOf(c).stream().forEach(e -> { if (e instanceof NamedEdge) result.add((NamedEdge)e); });
 //        return result;
@@ -103,20 +368,35 @@ public class JGraphHeap extends ReferenceCountedHeapGraph {
 
     @Override
     protected int getOutDegree(ContextOrObjectId obj) {
-        return heap.containsVertex(obj) ? heap.outDegreeOf(obj) : 0;
+        if (!heap.containsVertex(obj))
+            return 0;
+        ChildSet set = childSets.get(obj);
+        return heap.outDegreeOf(obj) + (set == null ? 0 : set.size());
     }
 
     @Override
     public Set<HeapEdge> getOutEdges(ContextOrObjectId node) {
         if (!heap.containsVertex(node))
             return Collections.emptySet();
-        return heap.outgoingEdgesOf(node);
+        ChildSet set = childSets.get(node);
+        if (set == null)
+            return heap.outgoingEdgesOf(node);
+        List<HeapEdge> result = new ArrayList<HeapEdge>(heap.outDegreeOf(node) + set.size());
+        result.addAll(heap.outgoingEdgesOf(node));
+        for (int i = 0; i < set.limit(); i++) {
+            long key = set.keyAt(i);
+            if (key != ChildSet.HOLE)
+                result.add(new NamedMultiEdge(node, names.get(ChildSet.name(key)), lookupNode(ChildSet.child(key))));
+        }
+        return new EdgeSet(result);
     }
 
 	@Override
 	public Set<NamedEdge> getNamedOutEdges(ContextOrObjectId node) {
 		Set<NamedEdge> result = HashSetFactory.make();
-		for (HeapEdge e: getOutEdges(node)) {
+		if (!heap.containsVertex(node))
+		    return result;
+		for (HeapEdge e: heap.outgoingEdgesOf(node)) {
             if (e instanceof NamedEdge)
                 result.add((NamedEdge) e);
 		}
@@ -130,12 +410,18 @@ public class JGraphHeap extends ReferenceCountedHeapGraph {
      * @return target of edge, or null if no such edge in heap
      */
     public ContextOrObjectId getTarget(HeapEdge e) {
+        if (e instanceof NamedMultiEdge) {
+            NamedMultiEdge m = (NamedMultiEdge) e;
+            ChildSet set = childSets.get(m.getFrom());
+            Integer n = nameIds.get(m.getName());
+            return set != null && n != null && set.contains(ChildSet.key(n, m.getChild().getId())) ? m.getChild() : null;
+        }
         return heap.containsEdge(e) ? heap.getEdgeTarget(e) : null;
     }
 
 	@Override
 	protected void addNamedMultiEdge(NamedMultiEdge edge) {
-		heap.addEdge(edge.getFrom(), edge.getChild(), edge);
+		addChild(edge.getFrom(), edge.getName(), edge.getChild());
 	}
 
 }
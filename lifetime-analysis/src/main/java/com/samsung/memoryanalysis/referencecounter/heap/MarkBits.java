@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * a set of marked nodes that several threads may add to.  Nodes the graph
+ * numbers are kept in a bitmap indexed by node index; other nodes, for
+ * example those of a graph that does not number its nodes, or nodes that
+ * have been removed since they were marked, go in a concurrent hash set.
+ * The graph must not add nodes while the set is in use.
+ */
+class MarkBits extends AbstractSet<ContextOrObjectId> {
+
+    private final ReferenceCountedHeapGraph graph;
+
+    private final AtomicLongArray bits;
+
+    private final Set<ContextOrObjectId> others = Collections.newSetFromMap(new ConcurrentHashMap<ContextOrObjectId, Boolean>());
+
+    MarkBits(ReferenceCountedHeapGraph graph) {
+        this.graph = graph;
+        this.bits = new AtomicLongArray((graph.nodeIndexLimit() + 63) >>> 6);
+    }
+
+    @Override
+    public boolean add(ContextOrObjectId node) {
+        int i = graph.nodeIndex(node);
+        if (i < 0)
+            return others.add(node);
+        long bit = 1L << i;
+        while (true) {
+            long word = bits.get(i >>> 6);
+            if ((word & bit) != 0)
+                return false;
+            if (bits.compareAndSet(i >>> 6, word, word | bit))
+                return true;
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof ContextOrObjectId))
+            return false;
+        ContextOrObjectId node = (ContextOrObjectId) o;
+        int i = graph.nodeIndex(node);
+        if (i < 0)
+            return others.contains(node);
+        return (bits.get(i >>> 6) & (1L << i)) != 0;
+    }
+
+    @Override
+    public void clear() {
+        for (int w = 0; w < bits.length(); w++)
+            bits.set(w, 0);
+        others.clear();
+    }
+
+    @Override
+    public int size() {
+        int n = others.size();
+        for (int w = 0; w < bits.length(); w++)
+            n += Long.bitCount(bits.get(w));
+        return n;
+    }
+
+    /**
+     * iterates over the marked nodes that are still in the graph, then the
+     * others
+     */
+    @Override
+    public Iterator<ContextOrObjectId> iterator() {
+        final Iterator<ContextOrObjectId> rest = others.iterator();
+        return new Iterator<ContextOrObjectId>() {
+            private int next = advance(0);
+
+            private int advance(int i) {
+                int limit = bits.length() << 6;
+                while (i < limit && ((bits.get(i >>> 6) & (1L << i)) == 0 || graph.nodeAtIndex(i) == null))
+                    i++;
+                return i;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < bits.length() << 6 || rest.hasNext();
+            }
+
+            @Override
+            public ContextOrObjectId next() {
+                if (next < bits.length() << 6) {
+                    ContextOrObjectId result = graph.nodeAtIndex(next);
+                    next = advance(next + 1);
+                    return result;
+                }
+                if (!rest.hasNext())
+                    throw new NoSuchElementException();
+                return rest.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
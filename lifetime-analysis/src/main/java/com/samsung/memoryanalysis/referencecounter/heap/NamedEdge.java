@@ -15,14 +15,20 @@
  */
 package com.samsung.memoryanalysis.referencecounter.heap;
 
+import java.io.Serializable;
+
 /**
  * Created by s.jensen on 6/11/14.
  */
-public class NamedEdge implements HeapEdge {
+public class NamedEdge implements HeapEdge, Serializable {
 
-    //TODO: Canonicalize
+    private static final long serialVersionUID = 1L;
 
     private final ContextOrObjectId from;
+
+    /**
+     * canonical name; compared by identity
+     */
     private final String name;
     public NamedEdge(ContextOrObjectId from, String name) {
         this.from = from;
@@ -41,7 +47,7 @@ public class NamedEdge implements HeapEdge {
         NamedEdge namedEdge = (NamedEdge) o;
 
         if (from != null ? !from.equals(namedEdge.from) : namedEdge.from != null) return false;
-        if (name != null ? !name.equals(namedEdge.name) : namedEdge.name != null) return false;
+        if (name != namedEdge.name) return false;
 
         return true;
     }
@@ -15,11 +15,15 @@
  */
 package com.samsung.memoryanalysis.referencecounter.heap;
 
+import java.io.Serializable;
+
 
 /**
  * an edge that allows for multiple outgoing edges from a source with the same name
  */
-public class NamedMultiEdge implements HeapEdge {
+public class NamedMultiEdge implements HeapEdge, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
 	private final ContextOrObjectId parent;
 	private final String name;
@@ -67,10 +71,8 @@ public class NamedMultiEdge implements HeapEdge {
 				return false;
 		} else if (!child.equals(other.child))
 			return false;
-		if (name == null) {
-			if (other.name != null)
-				return false;
-		} else if (!name.equals(other.name))
+		// names are canonical
+		if (name != other.name)
 			return false;
 		if (parent == null) {
 			if (other.parent != null)
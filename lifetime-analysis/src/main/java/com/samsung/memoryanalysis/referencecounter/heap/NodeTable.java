@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.ibm.wala.util.collections.HashMapFactory;
+import com.samsung.memoryanalysis.context.Context;
+
+/**
+ * The nodes of one heap graph.  Object ids are assigned densely, so object
+ * nodes are kept in an array indexed by id; the few negative object ids, if
+ * any, go in a map.  Context ids are never reused, and grow with every call,
+ * so context nodes are kept by slot instead: slots are reused once their
+ * node is released, and an index hashed by context id, which shrinks as
+ * nodes are released, finds the slot of a context.  The references from
+ * frames to each context are counted by slot, too.
+ *
+ * A node is dropped from the table when it is removed from the graph, and is
+ * made again if its id comes back.  Nodes compare by value, so an old node
+ * still held elsewhere stays equal to the new one.
+ *
+ * Only the analysis thread adds to the table.  A mark reading the graph on
+ * other threads finds nodes with {@link #lookup(int)}, which does not.
+ */
+public final class NodeTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private ContextOrObjectId[] objects = new ContextOrObjectId[INITIAL_CAPACITY];
+
+    /*
+     * context nodes, and references to them from frames, by slot.  Free
+     * slots have a null node, and are kept in freeSlots
+     */
+    private ContextOrObjectId[] contexts = new ContextOrObjectId[INITIAL_CAPACITY];
+    private int[] frameRefs = new int[INITIAL_CAPACITY];
+    private int[] freeSlots = new int[16];
+    private int freeSlotCount = 0;
+    private int slotLimit = 0;
+    private int contextCount = 0;
+
+    /**
+     * open-addressing table of (slot + 1), or 0 for an empty entry, hashed by
+     * context id
+     */
+    private int[] contextIndex = new int[2 * INITIAL_CAPACITY];
+
+    private final Map<Integer, ContextOrObjectId> negativeIds = HashMapFactory.make();
+
+    public ContextOrObjectId node(int objectId) {
+        if (objectId < 0) {
+            return negativeNode(objectId);
+        }
+        ContextOrObjectId[] a = objects;
+        if (objectId >= a.length) {
+            a = objects = Arrays.copyOf(a, capacity(a.length, objectId));
+        }
+        ContextOrObjectId res = a[objectId];
+        if (res == null) {
+            a[objectId] = res = new ContextOrObjectId(objectId);
+        }
+        return res;
+    }
+
+    /**
+     * @return the node for objectId, or, if the table has none, a new node
+     * that is not added to it
+     */
+    public ContextOrObjectId lookup(int objectId) {
+        ContextOrObjectId res = null;
+        if (objectId < 0) {
+            synchronized (negativeIds) {
+                res = negativeIds.get(objectId);
+            }
+        } else {
+            ContextOrObjectId[] a = objects;
+            if (objectId < a.length)
+                res = a[objectId];
+        }
+        return res != null ? res : new ContextOrObjectId(objectId);
+    }
+
+    public ContextOrObjectId node(Context c) {
+        int i = indexOf(c);
+        if (i >= 0)
+            return contexts[contextIndex[i] - 1];
+        int slot;
+        if (freeSlotCount > 0) {
+            slot = freeSlots[--freeSlotCount];
+        } else {
+            slot = slotLimit++;
+            if (slot == contexts.length) {
+                contexts = Arrays.copyOf(contexts, 2 * slot);
+                frameRefs = Arrays.copyOf(frameRefs, 2 * slot);
+            }
+        }
+        ContextOrObjectId res = contexts[slot] = new ContextOrObjectId(c);
+        if (2 * ++contextCount > contextIndex.length)
+            reindex(2 * contextIndex.length);
+        else
+            index(slot);
+        return res;
+    }
+
+    /**
+     * invoked when node is removed from the graph
+     */
+    void release(ContextOrObjectId node) {
+        if (node.type == ContextOrObjectId.Type.CONTEXT) {
+            releaseContext(node.getContext());
+        } else if (node.getId() < 0) {
+            synchronized (negativeIds) {
+                negativeIds.remove(node.getId());
+            }
+        } else if (node.getId() < objects.length) {
+            objects[node.getId()] = null;
+        }
+    }
+
+    private ContextOrObjectId negativeNode(int objectId) {
+        synchronized (negativeIds) {
+            ContextOrObjectId res = negativeIds.get(objectId);
+            if (res == null) {
+                res = new ContextOrObjectId(objectId);
+                negativeIds.put(objectId, res);
+            }
+            return res;
+        }
+    }
+
+    /**
+     * adds delta to the references from frames to c, which must have a node
+     */
+    void frameReference(Context c, int delta) {
+        int i = indexOf(c);
+        assert i >= 0 : "no node for context " + c;
+        frameRefs[contextIndex[i] - 1] += delta;
+    }
+
+    /**
+     * @return the references from frames to c
+     */
+    int frameReferences(Context c) {
+        int i = indexOf(c);
+        return i < 0 ? 0 : frameRefs[contextIndex[i] - 1];
+    }
+
+    /**
+     * @return the number of context slots, used or free; it grows with the
+     * most contexts that had nodes at once
+     */
+    int contextSlots() {
+        return slotLimit;
+    }
+
+    /**
+     * @return the size of the index from contexts to slots
+     */
+    int contextIndexSize() {
+        return contextIndex.length;
+    }
+
+    private static int hash(Context c) {
+        long id = c.getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the entry of c in contextIndex, or -1
+     */
+    private int indexOf(Context c) {
+        int mask = contextIndex.length - 1;
+        for (int i = hash(c) & mask; ; i = (i + 1) & mask) {
+            int e = contextIndex[i];
+            if (e == 0)
+                return -1;
+            if (contexts[e - 1].getContext() == c)
+                return i;
+        }
+    }
+
+    private void index(int slot) {
+        int mask = contextIndex.length - 1;
+        int i = hash(contexts[slot].getContext()) & mask;
+        while (contextIndex[i] != 0)
+            i = (i + 1) & mask;
+        contextIndex[i] = slot + 1;
+    }
+
+    private void reindex(int size) {
+        contextIndex = new int[size];
+        for (int slot = 0; slot < slotLimit; slot++) {
+            if (contexts[slot] != null)
+                index(slot);
+        }
+    }
+
+    private void releaseContext(Context c) {
+        int i = indexOf(c);
+        if (i < 0)
+            return;
+        int slot = contextIndex[i] - 1;
+        assert frameRefs[slot] == 0 : "context " + c + " is referenced from frames";
+        contexts[slot] = null;
+        if (freeSlotCount == freeSlots.length)
+            freeSlots = Arrays.copyOf(freeSlots, 2 * freeSlotCount);
+        freeSlots[freeSlotCount++] = slot;
+        contextCount--;
+        // shift the entries after i back, so that probes need no tombstones
+        int mask = contextIndex.length - 1;
+        for (int j = (i + 1) & mask; contextIndex[j] != 0; j = (j + 1) & mask) {
+            int home = hash(contexts[contextIndex[j] - 1].getContext()) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                contextIndex[i] = contextIndex[j];
+                i = j;
+            }
+        }
+        contextIndex[i] = 0;
+        if (contextIndex.length > 2 * INITIAL_CAPACITY && 8 * contextCount < contextIndex.length)
+            reindex(contextIndex.length / 2);
+    }
+
+    private static int capacity(int length, int index) {
+        return Math.max(2 * length, index + 1);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * marks everything reachable from a list of roots on a fork/join pool.  Each
+ * task walks depth first from a range of marked nodes and, when its stack
+ * gets deep, forks a task for the bottom of the stack, which idle workers
+ * may steal.  The graph is only read, and must not be updated, while the
+ * mark runs.  The graphs find the targets of edges with
+ * {@link ReferenceCountedHeapGraph#lookupNode(int)}, which does not add to
+ * the node table.
+ */
+class ParallelMark extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * the most nodes a task starts from before it splits its range
+     */
+    static final int SPLIT = 256;
+
+    private final ReferenceCountedHeapGraph graph;
+
+    private final Set<ContextOrObjectId> marks;
+
+    private final ContextOrObjectId[] nodes;
+
+    private final int lo;
+
+    private final int hi;
+
+    private ParallelMark(ReferenceCountedHeapGraph graph, Set<ContextOrObjectId> marks, ContextOrObjectId[] nodes, int lo, int hi) {
+        this.graph = graph;
+        this.marks = marks;
+        this.nodes = nodes;
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    /**
+     * @return the nodes reachable from roots
+     */
+    static Set<ContextOrObjectId> mark(ReferenceCountedHeapGraph graph, List<ContextOrObjectId> roots, ForkJoinPool pool) {
+        Set<ContextOrObjectId> marks = new MarkBits(graph);
+        List<ContextOrObjectId> start = new ArrayList<ContextOrObjectId>(roots.size());
+        for (ContextOrObjectId root : roots) {
+            assert graph.containsNode(root);
+            if (marks.add(root))
+                start.add(root);
+        }
+        pool.invoke(new ParallelMark(graph, marks, start.toArray(new ContextOrObjectId[start.size()]), 0, start.size()));
+        return marks;
+    }
+
+    @Override
+    protected void compute() {
+        if (hi - lo > SPLIT) {
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ParallelMark(graph, marks, nodes, lo, mid), new ParallelMark(graph, marks, nodes, mid, hi));
+            return;
+        }
+        final Deque<ContextOrObjectId> stack = new ArrayDeque<ContextOrObjectId>();
+        for (int i = lo; i < hi; i++) {
+            stack.push(nodes[i]);
+        }
+        List<ParallelMark> forked = null;
+        while (!stack.isEmpty()) {
+            if (stack.size() >= 2 * SPLIT) {
+                ContextOrObjectId[] bottom = new ContextOrObjectId[SPLIT];
+                for (int i = 0; i < SPLIT; i++) {
+                    bottom[i] = stack.pollLast();
+                }
+                ParallelMark task = new ParallelMark(graph, marks, bottom, 0, SPLIT);
+                task.fork();
+                if (forked == null)
+                    forked = new ArrayList<ParallelMark>();
+                forked.add(task);
+            }
+            ContextOrObjectId node = stack.pop();
+            for (HeapEdge edge : graph.getOutEdges(node)) {
+                ContextOrObjectId target = graph.getTarget(edge);
+                if (target != null && marks.add(target))
+                    stack.push(target);
+            }
+        }
+        if (forked != null) {
+            for (ParallelMark task : forked) {
+                task.join();
+            }
+        }
+    }
+}
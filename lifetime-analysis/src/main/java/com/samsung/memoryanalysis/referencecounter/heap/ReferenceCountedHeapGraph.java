@@ -16,7 +16,11 @@
 package com.samsung.memoryanalysis.referencecounter.heap;
 
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.io.Writer;
+import java.util.AbstractSet;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -28,6 +32,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.ibm.wala.util.collections.HashMapFactory;
 import com.ibm.wala.util.collections.HashSetFactory;
@@ -41,18 +47,36 @@ import com.samsung.memoryanalysis.traceparser.Timer;
 /**
  * Created by s.jensen on 6/10/14.
  */
-public abstract class ReferenceCountedHeapGraph {
+public abstract class ReferenceCountedHeapGraph implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private static final String DOM_CHILD_EDGE_NAME = "~dom-child~";
     public static final String PARENT_CONTEXT_FIELD = "~PARENT-CONTEXT~";
-    private final Deque<Set<ContextOrObjectId>> candidates = new ArrayDeque<Set<ContextOrObjectId>>();
+    private final NodeTable nodeTable = new NodeTable();
+    private final Frames frames = new Frames(nodeTable);
+    private final Deque<CandidateSet> candidates = new ArrayDeque<CandidateSet>();
+    /**
+     * for each candidate, the number of candidate sets on the stack holding it
+     */
+    private final Map<ContextOrObjectId, Integer> candidateCounts = HashMapFactory.make();
     private final Map<ContextOrObjectId, SourceLocIdAndTime> cycleQueue = HashMapFactory.make();
-    private final Set<ContextOrObjectId> markSet = HashSetFactory.make();
+    private Set<ContextOrObjectId> markSet = HashSetFactory.make();
     protected VoidFunction<Unreachability> unreachableCallback;
     private int cycleQueueLimit = 50000;
+    private int minCycleQueueLimit = -1;
+    private int maxCycleQueueLimit = -1;
+    private final FlushStats flushStats = new FlushStats();
+    private CycleCollector cycleCollector = CycleCollector.MARK_FROM_ROOTS;
+    private long concurrentMarkLag = -1;
+    private ConcurrentMark concurrentMark = null;
+    private int markThreads = 1;
+    private transient ForkJoinPool markPool;
     private Timer timer = null;
 
-    private class ParentContextAndFunId {
+    private class ParentContextAndFunId implements Serializable {
+        private static final long serialVersionUID = 1L;
+
     	public String parentContext;
     	public int funId;
 
@@ -74,15 +98,59 @@ public abstract class ReferenceCountedHeapGraph {
 
     public ReferenceCountedHeapGraph() {
 
-        this.unreachableCallback = new VoidFunction<Unreachability>() {
-            @Override
-            public void apply(Unreachability v) {
-            }
-        };
+        this.unreachableCallback = new IgnoreUnreachable();
+    }
+
+    private static class IgnoreUnreachable implements VoidFunction<Unreachability>, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void apply(Unreachability v) {
+        }
     }
 
     public void setCycleQueueLimit(int cycleQueueLimit) {
         this.cycleQueueLimit = cycleQueueLimit;
+        flushStats.setCycleQueueLimit(cycleQueueLimit);
+    }
+
+    /**
+     * after each regular flush, double the cycle queue limit if the flush
+     * collected little of the queue, and halve it if the flush collected
+     * much of the queue without marking many more nodes than it collected,
+     * keeping it between min and max
+     */
+    public void setCycleQueueLimitBounds(int min, int max) {
+        if (min < 0 || max < min)
+            throw new IllegalArgumentException("bad cycle queue limit bounds " + min + ", " + max);
+        this.minCycleQueueLimit = min;
+        this.maxCycleQueueLimit = max;
+        setCycleQueueLimit(Math.min(max, Math.max(min, cycleQueueLimit)));
+    }
+
+    public FlushStats getFlushStats() {
+        return flushStats;
+    }
+
+    public void setCycleCollector(CycleCollector cycleCollector) {
+        this.cycleCollector = cycleCollector;
+    }
+
+    /**
+     * mark from the live contexts on a worker thread, finishing each flush
+     * at the first flush at least lag ticks after it started.  -1 marks on
+     * the calling thread.
+     */
+    public void setConcurrentMarkLag(long lag) {
+        this.concurrentMarkLag = lag;
+    }
+
+    /**
+     * mark from the live contexts on this many threads
+     */
+    public void setMarkThreads(int markThreads) {
+        this.markThreads = markThreads;
+        this.markPool = null;
     }
 
     public void setTimer(Timer timer) {
@@ -111,63 +179,403 @@ public abstract class ReferenceCountedHeapGraph {
 
     protected abstract int referenceCount(ContextOrObjectId node);
 
+    /**
+     * @return the references to node from the graph and from frames
+     */
+    private int references(ContextOrObjectId node) {
+        return referenceCount(node) + frames.references(node);
+    }
+
+    /*
+     * named fields, i.e., the edge named name out of from.  heaps that can
+     * find a field without building an edge override these
+     */
+
+    /**
+     * @return the target of the field, or null if from has no such field
+     */
+    protected ContextOrObjectId getField(ContextOrObjectId from, String name) {
+        return getTarget(new NamedEdge(from, name));
+    }
+
+    /**
+     * adds the field; an existing field of that name is kept
+     */
+    protected void setField(ContextOrObjectId from, String name, ContextOrObjectId to) {
+        addEdge(new NamedEdge(from, name), to);
+    }
+
+    protected void removeField(ContextOrObjectId from, String name) {
+        removeEdge(new NamedEdge(from, name));
+    }
+
+    /**
+     * applies f to the names of the fields of from, in field order.  f may
+     * remove the field it is applied to, and no other
+     */
+    protected void forEachField(ContextOrObjectId from, VoidFunction<String> f) {
+        for (NamedEdge e : getNamedOutEdges(from))
+            f.apply(e.getName());
+    }
+
+    /*
+     * child sets, i.e., the multi-edges named name out of parent.  heaps
+     * that keep child sets without edge objects override these
+     */
+
+    protected void addChild(ContextOrObjectId parent, String name, ContextOrObjectId child) {
+        addNamedMultiEdge(new NamedMultiEdge(parent, name, child));
+    }
+
+    protected void removeChild(ContextOrObjectId parent, String name, ContextOrObjectId child) {
+        removeEdge(new NamedMultiEdge(parent, name, child));
+    }
+
+    /*
+     * the graph is only updated through the methods below, so that a
+     * running background mark sees the graph as it was when it started
+     */
+
+    private void insertNode(ContextOrObjectId o) {
+        if (concurrentMark != null && !containsNode(o))
+            concurrentMark.allocated.add(o);
+        ConcurrentMark m = lockForUpdate();
+        try {
+            newNode(o);
+        } finally {
+            unlock(m);
+        }
+    }
+
+    private void insertField(ContextOrObjectId from, String name, ContextOrObjectId to) {
+        touch(from);
+        touch(to);
+        ConcurrentMark m = lockForUpdate();
+        try {
+            if (m != null)
+                m.saveTargets(from);
+            setField(from, name, to);
+        } finally {
+            unlock(m);
+        }
+    }
+
+    private void deleteField(ContextOrObjectId from, String name) {
+        touch(from);
+        ConcurrentMark m = lockForUpdate();
+        try {
+            if (m != null)
+                m.saveTargets(from);
+            removeField(from, name);
+        } finally {
+            unlock(m);
+        }
+    }
+
+    private void insertChild(ContextOrObjectId parent, String name, ContextOrObjectId child) {
+        touch(parent);
+        touch(child);
+        ConcurrentMark m = lockForUpdate();
+        try {
+            if (m != null)
+                m.saveTargets(parent);
+            addChild(parent, name, child);
+        } finally {
+            unlock(m);
+        }
+    }
+
+    private void deleteChild(ContextOrObjectId parent, String name, ContextOrObjectId child) {
+        touch(parent);
+        ConcurrentMark m = lockForUpdate();
+        try {
+            if (m != null)
+                m.saveTargets(parent);
+            removeChild(parent, name, child);
+        } finally {
+            unlock(m);
+        }
+    }
+
+    private void deleteNode(ContextOrObjectId node) {
+        ConcurrentMark m = lockForUpdate();
+        try {
+            if (m != null && containsNode(node)) {
+                m.saveTargets(node);
+                for (HeapEdge e : incoming(node)) {
+                    m.saveTargets(e.getFrom());
+                }
+            }
+            removeNode(node);
+            nodeTable.release(node);
+        } finally {
+            unlock(m);
+        }
+    }
+
+    /**
+     * notes that the trace used node while a background mark was pending
+     */
+    private void touch(ContextOrObjectId node) {
+        if (concurrentMark != null)
+            concurrentMark.touched.add(node);
+    }
+
+    /**
+     * @return the running background mark, with its lock held, or null
+     */
+    private ConcurrentMark lockForUpdate() {
+        ConcurrentMark m = concurrentMark;
+        if (m == null || !m.running)
+            return null;
+        m.lock.lock();
+        return m;
+    }
+
+    private static void unlock(ConcurrentMark m) {
+        if (m != null)
+            m.lock.unlock();
+    }
+
+    private List<ContextOrObjectId> targets(ContextOrObjectId node) {
+        Set<HeapEdge> out = getOutEdges(node);
+        List<ContextOrObjectId> result = new ArrayList<ContextOrObjectId>(out.size());
+        for (HeapEdge edge : out) {
+            ContextOrObjectId target = getTarget(edge);
+            if (target != null)
+                result.add(target);
+        }
+        return result;
+    }
+
     public void setUnreachableCallback(VoidFunction<Unreachability> f) {
         this.unreachableCallback = f;
     }
 
+    public ContextOrObjectId nodeFor(int objectId) {
+        return nodeTable.node(objectId);
+    }
+
+    public ContextOrObjectId nodeFor(Context c) {
+        return nodeTable.node(c);
+    }
+
+    NodeTable nodeTable() {
+        return nodeTable;
+    }
+
+    /**
+     * as {@link #nodeFor(int)}, but never adds to the node table, so that
+     * marks on other threads can read the graph through it
+     */
+    protected ContextOrObjectId lookupNode(int objectId) {
+        return nodeTable.lookup(objectId);
+    }
+
     public void newObject(int objectId) {
-        newNode(ContextOrObjectId.make(objectId));
+        insertNode(nodeFor(objectId));
     }
 
     public void newContext(Context ctx, int funId) {
         Context parentOp = ctx.getParent();
-        candidates.push(HashSetFactory.<ContextOrObjectId>make());
-        newNode(ContextOrObjectId.make(ctx));
+        candidates.push(new CandidateSet());
+        insertNode(nodeFor(ctx));
         if (parentOp != null) {
             addParentReference(ctx, parentOp, funId);
         }
     }
 
+    /**
+     * Like {@link #newContext(Context, int)}, but keeps the context out of the
+     * graph, as a frame, for as long as nothing needs it there: it goes into
+     * the graph when a closure is created in it, when it gets more than
+     * {@link Frames#MAX_SLOTS} variables, and when a cycle collection marks
+     * from the live contexts.  A frame that never goes in is dropped at
+     * function exit, and the graph changes as if it had been in.
+     */
+    public void newFrame(Context ctx, int funId) {
+        Context parentOp = ctx.getParent();
+        if (parentOp == null) {
+            newContext(ctx, funId);
+            return;
+        }
+        candidates.push(new CandidateSet());
+        ContextOrObjectId parent = parentNode(parentOp, funId);
+        touch(parent);
+        frames.push(ctx, nodeFor(ctx), parent);
+    }
+
+    /**
+     * @return whether the context is kept out of the graph
+     */
+    public boolean isFrame(Context ctx) {
+        return frames.of(ctx) != null;
+    }
+
+    private void materialize(Frames.Frame f) {
+        frames.remove(f);
+        insertFrame(f);
+    }
+
+    /**
+     * puts all frames into the graph, for walks of the graph that start
+     * from, or look for, the live contexts.  A sealed frame whose flush has
+     * passed without dropping it would be a dead node that nothing collects,
+     * so it is dropped instead, at the location it was sealed at
+     */
+    public void materializeFrames(Set<Integer> dontFlush) {
+        if (frames.isEmpty())
+            return;
+        for (Frames.Frame f : frames.sealed()) {
+            if (!isCandidate(f.node))
+                decrementReachable(f.sealedAt, f.node, dontFlush);
+        }
+        for (Frames.Frame f : frames.removeAll()) {
+            insertFrame(f);
+        }
+    }
+
+    /**
+     * the fields of the node are inserted in the order the graph would have
+     * them in had the context always been in it
+     */
+    private void insertFrame(Frames.Frame f) {
+        insertNode(f.node);
+        if (f.parent != null)
+            insertField(f.node, PARENT_CONTEXT_FIELD, f.parent);
+        for (int i = 0; i < f.size; i++) {
+            insertField(f.node, f.names[i], f.targets[i]);
+        }
+    }
+
     /**
      *
      * @param node
      * @return true if node is in any candidate set.
      */
     protected boolean isCandidate(ContextOrObjectId node) {
-        for (Set<ContextOrObjectId> candidateSet : candidates) {
-            if (candidateSet.contains(node))
-                return true;
+        return candidateCounts.containsKey(node);
+    }
+
+    private void countCandidate(ContextOrObjectId node, int delta) {
+        Integer count = candidateCounts.get(node);
+        int n = (count == null ? 0 : count) + delta;
+        if (n == 0) {
+            candidateCounts.remove(node);
+        } else {
+            candidateCounts.put(node, n);
+        }
+    }
+
+    /**
+     * the candidates of one call; while the set is on the candidates stack,
+     * its members are counted in candidateCounts so that isCandidate need not
+     * scan every frame of a deep call stack
+     */
+    private class CandidateSet extends AbstractSet<ContextOrObjectId> implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Set<ContextOrObjectId> nodes = HashSetFactory.make();
+
+        private boolean onStack = true;
+
+        @Override
+        public boolean add(ContextOrObjectId node) {
+            if (!nodes.add(node)) {
+                return false;
+            }
+            if (onStack) {
+                countCandidate(node, 1);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return nodes.contains(o);
+        }
+
+        @Override
+        public int size() {
+            return nodes.size();
+        }
+
+        @Override
+        public Iterator<ContextOrObjectId> iterator() {
+            final Iterator<ContextOrObjectId> i = nodes.iterator();
+            return new Iterator<ContextOrObjectId>() {
+
+                private ContextOrObjectId last;
+
+                @Override
+                public boolean hasNext() {
+                    return i.hasNext();
+                }
+
+                @Override
+                public ContextOrObjectId next() {
+                    return last = i.next();
+                }
+
+                @Override
+                public void remove() {
+                    i.remove();
+                    if (onStack) {
+                        countCandidate(last, -1);
+                    }
+                }
+            };
+        }
+
+        /**
+         * invoked when the set is popped off the candidates stack
+         */
+        void leaveStack() {
+            if (onStack) {
+                onStack = false;
+                for (ContextOrObjectId node : nodes) {
+                    countCandidate(node, -1);
+                }
+            }
         }
-        return false;
     }
 
     private void addParentReference(Context child, Context parent, int funId) {
-        ContextOrObjectId childNode = ContextOrObjectId.make(child);
-        ContextOrObjectId parentNode = ContextOrObjectId.make(parent);
+        insertField(nodeFor(child), PARENT_CONTEXT_FIELD, parentNode(parent, funId));
+    }
+
+    /**
+     * @return the node of the parent of a new context, putting it back into
+     * the graph if it was collected
+     */
+    private ContextOrObjectId parentNode(Context parent, int funId) {
+        Frames.Frame f = frames.of(parent);
+        if (f != null)
+            materialize(f);
+        ContextOrObjectId parentNode = nodeFor(parent);
         if (!containsNode(parentNode)) {
             reMakeContext(parentNode);
             resurrectedContexts.put(timer.currentTime(), new ParentContextAndFunId(parent.toString(), funId));
         }
-        NamedEdge newEdge = new NamedEdge(childNode, PARENT_CONTEXT_FIELD);
-        addEdge(newEdge, parentNode);
+        return parentNode;
     }
 
     private void reMakeContext(ContextOrObjectId parentNode) {
         assert parentNode.type == ContextOrObjectId.Type.CONTEXT;
         assert !containsNode(parentNode);
-        newNode(parentNode);
+        insertNode(parentNode);
         Context iter = parentNode.getContext();
         while (!iter.isGlobal()) {
-            ContextOrObjectId iterNode = ContextOrObjectId.make(iter);
+            ContextOrObjectId iterNode = nodeFor(iter);
             Context parent = iter.getParent();// Safe, since we know iter is not global;
-            ContextOrObjectId pn = ContextOrObjectId.make(parent);
+            ContextOrObjectId pn = nodeFor(parent);
             boolean stop = true;
             if (!containsNode(pn)) {
-                newNode(pn);
+                insertNode(pn);
                 stop = false;
             }
-            NamedEdge newEdge = new NamedEdge(iterNode, PARENT_CONTEXT_FIELD);
-            addEdge(newEdge, pn);
+            insertField(iterNode, PARENT_CONTEXT_FIELD, pn);
             if (stop)
                 break;
             iter = parent;
@@ -175,32 +583,34 @@ public abstract class ReferenceCountedHeapGraph {
     }
 
     public void addObjectReference(int fromId, String name, int toId, SourceLocId slId) {
-        ContextOrObjectId from = ContextOrObjectId.make(fromId);
+        ContextOrObjectId from = nodeFor(fromId);
         if (!containsNode(from))
-            newNode(from);
-        ContextOrObjectId to = ContextOrObjectId.make(toId);
+            insertNode(from);
+        ContextOrObjectId to = nodeFor(toId);
         if (!containsNode(to))
-            newNode(to);
-        NamedEdge e = new NamedEdge(from, name);
-        ContextOrObjectId old = getTarget(e);
+            insertNode(to);
+        writeField(from, name, to, isNull(toId), slId);
+    }
+
+    private void writeField(ContextOrObjectId from, String name, ContextOrObjectId to, boolean isNull, SourceLocId slId) {
+        ContextOrObjectId old = getField(from, name);
         if (old != null) {
-            decrementReference(e, old, slId);//removeEdge(e, old);
+            deleteField(from, name);
+            dropReference(old, slId);
         }
-        if (!isNull(toId))
-            addEdge(e, to);
+        if (!isNull)
+            insertField(from, name, to);
     }
 
     /**
-     * Remove the given edge and handle potential garbage cycles.
+     * Handle potential garbage cycles after an edge to recv was removed.
      *
-     * @param e
      * @param recv
      */
-    private void decrementReference(HeapEdge e, ContextOrObjectId recv, SourceLocId slId) {
-        removeEdge(e);
-        if (referenceCount(recv) > 0) {
+    private void dropReference(ContextOrObjectId recv, SourceLocId slId) {
+        if (references(recv) > 0) {
             addToCycleQueue(recv, slId);
-        } else if (referenceCount(recv) == 0) {
+        } else if (references(recv) == 0) {
             addToFlushQueue(recv);//;candidates.add(to);
         }
     }
@@ -243,18 +653,135 @@ public abstract class ReferenceCountedHeapGraph {
         END_EXECUTION
     }
 
+    /**
+     * how a cycle queue flush finds the queued nodes that are still live
+     */
+    public static enum CycleCollector {
+        /**
+         * mark everything reachable from the live contexts
+         */
+        MARK_FROM_ROOTS,
+        /**
+         * trial deletion (Bacon and Rajan), which only scans the subgraphs
+         * reachable from the queued nodes
+         */
+        TRIAL_DELETION
+    }
+
+    /**
+     * Marks the live nodes among those reachable from roots without passing
+     * through a live context.  The references between these nodes are
+     * subtracted from their reference counts, so that what is left counts
+     * references from outside.  Live contexts are live, and so are nodes
+     * with an outside reference from a node reachable from a live context,
+     * and everything they reach.  This marks the same nodes as marking from
+     * the live contexts would.
+     */
+    private void markLiveByTrialDeletion(final List<ContextOrObjectId> roots) {
+        final Map<ContextOrObjectId, Integer> trialCounts = HashMapFactory.make();
+        final Deque<ContextOrObjectId> wl = new ArrayDeque<ContextOrObjectId>();
+        for (ContextOrObjectId root : roots) {
+            if (!trialCounts.containsKey(root)) {
+                trialCounts.put(root, references(root));
+                wl.push(root);
+            }
+        }
+        while (!wl.isEmpty()) {
+            ContextOrObjectId node = wl.pop();
+            if (isLiveContext(node))
+                continue;
+            for (HeapEdge edge: getOutEdges(node)) {
+                ContextOrObjectId target = getTarget(edge);
+                if (target == null)
+                    continue;
+                Integer count = trialCounts.get(target);
+                if (count == null) {
+                    count = references(target);
+                    wl.push(target);
+                }
+                trialCounts.put(target, count - 1);
+            }
+        }
+        final Set<ContextOrObjectId> rooted = HashSetFactory.make();
+        final Set<ContextOrObjectId> unrooted = HashSetFactory.make();
+        for (Map.Entry<ContextOrObjectId, Integer> e : trialCounts.entrySet()) {
+            ContextOrObjectId live = e.getKey();
+            // nodes marked from an earlier live node need no search
+            if (markSet.contains(live)
+                    || !(isLiveContext(live) || e.getValue() > 0 && isRooted(live, trialCounts.keySet(), rooted, unrooted)))
+                continue;
+            markSet.add(live);
+            wl.push(live);
+            while (!wl.isEmpty()) {
+                ContextOrObjectId node = wl.pop();
+                if (isLiveContext(node))
+                    continue;
+                for (HeapEdge edge: getOutEdges(node)) {
+                    ContextOrObjectId target = getTarget(edge);
+                    if (target != null && trialCounts.containsKey(target) && markSet.add(target))
+                        wl.push(target);
+                }
+            }
+        }
+    }
+
+    /**
+     * searches backwards, breadth first, from the holders of node outside
+     * scanned for a live context.  The searches of one flush share their
+     * results: the nodes on a path found from a live context are added to
+     * rooted, and when there is none, the nodes searched are added to
+     * unrooted, so that later searches stop at either.
+     */
+    private boolean isRooted(ContextOrObjectId node, Set<ContextOrObjectId> scanned, Set<ContextOrObjectId> rooted,
+            Set<ContextOrObjectId> unrooted) {
+        // each node searched, mapped to the node it holds on the way to node
+        final Map<ContextOrObjectId, ContextOrObjectId> holds = HashMapFactory.make();
+        final Deque<ContextOrObjectId> wl = new ArrayDeque<ContextOrObjectId>();
+        wl.add(node);
+        while (!wl.isEmpty()) {
+            ContextOrObjectId held = wl.remove();
+            for (HeapEdge edge: incoming(held)) {
+                ContextOrObjectId holder = edge.getFrom();
+                if (isLiveContext(holder) || rooted.contains(holder)) {
+                    for (ContextOrObjectId n = held; n != null; n = holds.get(n))
+                        rooted.add(n);
+                    return true;
+                }
+                if (!scanned.contains(holder) && !unrooted.contains(holder) && !holds.containsKey(holder)) {
+                    holds.put(holder, held);
+                    wl.add(holder);
+                }
+            }
+        }
+        unrooted.addAll(holds.keySet());
+        return false;
+    }
+
+    private static boolean isLiveContext(ContextOrObjectId node) {
+        return node.type == ContextOrObjectId.Type.CONTEXT && node.getContext().isLive();
+    }
+
     public void flushCycleQueue(Set<Integer> dontFlush, FlushType flushType, Collection<Context> liveContext) {
+        if (concurrentMark != null) {
+            if (flushType == FlushType.REGULAR) {
+                flushStats.deferred();
+                return;
+            }
+            finishConcurrentMark(SourceMap.UNKNOWN_ID, dontFlush);
+        }
         //1. Remove elements with ref count = 0
         Iterator<ContextOrObjectId> iter = cycleQueue.keySet().iterator();
         while (iter.hasNext()) {
             final ContextOrObjectId c = iter.next();
             if (c.type == ContextOrObjectId.Type.CONTEXT && c.getContext().isLive())
                 iter.remove();
-            if (referenceCount(c) == 0)
+            if (references(c) == 0)
                 iter.remove(); //Reflected onto the underlying Map.
         }
         if (cycleQueue.size() < cycleQueueLimit && flushType == FlushType.REGULAR)
             return;
+        materializeFrames(dontFlush);
+        long start = System.nanoTime();
         List<Map.Entry<ContextOrObjectId, SourceLocIdAndTime>> realQueue = new ArrayList<Map.Entry<ContextOrObjectId, SourceLocIdAndTime>>(cycleQueue.entrySet());
 
         //2. Sort the remaining elements by insertion time in descending order
@@ -266,31 +793,138 @@ public abstract class ReferenceCountedHeapGraph {
                 return (int) (b.getValue().time - a.getValue().time);
             }
         });
-        if (flushType != FlushType.END_EXECUTION) { //Nothing gets marked at end of execution.
+        if (flushType == FlushType.END_EXECUTION) {
+            //Nothing gets marked at end of execution.
+        } else if (concurrentMarkLag >= 0 && cycleCollector == CycleCollector.MARK_FROM_ROOTS && flushType == FlushType.REGULAR) {
+            List<ContextOrObjectId> roots = new ArrayList<ContextOrObjectId>(liveContext.size());
+            for (Context c : liveContext) {
+                roots.add(nodeFor(c));
+            }
+            List<ContextOrObjectId> order = new ArrayList<ContextOrObjectId>(realQueue.size());
+            for (Map.Entry<ContextOrObjectId, SourceLocIdAndTime> e : realQueue) {
+                order.add(e.getKey());
+            }
+            concurrentMark = new ConcurrentMark(roots, order, HashMapFactory.make(cycleQueue), timer.currentTime() + concurrentMarkLag);
+            cycleQueue.clear();
+            concurrentMark.start();
+            if (concurrentMarkLag == 0)
+                finishConcurrentMark(SourceMap.UNKNOWN_ID, dontFlush);
+            return;
+        } else if (cycleCollector == CycleCollector.TRIAL_DELETION) {
+            List<ContextOrObjectId> roots = new ArrayList<ContextOrObjectId>(realQueue.size());
+            for (Map.Entry<ContextOrObjectId, SourceLocIdAndTime> e : realQueue) {
+                roots.add(e.getKey());
+            }
+            markLiveByTrialDeletion(roots);
+        } else {
             List<ContextOrObjectId> roots = new ArrayList<ContextOrObjectId>(liveContext.size());
             for (Context c : liveContext) {
-                roots.add(ContextOrObjectId.make(c));
+                roots.add(nodeFor(c));
+            }
+            if (markThreads > 1) {
+                if (markPool == null)
+                    markPool = new ForkJoinPool(markThreads);
+                markSet = ParallelMark.mark(this, roots, markPool);
+            } else {
+                markReachable(roots);
             }
-            markReachable(roots);
         }
+        int marked = markSet.size();
+        int nodes = nodeCount();
+        // collecting stays on this thread, as it reports nodes in order
         for (Map.Entry<ContextOrObjectId, SourceLocIdAndTime> root : realQueue) {
             ContextOrObjectId node = root.getKey();
             SourceLocIdAndTime insertionInfo = root.getValue();
-            if (markSet.contains(node))
+            if (markSet.contains(node) || !containsNode(node))
                 continue;
-            collectUnmarked(node, insertionInfo);
+            collectUnmarked(node, insertionInfo, cycleQueue, null);
         }
 
+        if (markSet instanceof MarkBits)
+            markSet = HashSetFactory.make();
         markSet.clear();
         cycleQueue.clear();
+        flushed(flushType, realQueue.size(), marked, nodes - nodeCount(), System.nanoTime() - start);
+    }
+
+    private void flushed(FlushType flushType, int queued, int marked, int collected, long nanos) {
+        flushStats.record(queued, marked, collected, nanos);
+        if (flushType != FlushType.REGULAR || maxCycleQueueLimit < 0)
+            return;
+        setCycleQueueLimit(adaptCycleQueueLimit(cycleQueueLimit, minCycleQueueLimit, maxCycleQueueLimit, queued, marked, collected));
+    }
+
+    /**
+     * @return the cycle queue limit after a regular flush at limit that
+     * collected collected of queued nodes after marking marked: doubled, at
+     * least to 1, if it collected under an eighth of the queue, halved if it
+     * collected at least half of the queue and marked at most 16 nodes for
+     * each one collected, and otherwise unchanged, within min and max
+     */
+    static int adaptCycleQueueLimit(int limit, int min, int max, int queued, int marked, int collected) {
+        // mark work rather than time is weighed, so that the limit, and with
+        // it the analysis results, do not depend on the machine
+        if (8L * collected < queued)
+            return (int) Math.min(max, Math.max(1, 2L * limit));
+        if (2L * collected >= queued && marked <= 16L * collected)
+            return Math.max(min, limit / 2);
+        return limit;
     }
 
-    private void collectUnmarked(ContextOrObjectId startNode, SourceLocIdAndTime startTime) {
+    /**
+     * Collects the nodes queued when the background mark started that it
+     * did not mark, with the times they were queued.  Nodes added to the
+     * graph since then count as marked, and so does everything the trace
+     * used since then and what it reaches now.  A marked node may have
+     * become garbage since the mark started; if collecting its holders
+     * leaves it with no references, it is released at slId, as if its last
+     * reference had been dropped there.
+     */
+    private void finishConcurrentMark(SourceLocId slId, Set<Integer> dontFlush) {
+        long start = System.nanoTime();
+        ConcurrentMark m = concurrentMark;
+        m.await();
+        concurrentMark = null;
+        markSet.addAll(m.marked);
+        markSet.addAll(m.allocated);
+        List<ContextOrObjectId> used = new ArrayList<ContextOrObjectId>();
+        for (ContextOrObjectId node : m.touched) {
+            if (!markSet.contains(node) && containsNode(node))
+                used.add(node);
+        }
+        int reached = markSet.size();
+        markReachable(used);
+        int kept = markSet.size() - reached;
+        int nodes = nodeCount();
+        Set<ContextOrObjectId> held = HashSetFactory.make();
+        for (ContextOrObjectId node : m.order) {
+            if (markSet.contains(node) || !containsNode(node))
+                continue;
+            collectUnmarked(node, m.queued.get(node), m.queued, held);
+        }
+        markSet.clear();
+        int collected = nodes - nodeCount();
+        int released = 0;
+        for (ContextOrObjectId node : held) {
+            if (containsNode(node) && references(node) == 0) {
+                decrementReachable(slId, node, dontFlush);
+                released++;
+            }
+        }
+        flushStats.finished(kept, released);
+        flushed(FlushType.REGULAR, m.order.size(), m.marked.size(), collected, System.nanoTime() - start);
+    }
+
+    /**
+     * @param held if not null, gets the marked targets of the collected nodes
+     */
+    private void collectUnmarked(ContextOrObjectId startNode, SourceLocIdAndTime startTime, Map<ContextOrObjectId, SourceLocIdAndTime> queue,
+            Set<ContextOrObjectId> held) {
         final Deque<ContextOrObjectId> wl = new ArrayDeque<ContextOrObjectId>();
         wl.push(startNode);
         while (!wl.isEmpty()) {
             ContextOrObjectId current = wl.pop();
-            SourceLocIdAndTime g = cycleQueue.get(current);
+            SourceLocIdAndTime g = queue.get(current);
             long time = startTime.time;
             SourceLocId slId = startTime.slId;
             if (g != null) {
@@ -306,16 +940,41 @@ public abstract class ReferenceCountedHeapGraph {
                 if (target != null) {
                     if (!markSet.contains(target)) {
                         wl.push(target);
+                    } else if (held != null) {
+                        held.add(target);
                     }
                 }
             }
-            removeNode(current);
+            deleteNode(current);
         }
     }
 
 
     public abstract boolean containsNode(ContextOrObjectId v);
 
+    /**
+     * @return an index for node below {@link #nodeIndexLimit()}, or -1 if
+     * node is not in the graph or the graph does not number its nodes
+     */
+    protected int nodeIndex(ContextOrObjectId node) {
+        return -1;
+    }
+
+    /**
+     * @return a bound on the node indices, or 0 if the graph does not
+     * number its nodes
+     */
+    protected int nodeIndexLimit() {
+        return 0;
+    }
+
+    /**
+     * @return the node with the given index, or null if there is none
+     */
+    protected ContextOrObjectId nodeAtIndex(int index) {
+        return null;
+    }
+
     public abstract Set<HeapEdge> incoming(ContextOrObjectId c);
 
     public boolean isNull(int id) {
@@ -327,27 +986,52 @@ public abstract class ReferenceCountedHeapGraph {
     }
 
     public void addContextReference(Context ctx, String name, int toId, SourceLocId slId) {
-        ContextOrObjectId from = ContextOrObjectId.make(ctx);
+        Frames.Frame f = frames.of(ctx);
+        if (f != null) {
+            int slot = f.slotOf(name);
+            // the frame counts references by object id
+            if (toId >= 0 && (slot >= 0 || f.size < Frames.MAX_SLOTS)) {
+                writeFrame(f, slot, name, toId, slId);
+                return;
+            }
+            materialize(f);
+        }
+        ContextOrObjectId from = nodeFor(ctx);
         if (!containsNode(from))
-            newNode(from);
-        ContextOrObjectId to = ContextOrObjectId.make(toId);
+            insertNode(from);
+        ContextOrObjectId to = nodeFor(toId);
         if (!containsNode(to))
-            newNode(to);
-        NamedEdge e = new NamedEdge(from, name);
-        ContextOrObjectId target = getTarget(e);
-        if (target != null) {
-            decrementReference(e, target, slId);
+            insertNode(to);
+        writeField(from, name, to, isNull(toId), slId);
+    }
+
+    /**
+     * as {@link #writeField(ContextOrObjectId, String, ContextOrObjectId, boolean, SourceLocId)},
+     * with slot the slot of name in f, or -1
+     */
+    private void writeFrame(Frames.Frame f, int slot, String name, int toId, SourceLocId slId) {
+        ContextOrObjectId to = nodeFor(toId);
+        if (!containsNode(to))
+            insertNode(to);
+        touch(to);
+        if (slot >= 0) {
+            ContextOrObjectId old = f.targets[slot];
+            f.remove(slot);
+            frames.reference(old, -1);
+            dropReference(old, slId);
+        }
+        if (!isNull(toId)) {
+            f.add(name, to);
+            frames.reference(to, 1);
         }
-        if (!isNull(toId))
-            addEdge(e, to);
     }
 
     public int referenceCount(int objectId) {
-        return referenceCount(ContextOrObjectId.make(objectId));
+        return references(nodeFor(objectId));
     }
 
     public int referenceCount(Context c) {
-        return referenceCount(ContextOrObjectId.make(c));
+        return references(nodeFor(c));
     }
 
     public void flush(SourceLocId slId, final Set<Integer> dontFlush, Collection<Context> live) {
@@ -369,19 +1053,22 @@ public abstract class ReferenceCountedHeapGraph {
 
                 continue;
             }
-            if (referenceCount(e) == 0)
+            if (references(e) == 0)
                 decrementReachable(slId, e, dontFlush);
             else {
                 addToCycleQueue(e, slId);
             }
         }
+        if (concurrentMark != null && timer.currentTime() >= concurrentMark.finishAt) {
+            finishConcurrentMark(slId, dontFlush);
+        }
         if (cycleQueue.size() > cycleQueueLimit && !noCycleCollection) {
             flushCycleQueue(dontFlush, FlushType.REGULAR, live);
         }
     }
 
     private Set<ContextOrObjectId> decrementReachable(SourceLocId slId, ContextOrObjectId o, Set<Integer> dontFlush) {
-        assert referenceCount(o) == 0;
+        assert references(o) == 0;
         final Set<ContextOrObjectId> res = HashSetFactory.make();
         final Deque<ContextOrObjectId> stack = new ArrayDeque<ContextOrObjectId>();
         stack.push(o);
@@ -398,17 +1085,26 @@ public abstract class ReferenceCountedHeapGraph {
             if (dontFlush.contains(id)) {
                 continue;
             }
-            if (referenceCount(s) == 0) {
+            if (references(s) == 0) {
                 if (id != -1) {
                     unreachableCallback.apply(new Unreachability(id, slId, timer.currentTime()));
                 }
+                Frames.Frame f = s.type == ContextOrObjectId.Type.CONTEXT ? frames.find(s.getContext()) : null;
+                if (f != null) {
+                    // a sealed frame only refers to its parent
+                    if (f.parent != null)
+                        stack.push(f.parent);
+                    frames.remove(f);
+                    nodeTable.release(s);
+                    continue;
+                }
                 for (HeapEdge succ: getOutEdges(s)) {
                     ContextOrObjectId target = getTarget(succ);
                     if (target != null) {
                         stack.push(target);
                     }
                 }
-                removeNode(s);
+                deleteNode(s);
             } else {
                 addToCycleQueue(s, slId);
             }
@@ -417,28 +1113,39 @@ public abstract class ReferenceCountedHeapGraph {
     }
 
     public void addClosureReference(int funId, Context context) {
-        ContextOrObjectId func = ContextOrObjectId.make(funId);
-        ContextOrObjectId ctx = ContextOrObjectId.make(context);
-        addEdge(new NamedEdge(func, "_CONTEXT_"), ctx);
+        Frames.Frame f = frames.of(context);
+        if (f != null)
+            materialize(f);
+        ContextOrObjectId func = nodeFor(funId);
+        ContextOrObjectId ctx = nodeFor(context);
+        insertField(func, "_CONTEXT_", ctx);
     }
 
-    public void contextSealed(Context functionContext, final Set<String> unReferenced, SourceLocId slId) {
-        ContextOrObjectId c = ContextOrObjectId.make(functionContext);
-        Set<NamedEdge> namedOut = getNamedOutEdges(c);
-        Set<NamedEdge> toDelete = HashSetFactory.make();
-        for (NamedEdge e: namedOut) {
-            if (unReferenced.contains(e.getName())) {
-                toDelete.add(e);
+    public void contextSealed(Context functionContext, final Set<String> unReferenced, final SourceLocId slId) {
+        Frames.Frame f = frames.find(functionContext);
+        if (f != null) {
+            if (allUnreferenced(f, unReferenced)) {
+                sealFrame(f, slId);
+                return;
             }
+            materialize(f);
         }
-        for (NamedEdge e : toDelete) {
-            ContextOrObjectId to = getTarget(e);
-            if (to != null) {
-                decrementReference(e, to, slId);
-                removeEdge(e);
+        final ContextOrObjectId c = nodeFor(functionContext);
+        // walk the fields rather than the names, since the order variables
+        // are released in shows in the order of unreachability
+        forEachField(c, new VoidFunction<String>() {
+            @Override
+            public void apply(String name) {
+                if (unReferenced.contains(name)) {
+                    ContextOrObjectId to = getField(c, name);
+                    if (to != null) {
+                        deleteField(c, name);
+                        dropReference(to, slId);
+                    }
+                }
             }
-        }
-        if (referenceCount(c) == 0)
+        });
+        if (references(c) == 0)
             addToFlushQueue(c);//candidates.add(c);
         else {
             addToCycleQueue(c, slId);
@@ -446,9 +1153,35 @@ public abstract class ReferenceCountedHeapGraph {
 
     }
 
+    private static boolean allUnreferenced(Frames.Frame f, Set<String> unReferenced) {
+        for (int i = 0; i < f.size; i++) {
+            if (!unReferenced.contains(f.names[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * releases the variables of the frame, in field order, and queues the
+     * frame for the flush, which drops it; nothing refers to a frame
+     */
+    private void sealFrame(Frames.Frame f, SourceLocId slId) {
+        f.sealedAt = slId;
+        for (int i = 0; i < f.size; i++) {
+            ContextOrObjectId to = f.targets[i];
+            f.targets[i] = null;
+            f.names[i] = null;
+            frames.reference(to, -1);
+            dropReference(to, slId);
+        }
+        f.size = 0;
+        assert references(f.node) == 0;
+        addToFlushQueue(f.node);
+    }
+
     public void handleValue(int objectId) {
         if (referenceCount(objectId) == 0) {
-            addObjectIdToCandidates(candidates.peek(), ContextOrObjectId.make(objectId), objectId);
+            addObjectIdToCandidates(candidates.peek(), nodeFor(objectId), objectId);
         }
     }
 
@@ -471,13 +1204,20 @@ public abstract class ReferenceCountedHeapGraph {
 
     public abstract void toDot(Writer w);
 
+    /**
+     * @return s as a quoted DOT string
+     */
+    static String dotString(String s) {
+        return "\"" + String.valueOf(s).replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
     public void functionExit(Set<Integer> returnValues) {
-        candidates.pop();
+        candidates.pop().leaveStack();
         Set<ContextOrObjectId> s = candidates.peek();
         // TODO why do we check for size > 0 here??? --MS
         if (candidates.size() > 0) {
             for (Integer i: returnValues) {
-                addObjectIdToCandidates(s, ContextOrObjectId.make(i), i);
+                addObjectIdToCandidates(s, nodeFor(i), i);
             }
         }
         returnValues.clear();
@@ -489,6 +1229,9 @@ public abstract class ReferenceCountedHeapGraph {
      * final flush; invoked at the end of execution
      */
     public void endFlush(SourceLocId slId, Set<Integer> returnValues, Collection<Context> liveContexts) {
+        // before the candidate sets, which may hold what it releases
+        if (concurrentMark != null)
+            finishConcurrentMark(slId, returnValues);
         noCycleCollection = true;
         // in nearly all cases, candidates will have exactly one set,
         // corresponding to the global scope.  However, in rare cases,
@@ -497,12 +1240,13 @@ public abstract class ReferenceCountedHeapGraph {
         // in which case there will be multiple candidates sets.  To be safe,
         // we clear out all candidates here
         while (candidates.size() > 0) {
-            Set<ContextOrObjectId> c = candidates.pop();
+            CandidateSet c = candidates.pop();
+            c.leaveStack();
             flushForContext(slId, returnValues, liveContexts, c);
         }
         flushCycleQueue(returnValues, FlushType.END_EXECUTION, liveContexts);
         //Remove the "null" element
-        removeNode(ContextOrObjectId.make(0));
+        deleteNode(nodeFor(0));
         if (System.getProperty("testing","").equals("yes") && !resurrectedContexts.isEmpty()) {
             System.out.println("The following contexts were re-added during execution");
             System.out.printf("Time   toString\n");
@@ -515,6 +1259,13 @@ public abstract class ReferenceCountedHeapGraph {
 
     public abstract Set<ContextOrObjectId> getAllNodes();
 
+    /**
+     * @return the number of nodes in the graph
+     */
+    public int nodeCount() {
+        return getAllNodes().size();
+    }
+
     public boolean checkEmpty() {
         Set<ContextOrObjectId> nodes = getAllNodes();
         if (nodes.isEmpty())
@@ -529,48 +1280,159 @@ public abstract class ReferenceCountedHeapGraph {
     public void addDOMChildReference(int parentId, int childId) {
         assert !isNull(parentId);
         assert !isNull(childId);
-        addToChildSet(ContextOrObjectId.make(parentId), DOM_CHILD_EDGE_NAME, ContextOrObjectId.make(childId));
+        addToChildSet(nodeFor(parentId), DOM_CHILD_EDGE_NAME, nodeFor(childId));
     }
 
     public void addToChildSet(ContextOrObjectId parent, String name, ContextOrObjectId child) {
         if (!containsNode(parent))
-            newNode(parent);
+            insertNode(parent);
         if (!containsNode(child))
-            newNode(child);
-        NamedMultiEdge e = new NamedMultiEdge(parent, name, child);
-        addNamedMultiEdge(e);
+            insertNode(child);
+        insertChild(parent, name, child);
     }
 
     public void removeFromChildSet(ContextOrObjectId parent, String name, ContextOrObjectId child, SourceLocId slId) {
         assert containsNode(parent) && containsNode(child);
-        NamedMultiEdge e = new NamedMultiEdge(parent, name, child);
-        decrementReference(e, child, slId);
+        deleteChild(parent, name, child);
+        dropReference(child, slId);
     }
 
     public void removeDOMChildReference(int parentId, int childId) {
         assert !isNull(parentId);
         assert !isNull(childId);
-        removeFromChildSet(ContextOrObjectId.make(parentId), DOM_CHILD_EDGE_NAME, ContextOrObjectId.make(childId), SourceMap.UNKNOWN_ID);
+        removeFromChildSet(nodeFor(parentId), DOM_CHILD_EDGE_NAME, nodeFor(childId), SourceMap.UNKNOWN_ID);
     }
 
     public int getOutDegree(int objId) {
-        ContextOrObjectId obj = ContextOrObjectId.make(objId);
+        ContextOrObjectId obj = nodeFor(objId);
         return getOutDegree(obj);
     }
 
     protected abstract int getOutDegree(ContextOrObjectId obj);
 
     /**
-     * Belongs to the cycle collector
+     * Marks everything reachable from the live contexts on a worker thread.
+     * While it runs, graph updates hold lock, and the first update to the
+     * out edges of a node saves the targets the node had when the mark
+     * started (a snapshot-at-the-beginning write barrier), so the mark sees
+     * the graph as it was then and marks the same nodes a mark on the main
+     * thread would have.  The flush is finished at a tick fixed when it
+     * starts, so when its nodes are reported does not depend on how fast
+     * the mark runs.
+     * <p>
+     * With a lag above 0 the callbacks can differ from those of marking on
+     * the main thread, which collects at the start: regular flushes due
+     * while the mark runs are deferred to its finish, so later flushes
+     * queue and collect different nodes; nodes the trace used after the
+     * start are kept, though the mark did not reach them; and nodes the
+     * mark reached that lose their last holders to the collection are
+     * released at the finish rather than when they were dropped.  The
+     * {@link FlushStats} count each of these.
      */
-    @SuppressWarnings("unused")
-	private enum NodeColor {
-        GREEN,
-        RED,
-        BLUE
+    private class ConcurrentMark implements Runnable, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final List<ContextOrObjectId> roots;
+        /**
+         * the queued nodes, in the order they are collected
+         */
+        final List<ContextOrObjectId> order;
+        final Map<ContextOrObjectId, SourceLocIdAndTime> queued;
+        final long finishAt;
+        final Set<ContextOrObjectId> marked = HashSetFactory.make();
+        /**
+         * nodes added to the graph since the mark started
+         */
+        final Set<ContextOrObjectId> allocated = HashSetFactory.make();
+        /**
+         * nodes whose fields or frame slots were written, or that were
+         * written into one, since the mark started
+         */
+        final Set<ContextOrObjectId> touched = HashSetFactory.make();
+
+        transient ReentrantLock lock = new ReentrantLock();
+        transient Map<ContextOrObjectId, List<ContextOrObjectId>> saved = HashMapFactory.make();
+        transient volatile boolean running;
+        transient Thread worker;
+        transient Throwable failure;
+
+        ConcurrentMark(List<ContextOrObjectId> roots, List<ContextOrObjectId> order, Map<ContextOrObjectId, SourceLocIdAndTime> queued, long finishAt) {
+            this.roots = roots;
+            this.order = order;
+            this.queued = queued;
+            this.finishAt = finishAt;
+        }
+
+        void start() {
+            running = true;
+            worker = new Thread(this, "cycle-mark");
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                final Deque<ContextOrObjectId> wl = new ArrayDeque<ContextOrObjectId>(roots);
+                while (!wl.isEmpty()) {
+                    ContextOrObjectId node = wl.pop();
+                    if (!marked.add(node))
+                        continue;
+                    List<ContextOrObjectId> out;
+                    lock.lock();
+                    try {
+                        out = saved.get(node);
+                        if (out == null)
+                            out = targets(node);
+                    } finally {
+                        lock.unlock();
+                    }
+                    for (ContextOrObjectId target : out) {
+                        if (!marked.contains(target))
+                            wl.push(target);
+                    }
+                }
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                running = false;
+            }
+        }
+
+        /**
+         * called with lock held, before the out edges of node change
+         */
+        void saveTargets(ContextOrObjectId node) {
+            if (!saved.containsKey(node) && containsNode(node))
+                saved.put(node, targets(node));
+        }
+
+        void await() {
+            if (worker == null)
+                return;
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                throw new Error("interrupted while marking", e);
+            }
+            worker = null;
+            saved = null;
+            if (failure != null)
+                throw new Error("background mark failed", failure);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        // a checkpoint holds the finished mark
+        if (concurrentMark != null)
+            concurrentMark.await();
+        out.defaultWriteObject();
     }
 
-    private class SourceLocIdAndTime {
+    private class SourceLocIdAndTime implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         public SourceLocId slId;
         public long time;
 
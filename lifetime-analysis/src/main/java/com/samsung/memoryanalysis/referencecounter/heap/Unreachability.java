@@ -15,9 +15,13 @@
  */
 package com.samsung.memoryanalysis.referencecounter.heap;
 
+import java.io.Serializable;
+
 import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
 
-public class Unreachability {
+public class Unreachability implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     public final int objId;
     public final SourceLocId slId;
     public final long time;
@@ -17,8 +17,11 @@ package com.samsung.memoryanalysis.staleness;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.Serializable;
 import java.lang.reflect.Type;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -61,7 +64,9 @@ import com.samsung.memoryanalysis.traceparser.Timer;
  * for ignoring such records in a subsequent analysis.
  */
 public class StreamingStalenessAnalysis implements
-        UnreachabilityAwareAnalysis<Void> {
+        UnreachabilityAwareAnalysis<Void>, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private static final int UNKNOWN_TIME = 0;
 
@@ -71,7 +76,9 @@ public class StreamingStalenessAnalysis implements
      * data on the allocation site and type of an object
      *
      */
-    static class AllocInfo {
+    static class AllocInfo implements Serializable {
+
+        private static final long serialVersionUID = 1L;
 
         final ObjectType type;
         SourceLocId allocationIID;
@@ -99,7 +106,9 @@ public class StreamingStalenessAnalysis implements
     /**
      * data on when an object is last used and becomes unreachable
      */
-    static class LastUseUnreachableInfo {
+    static class LastUseUnreachableInfo implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         final int objectId;
         long mostRecentUseTime;
         SourceLocId mostRecentUseSite = SourceMap.UNKNOWN_ID;
@@ -111,7 +120,9 @@ public class StreamingStalenessAnalysis implements
         }
     }
 
-    static class IIDUpdateRecord {
+    static class IIDUpdateRecord implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         final int objectId;
         final long creationTime;
         final SourceLocId slId;
@@ -137,15 +148,24 @@ public class StreamingStalenessAnalysis implements
     private final ArrayList<IIDUpdateRecord> updateRecords = new ArrayList<StreamingStalenessAnalysis.IIDUpdateRecord>(
             10000);
 
-    private final PrintStream stalenessOut;
+    /**
+     * the underlying streams; only these are written to a checkpoint, so
+     * they must be serializable for the analysis to be checkpointed
+     */
+    private final OutputStream stalenessSink;
+    private final OutputStream lastUseSink;
+    private final OutputStream unreachSink;
+    private final OutputStream updIIDSink;
+
+    private transient PrintStream stalenessOut;
 
-    private final DataOutputStream lastUseOut;
-    private final DataOutputStream unreachOut;
-    private final DataOutputStream updIIDOut;
+    private transient DataOutputStream lastUseOut;
+    private transient DataOutputStream unreachOut;
+    private transient DataOutputStream updIIDOut;
 
     private SourceMap sourceMap;
 
-    private Gson gson;
+    private transient Gson gson;
 
     private final Deque<SourceLocId> currentCallStack = new ArrayDeque<SourceLocId>();
 
@@ -155,14 +175,35 @@ public class StreamingStalenessAnalysis implements
 
     public StreamingStalenessAnalysis(OutputStream out,
             OutputStream lastUseOut, OutputStream unreachOut, OutputStream updIIDOut) {
-        this.stalenessOut = new PrintStream(out);
-        this.lastUseOut = new DataOutputStream(lastUseOut);
-        this.unreachOut = new DataOutputStream(unreachOut);
-        this.updIIDOut = new DataOutputStream(updIIDOut);
+        this.stalenessSink = out;
+        this.lastUseSink = lastUseOut;
+        this.unreachSink = unreachOut;
+        this.updIIDSink = updIIDOut;
+        openWriters();
+    }
+
+    private void openWriters() {
+        this.stalenessOut = new PrintStream(stalenessSink);
+        this.lastUseOut = new DataOutputStream(lastUseSink);
+        this.unreachOut = new DataOutputStream(unreachSink);
+        this.updIIDOut = new DataOutputStream(updIIDSink);
         gson = new GsonBuilder().registerTypeAdapter(SourceLocId.class,
                 new SourceLocSerializer()).create();
     }
 
+    private void writeObject(ObjectOutputStream s) throws IOException {
+        stalenessOut.flush();
+        lastUseOut.flush();
+        unreachOut.flush();
+        updIIDOut.flush();
+        s.defaultWriteObject();
+    }
+
+    private void readObject(ObjectInputStream s) throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        openWriters();
+    }
+
     @Override
     public void init(Timer timer, SourceMap sourceMap) {
         this.sourceMap = sourceMap;
@@ -558,6 +599,15 @@ public class StreamingStalenessAnalysis implements
                 throw new Error("I/O error", e);
             }
         }
+        // after a resume, only this analysis holds the output streams
+        stalenessOut.flush();
+        try {
+            lastUseOut.flush();
+            unreachOut.flush();
+            updIIDOut.flush();
+        } catch (IOException e) {
+            throw new Error("I/O error", e);
+        }
         return null;
     }
 
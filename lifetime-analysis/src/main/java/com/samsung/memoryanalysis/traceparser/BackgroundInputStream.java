@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.traceparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Reads an underlying stream, typically an inflater, on a background thread.
+ * Chunks are handed to the reading thread over a {@link SpscRingBuffer} and
+ * recycled over a second one.
+ */
+class BackgroundInputStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private static final int CHUNKS = 8;
+
+    private static final class Chunk {
+
+        final byte[] data = new byte[CHUNK_SIZE];
+
+        /**
+         * number of valid bytes, or -1 at the end of the stream
+         */
+        int length;
+
+        IOException failure;
+    }
+
+    private final SpscRingBuffer<Chunk> full = new SpscRingBuffer<Chunk>(CHUNKS);
+
+    private final SpscRingBuffer<Chunk> free = new SpscRingBuffer<Chunk>(CHUNKS);
+
+    private final Thread reader;
+
+    private Chunk current;
+
+    private int pos;
+
+    BackgroundInputStream(final InputStream in) throws IOException {
+        try {
+            for (int i = 0; i < CHUNKS; i++) {
+                free.put(new Chunk());
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        reader = new Thread("trace-inflater") {
+
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Chunk c = free.take();
+                        try {
+                            c.length = fill(in, c.data);
+                        } catch (IOException e) {
+                            c.failure = e;
+                            c.length = -1;
+                        }
+                        full.put(c);
+                        if (c.length == -1)
+                            break;
+                    }
+                } catch (InterruptedException e) {
+                    // the stream was closed
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * @return number of bytes read into data, or -1 at the end of in
+     */
+    private static int fill(InputStream in, byte[] data) throws IOException {
+        int n = 0;
+        while (n < data.length) {
+            int r = in.read(data, n, data.length - n);
+            if (r == -1)
+                break;
+            n += r;
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    /**
+     * @return false at the end of the stream
+     */
+    private boolean ensure() throws IOException {
+        if (current != null) {
+            if (pos < current.length)
+                return true;
+            if (current.length == -1)
+                return false;
+        }
+        try {
+            if (current != null)
+                free.put(current);
+            current = full.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        pos = 0;
+        if (current.failure != null) {
+            throw current.failure;
+        }
+        return current.length != -1;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensure())
+            return -1;
+        return current.data[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!ensure())
+            return -1;
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current.data, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.interrupt();
+    }
+}
@@ -78,29 +78,45 @@ public class EnhancedTraceAnalysisRunner extends TraceAnalysisRunner {
             InputStream lastUseTrace, InputStream unreachableTrace, InputStream updIIDTrace,
             ProgressMonitor progress, File dir) throws FileNotFoundException,
             IOException {
+        this(TraceInput.open(trace), lastUseTrace, unreachableTrace, updIIDTrace, progress, dir);
+    }
+
+    public EnhancedTraceAnalysisRunner(File traceFile,
+            InputStream lastUseTrace, InputStream unreachableTrace, InputStream updIIDTrace,
+            ProgressMonitor progress, File dir) throws FileNotFoundException,
+            IOException {
+        this(TraceInput.open(traceFile), lastUseTrace, unreachableTrace, updIIDTrace, progress, dir);
+    }
+
+    /**
+     * the last use, unreachable and update IID traces may be gzip or zlib
+     * compressed
+     */
+    public EnhancedTraceAnalysisRunner(TraceReader trace,
+            InputStream lastUseTrace, InputStream unreachableTrace, InputStream updIIDTrace,
+            ProgressMonitor progress, File dir) throws FileNotFoundException,
+            IOException {
         super(trace, progress, dir);
         // ignore last use entries and update IID from the original trace
         this.ignoreLastUse = true;
         this.ignoreUpdIID = true;
-        this.lastUseTrace = new DataInputStream(lastUseTrace);
+        this.lastUseTrace = new DataInputStream(TraceInput.decompressing(lastUseTrace));
         nextLastUse = advance(this.lastUseTrace);
 //        System.err.println("lu " + nextLastUse);
-        this.unreachableTrace = new DataInputStream(unreachableTrace);
+        this.unreachableTrace = new DataInputStream(TraceInput.decompressing(unreachableTrace));
         nextUnreachable = advance(this.unreachableTrace);
 //        System.err.println("ur " + nextUnreachable);
-        this.updIIDTrace = new DataInputStream(updIIDTrace);
+        this.updIIDTrace = new DataInputStream(TraceInput.decompressing(updIIDTrace));
         advanceUpdIIDTrace();
     }
 
     @Override
-    protected <T> void invokeCreateCallback(TraceAnalysis<T> a,
-            int currentScriptId, int iid, int objId) {
-        if (nextUpdIIDRecord != null && nextUpdIIDRecord.objectId == objId) {
+    protected void updateCreateLocation(TraceEventCursor e) {
+        if (nextUpdIIDRecord != null && nextUpdIIDRecord.objectId == e.objectId) {
             // use the updated source location
-            a.create(nextUpdIIDRecord.slId, objId);
+            e.scriptId = nextUpdIIDRecord.slId.getSourceFileId();
+            e.iid = nextUpdIIDRecord.slId.getIid();
             advanceUpdIIDTrace();
-        } else {
-            super.invokeCreateCallback(a, currentScriptId, iid, objId);
         }
     }
 
@@ -126,6 +142,28 @@ public class EnhancedTraceAnalysisRunner extends TraceAnalysisRunner {
         }
     }
 
+    /**
+     * not supported, since the last use, unreachable and update IID sidecar
+     * traces are not indexed
+     */
+    @Override
+    public void seek(TraceIndex index, long time) {
+        throw new UnsupportedOperationException("cannot seek in an enhanced trace");
+    }
+
+    /**
+     * not supported, since the positions in the sidecar traces are not saved
+     */
+    @Override
+    public void checkpointEvery(long ticks, File file) {
+        throw new UnsupportedOperationException("cannot checkpoint an enhanced trace");
+    }
+
+    @Override
+    public <T> T resume(File checkpoint) {
+        throw new UnsupportedOperationException("cannot resume an enhanced trace");
+    }
+
     @Override
     public <T> T runAnalysis(TraceAnalysis<T> a) throws FileNotFoundException,
             IOException {
@@ -135,12 +173,21 @@ public class EnhancedTraceAnalysisRunner extends TraceAnalysisRunner {
         return super.runAnalysis(a);
     }
 
+    @Override
+    public <T> T runVisitor(TraceEventVisitor<T> v)
+            throws FileNotFoundException, IOException {
+        if (!(v instanceof TraceAnalysisAdapter && ((TraceAnalysisAdapter<T>) v).getAnalysis() instanceof EnhancedTraceAnalysis)) {
+            throw new IllegalArgumentException("must run with an EnhancedTraceAnalysis");
+        }
+        return super.runVisitor(v);
+    }
+
 
     @Override
-    protected <T> void handleTime(long currentTime, TraceAnalysis<T> a) {
-        super.handleTime(currentTime, a);
+    protected <T> void handleTime(long currentTime, TraceEventVisitor<T> v) {
+        super.handleTime(currentTime, v);
         // TODO clean up this type grossness
-        EnhancedTraceAnalysis<T> eta = (EnhancedTraceAnalysis<T>) a;
+        EnhancedTraceAnalysis<T> eta = (EnhancedTraceAnalysis<T>) ((TraceAnalysisAdapter<T>) v).getAnalysis();
         while (nextLastUse != null && currentTime == nextLastUse.time) {
             eta.lastUse(nextLastUse.objectId, nextLastUse.slId, nextLastUse.time);
             nextLastUse = advance(lastUseTrace);
@@ -15,6 +15,10 @@
  */
 package com.samsung.memoryanalysis.traceparser;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.*;
 
 import com.ibm.wala.util.collections.HashMapFactory;
@@ -23,11 +27,21 @@ import com.ibm.wala.util.collections.HashSetFactory;
 /**
  * Created by s.jensen on 7/5/14.
  */
-public class FreeVariables {
-    private final Map<Integer, Set<String>> fvMap;
+public class FreeVariables implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private transient Map<Integer, Set<String>> fvMap;
 
     public static final Set<String> ANY = HashSetFactory.make();
 
+    /**
+     * @return a set for canonical (interned) names, compared by identity
+     * @see NameTable
+     */
+    public static Set<String> makeNameSet(int expectedSize) {
+        return Collections.newSetFromMap(new IdentityHashMap<String, Boolean>(expectedSize));
+    }
+
     protected FreeVariables() {
         fvMap = HashMapFactory.make();
     }
@@ -44,4 +58,28 @@ public class FreeVariables {
     public void put(int iid, Set<String> freeVars) {
         fvMap.put(iid, freeVars);
     }
+
+    /**
+     * write {@link #ANY} as null, so it is still recognized after reading
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(fvMap.size());
+        for (Map.Entry<Integer, Set<String>> e : fvMap.entrySet()) {
+            out.writeInt(e.getKey());
+            out.writeObject(e.getValue() == ANY ? null : e.getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int size = in.readInt();
+        fvMap = HashMapFactory.make(size);
+        for (int i = 0; i < size; i++) {
+            int iid = in.readInt();
+            Set<String> fvs = (Set<String>) in.readObject();
+            fvMap.put(iid, fvs == null ? ANY : fvs);
+        }
+    }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.traceparser;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a trace file by memory-mapping it.  The file is mapped in sliding
+ * windows of at most {@link #DEFAULT_WINDOW_SIZE} bytes, so traces larger than
+ * 2GB can be read.  Ints are decoded directly from the mapped buffer.
+ */
+public class MappedTraceReader implements TraceReader {
+
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 26;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private final int windowSize;
+
+    /**
+     * file offset of the first byte of the current window
+     */
+    private long windowStart = 0;
+
+    private MappedByteBuffer window;
+
+    public MappedTraceReader(File trace) throws IOException {
+        this(trace, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedTraceReader(File trace, int windowSize) throws IOException {
+        if (windowSize < 4) {
+            throw new IllegalArgumentException("window size too small: " + windowSize);
+        }
+        this.file = new RandomAccessFile(trace, "r");
+        this.channel = file.getChannel();
+        this.size = channel.size();
+        this.windowSize = windowSize;
+        map(0);
+    }
+
+    /**
+     * map a new window starting at file offset start
+     */
+    private void map(long start) throws IOException {
+        long len = Math.min(windowSize, size - start);
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+    }
+
+    /**
+     * ensure that at least n bytes are available in the current window,
+     * sliding the window forward if necessary.
+     */
+    private void ensure(int n) throws IOException {
+        if (window.remaining() < n) {
+            long pos = position();
+            if (size - pos < n) {
+                throw new EOFException();
+            }
+            map(pos);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!window.hasRemaining()) {
+            long pos = position();
+            if (pos >= size) {
+                return -1;
+            }
+            map(pos);
+        }
+        return window.get() & 0xff;
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        ensure(4);
+        return window.getInt();
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!window.hasRemaining()) {
+                ensure(1);
+            }
+            int n = Math.min(len, window.remaining());
+            window.get(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public long position() {
+        return windowStart + window.position();
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        if (position < 0 || position > size) {
+            throw new EOFException("seek to " + position + " outside of trace of size " + size);
+        }
+        if (position >= windowStart && position <= windowStart + window.limit()) {
+            window.position((int) (position - windowStart));
+        } else {
+            map(position);
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+        file.close();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.traceparser;
+
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Symbol table for the property and variable names in a trace.  Maps raw
+ * UTF-16LE byte sequences to small int ids and canonical {@link String}s.
+ * Looking up a name that was seen before neither decodes nor allocates.
+ *
+ * Canonical names are {@link String#intern() interned}, so they are also
+ * identical to equal string literals in the analysis code; clients may
+ * compare names by identity.
+ */
+public class NameTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Charset UTF16LE = Charset.forName("UnicodeLittleUnmarked");
+
+    /**
+     * open-addressing table of (id + 1), or 0 for an empty slot
+     */
+    private int[] slots = new int[1024];
+
+    /**
+     * raw bytes of all names, back to back
+     */
+    private byte[] pool = new byte[16 * 1024];
+
+    private int poolSize = 0;
+
+    private int[] offsets = new int[256];
+
+    private int[] lengths = new int[256];
+
+    private int[] hashes = new int[256];
+
+    private String[] names = new String[256];
+
+    private int size = 0;
+
+    /**
+     * @return the id of the name encoded by b[off..off+len), adding it to the
+     * table if not present
+     */
+    public int lookup(byte[] b, int off, int len) {
+        int h = hash(b, off, len);
+        int mask = slots.length - 1;
+        int i = h & mask;
+        int s;
+        while ((s = slots[i]) != 0) {
+            int id = s - 1;
+            if (hashes[id] == h && lengths[id] == len && sameBytes(id, b, off, len)) {
+                return id;
+            }
+            i = (i + 1) & mask;
+        }
+        int id = add(b, off, len, h);
+        slots[i] = id + 1;
+        if (2 * size > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * @return the canonical string with the given id
+     */
+    public String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return number of distinct names
+     */
+    public int size() {
+        return size;
+    }
+
+    private static int hash(byte[] b, int off, int len) {
+        int h = len;
+        for (int i = off, end = off + len; i < end; i++) {
+            h = 31 * h + b[i];
+        }
+        // spread the bits, as the low bits index the table
+        return h ^ (h >>> 16);
+    }
+
+    private boolean sameBytes(int id, byte[] b, int off, int len) {
+        int start = offsets[id];
+        for (int i = 0; i < len; i++) {
+            if (pool[start + i] != b[off + i])
+                return false;
+        }
+        return true;
+    }
+
+    private int add(byte[] b, int off, int len, int h) {
+        if (size == names.length) {
+            int n = 2 * size;
+            offsets = Arrays.copyOf(offsets, n);
+            lengths = Arrays.copyOf(lengths, n);
+            hashes = Arrays.copyOf(hashes, n);
+            names = Arrays.copyOf(names, n);
+        }
+        if (poolSize + len > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(poolSize + len, 2 * pool.length));
+        }
+        System.arraycopy(b, off, pool, poolSize, len);
+        int id = size++;
+        offsets[id] = poolSize;
+        lengths[id] = len;
+        hashes[id] = h;
+        names[id] = new String(b, off, len, UTF16LE).intern();
+        poolSize += len;
+        return id;
+    }
+
+    private void rehash() {
+        int[] newSlots = new int[2 * slots.length];
+        int mask = newSlots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int i = hashes[id] & mask;
+            while (newSlots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            newSlots[i] = id + 1;
+        }
+        slots = newSlots;
+    }
+}
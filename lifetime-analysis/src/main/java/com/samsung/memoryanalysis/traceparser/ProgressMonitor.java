@@ -17,8 +17,21 @@ package com.samsung.memoryanalysis.traceparser;
 
 /**
  * Created by s.jensen on 7/18/14.
+ *
+ * Progress is measured in trace bytes.  The runner samples it from the event
+ * loop at most every {@link TraceAnalysisRunner#PROGRESS_INTERVAL_NANOS}
+ * nanoseconds, and not at all if no monitor is given.
  */
 public interface ProgressMonitor {
-    public void start(int progress);
-    public void tick(int progress);
+    /**
+     * @param position byte offset at which the run starts
+     * @param size total number of bytes in the trace, or -1 if unknown
+     */
+    public void start(long position, long size);
+
+    /**
+     * @param position number of trace bytes consumed so far
+     * @param events number of events processed in this run so far
+     */
+    public void tick(long position, long events);
 }
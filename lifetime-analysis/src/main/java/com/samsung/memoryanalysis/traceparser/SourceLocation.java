@@ -15,11 +15,14 @@
  */
 package com.samsung.memoryanalysis.traceparser;
 
+import java.io.Serializable;
 
 /**
  * Created by s.jensen on 6/13/14.
  */
-public class SourceLocation {
+public class SourceLocation implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
 	/**
 	 * If this is a special type of location,
@@ -96,6 +99,19 @@ public class SourceLocation {
     	return this.specialDesc != null;
     }
 
+    /**
+     * keep the special locations unique
+     */
+    private Object readResolve() {
+        if (specialDesc != null) {
+            for (SourceLocation special : new SourceLocation[] { END_OF_PROGRAM, INITIAL_DOM, UNKNOWN, REMOVE_FROM_DOM }) {
+                if (specialDesc.equals(special.specialDesc))
+                    return special;
+            }
+        }
+        return this;
+    }
+
     @Override
     public String toString() {
     	if (this.specialDesc != null) {
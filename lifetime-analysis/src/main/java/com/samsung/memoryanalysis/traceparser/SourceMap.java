@@ -15,18 +15,23 @@
  */
 package com.samsung.memoryanalysis.traceparser;
 
+import java.io.Serializable;
 import java.util.Map;
 
 import com.ibm.wala.util.collections.HashMapFactory;
 
-public class SourceMap {
+public class SourceMap implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     /**
      * a unique identifier for a source location, consisting of a source file ID
      * and and IID within that source file
      *
      */
-    public final static class SourceLocId {
+    public final static class SourceLocId implements Serializable {
+
+        private static final long serialVersionUID = 1L;
 
         private final int sourceFileId;
 
@@ -75,6 +80,19 @@ public class SourceMap {
                     .append(iid).toString();
         }
 
+        /**
+         * the special ids are compared by identity
+         */
+        private Object readResolve() {
+            if (sourceFileId == DUMMY_SID) {
+                for (SourceLocId special : new SourceLocId[] { END_OF_PROGRAM_ID, UNKNOWN_ID, INITIAL_DOM_ID, REMOVE_FROM_DOM_SITE }) {
+                    if (equals(special))
+                        return special;
+                }
+            }
+            return this;
+        }
+
     }
 
     public static final int DUMMY_SID = 0;
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.traceparser;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer/single-consumer queue.  Exactly one thread may call
+ * {@link #put(Object)} and exactly one thread may call {@link #take()}.  Both
+ * spin briefly and then park while the queue is full or empty.
+ */
+final class SpscRingBuffer<E> {
+
+    private static final int SPINS = 100;
+
+    private static final long PARK_NANOS = 10000;
+
+    private final Object[] slots;
+
+    private final int mask;
+
+    /**
+     * number of elements taken so far; only written by the consumer
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * number of elements put so far; only written by the producer
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to the next power of two
+     */
+    SpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 1));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        slots = new Object[size];
+        mask = size - 1;
+    }
+
+    void put(E e) throws InterruptedException {
+        long t = tail.get();
+        int waits = 0;
+        while (t - head.get() == slots.length) {
+            waits = await(waits);
+        }
+        slots[(int) t & mask] = e;
+        tail.lazySet(t + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    E take() throws InterruptedException {
+        long h = head.get();
+        int waits = 0;
+        while (tail.get() == h) {
+            waits = await(waits);
+        }
+        int i = (int) h & mask;
+        E e = (E) slots[i];
+        slots[i] = null;
+        head.lazySet(h + 1);
+        return e;
+    }
+
+    private static int await(int waits) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (waits < SPINS) {
+            // busy-wait
+        } else if (waits < 2 * SPINS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return waits + 1;
+    }
+}
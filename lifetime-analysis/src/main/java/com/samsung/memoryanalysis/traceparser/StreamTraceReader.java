@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.traceparser;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a trace from an arbitrary {@link InputStream}, e.g., stdin in
+ * streaming mode.
+ */
+public class StreamTraceReader implements TraceReader {
+
+    private final DataInputStream trace;
+
+    private long position = 0;
+
+    private byte[] buf = new byte[4];
+    private ByteBuffer byteBuf = ByteBuffer.wrap(buf);
+
+    public StreamTraceReader(InputStream trace) {
+        this.trace = new DataInputStream(trace);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = trace.read();
+        if (b != -1)
+            position++;
+        return b;
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        byteBuf.rewind();
+        trace.readFully(buf);
+        position += 4;
+        return byteBuf.getInt();
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        trace.readFully(b, off, len);
+        position += len;
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    /**
+     * the length of a stream is not known
+     */
+    @Override
+    public long size() {
+        return -1;
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        if (position < this.position) {
+            throw new IOException("cannot seek backwards in a stream trace");
+        }
+        while (this.position < position) {
+            int n = trace.skipBytes((int) Math.min(position - this.position, Integer.MAX_VALUE));
+            if (n <= 0) {
+                throw new EOFException();
+            }
+            this.position += n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        trace.close();
+    }
+}
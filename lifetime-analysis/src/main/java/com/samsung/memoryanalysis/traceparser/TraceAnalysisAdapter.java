@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.traceparser;
+
+import java.io.Serializable;
+
+import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
+
+/**
+ * Runs a {@link TraceAnalysis} on top of the {@link TraceEventVisitor}
+ * interface, materializing {@link SourceLocId}s and names for each callback.
+ */
+public class TraceAnalysisAdapter<T> implements TraceEventVisitor<T>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TraceAnalysis<T> a;
+
+    public TraceAnalysisAdapter(TraceAnalysis<T> a) {
+        this.a = a;
+    }
+
+    public TraceAnalysis<T> getAnalysis() {
+        return a;
+    }
+
+    @Override
+    public void init(Timer timer, SourceMap iidMap) {
+        a.init(timer, iidMap);
+    }
+
+    @Override
+    public void visit(TraceEventCursor e) {
+        switch (e.type) {
+            case DECLARE:
+                a.declare(e.sourceLocId(), e.name(), e.objectId);
+                break;
+            case CREATE_OBJ:
+                a.create(e.sourceLocId(), e.objectId);
+                break;
+            case CREATE_FUN:
+                a.createFun(e.sourceLocId(), e.objectId, e.objectId + 1, e.functionEnterSourceLocId(), e.freeVariables);
+                break;
+            case PUTFIELD:
+                a.putField(e.sourceLocId(), e.baseId, e.name(), e.objectId);
+                break;
+            case WRITE:
+                a.write(e.sourceLocId(), e.name(), e.objectId);
+                break;
+            case LAST_USE:
+                a.lastUse(e.objectId, e.sourceLocId(), e.time);
+                break;
+            case FUNCTION_ENTER:
+                a.functionEnter(e.functionEnterSourceLocId(), e.objectId, SourceMap.UNKNOWN_ID);
+                break;
+            case CALL:
+                a.functionEnter(e.functionEnterSourceLocId(), e.objectId, e.sourceLocId());
+                break;
+            case FUNCTION_EXIT:
+                a.functionExit(e.sourceLocId());
+                break;
+            case TOP_LEVEL_FLUSH:
+                a.topLevelFlush(e.sourceLocId());
+                break;
+            case UPDATE_IID:
+                a.updateIID(e.objectId, e.sourceLocId());
+                break;
+            case DEBUG:
+                a.debug(e.sourceLocId(), e.objectId);
+                break;
+            case RETURN:
+                a.returnStmt(e.objectId);
+                break;
+            case CREATE_DOM_NODE:
+                a.createDomNode(e.sourceLocId(), e.objectId);
+                break;
+            case ADD_DOM_CHILD:
+                a.addDOMChild(e.baseId, e.objectId);
+                break;
+            case REMOVE_DOM_CHILD:
+                a.removeDOMChild(e.baseId, e.objectId);
+                break;
+            case ADD_TO_CHILD_SET:
+                a.addToChildSet(e.sourceLocId(), e.baseId, e.name(), e.objectId);
+                break;
+            case REMOVE_FROM_CHILD_SET:
+                a.removeFromChildSet(e.sourceLocId(), e.baseId, e.name(), e.objectId);
+                break;
+            case DOM_ROOT:
+                a.domRoot(e.objectId);
+                break;
+            case SCRIPT_ENTER:
+                a.scriptEnter(e.sourceLocId(), e.name());
+                break;
+            case SCRIPT_EXIT:
+                a.scriptExit(e.sourceLocId());
+                break;
+            case END_LAST_USE:
+                a.endLastUse();
+                break;
+            default:
+                throw new IllegalArgumentException("unexpected event " + e);
+        }
+    }
+
+    @Override
+    public T endExecution() {
+        return a.endExecution();
+    }
+}
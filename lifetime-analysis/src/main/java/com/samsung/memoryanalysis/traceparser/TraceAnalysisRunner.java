@@ -30,14 +30,23 @@
  */
 package com.samsung.memoryanalysis.traceparser;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -46,15 +55,15 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
-import com.ibm.wala.util.collections.HashSetFactory;
 import com.ibm.wala.util.functions.VoidFunction;
-import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
 
 /**
  *
@@ -62,17 +71,34 @@ import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
  */
 public class TraceAnalysisRunner {
 
-    private final DataInputStream trace;
+    static final Charset TRACE_CHARSET = Charset.forName("UnicodeLittleUnmarked");
+
+    private final TraceReader trace;
 
     private final JsonParser parser = new JsonParser();
 
-    private final FreeVariables fvMap;
+    private FreeVariables fvMap;
 
-    private final SourceMap iidMap;
+    private SourceMap iidMap;
 
     private final ProgressMonitor progress;
 
-    private int traceSize = 0;
+    /**
+     * minimum time between two {@link ProgressMonitor#tick(long, long)} calls
+     */
+    public static final long PROGRESS_INTERVAL_NANOS = 5000000L;
+
+    /**
+     * the clock is read once every PROGRESS_SAMPLE_MASK + 1 events
+     */
+    private static final int PROGRESS_SAMPLE_MASK = 1023;
+
+    private long nextProgressTime;
+
+    /**
+     * if non-null, collects per event type metrics
+     */
+    private TraceMetrics metrics = null;
 
     /**
      * if set to true, ignore the last use entries in the input trace
@@ -82,8 +108,69 @@ public class TraceAnalysisRunner {
 
     protected boolean ignoreUpdIID = false;
 
+    /**
+     * index being built during the run, or null
+     */
+    private TraceIndex index = null;
+
+    /**
+     * index used to start the run at seekTime, or null
+     */
+    private TraceIndex seekIndex = null;
+
+    private long seekTime = 0;
+
+    /**
+     * if positive, decode on a separate thread in batches of this many events
+     */
+    private int pipelineBatchSize = 0;
+
+    private int pipelineBatches = 0;
+
+    /**
+     * decoding state: the current script, the function call depth and the
+     * timestamp of the next event to be decoded
+     */
+    private int currentScriptId;
+
+    private int callDepth;
+
+    private long decodedTime;
+
+    private static final int CHECKPOINT_MAGIC = 0x4d54434b; // "MTCK"
+
+    private static final int CHECKPOINT_VERSION = 1;
+
+    /**
+     * if non-null, write a checkpoint to this file every checkpointInterval ticks
+     */
+    private File checkpointFile = null;
+
+    private long checkpointInterval;
+
+    /**
+     * set by the checkpoint alarm; the checkpoint is written once the current
+     * event has been fully processed
+     */
+    private boolean checkpointDue = false;
+
+    /**
+     * read the trace from a stream, which may be gzip or zlib compressed
+     */
     public TraceAnalysisRunner(InputStream trace, ProgressMonitor progress, File dir) throws FileNotFoundException, IOException {
-        this.trace = new DataInputStream(trace);
+        this(TraceInput.open(trace), progress, dir);
+    }
+
+    /**
+     * read the trace by memory-mapping traceFile, or, if traceFile is
+     * compressed, by inflating it on a background thread
+     */
+    public TraceAnalysisRunner(File traceFile, ProgressMonitor progress, File dir) throws FileNotFoundException, IOException {
+        this(TraceInput.open(traceFile), progress, dir);
+    }
+
+    public TraceAnalysisRunner(TraceReader trace, ProgressMonitor progress, File dir) throws FileNotFoundException, IOException {
+        this.trace = trace;
         fvMap = buildFVMap(dir);
         iidMap = new SourceMap();//SourceMap.parseIIDFile(dir);
         this.progress = progress;
@@ -127,10 +214,10 @@ public class TraceAnalysisRunner {
                     res.put(Integer.parseInt(entry.getKey()), FreeVariables.ANY);
                 else {
                     JsonArray a = o.getAsJsonArray();
-                    final Set<String> freeVars = HashSetFactory.make();
+                    final Set<String> freeVars = FreeVariables.makeNameSet(a.size());
                     for (int i = 0; i < a.size(); i++) {
                         final JsonElement jsonElement = a.get(i);
-                        freeVars.add(jsonElement.getAsString());
+                        freeVars.add(jsonElement.getAsString().intern());
                     }
                     res.put(Integer.parseInt(entry.getKey()),freeVars);
                 }
@@ -139,250 +226,820 @@ public class TraceAnalysisRunner {
         return res;
     }
 
-    private byte[] buf = new byte[4];
-    private ByteBuffer byteBuf = ByteBuffer.wrap(buf);
     private int readInt() throws IOException {
-        byteBuf.rewind();
-        trace.readFully(buf);
-
-        return byteBuf.getInt();
+        return trace.readInt();
     }
 
+    private byte[] strData = new byte[64];
+
+    private NameTable names = new NameTable();
+
     private String readString() throws IOException {
         int length = readInt();
-        byte[] strData = new byte[length];
-        trace.readFully(strData);
+        if (length > strData.length) {
+            strData = new byte[Math.max(length, 2 * strData.length)];
+        }
+        trace.readFully(strData, 0, length);
 
-        return new String(strData,"UnicodeLittleUnmarked");
+        return new String(strData, 0, length, TRACE_CHARSET);
+    }
+
+    /**
+     * @return the name table id of the next string in the trace
+     */
+    private int readNameId() throws IOException {
+        int length = readInt();
+        if (length > strData.length) {
+            strData = new byte[Math.max(length, 2 * strData.length)];
+        }
+        trace.readFully(strData, 0, length);
+        return names.lookup(strData, 0, length);
+    }
+
+    /**
+     * @return the table holding all names (variables, properties, etc.)
+     * decoded by this runner
+     */
+    public NameTable getNameTable() {
+        return names;
+    }
+
+    public static final int DEFAULT_PIPELINE_BATCH_SIZE = 1024;
+
+    public static final int DEFAULT_PIPELINE_BATCHES = 8;
+
+    /**
+     * enable or disable decoding the trace on a separate thread.  Analyses
+     * are still run on the calling thread and see exactly the same events and
+     * timestamps.  With pipelining, visitors must use
+     * {@link TraceEventCursor#name()} rather than the {@link #getNameTable()
+     * name table}, which is updated by the decoding thread.
+     */
+    public void setPipelined(boolean pipelined) {
+        if (pipelined) {
+            setPipelined(DEFAULT_PIPELINE_BATCH_SIZE, DEFAULT_PIPELINE_BATCHES);
+        } else {
+            pipelineBatchSize = 0;
+        }
+    }
+
+    /**
+     * decode on a separate thread, with at most batches batches of batchSize
+     * events in flight
+     */
+    public void setPipelined(int batchSize, int batches) {
+        if (batchSize < 1 || batches < 2) {
+            throw new IllegalArgumentException("invalid pipeline configuration " + batchSize + "x" + batches);
+        }
+        if (checkpointFile != null) {
+            throw new IllegalStateException("cannot write checkpoints while pipelining");
+        }
+        pipelineBatchSize = batchSize;
+        pipelineBatches = batches;
+    }
+
+    /**
+     * build a {@link TraceIndex} with a checkpoint every interval timestamps
+     * during the next run.  The index is available from {@link #getIndex()}
+     * once the run has finished.
+     */
+    public void buildIndex(int interval) {
+        if (seekIndex != null) {
+            throw new IllegalStateException("cannot build an index while seeking");
+        }
+        index = new TraceIndex(interval);
+    }
+
+    public TraceIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * start the next run at the given timestamp, using the checkpoints in
+     * index.  No events before time are delivered, but the timestamps of the
+     * delivered events are the same as in a full run.
+     */
+    public void seek(TraceIndex index, long time) {
+        if (this.index != null) {
+            throw new IllegalStateException("cannot seek while building an index");
+        }
+        index.checkpointFor(time);
+        seekIndex = index;
+        seekTime = time;
+    }
+
+    /**
+     * collect metrics for the events delivered to the visitor during the next
+     * runs, or stop collecting them if metrics is null
+     */
+    public void setMetrics(TraceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * during the next run, write a checkpoint to file every ticks timestamps,
+     * using a {@link Timer#registerAlarm(long, VoidFunction) timer alarm}.
+     * The checkpoint holds the trace offset, the decoding state and the
+     * visitor, which must be {@link java.io.Serializable}, and replaces the
+     * previous one.  See {@link #resume(File)}.
+     *
+     * Alarms registered by the visitor are only kept in the checkpoint if
+     * their callbacks are serializable.
+     */
+    public void checkpointEvery(long ticks, File file) {
+        if (ticks < 1) {
+            throw new IllegalArgumentException("invalid checkpoint interval " + ticks);
+        }
+        if (pipelineBatchSize > 0) {
+            throw new IllegalStateException("cannot write checkpoints while pipelining");
+        }
+        checkpointInterval = ticks;
+        checkpointFile = file;
+    }
+
+    /**
+     * continue the run saved in checkpoint, with the visitor restored from
+     * it.  The visitor is not initialized again, and its result is the same
+     * as that of an uninterrupted run.  Further checkpoints are written if
+     * {@link #checkpointEvery(long, File)} was called.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T resume(File checkpoint) throws FileNotFoundException, IOException {
+        if (index != null || seekIndex != null) {
+            throw new IllegalStateException("cannot resume while building an index or seeking");
+        }
+        TraceTimer timer;
+        TraceEventVisitor<T> v;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpoint)));
+        try {
+            if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION) {
+                throw new IOException("not a checkpoint file: " + checkpoint);
+            }
+            long offset = in.readLong();
+            ObjectInputStream state = new CheckpointInputStream(new GZIPInputStream(in));
+            try {
+                timer = (TraceTimer) state.readObject();
+                iidMap = (SourceMap) state.readObject();
+                fvMap = (FreeVariables) state.readObject();
+                names = (NameTable) state.readObject();
+                currentScriptId = state.readInt();
+                callDepth = state.readInt();
+                decodedTime = state.readLong();
+                v = (TraceEventVisitor<T>) state.readObject();
+            } catch (ClassNotFoundException ex) {
+                throw new IOException("invalid checkpoint file: " + checkpoint, ex);
+            }
+            trace.seek(offset);
+        } finally {
+            in.close();
+        }
+        return run(v, timer, 0);
     }
 
     public <T> T runAnalysis(TraceAnalysis<T> a) throws FileNotFoundException, IOException {
+        return runVisitor(new TraceAnalysisAdapter<T>(a));
+    }
+
+    /**
+     * Run a low-level visitor over the trace.  No objects are allocated per
+     * event, apart from names the visitor explicitly decodes.
+     *
+     * If {@link #setPipelined(boolean) pipelining} is enabled, the trace is
+     * decoded on a separate thread, but all visitor callbacks still happen on
+     * the calling thread, in trace order and with the same timestamps.
+     */
+    public <T> T runVisitor(TraceEventVisitor<T> v) throws FileNotFoundException, IOException {
         TraceTimer timer = new TraceTimer();
-        a.init(timer, iidMap);
-        int counter = 0;
-        int currentScriptId = -1;
-        if (progress != null)
-            progress.start(this.traceSize);
-        int evtTypeInt = 0;
-        TraceEntry evtType;
-        TraceEntry[] traceEntryValues = TraceEntry.values();
-        while((evtTypeInt = trace.read()) != -1) {
-            evtType = traceEntryValues[evtTypeInt];
-            switch (evtType) {
-              case DECLARE: {
-                  int iid = readInt();
-                  String name = readString();
-                  int objId = readInt();
-                  a.declare(new SourceLocId(currentScriptId, iid), name, objId);
-                  break;
-              }
-              case CREATE_OBJ: {
-                    int iid = readInt();
-                    int objId = readInt();
-                    invokeCreateCallback(a, currentScriptId, iid, objId);
-                    break;
-              }
-                case CREATE_FUN: {
-                    int iid = readInt();
-                    int funcEnterIID = readInt();
-                    int objId = readInt();
-                    int protoId = objId + 1;
-                    a.createFun(new SourceLocId(currentScriptId, iid), objId, protoId, new SourceLocId(currentScriptId, funcEnterIID), fvMap.getFreeVariables(funcEnterIID));
-                    break;
+        currentScriptId = -1;
+        callDepth = 0;
+        decodedTime = 0;
+        long skipUntil = 0;
+        if (seekIndex != null) {
+            int cp = seekIndex.checkpointFor(seekTime);
+            long start = seekIndex.offset(cp);
+            for (int i = 0; i < seekIndex.setupRecords() && seekIndex.setupOffset(i) < start; i++) {
+                trace.seek(seekIndex.setupOffset(i));
+                replaySetupRecord(trace.read(), seekIndex.setupScriptId(i));
+            }
+            trace.seek(start);
+            currentScriptId = seekIndex.scriptId(cp);
+            callDepth = seekIndex.callDepth(cp);
+            decodedTime = seekIndex.time(cp);
+            timer.timeInternal = decodedTime;
+            skipUntil = seekTime;
+        } else if (index != null) {
+            index.addCheckpoint(trace.position(), currentScriptId, callDepth);
+        }
+        v.init(timer, iidMap);
+        return run(v, timer, skipUntil);
+    }
+
+    /**
+     * process the rest of the trace from the current decoding state
+     */
+    private <T> T run(TraceEventVisitor<T> analysis, TraceTimer timer, long skipUntil) throws IOException {
+        // checkpoints hold the unwrapped visitor
+        TraceEventVisitor<T> v = metrics == null ? analysis : metrics.wrap(analysis);
+        if (checkpointFile != null) {
+            checkpointDue = false;
+            timer.registerAlarm(timer.currentTime() + checkpointInterval - 1, new CheckpointAlarm(timer));
+        }
+        if (progress != null) {
+            progress.start(trace.position(), trace.size());
+            nextProgressTime = System.nanoTime() + PROGRESS_INTERVAL_NANOS;
+        }
+        long events = 0;
+        if (pipelineBatchSize > 0) {
+            events = runPipelined(v, analysis, timer, skipUntil);
+        } else if (progress == null) {
+            final TraceEventCursor e = new TraceEventCursor();
+            while (decode(e)) {
+                process(e, timer, skipUntil, v, analysis);
+                if (checkpointDue) {
+                    checkpointDue = false;
+                    writeCheckpoint(timer, analysis);
                 }
-                case PUTFIELD: {
-                    int iid = readInt();
-                    int baseid = readInt();
-                    String propName = null;
-                    propName = readString();
-                    int objId = readInt();
-                    a.putField(new SourceLocId(currentScriptId, iid), baseid, propName, objId);
-                    break;
+            }
+        } else {
+            final TraceEventCursor e = new TraceEventCursor();
+            while (decode(e)) {
+                process(e, timer, skipUntil, v, analysis);
+                if ((++events & PROGRESS_SAMPLE_MASK) == 0) {
+                    sampleProgress(trace.position(), events);
                 }
-                case WRITE: {
-                    int iid = readInt();
-                    String name = readString();
-                    int objId = readInt();
-                    a.write(new SourceLocId(currentScriptId, iid), name, objId);
-                    break;
+                if (checkpointDue) {
+                    checkpointDue = false;
+                    writeCheckpoint(timer, analysis);
                 }
-                case LAST_USE: {
-                    int objId = readInt();
-                    int time = readInt();
+            }
+        }
+        if (progress != null)
+            progress.tick(trace.position(), events);
+        trace.close();
+        // we need to undo the last tick, as execution is now over
+        // and we want the current time to correspond to the final entry
+        timer.rewindOneTick();
+        return v.endExecution();
+    }
+
+    private void sampleProgress(long position, long events) {
+        long now = System.nanoTime();
+        if (now - nextProgressTime >= 0) {
+            nextProgressTime = now + PROGRESS_INTERVAL_NANOS;
+            progress.tick(position, events);
+        }
+    }
+
+    /**
+     * sets {@link #checkpointDue} every {@link #checkpointInterval} ticks.  It
+     * is not serializable, so it is not saved with the timer.
+     */
+    private final class CheckpointAlarm implements VoidFunction<Long> {
+
+        private final TraceTimer timer;
+
+        CheckpointAlarm(TraceTimer timer) {
+            this.timer = timer;
+        }
+
+        @Override
+        public void apply(Long time) {
+            checkpointDue = true;
+            timer.registerAlarm(time + checkpointInterval, this);
+        }
+    }
+
+    /**
+     * write the checkpoint to a temporary file first, so the previous one
+     * stays valid until the new one is complete
+     */
+    private <T> void writeCheckpoint(TraceTimer timer, TraceEventVisitor<T> v) throws IOException {
+        File tmp = new File(checkpointFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeLong(trace.position());
+            ObjectOutputStream state = new ObjectOutputStream(new GZIPOutputStream(out));
+            state.writeObject(timer);
+            state.writeObject(iidMap);
+            state.writeObject(fvMap);
+            state.writeObject(names);
+            state.writeInt(currentScriptId);
+            state.writeInt(callDepth);
+            state.writeLong(decodedTime);
+            state.writeObject(v);
+            state.close();
+        } finally {
+            out.close();
+        }
+        if (checkpointFile.exists() && !checkpointFile.delete() || !tmp.renameTo(checkpointFile)) {
+            throw new IOException("could not replace checkpoint " + checkpointFile);
+        }
+    }
+
+    /**
+     * canonicalizes strings, as names are compared by identity
+     */
+    private static final class CheckpointInputStream extends ObjectInputStream {
+
+        CheckpointInputStream(InputStream in) throws IOException {
+            super(in);
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) {
+            return obj instanceof String ? ((String) obj).intern() : obj;
+        }
+    }
+
+    /**
+     * decode the next trace record into e.  Only touches state owned by the
+     * decoding side: the trace, the free variable map, the name table and the
+     * index being built.
+     *
+     * @return false at the end of the trace
+     */
+    private boolean decode(TraceEventCursor e) throws IOException {
+        long recordStart = 0;
+        if (index != null)
+            recordStart = trace.position();
+        int evtTypeInt = trace.read();
+        if (evtTypeInt == -1) {
+            if (index != null)
+                index.finish(trace.position(), decodedTime - 1);
+            return false;
+        }
+        TraceEntry evtType = TRACE_ENTRY_VALUES[evtTypeInt];
+        e.type = evtType;
+        e.scriptId = currentScriptId;
+        e.metadata = IS_METADATA[evtTypeInt];
+        e.deliver = true;
+        switch (evtType) {
+            case DECLARE: {
+                e.iid = readInt();
+                readName(e);
+                e.objectId = readInt();
+                break;
+            }
+            case CREATE_OBJ: {
+                e.iid = readInt();
+                e.objectId = readInt();
+                updateCreateLocation(e);
+                break;
+            }
+            case CREATE_FUN: {
+                e.iid = readInt();
+                e.funScriptId = currentScriptId;
+                e.funIid = readInt();
+                e.objectId = readInt();
+                e.freeVariables = fvMap.getFreeVariables(e.funIid);
+                break;
+            }
+            case PUTFIELD: {
+                e.iid = readInt();
+                e.baseId = readInt();
+                readName(e);
+                e.objectId = readInt();
+                break;
+            }
+            case WRITE: {
+                e.iid = readInt();
+                readName(e);
+                e.objectId = readInt();
+                break;
+            }
+            case LAST_USE: {
+                e.objectId = readInt();
+                e.time = readInt();
 //                        assert time == timer.currentTime();
-                    String[] theSplit = readString().split(":");
-                    SourceLocId slId = new SourceLocId(Integer.parseInt(theSplit[0]), Integer.parseInt(theSplit[1]));
-                    if (!ignoreLastUse) a.lastUse(objId, slId, time);
-                    break;
-                }
-                case FUNCTION_ENTER: {
-                    int iid = readInt();//getInt(arr, 1);
-                    int funId = readInt();//getInt(arr, 2);
-                    a.functionEnter(new SourceLocId(currentScriptId, iid), funId, SourceMap.UNKNOWN_ID);
-                    break;
-                }
-                case FUNCTION_EXIT: {
-                    // HACK: for function exit, we want the effects of this time to be taken into
-                    // account before we actually process a function exit.  E.g., if a client is
-                    // maintaining a call stack in its functionExit() callback, we want events associated
-                    // with the current function to be processed before the call stack is updated
-                    handleTime(timer.currentTime(), a);
-                    int iid = readInt();
-                    a.functionExit(new SourceLocId(currentScriptId, iid));
-                    break;
-                }
-                case TOP_LEVEL_FLUSH: {
-                    String[] theSplit = readString().split(":");
-                    a.topLevelFlush(new SourceLocId(Integer.parseInt(theSplit[0]), Integer.parseInt(theSplit[1])));
-                    break;
-                }
-                case UPDATE_IID: {
-                    int objId = readInt();//getInt(arr, 1);
-                    int newIID = readInt();//getInt(arr, 2);
-                    if (!ignoreUpdIID) a.updateIID(objId, new SourceLocId(currentScriptId, newIID));
-                    break;
-                }
-                case DEBUG: {
-                    int iid = readInt();//getInt(arr, 1);
-                    int o = readInt();//getInt(arr, 2);
-                    a.debug(new SourceLocId(currentScriptId, iid), o);
-                    break;
-                }
-                case RETURN: {
-                    int retVal = readInt();//getInt(arr, 1);
-                    a.returnStmt(retVal);
-                    break;
-                }
-                case CREATE_DOM_NODE: {
-                    int iid = readInt();//getInt(arr, 1);
-                    int o = readInt();//getInt(arr, 2);
-                    a.createDomNode(new SourceLocId(currentScriptId, iid), o);
-                    break;
-                }
-                case ADD_DOM_CHILD: {
-                    int parent = readInt();//getInt(arr,1);
-                    int child = readInt();//getInt(arr,2);
-                    a.addDOMChild(parent, child);
-                    break;
-                }
-                case REMOVE_DOM_CHILD: {
-                    int parent = readInt();//getInt(arr,1);
-                    int child = readInt();//getInt(arr,2);
-                    a.removeDOMChild(parent, child);
-                    break;
-                }
-                case ADD_TO_CHILD_SET: {
-                    int iid = readInt();//getInt(arr,1);
-                    int parent = readInt();//getInt(arr,2);
-                    String name = readString();//getString(arr,3);
-                    int child = readInt();//getInt(arr,4);
-                    a.addToChildSet(new SourceLocId(currentScriptId, iid), parent, name, child);
-                    break;
-                }
-                case REMOVE_FROM_CHILD_SET: {
-                    int iid = readInt();//getInt(arr,1);
-                    int parent = readInt();//getInt(arr,2);
-                    String name = readString();//getString(arr,3);
-                    int child = readInt();//getInt(arr,4);
-                    a.removeFromChildSet(new SourceLocId(currentScriptId, iid), parent, name, child);
-                    break;
-                }
-                case DOM_ROOT: {
-                    int nodeId = readInt();//getInt(arr, 1);
-                    a.domRoot(nodeId);
-                    break;
-                }
-                case CALL: {
-                    int iid = readInt();//getInt(arr,1);
-                    int funObjId = readInt();//getInt(arr,2);
-                    int funEnterIID = readInt();//getInt(arr,3);
-                    int funSID = readInt();
-                    a.functionEnter(new SourceLocId(funSID, funEnterIID), funObjId, new SourceMap.SourceLocId(currentScriptId, iid));
-                    break;
-                }
-                case SCRIPT_ENTER: {
-                    int iid = readInt();
-                    int sid = readInt();
-                    String filename = readString();
-                    iidMap.addScriptMapping(sid, filename);
-                    a.scriptEnter(new SourceLocId(sid, iid), filename);
-                    break;
-                }
-                case SCRIPT_EXIT: {
-                    int iid = readInt();//getInt(arr, 1);
-                    a.scriptExit(new SourceLocId(currentScriptId, iid));
-                    break;
-                }
-                case FREE_VARS: {
-                    int iid = readInt();//getInt(arr, 1);
-                    int len = readInt();
-                    if (len == -1) {
-                        //string
-                        readString();
-                        fvMap.put(iid, FreeVariables.ANY);
-                    } else {
-                        Set<String> names = HashSetFactory.make(len);
-                        for (int i = 0; i < len; i++) {
-                            names.add(readString());
+                readLegacySourceLoc(e);
+                e.deliver = !ignoreLastUse;
+                break;
+            }
+            case LAST_USE_COMPACT: {
+                e.type = TraceEntry.LAST_USE;
+                e.objectId = readInt();
+                e.time = readInt();
+                e.scriptId = readInt();
+                e.iid = readInt();
+                e.deliver = !ignoreLastUse;
+                break;
+            }
+            case FUNCTION_ENTER: {
+                e.scriptId = SourceMap.UNKNOWN_ID.getSourceFileId();
+                e.iid = SourceMap.UNKNOWN_ID.getIid();
+                e.funScriptId = currentScriptId;
+                e.funIid = readInt();
+                e.objectId = readInt();
+                callDepth++;
+                break;
+            }
+            case FUNCTION_EXIT: {
+                e.iid = readInt();
+                callDepth--;
+                break;
+            }
+            case TOP_LEVEL_FLUSH: {
+                readLegacySourceLoc(e);
+                break;
+            }
+            case TOP_LEVEL_FLUSH_COMPACT: {
+                e.type = TraceEntry.TOP_LEVEL_FLUSH;
+                e.scriptId = readInt();
+                e.iid = readInt();
+                break;
+            }
+            case UPDATE_IID: {
+                e.objectId = readInt();
+                e.iid = readInt();
+                e.deliver = !ignoreUpdIID;
+                break;
+            }
+            case DEBUG: {
+                e.iid = readInt();
+                e.objectId = readInt();
+                break;
+            }
+            case RETURN: {
+                e.objectId = readInt();
+                break;
+            }
+            case CREATE_DOM_NODE: {
+                e.iid = readInt();
+                e.objectId = readInt();
+                break;
+            }
+            case ADD_DOM_CHILD:
+            case REMOVE_DOM_CHILD: {
+                e.baseId = readInt();
+                e.objectId = readInt();
+                break;
+            }
+            case ADD_TO_CHILD_SET:
+            case REMOVE_FROM_CHILD_SET: {
+                e.iid = readInt();
+                e.baseId = readInt();
+                readName(e);
+                e.objectId = readInt();
+                break;
+            }
+            case DOM_ROOT: {
+                e.objectId = readInt();
+                break;
+            }
+            case CALL: {
+                e.iid = readInt();
+                e.objectId = readInt();
+                e.funIid = readInt();
+                e.funScriptId = readInt();
+                callDepth++;
+                break;
+            }
+            case SCRIPT_ENTER: {
+                if (index != null)
+                    index.addSetupRecord(recordStart, currentScriptId);
+                e.iid = readInt();
+                e.scriptId = readInt();
+                readName(e);
+                // the script mapping is added in process()
+                break;
+            }
+            case SCRIPT_EXIT: {
+                e.iid = readInt();
+                break;
+            }
+            case FREE_VARS: {
+                if (index != null)
+                    index.addSetupRecord(recordStart, currentScriptId);
+                readFreeVars();
+                e.deliver = false;
+                break;
+            }
+            case SOURCE_MAPPING:
+                if (index != null)
+                    index.addSetupRecord(recordStart, currentScriptId);
+                // the mapping is added in process()
+                e.iid = readInt();
+                e.startLine = readInt();
+                e.startColumn = readInt();
+                e.endLine = readInt();
+                e.endColumn = readInt();
+                e.deliver = false;
+                break;
+            case UPDATE_CURRENT_SCRIPT:
+                currentScriptId = readInt();
+                e.deliver = false;
+                break;
+            case END_LAST_USE:
+                e.deliver = !ignoreLastUse;
+                break;
+            case UNREACHABLE:
+                e.deliver = false;
+                break;
+        }
+        if (!e.metadata) {
+            decodedTime++;
+            if (index != null && decodedTime % index.interval() == 0) {
+                index.addCheckpoint(trace.position(), currentScriptId, callDepth);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * apply a decoded record: update the source map, deliver the event to v
+     * and advance the timer.  analysis is v without the metrics wrapper, for
+     * {@link #handleTime(long, TraceEventVisitor)}.
+     */
+    private <T> void process(TraceEventCursor e, TraceTimer timer, long skipUntil, TraceEventVisitor<T> v,
+            TraceEventVisitor<T> analysis) {
+        boolean live = timer.currentTime() >= skipUntil;
+        switch (e.type) {
+            case SCRIPT_ENTER:
+                iidMap.addScriptMapping(e.scriptId, e.name);
+                break;
+            case SOURCE_MAPPING:
+                iidMap.addMapping(new SourceMap.SourceLocId(e.scriptId, e.iid), e.startLine, e.startColumn, e.endLine, e.endColumn);
+                break;
+            case FUNCTION_EXIT:
+                // HACK: for function exit, we want the effects of this time to be taken into
+                // account before we actually process a function exit.  E.g., if a client is
+                // maintaining a call stack in its functionExit() callback, we want events associated
+                // with the current function to be processed before the call stack is updated
+                if (live)
+                    handleTime(timer.currentTime(), analysis);
+                break;
+            default:
+                break;
+        }
+        if (e.deliver && live) {
+            v.visit(e);
+        }
+        // don't tick timer for metadata entries
+        if (!e.metadata) {
+            // if it wasn't a metadata entry, it was the event that
+            // actually corresponds to the current time
+            if (e.type != TraceEntry.FUNCTION_EXIT && live) { // FUNCTION_EXIT handled above
+                handleTime(timer.currentTime(), analysis);
+            }
+            timer.tick();
+        }
+    }
+
+    /**
+     * a batch of decoded events passed from the decoding thread to the
+     * analysis thread
+     */
+    private static final class EventBatch {
+
+        final TraceEventCursor[] events;
+
+        int size;
+
+        /**
+         * trace position after the last event in this batch
+         */
+        long position;
+
+        /**
+         * true if this is the final batch of the trace
+         */
+        boolean last;
+
+        /**
+         * failure while decoding the events after the ones in this batch
+         */
+        Throwable failure;
+
+        EventBatch(int capacity) {
+            events = new TraceEventCursor[capacity];
+            for (int i = 0; i < capacity; i++) {
+                events[i] = new TraceEventCursor();
+            }
+        }
+    }
+
+    /**
+     * decode on a separate thread, handing batches of events to the calling
+     * thread over a ring buffer.  Empty batches are recycled over a second
+     * ring buffer, so no objects are allocated per event.
+     *
+     * @return the number of events processed
+     */
+    private <T> long runPipelined(TraceEventVisitor<T> v, TraceEventVisitor<T> analysis, TraceTimer timer, long skipUntil) throws IOException {
+        final SpscRingBuffer<EventBatch> full = new SpscRingBuffer<EventBatch>(pipelineBatches);
+        final SpscRingBuffer<EventBatch> free = new SpscRingBuffer<EventBatch>(pipelineBatches);
+        try {
+            for (int i = 0; i < pipelineBatches; i++) {
+                free.put(new EventBatch(pipelineBatchSize));
+            }
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException();
+        }
+        Thread decoder = new Thread("trace-decoder") {
+
+            @Override
+            public void run() {
+                EventBatch b = null;
+                try {
+                    boolean more = true;
+                    while (more) {
+                        b = free.take();
+                        b.size = 0;
+                        while (b.size < b.events.length && (more = decode(b.events[b.size]))) {
+                            b.size++;
                         }
-                        fvMap.put(iid,names);
+                        b.last = !more;
+                        b.position = trace.position();
+                        full.put(b);
+                        b = null;
+                    }
+                } catch (InterruptedException ex) {
+                    // the analysis thread gave up
+                } catch (Throwable t) {
+                    b.failure = t;
+                    b.last = true;
+                    try {
+                        full.put(b);
+                    } catch (InterruptedException ex) {
+                        // the analysis thread gave up
                     }
-                    break;
                 }
-                case SOURCE_MAPPING:
-                    int iid = readInt();
-                    int startLine = readInt();
-                    int startColumn = readInt();
-                    int endLine = readInt();
-                    int endColumn = readInt();
-                    iidMap.addMapping(new SourceMap.SourceLocId(currentScriptId, iid), startLine, startColumn, endLine, endColumn);
-                    break;
-                case UPDATE_CURRENT_SCRIPT:
-                    currentScriptId = readInt();
-                    break;
-                case END_LAST_USE:
-                    if (!ignoreLastUse) a.endLastUse();
-                    break;
-                case UNREACHABLE:
-                    break;
-            }
-            // don't tick timer for metadata entries
-            if (!METADATA_ENTRIES.contains(evtType.ordinal())) {
-                // if it wasn't a metadata entry, it was the event that
-                // actually corresponds to the current time
-                if (!evtType.equals(TraceEntry.FUNCTION_EXIT)) { // FUNCTION_EXIT handled above
-                    handleTime(timer.currentTime(), a);
+            }
+        };
+        decoder.setDaemon(true);
+        decoder.start();
+        try {
+            long events = 0;
+            while (true) {
+                EventBatch b = full.take();
+                for (int i = 0; i < b.size; i++) {
+                    process(b.events[i], timer, skipUntil, v, analysis);
                 }
-                timer.tick();
+                events += b.size;
+                if (progress != null)
+                    sampleProgress(b.position, events);
+                if (b.failure instanceof IOException) {
+                    throw (IOException) b.failure;
+                } else if (b.failure instanceof RuntimeException) {
+                    throw (RuntimeException) b.failure;
+                } else if (b.failure instanceof Error) {
+                    throw (Error) b.failure;
+                } else if (b.failure != null) {
+                    throw new IOException(b.failure);
+                }
+                if (b.last)
+                    return events;
+                free.put(b);
+            }
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException();
+        } finally {
+            decoder.interrupt();
+            try {
+                decoder.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
             }
-            if (this.progress != null)
-                progress.tick(counter);
-            counter++;
         }
-        if (this.progress != null)
-            progress.tick(this.traceSize);
-        trace.close();
-        // we need to undo the last tick, as execution is now over
-        // and we want the current time to correspond to the final entry
-        timer.rewindOneTick();
-        return a.endExecution();
     }
 
-    protected <T> void invokeCreateCallback(TraceAnalysis<T> a,
-            int currentScriptId, int iid, int objId) {
-        a.create(new SourceLocId(currentScriptId, iid), objId);
+    private void readFreeVars() throws IOException {
+        int iid = readInt();
+        int len = readInt();
+        if (len == -1) {
+            //string
+            readString();
+            fvMap.put(iid, FreeVariables.ANY);
+        } else {
+            Set<String> fvs = FreeVariables.makeNameSet(len);
+            for (int i = 0; i < len; i++) {
+                fvs.add(names.name(readNameId()));
+            }
+            fvMap.put(iid,fvs);
+        }
+    }
+
+    private void readSourceMapping(int scriptId) throws IOException {
+        int iid = readInt();
+        int startLine = readInt();
+        int startColumn = readInt();
+        int endLine = readInt();
+        int endColumn = readInt();
+        iidMap.addMapping(new SourceMap.SourceLocId(scriptId, iid), startLine, startColumn, endLine, endColumn);
+    }
+
+    /**
+     * re-read a record indexed by {@link TraceIndex#addSetupRecord(long, int)}
+     * for its effect on the free variable, source and script maps
+     */
+    private void replaySetupRecord(int evtTypeInt, int scriptId) throws IOException {
+        switch (TRACE_ENTRY_VALUES[evtTypeInt]) {
+            case FREE_VARS:
+                readFreeVars();
+                break;
+            case SOURCE_MAPPING:
+                readSourceMapping(scriptId);
+                break;
+            case SCRIPT_ENTER: {
+                readInt();
+                int sid = readInt();
+                iidMap.addScriptMapping(sid, names.name(readNameId()));
+                break;
+            }
+            default:
+                throw new IOException("trace index does not match trace: unexpected " + TRACE_ENTRY_VALUES[evtTypeInt]);
+        }
+    }
+
+    /**
+     * read a source location in the legacy string form sid + ':' + iid,
+     * parsing the digits directly out of the UTF-16LE bytes.  sid and iid
+     * are decimal ints, each with an optional leading minus sign; anything
+     * else, including a value out of int range, is rejected.
+     */
+    private void readLegacySourceLoc(TraceEventCursor e) throws IOException {
+        int length = readInt();
+        if (length > strData.length) {
+            strData = new byte[Math.max(length, 2 * strData.length)];
+        }
+        trace.readFully(strData, 0, length);
+        if (length % 2 != 0) {
+            throw malformedSourceLoc(length);
+        }
+        long value = 0;
+        int digits = 0;
+        boolean negative = false;
+        boolean sawColon = false;
+        for (int i = 0; i < length; i += 2) {
+            char c = (char) ((strData[i] & 0xff) | ((strData[i + 1] & 0xff) << 8));
+            if (c >= '0' && c <= '9' && digits < 10) {
+                value = value * 10 + (c - '0');
+                digits++;
+            } else if (c == '-' && digits == 0 && !negative) {
+                negative = true;
+            } else if (c == ':' && digits > 0 && !sawColon) {
+                e.scriptId = toInt(value, negative, length);
+                value = 0;
+                digits = 0;
+                negative = false;
+                sawColon = true;
+            } else {
+                throw malformedSourceLoc(length);
+            }
+        }
+        if (!sawColon || digits == 0) {
+            throw malformedSourceLoc(length);
+        }
+        e.iid = toInt(value, negative, length);
+    }
+
+    private int toInt(long value, boolean negative, int length) throws IOException {
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw malformedSourceLoc(length);
+        }
+        return (int) value;
+    }
+
+    private IOException malformedSourceLoc(int length) {
+        return new IOException("malformed source location " + new String(strData, 0, length, TRACE_CHARSET));
     }
 
-    protected <T> void handleTime(long currentTime, TraceAnalysis<T> a) {
+    private void readName(TraceEventCursor e) throws IOException {
+        e.nameId = readNameId();
+        e.name = names.name(e.nameId);
+    }
+
+    /**
+     * hook for subclasses to adjust the allocation site of a CREATE_OBJ event
+     * before it is delivered
+     */
+    protected void updateCreateLocation(TraceEventCursor e) {
         // override in subclasses
     }
 
-    private static class TraceTimer implements Timer {
+    /**
+     * hook for subclasses, called once the events of currentTime have been
+     * delivered
+     *
+     * @param v the visitor passed to {@link #runVisitor(TraceEventVisitor)},
+     * never wrapped for {@link #setMetrics(TraceMetrics) metrics}
+     */
+    protected <T> void handleTime(long currentTime, TraceEventVisitor<T> v) {
+        // override in subclasses
+    }
+
+    private static class TraceTimer implements Timer, Serializable {
+
+        private static final long serialVersionUID = 1L;
 
         private long timeInternal = 0;
 
          //TODO: Use a PriorityQueue
-        private SortedMap<Long, List<VoidFunction<Long>>> alarms = null;
+        private transient SortedMap<Long, List<VoidFunction<Long>>> alarms = null;
 
         @Override
         public long currentTime() {
@@ -405,6 +1062,32 @@ public class TraceAnalysisRunner {
             cbs.add(callback);
         }
 
+        /**
+         * only alarms with serializable callbacks are written
+         */
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            SortedMap<Long, List<VoidFunction<Long>>> saved = new TreeMap<Long, List<VoidFunction<Long>>>();
+            if (alarms != null) {
+                for (Map.Entry<Long, List<VoidFunction<Long>>> e : alarms.entrySet()) {
+                    List<VoidFunction<Long>> cbs = new ArrayList<VoidFunction<Long>>();
+                    for (VoidFunction<Long> c : e.getValue()) {
+                        if (c instanceof Serializable)
+                            cbs.add(c);
+                    }
+                    if (!cbs.isEmpty())
+                        saved.put(e.getKey(), cbs);
+                }
+            }
+            out.writeObject(saved.isEmpty() ? null : saved);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            alarms = (SortedMap<Long, List<VoidFunction<Long>>>) in.readObject();
+        }
+
         private void tick() {
             if (alarms != null && alarms.firstKey() == timeInternal) {
                 List<VoidFunction<Long>> list = alarms.get(timeInternal);
@@ -431,10 +1114,10 @@ public class TraceAnalysisRunner {
         CREATE_FUN, // fields: iid, function-enter-iid, obj-id.  NOTE: proto-obj-id is always obj-id + 1
         PUTFIELD, // fields: iid, base-obj-id, prop-name, val-obj-id
         WRITE, // fields: iid, name, obj-id
-        LAST_USE, // fields: obj-id, timestamp, sourceId (sid + ':' + iid)
+        LAST_USE, // fields: obj-id, timestamp, sourceId (sid + ':' + iid).  NOTE: legacy, superseded by LAST_USE_COMPACT
         FUNCTION_ENTER, // fields: iid, function-object-id.  NOTE: only emitted when CALL is not emitted
         FUNCTION_EXIT, // fields: iid
-        TOP_LEVEL_FLUSH, // fields: sourceId (sid + ':' + iid)
+        TOP_LEVEL_FLUSH, // fields: sourceId (sid + ':' + iid).  NOTE: legacy, superseded by TOP_LEVEL_FLUSH_COMPACT
         UPDATE_IID, // fields: obj-id, new-iid
         DEBUG, // fields: call-iid, obj-id
         RETURN, // fields: obj-id
@@ -451,7 +1134,9 @@ public class TraceAnalysisRunner {
         SOURCE_MAPPING, // fields: iid, startLine, startColumn, endLine, endColumn
         UPDATE_CURRENT_SCRIPT, // fields: scriptID
         END_LAST_USE, // fields: none
-        UNREACHABLE // fields: sourceId (sid + ':' + iid), object-id, time
+        UNREACHABLE, // fields: sourceId (sid + ':' + iid), object-id, time
+        LAST_USE_COMPACT, // fields: obj-id, timestamp, sid, iid.  NOTE: delivered to analyses as LAST_USE
+        TOP_LEVEL_FLUSH_COMPACT // fields: sid, iid.  NOTE: delivered to analyses as TOP_LEVEL_FLUSH
     }
 
     /**
@@ -464,7 +1149,21 @@ public class TraceAnalysisRunner {
             TraceEntry.SOURCE_MAPPING.ordinal(),
             TraceEntry.UPDATE_CURRENT_SCRIPT.ordinal(),
             TraceEntry.END_LAST_USE.ordinal(),
-            TraceEntry.UNREACHABLE.ordinal()
+            TraceEntry.UNREACHABLE.ordinal(),
+            TraceEntry.LAST_USE_COMPACT.ordinal()
     ));
 
+    /**
+     * METADATA_ENTRIES indexed by ordinal, for the main loop
+     */
+    private static final TraceEntry[] TRACE_ENTRY_VALUES = TraceEntry.values();
+
+    private static final boolean[] IS_METADATA = new boolean[TraceEntry.values().length];
+
+    static {
+        for (int ordinal : METADATA_ENTRIES) {
+            IS_METADATA[ordinal] = true;
+        }
+    }
+
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.traceparser;
+
+import java.util.Set;
+
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner.TraceEntry;
+
+/**
+ * Flyweight view of the current trace event.  A single instance is reused for
+ * every event, so clients must copy out any field they need to keep.
+ *
+ * Field usage by event type ("loc" is {@link #scriptId()}:{@link #iid()}):
+ * <ul>
+ * <li>DECLARE, WRITE: loc, name, objectId</li>
+ * <li>CREATE_OBJ, CREATE_DOM_NODE, DEBUG: loc, objectId</li>
+ * <li>CREATE_FUN: loc, objectId (prototype is objectId + 1), function-enter
+ * loc, freeVariables</li>
+ * <li>PUTFIELD: loc, baseId, name, objectId</li>
+ * <li>LAST_USE: loc of the use, objectId, time</li>
+ * <li>FUNCTION_ENTER, CALL: loc of the call site ({@link SourceMap#UNKNOWN_ID}
+ * for FUNCTION_ENTER), objectId of the function, function-enter loc</li>
+ * <li>FUNCTION_EXIT, SCRIPT_EXIT, TOP_LEVEL_FLUSH: loc</li>
+ * <li>UPDATE_IID: loc of the new allocation site, objectId</li>
+ * <li>RETURN, DOM_ROOT: objectId</li>
+ * <li>ADD_DOM_CHILD, REMOVE_DOM_CHILD: baseId (parent), objectId (child)</li>
+ * <li>ADD_TO_CHILD_SET, REMOVE_FROM_CHILD_SET: loc, baseId (parent), name,
+ * objectId (child)</li>
+ * <li>SCRIPT_ENTER: loc, name (the file name)</li>
+ * <li>END_LAST_USE: none</li>
+ * </ul>
+ * LAST_USE_COMPACT and TOP_LEVEL_FLUSH_COMPACT records are delivered as
+ * LAST_USE and TOP_LEVEL_FLUSH respectively.
+ */
+public final class TraceEventCursor {
+
+    TraceEntry type;
+
+    int scriptId;
+
+    int iid;
+
+    int objectId;
+
+    int baseId;
+
+    int funScriptId;
+
+    int funIid;
+
+    long time;
+
+    Set<String> freeVariables;
+
+    int nameId;
+
+    String name;
+
+    /**
+     * SOURCE_MAPPING fields, consumed by the runner
+     */
+    int startLine, startColumn, endLine, endColumn;
+
+    /**
+     * set by the runner: true if the record does not tick the timer, and
+     * whether it should be passed to the visitor
+     */
+    boolean metadata, deliver;
+
+    public TraceEntry type() {
+        return type;
+    }
+
+    public int scriptId() {
+        return scriptId;
+    }
+
+    public int iid() {
+        return iid;
+    }
+
+    public int objectId() {
+        return objectId;
+    }
+
+    public int baseId() {
+        return baseId;
+    }
+
+    public int functionEnterScriptId() {
+        return funScriptId;
+    }
+
+    public int functionEnterIid() {
+        return funIid;
+    }
+
+    public long time() {
+        return time;
+    }
+
+    public Set<String> freeVariables() {
+        return freeVariables;
+    }
+
+    /**
+     * @return the {@link NameTable} id of the name carried by the event
+     */
+    public int nameId() {
+        return nameId;
+    }
+
+    /**
+     * @return the canonical name carried by the event
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return a fresh {@link SourceMap.SourceLocId} for the event location
+     */
+    public SourceMap.SourceLocId sourceLocId() {
+        return new SourceMap.SourceLocId(scriptId, iid);
+    }
+
+    /**
+     * @return a fresh {@link SourceMap.SourceLocId} for the function-enter location
+     */
+    public SourceMap.SourceLocId functionEnterSourceLocId() {
+        return new SourceMap.SourceLocId(funScriptId, funIid);
+    }
+
+    @Override
+    public String toString() {
+        return type + "[" + scriptId + ":" + iid + ", obj=" + objectId + ", base=" + baseId + "]";
+    }
+}
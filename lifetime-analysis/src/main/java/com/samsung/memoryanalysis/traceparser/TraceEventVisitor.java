@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.traceparser;
+
+/**
+ * Low-level interface for analyses that consume trace events without any
+ * per-event allocation.  The runner passes every program event through a
+ * single reusable {@link TraceEventCursor}; the cursor is only valid for the
+ * duration of the {@link #visit(TraceEventCursor)} call.
+ *
+ * Existing {@link TraceAnalysis} implementations run on top of this interface
+ * via {@link TraceAnalysisAdapter}.
+ */
+public interface TraceEventVisitor<T> {
+
+    public void init(Timer timer, SourceMap iidMap);
+
+    public void visit(TraceEventCursor e);
+
+    public T endExecution();
+}
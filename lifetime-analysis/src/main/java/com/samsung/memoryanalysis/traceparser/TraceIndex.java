@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.traceparser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Seek index for a binary trace, stored in a sidecar file next to the trace
+ * (see {@link #sidecarFile(File)}).
+ *
+ * Checkpoint i corresponds to timestamp i * {@link #interval()}, and records
+ * the byte offset of the first record after the event for the previous
+ * timestamp, together with the current script id and function call depth at
+ * that point.  The index also records the offsets of the records that set up
+ * runner state (free variables, source mappings and script names), which are
+ * replayed before a seek so that events after the seek point are decoded
+ * exactly as in a full run.
+ *
+ * Build an index either with {@link #build(File, int)} or during a normal
+ * analysis run via {@link TraceAnalysisRunner#buildIndex(int)}, and seek with
+ * {@link TraceAnalysisRunner#seek(TraceIndex, long)}.
+ */
+public final class TraceIndex {
+
+    public static final int DEFAULT_INTERVAL = 4096;
+
+    private static final int MAGIC = 0x4d544958; // "MTIX"
+
+    private static final int VERSION = 1;
+
+    private final int interval;
+
+    private long traceLength;
+
+    private long endTime;
+
+    private int checkpoints = 0;
+
+    private long[] offsets = new long[64];
+
+    private int[] scriptIds = new int[64];
+
+    private int[] callDepths = new int[64];
+
+    private int setupRecords = 0;
+
+    private long[] setupOffsets = new long[64];
+
+    private int[] setupScriptIds = new int[64];
+
+    public TraceIndex(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("invalid index interval " + interval);
+        }
+        this.interval = interval;
+    }
+
+    /**
+     * @return the default location of the index for trace
+     */
+    public static File sidecarFile(File trace) {
+        return new File(trace.getPath() + ".idx");
+    }
+
+    /**
+     * run an indexing pass over trace, reading source information from the
+     * trace's directory
+     */
+    public static TraceIndex build(File trace, int interval) throws IOException {
+        TraceAnalysisRunner runner = new TraceAnalysisRunner(trace, null, trace.getParentFile());
+        runner.buildIndex(interval);
+        runner.runVisitor(new TraceEventVisitor<Void>() {
+
+            @Override
+            public void init(Timer timer, SourceMap iidMap) {
+            }
+
+            @Override
+            public void visit(TraceEventCursor e) {
+            }
+
+            @Override
+            public Void endExecution() {
+                return null;
+            }
+        });
+        return runner.getIndex();
+    }
+
+    void addCheckpoint(long offset, int scriptId, int callDepth) {
+        if (checkpoints == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * checkpoints);
+            scriptIds = Arrays.copyOf(scriptIds, 2 * checkpoints);
+            callDepths = Arrays.copyOf(callDepths, 2 * checkpoints);
+        }
+        offsets[checkpoints] = offset;
+        scriptIds[checkpoints] = scriptId;
+        callDepths[checkpoints] = callDepth;
+        checkpoints++;
+    }
+
+    void addSetupRecord(long offset, int scriptId) {
+        if (setupRecords == setupOffsets.length) {
+            setupOffsets = Arrays.copyOf(setupOffsets, 2 * setupRecords);
+            setupScriptIds = Arrays.copyOf(setupScriptIds, 2 * setupRecords);
+        }
+        setupOffsets[setupRecords] = offset;
+        setupScriptIds[setupRecords] = scriptId;
+        setupRecords++;
+    }
+
+    void finish(long traceLength, long endTime) {
+        // drop a checkpoint taken after the final event
+        while (checkpoints > 1 && time(checkpoints - 1) > endTime) {
+            checkpoints--;
+        }
+        this.traceLength = traceLength;
+        this.endTime = endTime;
+    }
+
+    /**
+     * @return number of timestamps between consecutive checkpoints
+     */
+    public int interval() {
+        return interval;
+    }
+
+    /**
+     * @return length in bytes of the indexed trace
+     */
+    public long traceLength() {
+        return traceLength;
+    }
+
+    /**
+     * @return the timestamp of the final event in the trace
+     */
+    public long endTime() {
+        return endTime;
+    }
+
+    public int size() {
+        return checkpoints;
+    }
+
+    /**
+     * @return the index of the last checkpoint at or before time
+     */
+    public int checkpointFor(long time) {
+        if (time < 0 || time > endTime) {
+            throw new IllegalArgumentException("time " + time + " outside of trace [0, " + endTime + "]");
+        }
+        return (int) Math.min(time / interval, checkpoints - 1);
+    }
+
+    public long time(int checkpoint) {
+        return (long) checkpoint * interval;
+    }
+
+    public long offset(int checkpoint) {
+        return offsets[checkpoint];
+    }
+
+    public int scriptId(int checkpoint) {
+        return scriptIds[checkpoint];
+    }
+
+    public int callDepth(int checkpoint) {
+        return callDepths[checkpoint];
+    }
+
+    int setupRecords() {
+        return setupRecords;
+    }
+
+    long setupOffset(int i) {
+        return setupOffsets[i];
+    }
+
+    int setupScriptId(int i) {
+        return setupScriptIds[i];
+    }
+
+    public void write(File f) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(interval);
+            out.writeLong(traceLength);
+            out.writeLong(endTime);
+            out.writeInt(checkpoints);
+            for (int i = 0; i < checkpoints; i++) {
+                out.writeLong(offsets[i]);
+                out.writeInt(scriptIds[i]);
+                out.writeInt(callDepths[i]);
+            }
+            out.writeInt(setupRecords);
+            for (int i = 0; i < setupRecords; i++) {
+                out.writeLong(setupOffsets[i]);
+                out.writeInt(setupScriptIds[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public static TraceIndex read(File f) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a trace index: " + f);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported trace index version " + version);
+            }
+            TraceIndex res = new TraceIndex(in.readInt());
+            long traceLength = in.readLong();
+            long endTime = in.readLong();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                long offset = in.readLong();
+                int scriptId = in.readInt();
+                res.addCheckpoint(offset, scriptId, in.readInt());
+            }
+            n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                long offset = in.readLong();
+                res.addSetupRecord(offset, in.readInt());
+            }
+            res.finish(traceLength, endTime);
+            return res;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.traceparser;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Opens traces and the analysis side traces, transparently handling gzip and
+ * zlib (deflate) compression.  Compressed input is inflated on a background
+ * thread, so decompression overlaps with the analysis.
+ *
+ * Compression is detected from the first two bytes.  An uncompressed trace
+ * always starts with a {@link TraceAnalysisRunner.TraceEntry} ordinal, so the
+ * check is unambiguous for memory traces.
+ */
+public class TraceInput {
+
+    private static final int GZIP_MAGIC = 0x1f8b;
+
+    /**
+     * @return a reader for traceFile: memory-mapped if the file is not
+     * compressed, and otherwise inflated in the background
+     */
+    public static TraceReader open(File traceFile) throws IOException {
+        if (isCompressed(traceFile)) {
+            return new StreamTraceReader(decompressing(new FileInputStream(traceFile)));
+        }
+        return new MappedTraceReader(traceFile);
+    }
+
+    /**
+     * @return a reader for trace, which may be compressed
+     */
+    public static TraceReader open(InputStream trace) throws IOException {
+        return new StreamTraceReader(decompressing(trace));
+    }
+
+    public static boolean isCompressed(File f) throws IOException {
+        InputStream in = new FileInputStream(f);
+        try {
+            return compression(in.read(), in.read()) != Compression.NONE;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return a stream reading the uncompressed contents of in
+     */
+    public static InputStream decompressing(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+        buffered.mark(2);
+        Compression c = compression(buffered.read(), buffered.read());
+        buffered.reset();
+        switch (c) {
+            case GZIP:
+                return new BackgroundInputStream(new GZIPInputStream(buffered, 1 << 16));
+            case ZLIB:
+                return new BackgroundInputStream(new InflaterInputStream(buffered));
+            default:
+                return buffered;
+        }
+    }
+
+    /**
+     * @return a stream writing gzip-compressed data to out
+     */
+    public static OutputStream compressing(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, 1 << 16);
+    }
+
+    private static enum Compression { NONE, GZIP, ZLIB }
+
+    private static Compression compression(int b0, int b1) {
+        if (b0 == -1 || b1 == -1) {
+            return Compression.NONE;
+        }
+        int header = (b0 << 8) | b1;
+        if (header == GZIP_MAGIC) {
+            return Compression.GZIP;
+        }
+        // zlib: deflate method, 32K window, and a header checksum
+        if (b0 == 0x78 && header % 31 == 0) {
+            return Compression.ZLIB;
+        }
+        return Compression.NONE;
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.traceparser;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner.TraceEntry;
+
+/**
+ * Counts the events delivered to a visitor per {@link TraceEntry} type, and
+ * optionally samples the wall-clock time spent in the visitor for each type.
+ * Sampled times go into histograms with one bucket per power of two
+ * nanoseconds.
+ *
+ * The runner only {@link #wrap(TraceEventVisitor) wraps} the visitor if
+ * metrics are enabled with
+ * {@link TraceAnalysisRunner#setMetrics(TraceMetrics)}, so a run without
+ * metrics executes no metrics code at all.
+ *
+ * The counters are only updated by the analysis thread.  Reading them over
+ * JMX while the analysis runs gives approximate values.
+ */
+public class TraceMetrics implements TraceMetricsMBean {
+
+    public static final String OBJECT_NAME = "com.samsung.memoryanalysis:type=TraceMetrics";
+
+    private static final TraceEntry[] TYPES = TraceEntry.values();
+
+    private static final int BUCKETS = 64;
+
+    private final long[] counts = new long[TYPES.length];
+
+    private final long[][] histograms = new long[TYPES.length][BUCKETS];
+
+    private final long[] sampledNanos = new long[TYPES.length];
+
+    /**
+     * every (sampleMask + 1)th event of each type is timed; -1 disables
+     * timing
+     */
+    private final long sampleMask;
+
+    private final int sampleInterval;
+
+    private File reportFile = null;
+
+    /**
+     * more statistics to include in the report, by key
+     */
+    private final Map<String, Section> sections = new LinkedHashMap<String, Section>();
+
+    /**
+     * statistics kept elsewhere that go into the report
+     */
+    public interface Section {
+        public JsonObject toJson();
+    }
+
+    private long startTime;
+
+    private long elapsedNanos = -1;
+
+    /**
+     * @param sampleInterval time one in every sampleInterval events of each
+     * type, which must be a power of two, or 0 to only count events
+     */
+    public TraceMetrics(int sampleInterval) {
+        if (sampleInterval < 0 || Integer.bitCount(sampleInterval) > 1) {
+            throw new IllegalArgumentException("sample interval must be 0 or a power of two: " + sampleInterval);
+        }
+        this.sampleInterval = sampleInterval;
+        this.sampleMask = sampleInterval - 1;
+    }
+
+    /**
+     * write the JSON report to file when the run ends
+     */
+    public void setReportFile(File file) {
+        this.reportFile = file;
+    }
+
+    public void addSection(String key, Section section) {
+        sections.put(key, section);
+    }
+
+    /**
+     * @return a visitor that records metrics for the events it passes on to v
+     */
+    public <T> TraceEventVisitor<T> wrap(TraceEventVisitor<T> v) {
+        startTime = System.nanoTime();
+        elapsedNanos = -1;
+        return sampleMask < 0 ? new Counting<T>(v) : new Timed<T>(v);
+    }
+
+    private class Counting<T> implements TraceEventVisitor<T> {
+
+        final TraceEventVisitor<T> v;
+
+        Counting(TraceEventVisitor<T> v) {
+            this.v = v;
+        }
+
+        @Override
+        public void init(Timer timer, SourceMap iidMap) {
+            v.init(timer, iidMap);
+        }
+
+        @Override
+        public void visit(TraceEventCursor e) {
+            counts[e.type.ordinal()]++;
+            v.visit(e);
+        }
+
+        @Override
+        public T endExecution() {
+            T res = v.endExecution();
+            finish();
+            return res;
+        }
+    }
+
+    private class Timed<T> extends Counting<T> {
+
+        Timed(TraceEventVisitor<T> v) {
+            super(v);
+        }
+
+        @Override
+        public void visit(TraceEventCursor e) {
+            int type = e.type.ordinal();
+            if ((++counts[type] & sampleMask) != 0) {
+                v.visit(e);
+                return;
+            }
+            long start = System.nanoTime();
+            v.visit(e);
+            long nanos = System.nanoTime() - start;
+            sampledNanos[type] += nanos;
+            histograms[type][bucket(nanos)]++;
+        }
+    }
+
+    private static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    private void finish() {
+        elapsedNanos = System.nanoTime() - startTime;
+        if (reportFile != null) {
+            try {
+                Writer w = new FileWriter(reportFile);
+                try {
+                    w.write(getReport());
+                } finally {
+                    w.close();
+                }
+            } catch (IOException e) {
+                throw new Error("I/O error", e);
+            }
+        }
+    }
+
+    public long count(TraceEntry type) {
+        return counts[type.ordinal()];
+    }
+
+    /**
+     * @return the number of sampled events of type that took between 2^i and
+     * 2^(i+1) nanoseconds, for each i
+     */
+    public long[] histogram(TraceEntry type) {
+        return histograms[type.ordinal()].clone();
+    }
+
+    @Override
+    public long getEvents() {
+        long res = 0;
+        for (long c : counts) {
+            res += c;
+        }
+        return res;
+    }
+
+    @Override
+    public long getCount(String type) {
+        return count(TraceEntry.valueOf(type));
+    }
+
+    /**
+     * @return the upper bound in nanoseconds of the bucket containing the
+     * given quantile of the samples in histogram
+     */
+    private static long quantile(long[] histogram, long samples, double q) {
+        long rank = (long) Math.ceil(q * samples);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank && seen > 0) {
+                return i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+        }
+        return 0;
+    }
+
+    public JsonObject toJson() {
+        JsonObject res = new JsonObject();
+        res.addProperty("events", getEvents());
+        long elapsed = elapsedNanos >= 0 ? elapsedNanos : System.nanoTime() - startTime;
+        res.addProperty("elapsedMillis", elapsed / 1000000);
+        res.addProperty("sampleInterval", sampleInterval);
+        JsonObject types = new JsonObject();
+        for (TraceEntry t : TYPES) {
+            int i = t.ordinal();
+            if (counts[i] == 0)
+                continue;
+            JsonObject o = new JsonObject();
+            o.addProperty("count", counts[i]);
+            if (sampleMask >= 0) {
+                long samples = 0;
+                JsonArray buckets = new JsonArray();
+                for (long b : histograms[i]) {
+                    samples += b;
+                }
+                int last = BUCKETS - 1;
+                while (last > 0 && histograms[i][last] == 0) {
+                    last--;
+                }
+                for (int b = 0; b <= last; b++) {
+                    buckets.add(new JsonPrimitive(histograms[i][b]));
+                }
+                o.addProperty("samples", samples);
+                if (samples > 0) {
+                    o.addProperty("meanNanos", sampledNanos[i] / samples);
+                    // estimate of the total time, extrapolated from the samples
+                    o.addProperty("estimatedTotalMillis", sampledNanos[i] * counts[i] / samples / 1000000);
+                    o.addProperty("p50Nanos", quantile(histograms[i], samples, 0.5));
+                    o.addProperty("p99Nanos", quantile(histograms[i], samples, 0.99));
+                    o.addProperty("maxNanos", quantile(histograms[i], samples, 1));
+                    o.add("log2NanosHistogram", buckets);
+                }
+            }
+            types.add(t.name(), o);
+        }
+        res.add("types", types);
+        for (Map.Entry<String, Section> s : sections.entrySet()) {
+            res.add(s.getKey(), s.getValue().toJson());
+        }
+        return res;
+    }
+
+    @Override
+    public String getReport() {
+        return new Gson().toJson(toJson());
+    }
+
+    /**
+     * register with the platform MBean server as {@link #OBJECT_NAME},
+     * replacing an earlier registration
+     */
+    public void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+    }
+
+    public void unregisterMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+}
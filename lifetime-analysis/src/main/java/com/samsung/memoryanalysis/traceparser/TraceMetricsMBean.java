@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.traceparser;
+
+/**
+ * JMX view of the {@link TraceMetrics} of a running analysis
+ */
+public interface TraceMetricsMBean {
+
+    /**
+     * @return number of events delivered so far
+     */
+    public long getEvents();
+
+    /**
+     * @return number of delivered events of the given {@link TraceAnalysisRunner.TraceEntry} type
+     */
+    public long getCount(String type);
+
+    /**
+     * @return the current counts and latency histograms as JSON
+     */
+    public String getReport();
+}
@@ -18,7 +18,6 @@ package com.samsung.memoryanalysis.traceparser;
 import static java.lang.String.format;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.Set;
@@ -95,11 +94,24 @@ public class TracePrettyPrinter implements TraceAnalysis<Void> {
 
     public static void main(String[] args) throws IOException, InterruptedException {
         System.out.println(new File(args[0]).getAbsolutePath());
-        if (args.length != 1) {
-            System.out.println("Specify a trace " + args.length);
+        if (args.length != 1 && args.length != 2) {
+            System.out.println("Specify a trace and, optionally, a start time " + args.length);
             System.exit(1);
         }
-        TraceAnalysisRunner t = new TraceAnalysisRunner(new FileInputStream(args[0]),null, new File(args[0]).getParentFile());
+        File traceFile = new File(args[0]);
+        TraceAnalysisRunner t = new TraceAnalysisRunner(traceFile,null, traceFile.getParentFile());
+        if (args.length == 2) {
+            // start printing at the given time, using (and if needed, creating) the index sidecar
+            File idxFile = TraceIndex.sidecarFile(traceFile);
+            TraceIndex idx;
+            if (idxFile.exists()) {
+                idx = TraceIndex.read(idxFile);
+            } else {
+                idx = TraceIndex.build(traceFile, TraceIndex.DEFAULT_INTERVAL);
+                idx.write(idxFile);
+            }
+            t.seek(idx, Long.parseLong(args[1]));
+        }
         t.runAnalysis(new TracePrettyPrinter());
     }
 
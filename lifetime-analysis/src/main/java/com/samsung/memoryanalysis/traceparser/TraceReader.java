@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.traceparser;
+
+import java.io.IOException;
+
+/**
+ * Source of the raw bytes of a binary memory trace.  All multi-byte integers
+ * in the trace are big-endian.
+ */
+public interface TraceReader {
+
+    /**
+     * @return the next byte of the trace as an unsigned value, or -1 at the end
+     * of the trace
+     */
+    public int read() throws IOException;
+
+    public int readInt() throws IOException;
+
+    public void readFully(byte[] b, int off, int len) throws IOException;
+
+    /**
+     * @return number of bytes consumed so far
+     */
+    public long position() throws IOException;
+
+    /**
+     * @return total number of bytes in the trace, or -1 if not known in
+     * advance
+     */
+    public long size();
+
+    /**
+     * continue reading at the given byte offset.  Readers that cannot move
+     * backwards throw an {@link IOException} for offsets before
+     * {@link #position()}.
+     */
+    public void seek(long position) throws IOException;
+
+    public void close() throws IOException;
+}
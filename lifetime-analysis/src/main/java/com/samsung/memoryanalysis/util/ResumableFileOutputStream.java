@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+
+/**
+ * A buffered file output stream that can be written to a checkpoint.  Reading
+ * it back truncates the file to the length it had when the checkpoint was
+ * taken and continues appending from there, so output written after the
+ * checkpoint is not duplicated.
+ */
+public class ResumableFileOutputStream extends OutputStream implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File file;
+
+    /**
+     * number of bytes written so far
+     */
+    private long length = 0;
+
+    private transient OutputStream out;
+
+    public ResumableFileOutputStream(File file) throws IOException {
+        this.file = file.getAbsoluteFile();
+        out = new BufferedOutputStream(new FileOutputStream(this.file));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        length++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        length += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeObject(ObjectOutputStream s) throws IOException {
+        out.flush();
+        s.defaultWriteObject();
+    }
+
+    private void readObject(ObjectInputStream s) throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        RandomAccessFile f = new RandomAccessFile(file, "rw");
+        try {
+            if (f.length() < length) {
+                throw new IOException(file + " is shorter than at the checkpoint");
+            }
+            f.setLength(length);
+        } finally {
+            f.close();
+        }
+        out = new BufferedOutputStream(new FileOutputStream(file, true));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.runners.Parameterized;
+
+import com.samsung.memoryanalysis.context.Context;
+import com.samsung.memoryanalysis.context.ContextProvider;
+import com.samsung.memoryanalysis.options.MemoryAnalysisOptions;
+import com.samsung.memoryanalysis.referencecounter.DummyUnreachabilityAnalysis;
+import com.samsung.memoryanalysis.referencecounter.ReferenceCounter;
+import com.samsung.memoryanalysis.referencecounter.UnreachabilityAwareAnalysis;
+import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph;
+import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner;
+
+/**
+ * Runs the reference counter over the testRefCount and htmlTest traces with
+ * verbose output.  Verbosity is set in the options of each run rather than
+ * in a system property, so that test classes run in one JVM do not see each
+ * other's settings.
+ */
+public abstract class AbstractRefCountTester extends AbstractTester {
+
+    final static String pref = "testRefCount";
+    final static String htmlPref = "htmlTest";
+
+    public AbstractRefCountTester(TestCaseInfo file) {
+        super(file);
+    }
+
+    /**
+     * records the unreachability callbacks, so that runs can be compared
+     */
+    static class RecordUnreachable extends DummyUnreachabilityAnalysis<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        final List<String> events = new ArrayList<String>();
+
+        int contexts = 0;
+
+        @Override
+        public void unreachableObject(SourceLocId slId, int objectId, long time, int shallowSize) {
+            events.add("object " + objectId + " " + slId + " " + time + " " + shallowSize);
+        }
+
+        @Override
+        public void unreachableContext(SourceLocId slId, Context ctx, long time) {
+            events.add("context " + ctx + " " + slId + " " + time);
+            contexts++;
+        }
+    }
+
+    /**
+     * @return options for a verbose run
+     */
+    static MemoryAnalysisOptions verboseOptions() {
+        MemoryAnalysisOptions options = new MemoryAnalysisOptions();
+        options.setRCVerbose(true);
+        return options;
+    }
+
+    /**
+     * run the reference counter over heap on runner, and return what it printed
+     *
+     * @param client client analysis, or null for none
+     */
+    String run(TraceAnalysisRunner runner, ReferenceCountedHeapGraph heap, UnreachabilityAwareAnalysis<Void> client,
+            MemoryAnalysisOptions options) throws IOException {
+        StringBuilder r = redirect();
+        ReferenceCounter<Void> f = new ReferenceCounter<Void>(heap, client, options);
+        // gross.  we want some output even if analysis fails with an assertion
+        try {
+            runner.runAnalysis(new ContextProvider<Void>(f, options));
+            revert();
+            return r.toString();
+        } catch (AssertionError e) {
+            revert();
+            System.out.println(r.toString());
+            throw e;
+        }
+    }
+
+    @Parameterized.Parameters(name="{0}")
+    public static Collection<Object[]> data() throws IOException {
+        System.setProperty("testing", "yes");
+        File dir = new File(TESTDATA);
+        List<Object[]> res = new ArrayList<Object[]>();
+        addMatchingJS(dir, res, pref);
+        addMatchingHTML(dir, res, htmlPref);
+        return res;
+    }
+
+}
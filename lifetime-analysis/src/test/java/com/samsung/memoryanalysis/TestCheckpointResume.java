@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis;
+
+import java.io.File;
+import java.io.Serializable;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import com.samsung.memoryanalysis.context.ContextProvider;
+import com.samsung.memoryanalysis.options.MemoryAnalysisOptions;
+import com.samsung.memoryanalysis.referencecounter.ReferenceCounter;
+import com.samsung.memoryanalysis.referencecounter.heap.JGraphHeap;
+import com.samsung.memoryanalysis.traceparser.SourceMap;
+import com.samsung.memoryanalysis.traceparser.Timer;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisAdapter;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner;
+import com.samsung.memoryanalysis.traceparser.TraceEventCursor;
+import com.samsung.memoryanalysis.traceparser.TraceEventVisitor;
+
+/**
+ * Checkpoints the reference counter about two thirds of the way through each
+ * trace and stops the run right after the checkpoint, then resumes from the
+ * checkpoint in a new runner.  Together, the two runs must print the same
+ * output as an uninterrupted one.
+ */
+@RunWith(Parameterized.class)
+public class TestCheckpointResume extends AbstractRefCountTester {
+
+    public TestCheckpointResume(TestCaseInfo file) {
+        super(file);
+    }
+
+    /**
+     * returns the timestamp of the last event
+     */
+    private static class TraceLength implements TraceEventVisitor<Long> {
+
+        private Timer timer;
+
+        @Override
+        public void init(Timer timer, SourceMap iidMap) {
+            this.timer = timer;
+        }
+
+        @Override
+        public void visit(TraceEventCursor e) {
+        }
+
+        @Override
+        public Long endExecution() {
+            return timer.currentTime();
+        }
+    }
+
+    private static class Stop extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * throws {@link Stop} once the timer reaches stopAt.  stopAt is not
+     * saved in the checkpoint, so the resumed run is not stopped.
+     */
+    private static class StopAt<T> implements TraceEventVisitor<T>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TraceEventVisitor<T> v;
+
+        private transient long stopAt;
+
+        private Timer timer;
+
+        StopAt(TraceEventVisitor<T> v, long stopAt) {
+            this.v = v;
+            this.stopAt = stopAt;
+        }
+
+        @Override
+        public void init(Timer timer, SourceMap iidMap) {
+            this.timer = timer;
+            v.init(timer, iidMap);
+        }
+
+        @Override
+        public void visit(TraceEventCursor e) {
+            if (stopAt > 0 && timer.currentTime() >= stopAt)
+                throw new Stop();
+            v.visit(e);
+        }
+
+        @Override
+        public T endExecution() {
+            return v.endExecution();
+        }
+    }
+
+    @Override
+	public String runAnalysis(File trace) throws Exception {
+        File dir = trace.getParentFile();
+        long length = new TraceAnalysisRunner(trace, null, dir).runVisitor(new TraceLength());
+        File checkpoint = File.createTempFile("checkpoint", null);
+        checkpoint.deleteOnExit();
+        StringBuilder r = redirect();
+        MemoryAnalysisOptions options = verboseOptions();
+        ReferenceCounter<Void> f = new ReferenceCounter<Void>(new JGraphHeap(), null, options);
+        // gross.  we want some output even if analysis fails with an assertion
+        try {
+            long interval = Math.max(1, 2 * length / 3);
+            TraceAnalysisRunner runner = new TraceAnalysisRunner(trace, null, dir);
+            runner.checkpointEvery(interval, checkpoint);
+            try {
+                runner.runVisitor(new StopAt<Void>(new TraceAnalysisAdapter<Void>(new ContextProvider<Void>(f, options)), interval));
+            } catch (Stop e) {
+                new TraceAnalysisRunner(trace, null, dir).resume(checkpoint);
+            }
+            revert();
+            return r.toString();
+        } catch (AssertionError e) {
+            revert();
+            System.out.println(r.toString());
+            throw e;
+        } finally {
+            checkpoint.delete();
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import com.samsung.memoryanalysis.referencecounter.heap.JGraphHeap;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner;
+
+/**
+ * Runs the reference counter over compressed copies of the traces: gzip for
+ * the JS tests, zlib for the HTML tests.
+ */
+@RunWith(Parameterized.class)
+public class TestCompressedTrace extends AbstractRefCountTester {
+
+    public TestCompressedTrace(TestCaseInfo file) {
+        super(file);
+    }
+
+    @Override
+	public String runAnalysis(File trace) throws Exception {
+        File compressed = compress(trace, trace.getParentFile().getName().startsWith(htmlPref));
+        try {
+            return run(new TraceAnalysisRunner(compressed, null, trace.getParentFile()), new JGraphHeap(), null, verboseOptions());
+        } finally {
+            compressed.delete();
+        }
+    }
+
+    private static File compress(File trace, boolean zlib) throws IOException {
+        File res = File.createTempFile("mem-trace", zlib ? ".z" : ".gz");
+        OutputStream out = new FileOutputStream(res);
+        out = zlib ? new DeflaterOutputStream(out) : new GZIPOutputStream(out);
+        InputStream in = new FileInputStream(trace);
+        try {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        return res;
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import com.samsung.memoryanalysis.allocstats.AllocationSiteStats;
+import com.samsung.memoryanalysis.context.ContextProvider;
+import com.samsung.memoryanalysis.options.MemoryAnalysisOptions;
+import com.samsung.memoryanalysis.referencecounter.ReferenceCounter;
+import com.samsung.memoryanalysis.referencecounter.heap.JGraphHeap;
+import com.samsung.memoryanalysis.staleness.StreamingStalenessAnalysis;
+import com.samsung.memoryanalysis.traceparser.EnhancedTraceAnalysisRunner;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner;
+import com.samsung.memoryanalysis.traceparser.TraceMetrics;
+
+/**
+ * Runs the streaming staleness analysis and then the allocation site
+ * statistics over its side traces, both with metrics enabled and every
+ * callback timed.  The output must be that of {@link TestStreamingStaleness}.
+ */
+@RunWith(Parameterized.class)
+public class TestEnhancedTraceMetrics extends AbstractTester {
+
+    public TestEnhancedTraceMetrics(TestCaseInfo file) {
+        super(file);
+    }
+
+    @Override
+    protected String runAnalysis(File trace) throws Exception {
+        StringBuilder r = redirect();
+        ByteArrayOutputStream lastUse = new ByteArrayOutputStream(), unreach = new ByteArrayOutputStream(),
+                updiid = new ByteArrayOutputStream();
+        StreamingStalenessAnalysis client = new StreamingStalenessAnalysis(System.out, lastUse, unreach, updiid);
+        client.debug = true;
+        ReferenceCounter<Void> f = new ReferenceCounter<Void>(new JGraphHeap(), client);
+        TraceMetrics metrics = new TraceMetrics(1);
+        // gross.  we want some output even if analysis fails with an assertion
+        try {
+            FileInputStream traceInputStream = new FileInputStream(trace);
+            TraceAnalysisRunner runner = new TraceAnalysisRunner(traceInputStream, null, trace.getParentFile());
+            runner.setMetrics(new TraceMetrics(1));
+            runner.runAnalysis(new ContextProvider<Void>(f, new MemoryAnalysisOptions()));
+            traceInputStream.close();
+            traceInputStream = new FileInputStream(trace);
+            ByteArrayInputStream lastUseIn = new ByteArrayInputStream(lastUse.toByteArray());
+            ByteArrayInputStream unreachIn = new ByteArrayInputStream(unreach.toByteArray());
+            ByteArrayInputStream iidIn = new ByteArrayInputStream(updiid.toByteArray());
+            EnhancedTraceAnalysisRunner enhanced = new EnhancedTraceAnalysisRunner(traceInputStream, lastUseIn, unreachIn, iidIn, null, trace.getParentFile());
+            enhanced.setMetrics(metrics);
+            enhanced.runAnalysis(new AllocationSiteStats());
+            revert();
+        } catch (AssertionError e) {
+            revert();
+            System.out.println(r.toString());
+            throw e;
+        }
+        assertTrue(metrics.getEvents() > 0);
+        return r.toString();
+    }
+
+    @Parameterized.Parameters(name="{0}")
+    public static Collection<Object[]> data() throws IOException {
+        System.setProperty("testing", "yes");
+        System.setProperty("rcverbose", "no");
+        File dir = new File(TESTDATA);
+        List<Object[]> res = new ArrayList<Object[]>();
+        addMatchingJS(dir, res, TestStalenessAnalysis.pref);
+        addMatchingHTML(dir, res, TestStalenessAnalysis.htmlPref);
+        return res;
+    }
+
+    @Override
+    protected String getExpectedFileName(TestCaseInfo tcInfo) {
+        return tcInfo.name + ".streamstaleness.expected";
+    }
+}
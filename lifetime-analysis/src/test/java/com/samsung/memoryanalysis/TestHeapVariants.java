@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import com.samsung.memoryanalysis.options.MemoryAnalysisOptions;
+import com.samsung.memoryanalysis.referencecounter.heap.ArrayHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.BufferHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.FlushStats;
+import com.samsung.memoryanalysis.referencecounter.heap.JGraphHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph;
+import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph.CycleCollector;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner;
+
+/**
+ * checks that each heap and cycle collector variant produces the same
+ * unreachability callbacks, in the same order, as the JGraphT heap marking
+ * from the live contexts.  With a cycle queue limit of 0 the cycle queue is
+ * flushed whenever it is not empty, so the variants are compared on every
+ * flush; the output checked against the expected output is from a run of
+ * the variant with the default limit.  A variant that flushes at other
+ * times is checked against a second run of itself.
+ */
+@RunWith(Parameterized.class)
+public class TestHeapVariants extends AbstractRefCountTester {
+
+    /**
+     * a heap, and the options it runs with
+     */
+    static class Variant {
+
+        private final String name;
+
+        Variant(String name) {
+            this.name = name;
+        }
+
+        ReferenceCountedHeapGraph heap(File trace) throws IOException {
+            return new JGraphHeap();
+        }
+
+        void configure(MemoryAnalysisOptions options) {
+        }
+
+        /**
+         * whether its callbacks are those of the serial run.  If not, they
+         * are checked against those of a second run of the variant
+         */
+        boolean matchesSerial() {
+            return true;
+        }
+
+        /**
+         * checks the flush statistics of a run
+         */
+        void check(FlushStats stats, RecordUnreachable client) {
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final Variant SERIAL = new Variant("serial");
+
+    private static final int MAX_ADAPTIVE_LIMIT = 16;
+
+    private static final Variant[] VARIANTS = {
+        new Variant("array") {
+            @Override
+            ReferenceCountedHeapGraph heap(File trace) {
+                return new ArrayHeap();
+            }
+        },
+        new Variant("direct") {
+            @Override
+            ReferenceCountedHeapGraph heap(File trace) {
+                return new BufferHeap();
+            }
+        },
+        new Variant("mapped") {
+            @Override
+            ReferenceCountedHeapGraph heap(File trace) {
+                return new BufferHeap(trace.getParentFile());
+            }
+        },
+        new Variant("trial-deletion") {
+            @Override
+            void configure(MemoryAnalysisOptions options) {
+                options.setCycleCollector(CycleCollector.TRIAL_DELETION);
+            }
+        },
+        new Variant("concurrent") {
+            @Override
+            void configure(MemoryAnalysisOptions options) {
+                options.setConcurrentMarkLag(0);
+            }
+        },
+        new Variant("parallel") {
+            @Override
+            void configure(MemoryAnalysisOptions options) {
+                options.setMarkThreads(4);
+            }
+        },
+        new Variant("array-parallel") {
+            @Override
+            ReferenceCountedHeapGraph heap(File trace) {
+                return new ArrayHeap();
+            }
+
+            @Override
+            void configure(MemoryAnalysisOptions options) {
+                options.setMarkThreads(4);
+            }
+        },
+        new Variant("adaptive") {
+            /**
+             * the limit starts at 0, so that it adapts to the first flushes,
+             * and the run checked against the expected output keeps the
+             * default limit, which these traces never reach
+             */
+            @Override
+            void configure(MemoryAnalysisOptions options) {
+                options.setCycleQueueLimitBounds(0, options.getCycleQueuelimit() == -1 ? 1000000 : MAX_ADAPTIVE_LIMIT);
+            }
+
+            /**
+             * flushes are put off as the limit grows
+             */
+            @Override
+            boolean matchesSerial() {
+                return false;
+            }
+
+            @Override
+            void check(FlushStats stats, RecordUnreachable client) {
+                assertTrue(stats.getCycleQueueLimit() >= 0 && stats.getCycleQueueLimit() <= MAX_ADAPTIVE_LIMIT);
+                assertTrue(stats.getCollectedNodes() <= stats.getQueuedNodes() + stats.getMarkedNodes() + client.events.size());
+                assertTrue(stats.getCollectedNodes() <= client.events.size() + client.contexts);
+            }
+        },
+    };
+
+    private final Variant variant;
+
+    public TestHeapVariants(Variant variant, TestCaseInfo file) {
+        super(file);
+        this.variant = variant;
+    }
+
+    private String run(File trace, Variant v, ReferenceCountedHeapGraph heap, int cycleQueueLimit, RecordUnreachable client) throws Exception {
+        MemoryAnalysisOptions options = verboseOptions();
+        options.setCycleQueueLimit(cycleQueueLimit);
+        v.configure(options);
+        return run(new TraceAnalysisRunner(new FileInputStream(trace), null, trace.getParentFile()), heap, client, options);
+    }
+
+    private String run(File trace, Variant v, int cycleQueueLimit, RecordUnreachable client) throws Exception {
+        return run(trace, v, v.heap(trace), cycleQueueLimit, client);
+    }
+
+    @Override
+    public String runAnalysis(File trace) throws Exception {
+        RecordUnreachable expected = new RecordUnreachable();
+        run(trace, variant.matchesSerial() ? SERIAL : variant, 0, expected);
+        RecordUnreachable actual = new RecordUnreachable();
+        ReferenceCountedHeapGraph heap = variant.heap(trace);
+        run(trace, variant, heap, 0, actual);
+        assertEquals(expected.events, actual.events);
+        variant.check(heap.getFlushStats(), actual);
+        return run(trace, variant, -1, new RecordUnreachable());
+    }
+
+    @Parameterized.Parameters(name="{0} {1}")
+    public static Collection<Object[]> data() throws IOException {
+        List<Object[]> res = new ArrayList<Object[]>();
+        for (Variant v : VARIANTS) {
+            for (Object[] trace : AbstractRefCountTester.data())
+                res.add(new Object[] { v, trace[0] });
+        }
+        return res;
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.samsung.memoryanalysis.traceparser.SourceMap;
+import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
+import com.samsung.memoryanalysis.traceparser.Timer;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner.TraceEntry;
+import com.samsung.memoryanalysis.traceparser.TraceEventCursor;
+import com.samsung.memoryanalysis.traceparser.TraceEventVisitor;
+
+/**
+ * checks that source locations in the legacy string form of LAST_USE and
+ * TOP_LEVEL_FLUSH records are parsed as sid + ':' + iid, and that
+ * malformed ones are rejected
+ */
+public class TestLegacySourceLoc {
+
+    private static final Charset UTF16LE = Charset.forName("UnicodeLittleUnmarked");
+
+    /**
+     * records the source location of each delivered event
+     */
+    private static class LocationRecorder implements TraceEventVisitor<List<SourceLocId>> {
+
+        private final List<SourceLocId> locations = new ArrayList<SourceLocId>();
+
+        @Override
+        public void init(Timer timer, SourceMap iidMap) {
+        }
+
+        @Override
+        public void visit(TraceEventCursor e) {
+            locations.add(e.sourceLocId());
+        }
+
+        @Override
+        public List<SourceLocId> endExecution() {
+            return locations;
+        }
+    }
+
+    private static byte[] lastUse(String loc) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TraceEntry.LAST_USE.ordinal());
+        out.writeInt(7);
+        out.writeInt(1);
+        byte[] s = loc.getBytes(UTF16LE);
+        out.writeInt(s.length);
+        out.write(s);
+        out.writeByte(TraceEntry.TOP_LEVEL_FLUSH.ordinal());
+        out.writeInt(s.length);
+        out.write(s);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static List<SourceLocId> parse(byte[] trace) throws IOException {
+        return new TraceAnalysisRunner(new ByteArrayInputStream(trace), null, new File(".")).runVisitor(new LocationRecorder());
+    }
+
+    private static void assertParses(String loc, int sid, int iid) throws IOException {
+        List<SourceLocId> locations = parse(lastUse(loc));
+        assertEquals(2, locations.size());
+        for (SourceLocId slId : locations) {
+            assertEquals(loc, sid, slId.getSourceFileId());
+            assertEquals(loc, iid, slId.getIid());
+        }
+    }
+
+    private static void assertMalformed(byte[] trace) {
+        try {
+            parse(trace);
+            fail("accepted a malformed source location");
+        } catch (IOException e) {
+            assertEquals(true, e.getMessage().startsWith("malformed source location"));
+        }
+    }
+
+    @Test
+    public void wellFormed() throws IOException {
+        assertParses("1:2", 1, 2);
+        assertParses("12:345", 12, 345);
+        assertParses("-1:7", -1, 7);
+        assertParses("3:-4", 3, -4);
+        assertParses("-2147483648:2147483647", Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void malformed() throws IOException {
+        String[] bad = { "", "12", ":", "1:", ":2", "1:2:3", "1-:2", "1:2-", "1:-", "-:2", "--1:2", "1:--2",
+                "1:-2-", "1 :2", "+1:2", "a:b", "2147483648:0", "0:-2147483649", "0:99999999999" };
+        for (String loc : bad) {
+            assertMalformed(lastUse(loc));
+        }
+    }
+
+    @Test
+    public void oddLength() throws IOException {
+        byte[] trace = lastUse("1:2");
+        // drop the high byte of the '2' from the LAST_USE record, shortening
+        // its string to an odd number of bytes
+        byte[] odd = new byte[13 + 5];
+        System.arraycopy(trace, 0, odd, 0, odd.length);
+        odd[12] = 5;
+        assertMalformed(odd);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis;
+
+import java.io.File;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import com.samsung.memoryanalysis.referencecounter.heap.JGraphHeap;
+import com.samsung.memoryanalysis.traceparser.MappedTraceReader;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner;
+
+/**
+ * Runs the reference counter over memory-mapped traces.  A tiny mapping window
+ * is used so that ints and strings regularly straddle window boundaries.
+ */
+@RunWith(Parameterized.class)
+public class TestMappedTraceReader extends AbstractRefCountTester {
+
+    public TestMappedTraceReader(TestCaseInfo file) {
+        super(file);
+    }
+
+    @Override
+	public String runAnalysis(File trace) throws Exception {
+        return run(new TraceAnalysisRunner(new MappedTraceReader(trace, 7), null, trace.getParentFile()), new JGraphHeap(), null, verboseOptions());
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis;
+
+import java.io.File;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import com.samsung.memoryanalysis.referencecounter.heap.JGraphHeap;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner;
+
+/**
+ * Runs the reference counter with the trace decoded on a separate thread.
+ * Tiny batches are used so that the decoder and the analysis regularly wait
+ * for each other.
+ */
+@RunWith(Parameterized.class)
+public class TestPipelinedRunner extends AbstractRefCountTester {
+
+    public TestPipelinedRunner(TestCaseInfo file) {
+        super(file);
+    }
+
+    @Override
+	public String runAnalysis(File trace) throws Exception {
+        TraceAnalysisRunner runner = new TraceAnalysisRunner(trace, null, trace.getParentFile());
+        runner.setPipelined(3, 2);
+        return run(runner, new JGraphHeap(), null, verboseOptions());
+    }
+
+}
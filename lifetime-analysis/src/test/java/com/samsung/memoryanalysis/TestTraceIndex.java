@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import com.samsung.memoryanalysis.referencecounter.heap.JGraphHeap;
+import com.samsung.memoryanalysis.traceparser.SourceLocation;
+import com.samsung.memoryanalysis.traceparser.SourceMap;
+import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
+import com.samsung.memoryanalysis.traceparser.Timer;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner;
+import com.samsung.memoryanalysis.traceparser.TraceEventCursor;
+import com.samsung.memoryanalysis.traceparser.TraceEventVisitor;
+import com.samsung.memoryanalysis.traceparser.TraceIndex;
+
+/**
+ * Builds a trace index while running the reference counter, and checks that
+ * seeking to various timestamps yields the same events as a full run.
+ */
+@RunWith(Parameterized.class)
+public class TestTraceIndex extends AbstractRefCountTester {
+
+    private final static int INTERVAL = 5;
+
+    public TestTraceIndex(TestCaseInfo file) {
+        super(file);
+    }
+
+    @Override
+	public String runAnalysis(File trace) throws Exception {
+        TraceAnalysisRunner runner = new TraceAnalysisRunner(trace, null, trace.getParentFile());
+        runner.buildIndex(INTERVAL);
+        String output = run(runner, new JGraphHeap(), null, verboseOptions());
+        checkSeek(trace, runner.getIndex());
+        return output;
+    }
+
+    private void checkSeek(File trace, TraceIndex index) throws IOException {
+        assertEquals(trace.length(), index.traceLength());
+        List<String> all = new TraceAnalysisRunner(trace, null, trace.getParentFile()).runVisitor(new EventRecorder());
+        File sidecar = File.createTempFile("mem-trace", ".idx");
+        try {
+            index.write(sidecar);
+            index = TraceIndex.read(sidecar);
+        } finally {
+            sidecar.delete();
+        }
+        assertEquals(index.endTime() / INTERVAL + 1, index.size());
+        for (long time = 0; time <= index.endTime(); time += 3) {
+            TraceAnalysisRunner runner = new TraceAnalysisRunner(trace, null, trace.getParentFile());
+            runner.seek(index, time);
+            List<String> fromTime = runner.runVisitor(new EventRecorder());
+            int first = 0;
+            while (first < all.size() && Long.parseLong(all.get(first).substring(0, all.get(first).indexOf(' '))) < time) {
+                first++;
+            }
+            assertEquals("seek to " + time, all.subList(first, all.size()), fromTime);
+        }
+    }
+
+    /**
+     * records each delivered event, prefixed by its timestamp
+     */
+    private static class EventRecorder implements TraceEventVisitor<List<String>> {
+
+        private final List<String> events = new ArrayList<String>();
+
+        private Timer timer;
+
+        private SourceMap iidMap;
+
+        @Override
+        public void init(Timer timer, SourceMap iidMap) {
+            this.timer = timer;
+            this.iidMap = iidMap;
+        }
+
+        /**
+         * record the fields that are meaningful for the event type; see
+         * {@link TraceEventCursor}
+         */
+        @Override
+        public void visit(TraceEventCursor e) {
+            StringBuilder b = new StringBuilder();
+            b.append(timer.currentTime()).append(' ').append(e.type());
+            switch (e.type()) {
+                case RETURN:
+                case DOM_ROOT:
+                    b.append(' ').append(e.objectId());
+                    break;
+                case ADD_DOM_CHILD:
+                case REMOVE_DOM_CHILD:
+                    b.append(' ').append(e.baseId()).append(' ').append(e.objectId());
+                    break;
+                case END_LAST_USE:
+                    break;
+                case FUNCTION_EXIT:
+                case SCRIPT_EXIT:
+                case TOP_LEVEL_FLUSH:
+                    appendLoc(b, e.sourceLocId());
+                    break;
+                case SCRIPT_ENTER:
+                    appendLoc(b, e.sourceLocId());
+                    b.append(' ').append(e.name());
+                    break;
+                case LAST_USE:
+                    appendLoc(b, e.sourceLocId());
+                    b.append(' ').append(e.objectId()).append(' ').append(e.time());
+                    break;
+                case PUTFIELD:
+                case ADD_TO_CHILD_SET:
+                case REMOVE_FROM_CHILD_SET:
+                    appendLoc(b, e.sourceLocId());
+                    b.append(' ').append(e.baseId()).append(' ').append(e.name()).append(' ').append(e.objectId());
+                    break;
+                case DECLARE:
+                case WRITE:
+                    appendLoc(b, e.sourceLocId());
+                    b.append(' ').append(e.name()).append(' ').append(e.objectId());
+                    break;
+                case CREATE_FUN:
+                    appendLoc(b, e.sourceLocId());
+                    b.append(' ').append(e.objectId()).append(' ').append(e.functionEnterSourceLocId())
+                            .append(' ').append(e.freeVariables());
+                    break;
+                case CALL:
+                case FUNCTION_ENTER:
+                    appendLoc(b, e.sourceLocId());
+                    b.append(' ').append(e.objectId()).append(' ').append(e.functionEnterSourceLocId());
+                    break;
+                default:
+                    appendLoc(b, e.sourceLocId());
+                    b.append(' ').append(e.objectId());
+                    break;
+            }
+            events.add(b.toString());
+        }
+
+        private void appendLoc(StringBuilder b, SourceLocId slId) {
+            b.append(' ').append(slId).append(' ').append(location(slId));
+        }
+
+        /**
+         * @return the source location of slId, or null if there is no mapping
+         */
+        private SourceLocation location(SourceLocId slId) {
+            try {
+                return iidMap.get(slId);
+            } catch (AssertionError e) {
+                return null;
+            }
+        }
+
+        @Override
+        public List<String> endExecution() {
+            return events;
+        }
+    }
+
+}
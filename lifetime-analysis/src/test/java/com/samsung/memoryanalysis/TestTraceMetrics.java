@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.samsung.memoryanalysis.referencecounter.heap.JGraphHeap;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner.TraceEntry;
+import com.samsung.memoryanalysis.traceparser.TraceMetrics;
+
+/**
+ * Runs the reference counter with metrics enabled and every callback timed.
+ * The output must not change, and the report must account for every
+ * delivered event.
+ */
+@RunWith(Parameterized.class)
+public class TestTraceMetrics extends AbstractRefCountTester {
+
+    public TestTraceMetrics(TestCaseInfo file) {
+        super(file);
+    }
+
+    @Override
+	public String runAnalysis(File trace) throws Exception {
+        TraceMetrics metrics = new TraceMetrics(1);
+        TraceAnalysisRunner runner = new TraceAnalysisRunner(trace, null, trace.getParentFile());
+        runner.setMetrics(metrics);
+        String output = run(runner, new JGraphHeap(), null, verboseOptions());
+        long total = 0;
+        for (TraceEntry t : TraceEntry.values()) {
+            long samples = 0;
+            for (long b : metrics.histogram(t)) {
+                samples += b;
+            }
+            assertEquals(t.name(), metrics.count(t), samples);
+            total += metrics.count(t);
+        }
+        assertTrue(total > 0);
+        JsonObject report = new JsonParser().parse(metrics.getReport()).getAsJsonObject();
+        assertEquals(total, report.get("events").getAsLong());
+        return output;
+    }
+
+}
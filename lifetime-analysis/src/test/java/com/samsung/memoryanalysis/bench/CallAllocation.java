@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.samsung.memoryanalysis.context.ContextProvider;
+import com.samsung.memoryanalysis.options.MemoryAnalysisOptions;
+import com.samsung.memoryanalysis.referencecounter.ReferenceCounter;
+import com.samsung.memoryanalysis.referencecounter.heap.ArrayHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.BufferHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.JGraphHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph;
+import com.samsung.memoryanalysis.traceparser.StreamTraceReader;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner.TraceEntry;
+
+/**
+ * Measures the allocation of context tracking on a call-heavy trace,
+ * generated on the fly: a function with a few locals is called over and
+ * over from the top level, and each call stores a new object in each of its
+ * locals.  By default the trace is run through a {@link ContextProvider}
+ * with no client analysis, so that contexts account for most of the
+ * allocation; given a heap, it is run through the reference counter.
+ *
+ * Usage: CallAllocation [calls] [locals] [none|buffer|array|jgraph]
+ * (default 1000000 calls, 4 locals, no heap).
+ */
+public class CallAllocation {
+
+    public static void main(String[] args) throws IOException {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int locals = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        String kind = args.length > 2 ? args[2] : "none";
+        System.out.printf("%d calls, %d locals, %s heap\n", calls, locals, kind);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int run = 0; run < 3; run++) {
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            ReferenceCounter<Void> f = kind.equals("none") ? null : new ReferenceCounter<Void>(heap(kind), null);
+            new TraceAnalysisRunner(new StreamTraceReader(new CallTrace(calls, locals)), null, new File("."))
+                    .runAnalysis(new ContextProvider<Void>(f, new MemoryAnalysisOptions()));
+            double secs = (System.nanoTime() - start) / 1e9;
+            bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+            System.out.printf("run %d: %.2f s, %.0f calls/s, %.1f bytes/call\n", run, secs, calls / secs, (double) bytes / calls);
+        }
+    }
+
+    private static ReferenceCountedHeapGraph heap(String kind) {
+        if (kind.equals("buffer")) {
+            return new BufferHeap();
+        } else if (kind.equals("array")) {
+            return new ArrayHeap();
+        } else if (kind.equals("jgraph")) {
+            return new JGraphHeap();
+        }
+        throw new IllegalArgumentException("unknown heap " + kind);
+    }
+
+    /**
+     * generates the calls a batch at a time
+     */
+    private static class CallTrace extends InputStream {
+
+        private static final Charset UTF16LE = Charset.forName("UnicodeLittleUnmarked");
+
+        private static final int BATCH = 1024;
+
+        private static final int GLOBAL = 1;
+        private static final int FUN = 2;
+        private static final int FIRST = 4;
+
+        private static final int FUN_IID = 4;
+
+        private final int calls;
+        private final byte[][] names;
+
+        private ByteBuffer out;
+        private int call = 0;
+        private int nextId = FIRST;
+        private boolean done = false;
+
+        CallTrace(int calls, int locals) {
+            this.calls = calls;
+            names = new byte[locals][];
+            for (int i = 0; i < locals; i++)
+                names[i] = ("v" + i).getBytes(UTF16LE);
+            // a local takes under 64 bytes of trace, and a call 32 more
+            out = ByteBuffer.allocate(BATCH * (64 * locals + 32) + 1024);
+            header();
+            out.flip();
+        }
+
+        private void entry(TraceEntry type) {
+            out.put((byte) type.ordinal());
+        }
+
+        private void name(byte[] name) {
+            out.putInt(name.length);
+            out.put(name);
+        }
+
+        private void header() {
+            entry(TraceEntry.UPDATE_CURRENT_SCRIPT);
+            out.putInt(0);
+            entry(TraceEntry.CREATE_OBJ);
+            out.putInt(-1);
+            out.putInt(GLOBAL);
+            entry(TraceEntry.UPDATE_CURRENT_SCRIPT);
+            out.putInt(1);
+            entry(TraceEntry.SCRIPT_ENTER);
+            out.putInt(1);
+            out.putInt(1);
+            name("calls.js".getBytes(UTF16LE));
+            for (int iid = 1; iid <= 9; iid++) {
+                entry(TraceEntry.SOURCE_MAPPING);
+                out.putInt(iid);
+                out.putInt(iid);
+                out.putInt(1);
+                out.putInt(iid);
+                out.putInt(10);
+            }
+            // the function has no free variables
+            entry(TraceEntry.FREE_VARS);
+            out.putInt(FUN_IID);
+            out.putInt(0);
+            byte[] f = "f".getBytes(UTF16LE);
+            entry(TraceEntry.DECLARE);
+            out.putInt(3);
+            name(f);
+            out.putInt(0);
+            entry(TraceEntry.CREATE_FUN);
+            out.putInt(2);
+            out.putInt(FUN_IID);
+            out.putInt(FUN);
+            entry(TraceEntry.WRITE);
+            out.putInt(3);
+            name(f);
+            out.putInt(FUN);
+        }
+
+        /**
+         * f() { var v0 = {}, v1 = {}, ...; }
+         */
+        private void batch() {
+            for (int c = 0; c < BATCH && call < calls; c++, call++) {
+                entry(TraceEntry.FUNCTION_ENTER);
+                out.putInt(FUN_IID);
+                out.putInt(FUN);
+                for (byte[] name : names) {
+                    entry(TraceEntry.DECLARE);
+                    out.putInt(5);
+                    name(name);
+                    out.putInt(0);
+                }
+                for (byte[] name : names) {
+                    int id = nextId++;
+                    entry(TraceEntry.CREATE_OBJ);
+                    out.putInt(6);
+                    out.putInt(id);
+                    entry(TraceEntry.WRITE);
+                    out.putInt(7);
+                    name(name);
+                    out.putInt(id);
+                }
+                entry(TraceEntry.FUNCTION_EXIT);
+                out.putInt(9);
+            }
+            if (call == calls) {
+                entry(TraceEntry.SCRIPT_EXIT);
+                out.putInt(9);
+                done = true;
+            }
+        }
+
+        private boolean fill() {
+            while (!out.hasRemaining()) {
+                if (done)
+                    return false;
+                out.clear();
+                batch();
+                out.flip();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() {
+            if (!fill())
+                return -1;
+            return out.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!fill())
+                return -1;
+            int n = Math.min(len, out.remaining());
+            out.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.bench;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.ibm.wala.util.functions.VoidFunction;
+import com.samsung.memoryanalysis.context.Context;
+import com.samsung.memoryanalysis.referencecounter.heap.ArrayHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.BufferHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.JGraphHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph;
+import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph.CycleCollector;
+import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph.FlushType;
+import com.samsung.memoryanalysis.traceparser.SourceMap;
+import com.samsung.memoryanalysis.traceparser.Timer;
+
+/**
+ * Times cycle queue flushes on a large live heap with many small garbage
+ * cycles, marking from the live contexts and by trial deletion.  The live
+ * heap is that of {@link MarkScaling}.  Before each flush, the given number
+ * of two-object garbage cycles is queued, along with as many two-object
+ * cycles that stay live, each held by a different object of the live heap,
+ * so that trial deletion has to search back from those to the global
+ * context.
+ *
+ * Usage: DeadCycles [objects] [cycles] [array|buffer|jgraph] [rounds]
+ * (default 1000000 objects, 1000 cycles, array heap, 5 rounds).
+ */
+public class DeadCycles {
+
+    private final ReferenceCountedHeapGraph heap;
+    private final Context global = Context.makeGlobal();
+    private final List<Context> live = Collections.singletonList(global);
+    private final int objects;
+    private final long[] time = new long[1];
+
+    private int nextId;
+
+    /**
+     * live cycles hung from the live heap so far
+     */
+    private int hung = 0;
+
+    private DeadCycles(ReferenceCountedHeapGraph heap, int objects) {
+        this.heap = heap;
+        this.objects = objects;
+        this.nextId = objects + 1;
+        heap.setTimer(new Timer() {
+            @Override
+            public long currentTime() {
+                return time[0];
+            }
+
+            @Override
+            public void registerAlarm(long atTime, VoidFunction<Long> callback) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        MarkScaling.build(heap, global, objects);
+    }
+
+    public static void main(String[] args) {
+        int objects = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int cycles = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        String kind = args.length > 2 ? args[2] : "array";
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        System.out.printf("%d objects, %d cycles per flush, %s heap\n", objects, cycles, kind);
+        for (CycleCollector collector : CycleCollector.values()) {
+            ReferenceCountedHeapGraph heap;
+            if (kind.equals("array")) {
+                heap = new ArrayHeap();
+            } else if (kind.equals("buffer")) {
+                heap = new BufferHeap();
+            } else if (kind.equals("jgraph")) {
+                heap = new JGraphHeap();
+            } else {
+                throw new IllegalArgumentException("unknown heap " + kind);
+            }
+            heap.setCycleCollector(collector);
+            DeadCycles d = new DeadCycles(heap, objects);
+            // one flush to warm up
+            d.flush(cycles);
+            long best = Long.MAX_VALUE;
+            for (int r = 0; r < rounds; r++) {
+                best = Math.min(best, d.flush(cycles));
+            }
+            System.out.printf("%-16s %8.1f ms per flush\n", collector, best / 1e6);
+        }
+    }
+
+    /**
+     * a new two-object cycle, referenced from the global context until the
+     * next one is made
+     *
+     * @return the id of one of its objects
+     */
+    private int cycle() {
+        int a = nextId++;
+        int b = nextId++;
+        heap.newObject(a);
+        heap.newObject(b);
+        heap.addObjectReference(a, "next", b, SourceMap.UNKNOWN_ID);
+        heap.addObjectReference(b, "next", a, SourceMap.UNKNOWN_ID);
+        time[0]++;
+        heap.addContextReference(global, "tmp", a, SourceMap.UNKNOWN_ID);
+        return a;
+    }
+
+    /**
+     * queues the garbage cycles and the live ones, and forces a flush
+     *
+     * @return the time the flush took, in nanoseconds
+     */
+    private long flush(int cycles) {
+        for (int i = 0; i < cycles; i++) {
+            cycle();
+            // a different holder each time, spread over the live heap
+            int holder = 1 + (int) (hung++ * 7919L % objects);
+            heap.addObjectReference(holder, "hung", cycle(), SourceMap.UNKNOWN_ID);
+        }
+        time[0]++;
+        heap.addContextReference(global, "tmp", 0, SourceMap.UNKNOWN_ID);
+        int expected = heap.nodeCount() - 2 * cycles;
+        long start = System.nanoTime();
+        heap.flushCycleQueue(Collections.<Integer>emptySet(), FlushType.FORCE, live);
+        long elapsed = System.nanoTime() - start;
+        if (heap.nodeCount() != expected)
+            throw new AssertionError("flush kept " + heap.nodeCount() + " nodes, expected " + expected);
+        return elapsed;
+    }
+}
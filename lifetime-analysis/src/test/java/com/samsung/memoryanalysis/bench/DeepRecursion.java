@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.samsung.memoryanalysis.context.ContextProvider;
+import com.samsung.memoryanalysis.options.MemoryAnalysisOptions;
+import com.samsung.memoryanalysis.referencecounter.ReferenceCounter;
+import com.samsung.memoryanalysis.referencecounter.heap.JGraphHeap;
+import com.samsung.memoryanalysis.traceparser.StreamTraceReader;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner.TraceEntry;
+
+/**
+ * Runs the reference counter over a synthetic trace of deep recursion,
+ * generated on the fly.  Each round, a function recurses to the given
+ * depth; each call creates a temporary object, and returns an object that
+ * its caller stores in a local variable, so that every function exit
+ * flushes candidates while the whole call stack is live.
+ *
+ * Usage: DeepRecursion [depth] [rounds] (default depth 10000, 5 rounds).
+ */
+public class DeepRecursion {
+
+    public static void main(String[] args) throws IOException {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        System.out.printf("recursion depth %d, %d rounds\n", depth, rounds);
+        ReferenceCounter<Void> f = new ReferenceCounter<Void>(new JGraphHeap(), null);
+        long start = System.nanoTime();
+        new TraceAnalysisRunner(new StreamTraceReader(new RecursionTrace(depth, rounds)), null, new File("."))
+                .runAnalysis(new ContextProvider<Void>(f, new MemoryAnalysisOptions()));
+        double secs = (System.nanoTime() - start) / 1e9;
+        long calls = (long) depth * rounds;
+        System.out.printf("%.2f s, %.0f calls/s\n", secs, calls / secs);
+    }
+
+    /**
+     * generates one round of recursion at a time
+     */
+    private static class RecursionTrace extends InputStream {
+
+        private static final Charset UTF16LE = Charset.forName("UnicodeLittleUnmarked");
+
+        private static final int GLOBAL = 1;
+        private static final int FUN = 2;
+        private static final int FIRST = 4;
+
+        private static final int FUN_IID = 4;
+
+        private final int depth;
+        private final int rounds;
+        private final byte[] local = "r".getBytes(UTF16LE);
+
+        private ByteBuffer out;
+        private int round = 0;
+        private int nextId = FIRST;
+        private boolean done = false;
+
+        RecursionTrace(int depth, int rounds) {
+            this.depth = depth;
+            this.rounds = rounds;
+            // a call takes under 80 bytes of trace
+            out = ByteBuffer.allocate(80 * depth + 1024);
+            header();
+            out.flip();
+        }
+
+        private void entry(TraceEntry type) {
+            out.put((byte) type.ordinal());
+        }
+
+        private void name(byte[] name) {
+            out.putInt(name.length);
+            out.put(name);
+        }
+
+        private void header() {
+            entry(TraceEntry.UPDATE_CURRENT_SCRIPT);
+            out.putInt(0);
+            entry(TraceEntry.CREATE_OBJ);
+            out.putInt(-1);
+            out.putInt(GLOBAL);
+            entry(TraceEntry.UPDATE_CURRENT_SCRIPT);
+            out.putInt(1);
+            entry(TraceEntry.SCRIPT_ENTER);
+            out.putInt(1);
+            out.putInt(1);
+            name("recursion.js".getBytes(UTF16LE));
+            for (int iid = 1; iid <= 9; iid++) {
+                entry(TraceEntry.SOURCE_MAPPING);
+                out.putInt(iid);
+                out.putInt(iid);
+                out.putInt(1);
+                out.putInt(iid);
+                out.putInt(10);
+            }
+            // the function has no free variables
+            entry(TraceEntry.FREE_VARS);
+            out.putInt(FUN_IID);
+            out.putInt(0);
+            byte[] f = "f".getBytes(UTF16LE);
+            entry(TraceEntry.DECLARE);
+            out.putInt(3);
+            name(f);
+            out.putInt(0);
+            entry(TraceEntry.CREATE_FUN);
+            out.putInt(2);
+            out.putInt(FUN_IID);
+            out.putInt(FUN);
+            entry(TraceEntry.WRITE);
+            out.putInt(3);
+            name(f);
+            out.putInt(FUN);
+        }
+
+        /**
+         * f() { new temp; if (depth) r = f(); return new result; }
+         */
+        private void round() {
+            for (int d = 0; d < depth; d++) {
+                entry(TraceEntry.FUNCTION_ENTER);
+                out.putInt(FUN_IID);
+                out.putInt(FUN);
+                entry(TraceEntry.DECLARE);
+                out.putInt(5);
+                name(local);
+                out.putInt(0);
+                entry(TraceEntry.CREATE_OBJ);
+                out.putInt(6);
+                out.putInt(nextId++);
+            }
+            int result = 0;
+            for (int d = 0; d < depth; d++) {
+                if (result != 0) {
+                    entry(TraceEntry.WRITE);
+                    out.putInt(7);
+                    name(local);
+                    out.putInt(result);
+                }
+                result = nextId++;
+                entry(TraceEntry.CREATE_OBJ);
+                out.putInt(8);
+                out.putInt(result);
+                entry(TraceEntry.RETURN);
+                out.putInt(result);
+                entry(TraceEntry.FUNCTION_EXIT);
+                out.putInt(9);
+            }
+            entry(TraceEntry.TOP_LEVEL_FLUSH_COMPACT);
+            out.putInt(1);
+            out.putInt(3);
+            if (++round == rounds) {
+                entry(TraceEntry.SCRIPT_EXIT);
+                out.putInt(9);
+                done = true;
+            }
+        }
+
+        private boolean fill() {
+            while (!out.hasRemaining()) {
+                if (done)
+                    return false;
+                out.clear();
+                round();
+                out.flip();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() {
+            if (!fill())
+                return -1;
+            return out.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!fill())
+                return -1;
+            int n = Math.min(len, out.remaining());
+            out.get(b, off, n);
+            return n;
+        }
+    }
+}
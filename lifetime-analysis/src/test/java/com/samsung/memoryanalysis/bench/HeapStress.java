@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.samsung.memoryanalysis.context.ContextProvider;
+import com.samsung.memoryanalysis.options.MemoryAnalysisOptions;
+import com.samsung.memoryanalysis.referencecounter.ReferenceCounter;
+import com.samsung.memoryanalysis.referencecounter.heap.ArrayHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.BufferHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.JGraphHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph;
+import com.samsung.memoryanalysis.traceparser.ProgressMonitor;
+import com.samsung.memoryanalysis.traceparser.StreamTraceReader;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner.TraceEntry;
+
+/**
+ * Runs the reference counter over a synthetic trace that is generated on
+ * the fly, and reports throughput, GC activity and memory use.  Every
+ * object is stored into one of 1024 fields of a global holder object,
+ * replacing (and usually freeing) an older one, and one in retain objects
+ * is also appended to a linked list that stays live to the end.
+ *
+ * Usage: HeapStress [objects] [buffer|mapped|array|jgraph] [retain]
+ * (default 100000000 objects, buffer heap, retain 100).  Mapped tables are
+ * backed by files in java.io.tmpdir.
+ */
+public class HeapStress {
+
+    public static void main(String[] args) throws IOException {
+        long objects = args.length > 0 ? Long.parseLong(args[0]) : 100000000L;
+        String kind = args.length > 1 ? args[1] : "buffer";
+        int retain = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        ReferenceCountedHeapGraph heap;
+        if (kind.equals("buffer")) {
+            heap = new BufferHeap();
+        } else if (kind.equals("mapped")) {
+            heap = new BufferHeap(new File(System.getProperty("java.io.tmpdir")));
+        } else if (kind.equals("array")) {
+            heap = new ArrayHeap();
+        } else if (kind.equals("jgraph")) {
+            heap = new JGraphHeap();
+        } else {
+            throw new IllegalArgumentException("unknown heap " + kind);
+        }
+        System.out.printf("%d objects, %s heap, retaining one in %d\n", objects, kind, retain);
+        ReferenceCounter<Void> f = new ReferenceCounter<Void>(heap, null);
+        long start = System.nanoTime();
+        new TraceAnalysisRunner(new StreamTraceReader(new SyntheticTrace(objects, retain)), new Report(heap), new File("."))
+                .runAnalysis(new ContextProvider<Void>(f, new MemoryAnalysisOptions()));
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%.1f s, %.0f objects/s\n", secs, objects / secs);
+        System.out.printf("live nodes at end: %d\n", heap.nodeCount());
+        if (heap instanceof BufferHeap) {
+            System.out.printf("off-heap tables: %d MB\n", ((BufferHeap) heap).offHeapBytes() >> 20);
+        }
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        System.out.printf("peak Java heap: %d MB\n", peak >> 20);
+        long collections = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += gc.getCollectionCount();
+            gcMillis += gc.getCollectionTime();
+        }
+        System.out.printf("GC: %d collections, %d ms\n", collections, gcMillis);
+    }
+
+    /**
+     * prints the event count and heap size every ten seconds
+     */
+    private static class Report implements ProgressMonitor {
+
+        private final ReferenceCountedHeapGraph heap;
+
+        private long next;
+
+        Report(ReferenceCountedHeapGraph heap) {
+            this.heap = heap;
+        }
+
+        @Override
+        public void start(long position, long size) {
+            next = System.nanoTime() + 10000000000L;
+        }
+
+        @Override
+        public void tick(long position, long events) {
+            long now = System.nanoTime();
+            if (now < next)
+                return;
+            next = now + 10000000000L;
+            Runtime r = Runtime.getRuntime();
+            System.out.printf("  %d events, %d MB of trace, %d nodes, %d MB Java heap used\n", events, position >> 20,
+                    heap.nodeCount(), (r.totalMemory() - r.freeMemory()) >> 20);
+        }
+    }
+
+    /**
+     * generates the trace in batches of BATCH objects, each ending with a
+     * top-level flush
+     */
+    private static class SyntheticTrace extends InputStream {
+
+        private static final Charset UTF16LE = Charset.forName("UnicodeLittleUnmarked");
+
+        private static final int GLOBAL = 1;
+        private static final int HOLDER = 2;
+        private static final int FIRST = 3;
+
+        private static final int FIELDS = 1024;
+        private static final int BATCH = 1000;
+
+        /**
+         * the current batch, big-endian like the trace
+         */
+        private final ByteBuffer out = ByteBuffer.allocate(1 << 17);
+
+        private final long objects;
+        private final int retain;
+        private final byte[][] fields = new byte[FIELDS][];
+        private final byte[] next = "next".getBytes(UTF16LE);
+        private final byte[] tail = "tail".getBytes(UTF16LE);
+
+        private long created = 0;
+        private int lastRetained = HOLDER;
+        private boolean done = false;
+
+        SyntheticTrace(long objects, int retain) {
+            this.objects = objects;
+            this.retain = retain;
+            for (int i = 0; i < FIELDS; i++)
+                fields[i] = ("f" + i).getBytes(UTF16LE);
+            header();
+            out.flip();
+        }
+
+        private void entry(TraceEntry type) {
+            out.put((byte) type.ordinal());
+        }
+
+        private void name(byte[] name) {
+            out.putInt(name.length);
+            out.put(name);
+        }
+
+        private void putField(int iid, int base, byte[] name, int value) {
+            entry(TraceEntry.PUTFIELD);
+            out.putInt(iid);
+            out.putInt(base);
+            name(name);
+            out.putInt(value);
+        }
+
+        private void flush() {
+            entry(TraceEntry.TOP_LEVEL_FLUSH_COMPACT);
+            out.putInt(1);
+            out.putInt(4);
+        }
+
+        private void header() {
+            entry(TraceEntry.UPDATE_CURRENT_SCRIPT);
+            out.putInt(0);
+            entry(TraceEntry.CREATE_OBJ);
+            out.putInt(-1);
+            out.putInt(GLOBAL);
+            entry(TraceEntry.UPDATE_CURRENT_SCRIPT);
+            out.putInt(1);
+            entry(TraceEntry.SCRIPT_ENTER);
+            out.putInt(1);
+            out.putInt(1);
+            name("stress.js".getBytes(UTF16LE));
+            for (int iid = 1; iid <= 8; iid++) {
+                entry(TraceEntry.SOURCE_MAPPING);
+                out.putInt(iid);
+                out.putInt(iid);
+                out.putInt(1);
+                out.putInt(iid);
+                out.putInt(10);
+            }
+            byte[] h = "h".getBytes(UTF16LE);
+            entry(TraceEntry.DECLARE);
+            out.putInt(3);
+            name(h);
+            out.putInt(0);
+            entry(TraceEntry.CREATE_OBJ);
+            out.putInt(2);
+            out.putInt(HOLDER);
+            entry(TraceEntry.WRITE);
+            out.putInt(3);
+            name(h);
+            out.putInt(HOLDER);
+            flush();
+        }
+
+        private void batch() {
+            for (int i = 0; i < BATCH && created < objects; i++, created++) {
+                int id = (int) (FIRST + created);
+                entry(TraceEntry.CREATE_OBJ);
+                out.putInt(5);
+                out.putInt(id);
+                putField(6, HOLDER, fields[(int) (created % FIELDS)], id);
+                if (created % retain == 0) {
+                    putField(7, lastRetained, next, id);
+                    putField(7, HOLDER, tail, id);
+                    lastRetained = id;
+                }
+            }
+            flush();
+            if (created == objects) {
+                entry(TraceEntry.SCRIPT_EXIT);
+                out.putInt(8);
+                done = true;
+            }
+        }
+
+        private boolean fill() {
+            while (!out.hasRemaining()) {
+                if (done)
+                    return false;
+                out.clear();
+                batch();
+                out.flip();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() {
+            if (!fill())
+                return -1;
+            return out.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!fill())
+                return -1;
+            int n = Math.min(len, out.remaining());
+            out.get(b, off, n);
+            return n;
+        }
+    }
+}
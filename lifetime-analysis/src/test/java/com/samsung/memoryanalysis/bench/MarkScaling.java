@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.bench;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.ibm.wala.util.functions.VoidFunction;
+import com.samsung.memoryanalysis.context.Context;
+import com.samsung.memoryanalysis.referencecounter.heap.ArrayHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.BufferHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.JGraphHeap;
+import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph;
+import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph.FlushType;
+import com.samsung.memoryanalysis.traceparser.SourceMap;
+import com.samsung.memoryanalysis.traceparser.Timer;
+
+/**
+ * Times the mark phase of a forced cycle queue flush on a synthetic heap,
+ * with 1, 2, 4, ... threads up to the given maximum.  The heap is a tree
+ * with four children per object, plus one random edge per object, all
+ * reachable from a variable of the global context.  Each flush also
+ * collects a small garbage cycle, to check that marking kept the live
+ * objects.
+ *
+ * Usage: MarkScaling [objects] [array|buffer|jgraph] [max threads] [rounds]
+ * (default 2000000 objects, array heap, all processors, 5 rounds).
+ *
+ * It has only been run on one processor, where more threads are slower:
+ * with 500000 objects, 2 and 4 threads took 0.46 to 0.58 of the speed of
+ * one, on the array and jgraph heaps.  Whether the mark scales on several
+ * processors is not known.
+ */
+public class MarkScaling {
+
+    /**
+     * field names are interned, as they are when read from a trace
+     */
+    private static final String[] CHILDREN = { "c0", "c1", "c2", "c3" };
+
+    public static void main(String[] args) {
+        int objects = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        String kind = args.length > 1 ? args[1] : "array";
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        ReferenceCountedHeapGraph heap;
+        if (kind.equals("array")) {
+            heap = new ArrayHeap();
+        } else if (kind.equals("buffer")) {
+            heap = new BufferHeap();
+        } else if (kind.equals("jgraph")) {
+            heap = new JGraphHeap();
+        } else {
+            throw new IllegalArgumentException("unknown heap " + kind);
+        }
+        final long[] time = new long[1];
+        heap.setTimer(new Timer() {
+            @Override
+            public long currentTime() {
+                return time[0];
+            }
+
+            @Override
+            public void registerAlarm(long atTime, VoidFunction<Long> callback) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        Context global = Context.makeGlobal();
+        List<Context> live = Collections.singletonList(global);
+        long start = System.nanoTime();
+        build(heap, global, objects);
+        System.out.printf("%d objects, %s heap, built in %.1f s\n", objects, kind, (System.nanoTime() - start) / 1e9);
+        double single = 0;
+        for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads && threads * 2 > maxThreads ? maxThreads : threads * 2) {
+            heap.setMarkThreads(threads);
+            // one flush to warm up
+            flush(heap, global, live, objects, time);
+            long best = Long.MAX_VALUE;
+            for (int r = 0; r < rounds; r++) {
+                best = Math.min(best, flush(heap, global, live, objects, time));
+            }
+            double ms = best / 1e6;
+            if (threads == 1)
+                single = ms;
+            System.out.printf("%3d threads: %8.1f ms per mark, speedup %.2f\n", threads, ms, single / ms);
+        }
+    }
+
+    static void build(ReferenceCountedHeapGraph heap, Context global, int objects) {
+        Random random = new Random(42);
+        heap.newContext(global, 0);
+        for (int id = 1; id <= objects; id++) {
+            heap.newObject(id);
+        }
+        heap.addContextReference(global, "root", 1, SourceMap.UNKNOWN_ID);
+        for (int id = 1; id <= objects; id++) {
+            for (int c = 0; c < 4; c++) {
+                long child = 4L * id - 2 + c;
+                if (child <= objects)
+                    heap.addObjectReference(id, CHILDREN[c], (int) child, SourceMap.UNKNOWN_ID);
+            }
+            heap.addObjectReference(id, "r", 1 + random.nextInt(objects), SourceMap.UNKNOWN_ID);
+        }
+    }
+
+    /**
+     * queues a garbage cycle and forces a flush
+     *
+     * @return the time the flush took, in nanoseconds
+     */
+    private static long flush(ReferenceCountedHeapGraph heap, Context global, List<Context> live, int objects, long[] time) {
+        int a = objects + 1;
+        int b = objects + 2;
+        heap.newObject(a);
+        heap.newObject(b);
+        heap.addObjectReference(a, "next", b, SourceMap.UNKNOWN_ID);
+        heap.addObjectReference(b, "next", a, SourceMap.UNKNOWN_ID);
+        heap.addContextReference(global, "tmp", a, SourceMap.UNKNOWN_ID);
+        time[0]++;
+        heap.addContextReference(global, "tmp", 0, SourceMap.UNKNOWN_ID);
+        int expected = heap.nodeCount() - 2;
+        long start = System.nanoTime();
+        heap.flushCycleQueue(Collections.<Integer>emptySet(), FlushType.FORCE, live);
+        long elapsed = System.nanoTime() - start;
+        if (heap.nodeCount() != expected)
+            throw new AssertionError("flush kept " + heap.nodeCount() + " nodes, expected " + expected);
+        return elapsed;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.samsung.memoryanalysis.traceparser.NameTable;
+import com.samsung.memoryanalysis.traceparser.SourceMap;
+import com.samsung.memoryanalysis.traceparser.Timer;
+import com.samsung.memoryanalysis.traceparser.TraceAnalysisRunner;
+import com.samsung.memoryanalysis.traceparser.TraceEventCursor;
+import com.samsung.memoryanalysis.traceparser.TraceEventVisitor;
+
+/**
+ * Compares decoding the names in DECLARE, WRITE, PUTFIELD and child-set
+ * records with a fresh {@link String} per record (the old decoder) against
+ * looking them up in a {@link NameTable}.
+ *
+ * Usage: NameDecodeBenchmark [trace-dir] [rounds]
+ * where trace-dir holds the test traces (default test/traces).
+ */
+public class NameDecodeBenchmark {
+
+    private static final Charset UTF16LE = Charset.forName("UnicodeLittleUnmarked");
+
+    /**
+     * encoded names, back to back, and the length of each
+     */
+    private static ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    private static List<Integer> lengths = new ArrayList<Integer>();
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : "test/traces");
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        File[] traceDirs = dir.listFiles();
+        if (traceDirs == null) {
+            System.err.println("no traces in " + dir);
+            System.exit(1);
+        }
+        for (File d : traceDirs) {
+            File trace = new File(d, "mem-trace");
+            if (trace.exists()) {
+                collectNames(trace);
+            }
+        }
+        byte[] data = encoded.toByteArray();
+        int[] lens = new int[lengths.size()];
+        for (int i = 0; i < lens.length; i++) {
+            lens[i] = lengths.get(i);
+        }
+        System.out.printf("%d name records, %d bytes, %d rounds\n", lens.length, data.length, rounds);
+        // warm up both paths
+        decodeFresh(data, lens, rounds / 4 + 1);
+        decodeTable(data, lens, rounds / 4 + 1);
+        report("new String per record", data.length, lens.length, rounds, decodeFresh(data, lens, rounds));
+        report("NameTable lookup", data.length, lens.length, rounds, decodeTable(data, lens, rounds));
+    }
+
+    private static void collectNames(File trace) throws IOException {
+        new TraceAnalysisRunner(trace, null, trace.getParentFile()).runVisitor(new TraceEventVisitor<Void>() {
+
+            @Override
+            public void init(Timer timer, SourceMap iidMap) {
+            }
+
+            @Override
+            public void visit(TraceEventCursor e) {
+                switch (e.type()) {
+                    case DECLARE:
+                    case WRITE:
+                    case PUTFIELD:
+                    case ADD_TO_CHILD_SET:
+                    case REMOVE_FROM_CHILD_SET:
+                        byte[] b = e.name().getBytes(UTF16LE);
+                        encoded.write(b, 0, b.length);
+                        lengths.add(b.length);
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            @Override
+            public Void endExecution() {
+                return null;
+            }
+        });
+    }
+
+    private static long decodeFresh(byte[] data, int[] lens, int rounds) {
+        long start = System.nanoTime();
+        int check = 0;
+        for (int r = 0; r < rounds; r++) {
+            int off = 0;
+            for (int len : lens) {
+                check += new String(data, off, len, UTF16LE).length();
+                off += len;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (check == 42) System.out.print("");
+        return elapsed;
+    }
+
+    private static long decodeTable(byte[] data, int[] lens, int rounds) {
+        NameTable table = new NameTable();
+        long start = System.nanoTime();
+        int check = 0;
+        for (int r = 0; r < rounds; r++) {
+            int off = 0;
+            for (int len : lens) {
+                check += table.name(table.lookup(data, off, len)).length();
+                off += len;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (check == 42) System.out.print("");
+        return elapsed;
+    }
+
+    private static void report(String what, int bytes, int records, int rounds, long nanos) {
+        double secs = nanos / 1e9;
+        System.out.printf("%-25s %8.1f MB/s %12.0f names/s\n", what,
+                (double) bytes * rounds / (1 << 20) / secs, (double) records * rounds / secs);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * checks {@link ClosureTable} entries as functions are released, called
+ * again, and their contexts collected, including removals inside a probe
+ * run that wraps around the end of the table
+ */
+public class TestClosureTable {
+
+    private final Context global = Context.makeGlobal();
+
+    /**
+     * collects garbage until the table is down to size entries; the
+     * collected entries go on the next put or release
+     */
+    private static void collectUntil(ClosureTable table, int size) throws InterruptedException {
+        for (int i = 0; i < 100 && table.size() > size; i++) {
+            System.gc();
+            Thread.sleep(10);
+            table.release(Integer.MIN_VALUE);
+        }
+        assertEquals(size, table.size());
+    }
+
+    /**
+     * @return count function ids that hash to the last entry of the
+     * smallest table, so that their probe run wraps around
+     */
+    private static int[] wrapping(int count) {
+        int[] result = new int[count];
+        int n = 0;
+        for (int id = -1000; n < count; id++) {
+            if ((ClosureTable.hash(id) & 63) == 63)
+                result[n++] = id;
+        }
+        return result;
+    }
+
+    @Test
+    public void putGetRelease() {
+        ClosureTable table = new ClosureTable();
+        Context f = new Context(global, "f");
+        Context g = new Context(global, "g");
+        table.put(3, f);
+        table.put(-3, g);
+        assertSame(f, table.get(3));
+        assertSame(g, table.get(-3));
+        assertNull(table.get(4));
+        assertEquals(2, table.size());
+
+        table.put(3, g);
+        assertSame(g, table.get(3));
+        assertEquals(2, table.size());
+
+        table.release(3);
+        table.release(4);
+        assertSame(g, table.get(3));
+        assertNull(table.get(4));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void growAndShrink() throws InterruptedException {
+        ClosureTable table = new ClosureTable();
+        List<Context> held = new ArrayList<Context>();
+        for (int id = 0; id < 1000; id++) {
+            held.add(new Context(global, "f"));
+            table.put(id, held.get(id));
+        }
+        for (int id = 0; id < 1000; id++)
+            assertSame(held.get(id), table.get(id));
+        for (int id = 0; id < 1000; id += 2) {
+            table.release(id);
+            held.set(id, null);
+        }
+        collectUntil(table, 500);
+        for (int id = 0; id < 1000; id++)
+            assertSame(held.get(id), table.get(id));
+    }
+
+    @Test
+    public void calledAgainBeforeCollection() throws InterruptedException {
+        ClosureTable table = new ClosureTable();
+        List<Context> held = new ArrayList<Context>();
+        held.add(new Context(global, "f"));
+        table.put(7, held.get(0));
+        table.release(7);
+        // still held elsewhere, so a later call finds it
+        System.gc();
+        assertSame(held.get(0), table.get(7));
+        assertEquals(1, table.size());
+        // releasing again changes nothing
+        table.release(7);
+        assertSame(held.get(0), table.get(7));
+        held.clear();
+        collectUntil(table, 0);
+        assertNull(table.get(7));
+    }
+
+    @Test
+    public void calledAgainAfterCollection() throws InterruptedException {
+        ClosureTable table = new ClosureTable();
+        table.put(7, new Context(global, "f"));
+        table.release(7);
+        collectUntil(table, 0);
+        assertNull(table.get(7));
+        // the function id comes back with a new closure
+        Context g = new Context(global, "g");
+        table.put(7, g);
+        assertSame(g, table.get(7));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void reusedIdSurvivesCollection() throws InterruptedException {
+        ClosureTable table = new ClosureTable();
+        table.put(7, new Context(global, "f"));
+        table.release(7);
+        Context g = new Context(global, "g");
+        table.put(7, g);
+        // the released context is collected after its entry was replaced
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(10);
+            table.release(Integer.MIN_VALUE);
+        }
+        assertSame(g, table.get(7));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void removeAcrossWraparound() throws InterruptedException {
+        int[] ids = wrapping(24);
+        ClosureTable table = new ClosureTable();
+        List<Context> held = new ArrayList<Context>();
+        for (int id : ids) {
+            held.add(new Context(global, "f"));
+            table.put(id, held.get(held.size() - 1));
+        }
+        // collect the entries at both ends of the run and some in between
+        int remaining = ids.length;
+        for (int i = 0; i < ids.length; i++) {
+            if (i % 3 == 0 || i == ids.length - 1) {
+                table.release(ids[i]);
+                held.set(i, null);
+                remaining--;
+            }
+        }
+        collectUntil(table, remaining);
+        for (int i = 0; i < ids.length; i++)
+            assertSame(held.get(i), table.get(ids[i]));
+
+        // and then the rest, one at a time
+        for (int i = 0; i < ids.length; i++) {
+            if (held.get(i) == null)
+                continue;
+            table.release(ids[i]);
+            held.set(i, null);
+            collectUntil(table, --remaining);
+            for (int j = 0; j < ids.length; j++)
+                assertSame(held.get(j), table.get(ids[j]));
+        }
+        assertEquals(0, table.size());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.context;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+
+/**
+ * checks that the contexts under a global context share its numbering and
+ * scope epoch, and that separate global contexts do not
+ */
+public class TestContextIds {
+
+    @Test
+    public void idsAreDensePerGlobal() {
+        Context global = Context.makeGlobal();
+        Context other = Context.makeGlobal();
+        Context f = new Context(global, "f");
+        Context g = new Context(f, "g");
+        Context h = new Context(other, "h");
+        assertEquals(0, global.getId());
+        assertEquals(1, f.getId());
+        assertEquals(2, g.getId());
+        assertEquals(0, other.getId());
+        assertEquals(1, h.getId());
+        assertEquals(3, new Context(global, "k").getId());
+        assertEquals(2, new Context(h, "k").getId());
+    }
+
+    @Test
+    public void epochIsShared() {
+        Context global = Context.makeGlobal();
+        Context other = Context.makeGlobal();
+        Context f = new Context(global, "f");
+        Context g = new Context(f, "g");
+        Context leaf = new Context(global, "leaf");
+        int epoch = g.scopeEpoch();
+
+        // only contexts with inner scopes, other than the global one, count
+        global.newVariable("a", 1);
+        leaf.newVariable("b", 1);
+        assertEquals(epoch, g.scopeEpoch());
+
+        f.newVariable("x", 1);
+        assertEquals(epoch + 1, g.scopeEpoch());
+        assertEquals(epoch + 1, global.scopeEpoch());
+        assertEquals(epoch + 1, leaf.scopeEpoch());
+        assertEquals(0, other.scopeEpoch());
+    }
+
+    @Test
+    public void numberingSurvivesSerialization() throws IOException, ClassNotFoundException {
+        Context global = Context.makeGlobal();
+        Context f = new Context(global, "f");
+        new Context(f, "g");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(f);
+        out.close();
+        Context copy = (Context) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(1, copy.getId());
+        assertEquals(3, new Context(copy, "h").getId());
+        assertEquals(4, new Context(copy.getParent(), "k").getId());
+        // the original is unaffected
+        assertEquals(3, new Context(global, "k").getId());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.context;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.samsung.memoryanalysis.traceparser.FreeVariables;
+
+/**
+ * checks, on random sequences of calls, declarations, closure creations and
+ * returns, that sealing by capture counts drops the same names as resolving
+ * the referenced names up the scope chain at seal time did
+ */
+public class TestContextSealing {
+
+    private static final String[] NAMES = { "a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l" };
+
+    /**
+     * the previous sealing: keep the referenced names, and resolve them
+     * when sealing
+     */
+    private static class Reference {
+
+        private final Reference parent;
+        private final Map<String, Boolean> variables = new IdentityHashMap<String, Boolean>();
+        private final Set<String> referencedNames = FreeVariables.makeNameSet(4);
+
+        Reference(Reference parent) {
+            this.parent = parent;
+        }
+
+        void newVariable(String name) {
+            if (!variables.containsKey(name))
+                variables.put(name, Boolean.FALSE);
+        }
+
+        void markReferenced(Set<String> names) {
+            referencedNames.addAll(names);
+        }
+
+        Set<String> seal() {
+            Set<String> work = FreeVariables.makeNameSet(referencedNames.size());
+            work.addAll(referencedNames);
+            for (Reference c = this; c.parent != null; c = c.parent) {
+                for (Map.Entry<String, Boolean> v : c.variables.entrySet()) {
+                    if (work.remove(v.getKey()))
+                        v.setValue(Boolean.TRUE);
+                }
+            }
+            Set<String> res = FreeVariables.makeNameSet(variables.size());
+            for (Map.Entry<String, Boolean> v : variables.entrySet()) {
+                if (!v.getValue())
+                    res.add(v.getKey());
+            }
+            variables.keySet().removeAll(res);
+            return res;
+        }
+    }
+
+    private static void check(long seed, int steps) {
+        Random r = new Random(seed);
+        List<Context> contexts = new ArrayList<Context>();
+        List<Reference> references = new ArrayList<Reference>();
+        Deque<Integer> stack = new ArrayDeque<Integer>();
+        contexts.add(Context.makeGlobal());
+        references.add(new Reference(null));
+        stack.push(0);
+        for (int step = 0; step < steps; step++) {
+            int op = r.nextInt(10);
+            int top = stack.peek();
+            String at = "seed " + seed + " step " + step;
+            if (op < 3) {
+                // a call of a function made in any context seen so far
+                int p = r.nextInt(contexts.size());
+                contexts.add(new Context(contexts.get(p), "f"));
+                references.add(new Reference(references.get(p)));
+                stack.push(contexts.size() - 1);
+            } else if (op < 6) {
+                String name = NAMES[r.nextInt(NAMES.length)];
+                contexts.get(top).newVariable(name, 0);
+                references.get(top).newVariable(name);
+            } else if (op < 8) {
+                Set<String> captured = FreeVariables.makeNameSet(3);
+                for (int k = r.nextInt(4); k > 0; k--)
+                    captured.add(NAMES[r.nextInt(NAMES.length)]);
+                contexts.get(top).markReferenced(captured);
+                references.get(top).markReferenced(captured);
+            } else if (stack.size() > 1) {
+                stack.pop();
+                Context c = contexts.get(top);
+                Set<String> dropped = c.seal();
+                Set<String> expected = references.get(top).seal();
+                assertEquals(at, expected, new HashSet<String>(dropped));
+                assertEquals(at, expected.size(), dropped.size());
+                for (String name : NAMES) {
+                    assertEquals(at + " " + name, expected.contains(name), dropped.contains(name));
+                    assertEquals(at + " " + name, references.get(top).variables.containsKey(name), c.hasVariable(name));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sameAsResolvingAtSealTime() {
+        for (long seed = 0; seed < 2000; seed++)
+            check(seed, 200);
+    }
+
+    @Test
+    public void longRuns() {
+        for (long seed = 0; seed < 20; seed++)
+            check(seed, 20000);
+    }
+}
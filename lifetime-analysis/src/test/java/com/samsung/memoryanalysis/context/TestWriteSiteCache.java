@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
+
+/**
+ * checks that {@link WriteSiteCache} writes where an uncached walk up the
+ * scope chain would, as scopes gain variables and are sealed
+ */
+public class TestWriteSiteCache {
+
+    private static final SourceLocId SITE = new SourceLocId(1, 17);
+
+    private static int value(Context c, String name) {
+        int slot = c.slotOf(name);
+        assertTrue(name + " not in " + c, slot >= 0);
+        return c.getValue(slot);
+    }
+
+    @Test
+    public void cachedWriteToOuterVariable() {
+        WriteSiteCache cache = new WriteSiteCache();
+        Context global = Context.makeGlobal();
+        Context f = new Context(global, "f");
+        f.newVariable("x", 0);
+        for (int i = 1; i <= 3; i++) {
+            Context g = new Context(f, "g");
+            assertSame(f, cache.write(SITE, g, "x", i));
+            assertEquals(i, value(f, "x"));
+        }
+        // the writing context is looked in first
+        Context g = new Context(f, "g");
+        g.newVariable("x", 0);
+        assertSame(g, cache.write(SITE, g, "x", 4));
+        assertEquals(4, value(g, "x"));
+        assertEquals(3, value(f, "x"));
+    }
+
+    @Test
+    public void implicitGlobal() {
+        WriteSiteCache cache = new WriteSiteCache();
+        Context global = Context.makeGlobal();
+        Context f = new Context(global, "f");
+        Context g = new Context(f, "g");
+        assertFalse(global.hasVariable("y"));
+        assertSame(global, cache.write(SITE, g, "y", 1));
+        assertEquals(1, value(global, "y"));
+        assertFalse(f.hasVariable("y"));
+
+        // the implicit global is written through the cache from now on
+        g = new Context(f, "g");
+        assertSame(global, cache.write(SITE, g, "y", 2));
+        assertEquals(2, value(global, "y"));
+
+        // a later declaration in between takes the write
+        f.newVariable("y", 0);
+        g = new Context(f, "g");
+        assertSame(f, cache.write(SITE, g, "y", 3));
+        assertEquals(3, value(f, "y"));
+        assertEquals(2, value(global, "y"));
+    }
+
+    @Test
+    public void evalShadowsCachedName() {
+        WriteSiteCache cache = new WriteSiteCache();
+        Context global = Context.makeGlobal();
+        global.newVariable("x", 0);
+        Context f = new Context(global, "f");
+        Context g = new Context(f, "g");
+        Context h = new Context(g, "h");
+        assertSame(global, cache.write(SITE, h, "x", 1));
+        assertSame(global, cache.write(SITE, h, "x", 2));
+
+        // eval in g declares x, past enough names that g is indexed
+        for (int i = 0; i < 10; i++)
+            g.newVariable(("v" + i).intern(), 0);
+        g.newVariable("x", 0);
+        assertSame(g, cache.write(SITE, h, "x", 3));
+        assertEquals(3, value(g, "x"));
+        assertEquals(2, value(global, "x"));
+
+        // a declaration further out is still shadowed by g
+        f.newVariable("x", 0);
+        assertSame(g, cache.write(SITE, h, "x", 4));
+        assertEquals(4, value(g, "x"));
+        assertEquals(0, value(f, "x"));
+    }
+
+    @Test
+    public void otherSitesAndScopes() {
+        WriteSiteCache cache = new WriteSiteCache();
+        Context global = Context.makeGlobal();
+        Context f1 = new Context(global, "f1");
+        Context f2 = new Context(global, "f2");
+        f1.newVariable("x", 0);
+        f2.newVariable("x", 0);
+        assertSame(f1, cache.write(SITE, new Context(f1, "g"), "x", 1));
+        // the same site writing from another scope
+        assertSame(f2, cache.write(SITE, new Context(f2, "g"), "x", 2));
+        assertSame(f1, cache.write(new SourceLocId(1, 18), new Context(f1, "g"), "x", 3));
+        assertEquals(3, value(f1, "x"));
+        assertEquals(2, value(f2, "x"));
+        // without a site nothing is cached
+        assertSame(f2, cache.write(null, new Context(f2, "g"), "x", 4));
+        assertEquals(4, value(f2, "x"));
+    }
+
+    @Test
+    public void writeAfterSealing() {
+        WriteSiteCache cache = new WriteSiteCache();
+        Context global = Context.makeGlobal();
+        Context f = new Context(global, "f");
+        f.newVariable("a", 0);
+        f.newVariable("b", 0);
+        f.markReferenced(Collections.singleton("b"));
+        Context g = new Context(f, "g");
+        assertSame(f, cache.write(SITE, g, "b", 1));
+        assertEquals(1, value(f, "b"));
+
+        // sealing drops a and moves b to another slot
+        int before = f.slotOf("b");
+        f.seal();
+        assertFalse(f.isLive());
+        assertFalse(f.hasVariable("a"));
+        assertTrue(f.slotOf("b") != before);
+
+        // the closure is called again after f returned
+        g = new Context(f, "g");
+        assertSame(f, cache.write(SITE, g, "b", 2));
+        assertEquals(2, value(f, "b"));
+        assertSame(f, cache.write(SITE, new Context(f, "g"), "b", 3));
+        assertEquals(3, value(f, "b"));
+
+        // a dropped name resolves past f, as it does uncached
+        assertSame(global, cache.write(SITE, new Context(f, "g"), "a", 4));
+        assertEquals(4, value(global, "a"));
+    }
+
+    @Test
+    public void writeAfterSealingKeepsSlots() {
+        WriteSiteCache cache = new WriteSiteCache();
+        Context global = Context.makeGlobal();
+        Context f = new Context(global, "f");
+        f.newVariable("a", 0);
+        f.newVariable("b", 0);
+        f.markReferenced(Collections.singleton("a"));
+        f.markReferenced(Collections.singleton("b"));
+        assertSame(f, cache.write(SITE, new Context(f, "g"), "b", 1));
+        f.seal();
+        assertTrue(f.hasVariable("a"));
+        assertSame(f, cache.write(SITE, new Context(f, "g"), "b", 2));
+        assertEquals(2, value(f, "b"));
+        assertEquals(0, value(f, "a"));
+    }
+}
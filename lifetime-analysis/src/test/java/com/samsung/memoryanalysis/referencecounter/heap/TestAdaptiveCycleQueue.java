@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * checks when {@link ReferenceCountedHeapGraph#adaptCycleQueueLimit} doubles
+ * and halves the cycle queue limit, and that it keeps it within its bounds
+ */
+public class TestAdaptiveCycleQueue {
+
+    private static int adapt(int limit, int queued, int marked, int collected) {
+        return ReferenceCountedHeapGraph.adaptCycleQueueLimit(limit, 2, 1000, queued, marked, collected);
+    }
+
+    @Test
+    public void doublesBelowAnEighthCollected() {
+        assertEquals(200, adapt(100, 80, 0, 9));
+        assertEquals(100, adapt(100, 80, 0, 10));
+        assertEquals(200, adapt(100, 1, 0, 0));
+    }
+
+    @Test
+    public void doublingStartsAtOneAndStopsAtMax() {
+        assertEquals(1, ReferenceCountedHeapGraph.adaptCycleQueueLimit(0, 0, 1000, 8, 0, 0));
+        assertEquals(1000, adapt(600, 80, 0, 0));
+        assertEquals(1000, adapt(1000, 80, 0, 0));
+        assertEquals(Integer.MAX_VALUE, ReferenceCountedHeapGraph.adaptCycleQueueLimit(Integer.MAX_VALUE - 1, 0, Integer.MAX_VALUE, 8, 0, 0));
+    }
+
+    @Test
+    public void halvesFromHalfCollected() {
+        assertEquals(50, adapt(100, 80, 0, 40));
+        assertEquals(100, adapt(100, 80, 0, 39));
+        assertEquals(50, adapt(100, 80, 80, 80));
+    }
+
+    @Test
+    public void halvingNeedsLittleMarking() {
+        assertEquals(50, adapt(100, 80, 16 * 40, 40));
+        assertEquals(100, adapt(100, 80, 16 * 40 + 1, 40));
+    }
+
+    @Test
+    public void halvingStopsAtMin() {
+        assertEquals(2, adapt(3, 80, 0, 80));
+        assertEquals(2, adapt(2, 80, 0, 80));
+    }
+
+    @Test
+    public void emptyQueueHalves() {
+        assertEquals(50, adapt(100, 0, 0, 0));
+    }
+}
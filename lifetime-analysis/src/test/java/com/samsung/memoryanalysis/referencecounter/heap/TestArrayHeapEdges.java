@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * checks that {@link ArrayHeap} lists edges as {@link JGraphHeap} does,
+ * named edges before child-set edges, and that removals keep its edge
+ * lists and reference counts consistent
+ */
+public class TestArrayHeapEdges {
+
+    private static List<HeapEdge> list(Collection<HeapEdge> edges) {
+        return new ArrayList<HeapEdge>(edges);
+    }
+
+    private static ContextOrObjectId[] nodes(ReferenceCountedHeapGraph heap, int count) {
+        ContextOrObjectId[] result = new ContextOrObjectId[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = heap.nodeFor(i + 1);
+            heap.newNode(result[i]);
+        }
+        return result;
+    }
+
+    /**
+     * adds child and field edges out of and into n[0], interleaved
+     */
+    private static void interleave(ReferenceCountedHeapGraph heap, ContextOrObjectId[] n) {
+        heap.addChild(n[0], "kids", n[3]);
+        heap.setField(n[0], "x", n[1]);
+        heap.addChild(n[0], "kids", n[4]);
+        heap.setField(n[0], "y", n[2]);
+        heap.addChild(n[2], "kids", n[0]);
+        heap.setField(n[1], "back", n[0]);
+    }
+
+    @Test
+    public void namedEdgesBeforeChildren() {
+        ArrayHeap heap = new ArrayHeap();
+        ContextOrObjectId[] n = nodes(heap, 5);
+        interleave(heap, n);
+        assertEquals(Arrays.<HeapEdge>asList(
+                new NamedEdge(n[0], "x"),
+                new NamedEdge(n[0], "y"),
+                new NamedMultiEdge(n[0], "kids", n[3]),
+                new NamedMultiEdge(n[0], "kids", n[4])),
+                list(heap.getOutEdges(n[0])));
+        assertEquals(Arrays.<HeapEdge>asList(
+                new NamedEdge(n[1], "back"),
+                new NamedMultiEdge(n[2], "kids", n[0])),
+                list(heap.incoming(n[0])));
+    }
+
+    @Test
+    public void sameOrderAsJGraphHeap() {
+        ArrayHeap heap = new ArrayHeap();
+        JGraphHeap reference = new JGraphHeap();
+        ContextOrObjectId[] n = nodes(heap, 5);
+        ContextOrObjectId[] r = nodes(reference, 5);
+        interleave(heap, n);
+        interleave(reference, r);
+        for (int i = 0; i < n.length; i++) {
+            assertEquals(list(reference.getOutEdges(r[i])), list(heap.getOutEdges(n[i])));
+            assertEquals(list(reference.incoming(r[i])), list(heap.incoming(n[i])));
+            assertEquals(reference.referenceCount(r[i]), heap.referenceCount(n[i]));
+        }
+    }
+
+    @Test
+    public void fieldIsKeptAndFound() {
+        ArrayHeap heap = new ArrayHeap();
+        ContextOrObjectId[] n = nodes(heap, 3);
+        heap.setField(n[0], "x", n[1]);
+        heap.setField(n[0], "x", n[2]);
+        assertSame(n[1], heap.getField(n[0], "x"));
+        assertEquals(1, heap.referenceCount(n[1]));
+        assertEquals(0, heap.referenceCount(n[2]));
+        assertNull(heap.getField(n[0], "y"));
+    }
+
+    @Test
+    public void removeFieldAndChild() {
+        ArrayHeap heap = new ArrayHeap();
+        ContextOrObjectId[] n = nodes(heap, 5);
+        interleave(heap, n);
+        heap.removeField(n[0], "x");
+        heap.removeChild(n[0], "kids", n[3]);
+        assertEquals(Arrays.<HeapEdge>asList(
+                new NamedEdge(n[0], "y"),
+                new NamedMultiEdge(n[0], "kids", n[4])),
+                list(heap.getOutEdges(n[0])));
+        assertEquals(0, heap.referenceCount(n[1]));
+        assertEquals(0, heap.referenceCount(n[3]));
+        assertNull(heap.getField(n[0], "x"));
+
+        // removing an edge that is gone, or was never there, changes nothing
+        heap.removeField(n[0], "x");
+        heap.removeChild(n[0], "kids", n[3]);
+        heap.removeChild(n[0], "other", n[4]);
+        assertEquals(2, heap.getOutEdges(n[0]).size());
+        assertEquals(1, heap.referenceCount(n[4]));
+
+        heap.removeEdge(new NamedMultiEdge(n[0], "kids", n[4]));
+        heap.removeEdge(new NamedEdge(n[0], "y"));
+        assertTrue(heap.getOutEdges(n[0]).isEmpty());
+        assertEquals(0, heap.referenceCount(n[2]));
+        assertEquals(0, heap.referenceCount(n[4]));
+    }
+
+    @Test
+    public void removeNodeDropsItsEdges() {
+        ArrayHeap heap = new ArrayHeap();
+        ContextOrObjectId[] n = nodes(heap, 5);
+        interleave(heap, n);
+        heap.removeNode(n[2]);
+        assertFalse(heap.containsNode(n[2]));
+        assertEquals(Arrays.<HeapEdge>asList(
+                new NamedEdge(n[0], "x"),
+                new NamedMultiEdge(n[0], "kids", n[3]),
+                new NamedMultiEdge(n[0], "kids", n[4])),
+                list(heap.getOutEdges(n[0])));
+        assertEquals(Arrays.<HeapEdge>asList(new NamedEdge(n[1], "back")), list(heap.incoming(n[0])));
+        assertEquals(1, heap.referenceCount(n[0]));
+        assertNull(heap.getField(n[0], "y"));
+    }
+
+    @Test
+    public void freedSlotStartsEmpty() {
+        ArrayHeap heap = new ArrayHeap();
+        ContextOrObjectId[] n = nodes(heap, 5);
+        interleave(heap, n);
+        heap.removeNode(n[0]);
+        ContextOrObjectId fresh = heap.nodeFor(6);
+        heap.newNode(fresh);
+        assertTrue(heap.getOutEdges(fresh).isEmpty());
+        assertTrue(heap.incoming(fresh).isEmpty());
+        assertEquals(0, heap.referenceCount(fresh));
+        for (int i = 1; i < n.length; i++) {
+            assertTrue(heap.getOutEdges(n[i]).isEmpty());
+            assertEquals(0, heap.referenceCount(n[i]));
+        }
+        heap.setField(fresh, "x", n[1]);
+        assertEquals(Arrays.<HeapEdge>asList(new NamedEdge(fresh, "x")), list(heap.incoming(n[1])));
+    }
+
+    @Test
+    public void toDotListsNodesAndEdges() {
+        ArrayHeap heap = new ArrayHeap();
+        ContextOrObjectId[] n = nodes(heap, 3);
+        heap.setField(n[0], "x", n[1]);
+        heap.addChild(n[0], "kids", n[2]);
+        StringWriter w = new StringWriter();
+        heap.toDot(w);
+        String nl = System.getProperty("line.separator");
+        assertEquals("digraph heap {" + nl
+                + "  n0 [label=\"" + n[0] + "\"];" + nl
+                + "  n1 [label=\"" + n[1] + "\"];" + nl
+                + "  n2 [label=\"" + n[2] + "\"];" + nl
+                + "  n0 -> n1 [label=\"x\"];" + nl
+                + "  n0 -> n2 [label=\"kids\", style=dashed];" + nl
+                + "}" + nl, w.toString());
+    }
+}
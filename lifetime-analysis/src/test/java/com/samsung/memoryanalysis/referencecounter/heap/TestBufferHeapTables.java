@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * checks that {@link IntPages} keeps its entries as it grows, first by
+ * doubling its single page and then by adding whole pages, in direct and in
+ * mapped buffers, and that {@link BufferHeap} writes the graph in its
+ * tables as {@link ArrayHeap} does
+ */
+public class TestBufferHeapTables {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void fill(IntPages pages, int from, int to) {
+        for (int i = from; i < to; i++)
+            pages.put(i, i + 1);
+    }
+
+    private static void check(IntPages pages, int from, int to) {
+        for (int i = from; i < to; i++)
+            assertEquals(i + 1, pages.get(i));
+    }
+
+    private static void grow(IntPages pages) {
+        assertEquals(4 * 1024, pages.bytes());
+        fill(pages, 0, 1024);
+        pages.ensure(1025);
+        assertEquals(4 * 2048, pages.bytes());
+        pages.ensure(5000);
+        assertEquals(4 * 8192, pages.bytes());
+        check(pages, 0, 1024);
+        assertEquals(0, pages.get(5000));
+        fill(pages, 1024, 8192);
+
+        pages.ensure(IntPages.PAGE_INTS + 1);
+        assertEquals(4L * 2 * IntPages.PAGE_INTS, pages.bytes());
+        check(pages, 0, 8192);
+        assertEquals(0, pages.get(IntPages.PAGE_INTS));
+        pages.put(IntPages.PAGE_INTS + 5, 7);
+        assertEquals(7, pages.get(IntPages.PAGE_INTS + 5));
+
+        pages.ensure(10);
+        assertEquals(4L * 2 * IntPages.PAGE_INTS, pages.bytes());
+        pages.release();
+        assertEquals(0, pages.bytes());
+    }
+
+    @Test
+    public void directPagesGrow() {
+        grow(new IntPages(null, 10));
+    }
+
+    @Test
+    public void mappedPagesGrow() throws IOException {
+        File dir = folder.newFolder();
+        grow(new IntPages(dir, 10));
+        assertEquals(0, dir.list().length);
+    }
+
+    private static String toDot(ReferenceCountedHeapGraph heap) {
+        ContextOrObjectId[] n = new ContextOrObjectId[3];
+        for (int i = 0; i < n.length; i++) {
+            n[i] = heap.nodeFor(i + 1);
+            heap.newNode(n[i]);
+        }
+        heap.setField(n[0], "x", n[1]);
+        heap.addChild(n[0], "kids", n[2]);
+        heap.setField(n[2], "back", n[0]);
+        StringWriter w = new StringWriter();
+        heap.toDot(w);
+        return w.toString();
+    }
+
+    @Test
+    public void toDotAsArrayHeap() {
+        assertEquals(toDot(new ArrayHeap()), toDot(new BufferHeap()));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ibm.wala.util.functions.VoidFunction;
+import com.samsung.memoryanalysis.context.Context;
+import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
+import com.samsung.memoryanalysis.traceparser.Timer;
+
+/**
+ * checks that a node is a candidate exactly while it is in some candidate
+ * set on the stack, as calls push and pop sets, flushes empty them and
+ * return values move into the caller's set
+ */
+public class TestCandidates {
+
+    private static final SourceLocId SITE = new SourceLocId(1, 5);
+
+    private final Context global = Context.makeGlobal();
+
+    private final ReferenceCountedHeapGraph heap = new ArrayHeap();
+
+    private final List<Integer> unreachable = new ArrayList<Integer>();
+
+    public TestCandidates() {
+        heap.setTimer(new Timer() {
+            @Override
+            public long currentTime() {
+                return 0;
+            }
+
+            @Override
+            public void registerAlarm(long atTime, VoidFunction<Long> callback) {
+            }
+        });
+        heap.setUnreachableCallback(new VoidFunction<Unreachability>() {
+            @Override
+            public void apply(Unreachability v) {
+                unreachable.add(v.objId);
+            }
+        });
+        heap.newContext(global, 0);
+    }
+
+    private boolean isCandidate(int id) {
+        return heap.isCandidate(heap.nodeFor(id));
+    }
+
+    private Context call(Context parent) {
+        Context c = new Context(parent, "f");
+        heap.newContext(c, 1);
+        return c;
+    }
+
+    private void flush() {
+        heap.flush(SITE, new HashSet<Integer>(), Collections.singleton(global));
+    }
+
+    private void exit(Integer... returned) {
+        heap.functionExit(new HashSet<Integer>(Arrays.asList(returned)));
+    }
+
+    @Test
+    public void candidateWhileInAnySetOnTheStack() {
+        heap.newObject(2);
+        heap.handleValue(2);
+        assertTrue(isCandidate(2));
+        call(global);
+        heap.newObject(3);
+        heap.handleValue(2);
+        heap.handleValue(3);
+        exit();
+        assertTrue(isCandidate(2));
+        assertFalse(isCandidate(3));
+    }
+
+    @Test
+    public void deepStack() {
+        heap.newObject(2);
+        Context c = global;
+        for (int i = 0; i < 1000; i++) {
+            c = call(c);
+            heap.handleValue(2);
+        }
+        for (int i = 0; i < 999; i++) {
+            exit();
+            assertTrue(isCandidate(2));
+        }
+        exit();
+        assertFalse(isCandidate(2));
+    }
+
+    @Test
+    public void returnValueMovesToCaller() {
+        call(global);
+        heap.newObject(2);
+        heap.handleValue(2);
+        exit(2);
+        assertTrue(isCandidate(2));
+    }
+
+    @Test
+    public void innerFlushKeepsOuterCandidate() {
+        heap.newObject(2);
+        heap.handleValue(2);
+        call(global);
+        heap.handleValue(2);
+        flush();
+        assertTrue(isCandidate(2));
+        assertEquals(Collections.<Integer>emptyList(), unreachable);
+        exit();
+        flush();
+        assertFalse(isCandidate(2));
+        assertEquals(Arrays.asList(2), unreachable);
+    }
+
+    @Test
+    public void endFlushClearsAllSets() {
+        heap.newObject(2);
+        heap.handleValue(2);
+        Context f = call(global);
+        heap.newObject(3);
+        heap.handleValue(3);
+        heap.endFlush(SITE, new HashSet<Integer>(), Arrays.asList(global, f));
+        assertFalse(isCandidate(2));
+        assertFalse(isCandidate(3));
+        assertEquals(new HashSet<Integer>(Arrays.asList(2, 3)), new HashSet<Integer>(unreachable));
+    }
+}
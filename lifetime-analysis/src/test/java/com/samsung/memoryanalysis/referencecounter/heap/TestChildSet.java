@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * checks {@link ChildSet} keys, both below and past its threshold, with
+ * colliding keys, removals inside probe runs and squeezing
+ */
+public class TestChildSet {
+
+    private static List<Long> keys(ChildSet set) {
+        List<Long> result = new ArrayList<Long>();
+        for (int i = 0; i < set.limit(); i++) {
+            if (set.keyAt(i) != ChildSet.HOLE)
+                result.add(set.keyAt(i));
+        }
+        return result;
+    }
+
+    @Test
+    public void keyPacking() {
+        int[] values = { 0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        for (int name : values) {
+            for (int child : values) {
+                long key = ChildSet.key(name, child);
+                assertEquals(name, ChildSet.name(key));
+                assertEquals(child, ChildSet.child(key));
+            }
+        }
+        // a negative child must not spill into the name
+        assertFalse(ChildSet.key(0, -1) == ChildSet.key(-1, -1));
+        assertFalse(ChildSet.key(1, 2) == ChildSet.key(2, 1));
+    }
+
+    @Test
+    public void sameChildUnderTwoNames() {
+        ChildSet set = new ChildSet();
+        assertTrue(set.add(ChildSet.key(1, 5)));
+        assertTrue(set.add(ChildSet.key(2, 5)));
+        assertFalse(set.add(ChildSet.key(1, 5)));
+        assertEquals(2, set.size());
+        assertTrue(set.remove(ChildSet.key(1, 5)));
+        assertFalse(set.contains(ChildSet.key(1, 5)));
+        assertTrue(set.contains(ChildSet.key(2, 5)));
+        assertFalse(set.remove(ChildSet.key(1, 5)));
+    }
+
+    /**
+     * keys with the same hash, so that past the threshold they share one
+     * probe run of the index
+     */
+    private static long[] colliding(int count) {
+        long[] result = new long[count];
+        for (int i = 0; i < count; i++) {
+            // key ^ key >>> 32 is 0 for name == child
+            result[i] = ChildSet.key(i + 1, i + 1);
+        }
+        return result;
+    }
+
+    @Test
+    public void removeInsideProbeRun() {
+        long[] keys = colliding(3 * ChildSet.THRESHOLD);
+        ChildSet set = new ChildSet();
+        for (long k : keys)
+            assertTrue(set.add(k));
+        for (long k : keys)
+            assertFalse(set.add(k));
+        // remove every other key, so later keys of the run are shifted back
+        List<Long> expected = new ArrayList<Long>();
+        for (int i = 0; i < keys.length; i++) {
+            if (i % 2 == 0)
+                assertTrue(set.remove(keys[i]));
+            else
+                expected.add(keys[i]);
+        }
+        for (int i = 0; i < keys.length; i++)
+            assertEquals(i % 2 != 0, set.contains(keys[i]));
+        assertEquals(expected, keys(set));
+        assertEquals(expected.size(), set.size());
+    }
+
+    @Test
+    public void removeAcrossWraparound() {
+        // keys hashing to the last position of an index of up to 128
+        // positions, so that their probe run wraps around to its start
+        int count = 24;
+        List<Long> added = new ArrayList<Long>();
+        for (int child = 0; added.size() < count; child++) {
+            long key = ChildSet.key(7, child);
+            if ((ChildSet.hash(key) & 127) == 127)
+                added.add(key);
+        }
+        ChildSet set = new ChildSet();
+        for (long k : added)
+            assertTrue(set.add(k));
+        List<Long> expected = new ArrayList<Long>(added);
+        for (int round = 0; round < count; round++) {
+            // 7 is prime to count, so this visits every key, out of order
+            long key = added.get(round * 7 % count);
+            assertTrue(set.remove(key));
+            expected.remove(key);
+            for (long k : added)
+                assertEquals(expected.contains(k), set.contains(k));
+            assertEquals(expected, keys(set));
+        }
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void squeezeKeepsOrder() {
+        long[] keys = colliding(4 * ChildSet.THRESHOLD);
+        ChildSet set = new ChildSet();
+        for (long k : keys)
+            set.add(k);
+        List<Long> expected = new ArrayList<Long>();
+        for (int i = 0; i < keys.length; i++) {
+            if (i % 4 == 0)
+                expected.add(keys[i]);
+            else
+                set.remove(keys[i]);
+        }
+        assertTrue(set.limit() < keys.length);
+        assertEquals(expected, keys(set));
+        // re-adding goes after the keys that are left
+        set.add(keys[1]);
+        expected.add(keys[1]);
+        assertEquals(expected, keys(set));
+        for (long k : expected)
+            assertTrue(set.contains(k));
+        assertFalse(set.contains(keys[2]));
+    }
+
+    @Test
+    public void backBelowThreshold() {
+        long[] keys = colliding(ChildSet.THRESHOLD + 4);
+        ChildSet set = new ChildSet();
+        for (long k : keys)
+            set.add(k);
+        for (int i = 0; i < 10; i++)
+            set.remove(keys[i]);
+        assertEquals(keys.length - 10, set.size());
+        for (int i = 0; i < keys.length; i++)
+            assertEquals(i >= 10, set.contains(keys[i]));
+        for (int i = 0; i < 10; i++)
+            assertTrue(set.add(keys[i]));
+        assertEquals(keys.length, set.size());
+        for (long k : keys)
+            assertTrue(set.contains(k));
+    }
+}
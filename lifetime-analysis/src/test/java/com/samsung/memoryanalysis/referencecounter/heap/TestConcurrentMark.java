@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ibm.wala.util.functions.VoidFunction;
+import com.samsung.memoryanalysis.context.Context;
+import com.samsung.memoryanalysis.options.MemoryAnalysisOptions;
+import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
+import com.samsung.memoryanalysis.traceparser.Timer;
+
+/**
+ * checks that marking in the background and finishing each flush as soon
+ * as it starts collects what marking on the analysis thread collects, in
+ * the same order, and that later finishes are rejected
+ */
+public class TestConcurrentMark {
+
+    private static final SourceLocId SITE = new SourceLocId(1, 5);
+
+    private static final int FLUSHED = -1;
+
+    /**
+     * drops two garbage cycles, one holding the other, and a cycle still
+     * held from the global context, flushing the cycle queue after each
+     *
+     * @return the unreachable objects, in the order reported, with
+     * {@link #FLUSHED} after those of the first flush
+     */
+    private static List<Integer> run(long lag) {
+        Context global = Context.makeGlobal();
+        JGraphHeap heap = new JGraphHeap();
+        final List<Integer> unreachable = new ArrayList<Integer>();
+        heap.setConcurrentMarkLag(lag);
+        heap.setCycleQueueLimit(0);
+        heap.setTimer(new Timer() {
+            @Override
+            public long currentTime() {
+                return 0;
+            }
+
+            @Override
+            public void registerAlarm(long atTime, VoidFunction<Long> callback) {
+            }
+        });
+        heap.setUnreachableCallback(new VoidFunction<Unreachability>() {
+            @Override
+            public void apply(Unreachability v) {
+                unreachable.add(v.objId);
+            }
+        });
+        heap.newContext(global, 0);
+        for (int i = 2; i <= 7; i += 2) {
+            heap.newObject(i);
+            heap.newObject(i + 1);
+            heap.addObjectReference(i, "a", i + 1, SITE);
+            heap.addObjectReference(i + 1, "b", i, SITE);
+        }
+        heap.addObjectReference(3, "c", 4, SITE);
+        heap.addContextReference(global, "y", 7, SITE);
+        heap.addContextReference(global, "x", 2, SITE);
+        heap.addContextReference(global, "z", 6, SITE);
+        heap.addContextReference(global, "x", 0, SITE);
+        heap.flush(SITE, new HashSet<Integer>(), Collections.singleton(global));
+        unreachable.add(FLUSHED);
+        heap.addContextReference(global, "z", 0, SITE);
+        heap.flush(SITE, new HashSet<Integer>(), Collections.singleton(global));
+        assertEquals(1, heap.referenceCount(6));
+        return unreachable;
+    }
+
+    @Test
+    public void finishedAtOnceAsSerial() {
+        List<Integer> serial = run(-1);
+        assertEquals(new HashSet<Integer>(Arrays.asList(2, 3, 4, 5)), new HashSet<Integer>(serial.subList(0, 4)));
+        assertEquals(Arrays.asList(FLUSHED), serial.subList(4, serial.size()));
+        assertEquals(serial, run(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void laterFinishRejected() {
+        new MemoryAnalysisOptions().setConcurrentMarkLag(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeLagRejected() {
+        new MemoryAnalysisOptions().setConcurrentMarkLag(-2);
+    }
+}
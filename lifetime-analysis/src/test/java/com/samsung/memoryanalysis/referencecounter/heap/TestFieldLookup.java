@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ibm.wala.util.functions.VoidFunction;
+
+/**
+ * checks the field lookups that {@link JGraphHeap} answers from its index
+ * of named edges, and that every heap applies
+ * {@link ReferenceCountedHeapGraph#forEachField} in field order, skipping
+ * child sets, while fields are removed
+ */
+public class TestFieldLookup {
+
+    private static ContextOrObjectId[] nodes(ReferenceCountedHeapGraph heap, int count) {
+        ContextOrObjectId[] result = new ContextOrObjectId[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = heap.nodeFor(i + 1);
+            heap.newNode(result[i]);
+        }
+        return result;
+    }
+
+    @Test
+    public void jgraphFieldsFollowEdges() {
+        JGraphHeap heap = new JGraphHeap();
+        ContextOrObjectId[] n = nodes(heap, 3);
+        heap.setField(n[0], "x", n[1]);
+        heap.setField(n[0], "x", n[2]);
+        assertSame(n[1], heap.getField(n[0], "x"));
+        assertEquals(0, heap.referenceCount(n[2]));
+        assertNull(heap.getField(n[1], "x"));
+
+        heap.removeField(n[0], "x");
+        assertNull(heap.getField(n[0], "x"));
+        assertEquals(0, heap.referenceCount(n[1]));
+        heap.removeField(n[0], "x");
+
+        heap.setField(n[0], "y", n[1]);
+        heap.removeEdge(new NamedEdge(n[0], "y"));
+        assertNull(heap.getField(n[0], "y"));
+        heap.setField(n[0], "y", n[2]);
+        assertSame(n[2], heap.getField(n[0], "y"));
+    }
+
+    @Test
+    public void jgraphRemoveNodeForgetsFields() {
+        JGraphHeap heap = new JGraphHeap();
+        ContextOrObjectId[] n = nodes(heap, 3);
+        heap.setField(n[0], "x", n[1]);
+        heap.setField(n[1], "x", n[2]);
+        heap.removeNode(n[1]);
+        assertNull(heap.getField(n[0], "x"));
+        assertNull(heap.getField(n[1], "x"));
+
+        heap.newNode(n[1]);
+        heap.setField(n[0], "x", n[1]);
+        heap.setField(n[1], "x", n[0]);
+        assertSame(n[1], heap.getField(n[0], "x"));
+        assertSame(n[0], heap.getField(n[1], "x"));
+        assertEquals(1, heap.referenceCount(n[1]));
+    }
+
+    private static void forEachFieldRemoving(ReferenceCountedHeapGraph heap) {
+        final ContextOrObjectId[] n = nodes(heap, 5);
+        heap.setField(n[0], "a", n[1]);
+        heap.addChild(n[0], "kids", n[4]);
+        heap.setField(n[0], "b", n[2]);
+        heap.setField(n[0], "c", n[3]);
+        heap.removeField(n[0], "a");
+        heap.setField(n[0], "a", n[1]);
+
+        final ReferenceCountedHeapGraph h = heap;
+        final List<String> names = new ArrayList<String>();
+        heap.forEachField(n[0], new VoidFunction<String>() {
+            @Override
+            public void apply(String name) {
+                names.add(name);
+                if (name != "c")
+                    h.removeField(n[0], name);
+            }
+        });
+        assertEquals(Arrays.asList("b", "c", "a"), names);
+        assertEquals(Arrays.<HeapEdge>asList(
+                new NamedEdge(n[0], "c"),
+                new NamedMultiEdge(n[0], "kids", n[4])),
+                new ArrayList<HeapEdge>(heap.getOutEdges(n[0])));
+        assertNull(heap.getField(n[0], "a"));
+        assertNull(heap.getField(n[0], "b"));
+        assertEquals(0, heap.referenceCount(n[1]));
+        assertEquals(1, heap.referenceCount(n[3]));
+
+        names.clear();
+        heap.forEachField(n[1], new VoidFunction<String>() {
+            @Override
+            public void apply(String name) {
+                names.add(name);
+            }
+        });
+        assertTrue(names.isEmpty());
+    }
+
+    @Test
+    public void jgraphForEachField() {
+        forEachFieldRemoving(new JGraphHeap());
+    }
+
+    @Test
+    public void arrayForEachField() {
+        forEachFieldRemoving(new ArrayHeap());
+    }
+
+    @Test
+    public void bufferForEachField() {
+        forEachFieldRemoving(new BufferHeap());
+    }
+}
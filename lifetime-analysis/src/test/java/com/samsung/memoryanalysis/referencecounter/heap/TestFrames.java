@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.ibm.wala.util.functions.VoidFunction;
+import com.samsung.memoryanalysis.context.Context;
+import com.samsung.memoryanalysis.traceparser.FreeVariables;
+import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
+import com.samsung.memoryanalysis.traceparser.Timer;
+
+/**
+ * checks that contexts kept out of the graph as {@link Frames} leave the
+ * graph as it would be had they been in it, whether they go into it late,
+ * get negative object ids, or are popped without ever going in
+ */
+public class TestFrames {
+
+    private static final SourceLocId SITE = new SourceLocId(1, 5);
+
+    private final Context global = Context.makeGlobal();
+
+    /**
+     * a heap with the global context in it, recording unreachable objects
+     */
+    private class Run {
+
+        final ReferenceCountedHeapGraph heap = new ArrayHeap();
+
+        final List<Integer> unreachable = new ArrayList<Integer>();
+
+        final List<SourceLocId> sites = new ArrayList<SourceLocId>();
+
+        Run() {
+            heap.setTimer(new Timer() {
+                @Override
+                public long currentTime() {
+                    return 0;
+                }
+
+                @Override
+                public void registerAlarm(long atTime, VoidFunction<Long> callback) {
+                }
+            });
+            heap.setUnreachableCallback(new VoidFunction<Unreachability>() {
+                @Override
+                public void apply(Unreachability v) {
+                    unreachable.add(v.objId);
+                    sites.add(v.slId);
+                }
+            });
+            heap.newContext(global, 0);
+        }
+
+        void objects(int... ids) {
+            for (int id : ids)
+                heap.newObject(id);
+        }
+
+        void exit(Context f, Set<String> unReferenced) {
+            heap.contextSealed(f, unReferenced, SITE);
+            heap.flush(SITE, new HashSet<Integer>(), Collections.singleton(global));
+            heap.functionExit(new HashSet<Integer>());
+        }
+
+        List<HeapEdge> edges(Context c) {
+            return new ArrayList<HeapEdge>(heap.getOutEdges(heap.nodeFor(c)));
+        }
+    }
+
+    private static Set<String> names(String... names) {
+        Set<String> res = FreeVariables.makeNameSet(names.length);
+        res.addAll(Arrays.asList(names));
+        return res;
+    }
+
+    @Test
+    public void popWithoutMaterializing() {
+        Run r = new Run();
+        Context f = new Context(global, "f");
+        r.heap.newFrame(f, 1);
+        r.objects(2, 3);
+        r.heap.addContextReference(f, "x", 2, SITE);
+        r.heap.addContextReference(f, "y", 3, SITE);
+        assertTrue(r.heap.isFrame(f));
+        assertFalse(r.heap.containsNode(r.heap.nodeFor(f)));
+        assertEquals(1, r.heap.referenceCount(2));
+        assertEquals(1, r.heap.referenceCount(global));
+
+        f.seal();
+        r.exit(f, names("x", "y"));
+        assertFalse(r.heap.isFrame(f));
+        assertFalse(r.heap.containsNode(r.heap.nodeFor(f)));
+        assertEquals(new HashSet<Integer>(Arrays.asList(2, 3)), new HashSet<Integer>(r.unreachable));
+        assertFalse(r.heap.containsNode(r.heap.nodeFor(2)));
+        assertEquals(0, r.heap.referenceCount(global));
+    }
+
+    @Test
+    public void closureEscapesLate() {
+        // the same calls, with the context as a frame and in the graph
+        Run frame = new Run();
+        Run graph = new Run();
+        Context f = new Context(global, "f");
+        frame.heap.newFrame(f, 1);
+        graph.heap.newContext(f, 1);
+        for (Run r : Arrays.asList(frame, graph)) {
+            r.objects(2, 3, 4);
+            r.heap.addContextReference(f, "x", 2, SITE);
+            r.heap.addContextReference(f, "y", 3, SITE);
+            r.heap.addContextReference(f, "x", 3, SITE);
+            r.heap.addContextReference(f, "z", 2, SITE);
+        }
+        assertTrue(frame.heap.isFrame(f));
+
+        for (Run r : Arrays.asList(frame, graph)) {
+            r.heap.addClosureReference(4, f);
+            r.heap.addContextReference(f, "y", 0, SITE);
+        }
+        assertFalse(frame.heap.isFrame(f));
+        assertEquals(graph.edges(f), frame.edges(f));
+        for (int id = 2; id <= 4; id++)
+            assertEquals(graph.heap.referenceCount(id), frame.heap.referenceCount(id));
+        assertEquals(graph.heap.referenceCount(f), frame.heap.referenceCount(f));
+        assertEquals(graph.heap.referenceCount(global), frame.heap.referenceCount(global));
+
+        f.seal();
+        frame.exit(f, names("z"));
+        graph.exit(f, names("z"));
+        assertEquals(graph.edges(f), frame.edges(f));
+        assertEquals(graph.unreachable, frame.unreachable);
+        assertTrue(frame.heap.containsNode(frame.heap.nodeFor(f)));
+    }
+
+    @Test
+    public void negativeObjectId() {
+        Run r = new Run();
+        Context f = new Context(global, "f");
+        r.heap.newFrame(f, 1);
+        r.objects(2, -3);
+        r.heap.addContextReference(f, "a", 2, SITE);
+        assertTrue(r.heap.isFrame(f));
+        // frames count references by object id, so this goes in the graph
+        r.heap.addContextReference(f, "x", -3, SITE);
+        assertFalse(r.heap.isFrame(f));
+        ContextOrObjectId node = r.heap.nodeFor(f);
+        assertEquals(Arrays.<HeapEdge>asList(
+                new NamedEdge(node, ReferenceCountedHeapGraph.PARENT_CONTEXT_FIELD),
+                new NamedEdge(node, "a"),
+                new NamedEdge(node, "x")),
+                r.edges(f));
+        assertEquals(1, r.heap.referenceCount(-3));
+        assertEquals(1, r.heap.referenceCount(2));
+
+        f.seal();
+        r.exit(f, names("a", "x"));
+        assertEquals(new HashSet<Integer>(Arrays.asList(2, -3)), new HashSet<Integer>(r.unreachable));
+        assertFalse(r.heap.containsNode(node));
+    }
+
+    @Test
+    public void sealedFrameMaterializedBeforeItsFlush() {
+        Run r = new Run();
+        Context f = new Context(global, "f");
+        r.heap.newFrame(f, 1);
+        r.objects(2);
+        r.heap.addContextReference(f, "x", 2, SITE);
+        f.seal();
+        r.heap.contextSealed(f, names("x"), SITE);
+        r.heap.materializeFrames(new HashSet<Integer>());
+        r.heap.flush(SITE, new HashSet<Integer>(), Collections.singleton(global));
+        r.heap.functionExit(new HashSet<Integer>());
+        assertEquals(Arrays.asList(2), r.unreachable);
+        assertFalse(r.heap.containsNode(r.heap.nodeFor(f)));
+        assertEquals(0, r.heap.referenceCount(global));
+    }
+
+    @Test
+    public void sealedFrameNeverFlushed() {
+        Run r = new Run();
+        Context f = new Context(global, "f");
+        r.heap.newFrame(f, 1);
+        r.objects(2);
+        r.heap.addContextReference(f, "x", 2, SITE);
+        f.seal();
+        r.heap.contextSealed(f, names("x"), SITE);
+        // the call returns without the flush that would drop the frame
+        r.heap.functionExit(new HashSet<Integer>());
+        assertEquals(1, r.heap.referenceCount(global));
+
+        r.heap.materializeFrames(new HashSet<Integer>());
+        assertFalse(r.heap.containsNode(r.heap.nodeFor(f)));
+        assertEquals(0, r.heap.referenceCount(global));
+    }
+
+    @Test
+    public void sealedFrameDroppedWhereSealed() {
+        Run r = new Run();
+        Context p = new Context(global, "p");
+        r.heap.newContext(p, 1);
+        r.objects(2);
+        r.heap.addContextReference(p, "x", 2, SITE);
+        Context f = new Context(p, "f");
+        r.heap.newFrame(f, 3);
+        assertTrue(r.heap.isFrame(f));
+        // only the frame keeps p, and so x, reachable
+        p.seal();
+
+        SourceLocId exit = new SourceLocId(1, 9);
+        f.seal();
+        r.heap.contextSealed(f, names(), exit);
+        r.heap.functionExit(new HashSet<Integer>());
+        assertTrue(r.unreachable.isEmpty());
+
+        r.heap.materializeFrames(new HashSet<Integer>());
+        assertFalse(r.heap.containsNode(r.heap.nodeFor(f)));
+        assertEquals(Arrays.asList(2), r.unreachable);
+        assertEquals(Arrays.asList(exit), r.sites);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.ibm.wala.util.functions.VoidFunction;
+import com.samsung.memoryanalysis.context.Context;
+import com.samsung.memoryanalysis.traceparser.FreeVariables;
+import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
+import com.samsung.memoryanalysis.traceparser.Timer;
+
+/**
+ * checks that object and context nodes with colliding ids or hash codes are
+ * kept apart by {@link NodeTable} and {@link ContextOrObjectId}, and that
+ * context slots are reused, so that the table grows with the contexts that
+ * have nodes rather than with the calls made
+ */
+public class TestNodeTable {
+
+    @Test
+    public void objectAndContextWithSameId() {
+        NodeTable table = new NodeTable();
+        Context global = Context.makeGlobal();
+        Context inner = new Context(global, "1");
+        ContextOrObjectId object = table.node((int) inner.getId());
+        ContextOrObjectId context = table.node(inner);
+        assertFalse(object.equals(context));
+        assertFalse(context.equals(object));
+        assertSame(object, table.node((int) inner.getId()));
+        assertSame(context, table.node(inner));
+    }
+
+    @Test
+    public void collidingHashCodes() {
+        NodeTable table = new NodeTable();
+        Context global = Context.makeGlobal();
+        ContextOrObjectId object = table.node(-1);
+        ContextOrObjectId context = table.node(global);
+        assertEquals(object.hashCode(), context.hashCode());
+        assertFalse(object.equals(context));
+        assertFalse(context.equals(object));
+        assertEquals(-1, context.getId());
+    }
+
+    @Test
+    public void contextsOfOtherGlobals() {
+        NodeTable table = new NodeTable();
+        Context global = Context.makeGlobal();
+        Context other = Context.makeGlobal();
+        assertEquals(global.getId(), other.getId());
+        assertFalse(new ContextOrObjectId(global).equals(new ContextOrObjectId(other)));
+        assertSame(table.node(global), table.node(global));
+    }
+
+    @Test
+    public void releaseKeepsTheOtherKind() {
+        NodeTable table = new NodeTable();
+        Context global = Context.makeGlobal();
+        ContextOrObjectId object = table.node(0);
+        ContextOrObjectId context = table.node(global);
+        ContextOrObjectId negative = table.node(-5);
+
+        table.release(context);
+        assertSame(object, table.node(0));
+        assertSame(negative, table.node(-5));
+        ContextOrObjectId again = table.node(global);
+        assertNotSame(context, again);
+        assertEquals(context, again);
+
+        table.release(object);
+        table.release(negative);
+        assertSame(again, table.node(global));
+        assertNotSame(object, table.node(0));
+        assertEquals(object, table.node(0));
+        assertNotSame(negative, table.node(-5));
+        assertEquals(negative, table.node(-5));
+    }
+
+    @Test
+    public void lookupDoesNotAdd() {
+        NodeTable table = new NodeTable();
+        ContextOrObjectId missing = table.lookup(7);
+        assertEquals(new ContextOrObjectId(7), missing);
+        assertNotSame(missing, table.node(7));
+        assertSame(table.node(7), table.lookup(7));
+
+        ContextOrObjectId negative = table.lookup(-7);
+        assertNotSame(negative, table.node(-7));
+        assertSame(table.node(-7), table.lookup(-7));
+
+        // past the end of the array
+        assertEquals(new ContextOrObjectId(100000), table.lookup(100000));
+        assertEquals(100000, table.node(100000).getId());
+    }
+
+    @Test
+    public void contextSlotsAreReused() {
+        NodeTable table = new NodeTable();
+        Context global = Context.makeGlobal();
+        List<Context> live = new ArrayList<Context>();
+        List<ContextOrObjectId> nodes = new ArrayList<ContextOrObjectId>();
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            Context c = new Context(global, "f");
+            live.add(c);
+            nodes.add(table.node(c));
+            if (live.size() > 3000 || random.nextInt(3) == 0) {
+                int k = random.nextInt(live.size());
+                table.release(nodes.get(k));
+                live.set(k, live.get(live.size() - 1));
+                live.remove(live.size() - 1);
+                nodes.set(k, nodes.get(nodes.size() - 1));
+                nodes.remove(nodes.size() - 1);
+            }
+        }
+        assertTrue(table.contextSlots() <= 3001);
+        for (int k = 0; k < live.size(); k++)
+            assertSame(nodes.get(k), table.node(live.get(k)));
+        for (ContextOrObjectId n : nodes)
+            table.release(n);
+        assertEquals(2048, table.contextIndexSize());
+        ContextOrObjectId again = table.node(live.get(0));
+        assertNotSame(nodes.get(0), again);
+        assertEquals(nodes.get(0), again);
+    }
+
+    @Test
+    public void frameReferencesBySlot() {
+        NodeTable table = new NodeTable();
+        Context global = Context.makeGlobal();
+        Context f = new Context(global, "f");
+        ContextOrObjectId node = table.node(f);
+        table.frameReference(f, 2);
+        assertEquals(2, table.frameReferences(f));
+        assertEquals(0, table.frameReferences(global));
+        table.frameReference(f, -2);
+        table.release(node);
+        Context g = new Context(global, "g");
+        table.node(g);
+        assertEquals(1, table.contextSlots());
+        assertEquals(0, table.frameReferences(g));
+        assertEquals(0, table.frameReferences(f));
+    }
+
+    /**
+     * calls f from the global context, one after another, some kept out of
+     * the graph as frames and some put into it, each with a variable
+     */
+    @Test
+    public void manySequentialCalls() {
+        ArrayHeap heap = new ArrayHeap();
+        Context global = Context.makeGlobal();
+        heap.setTimer(new Timer() {
+            @Override
+            public long currentTime() {
+                return 0;
+            }
+
+            @Override
+            public void registerAlarm(long atTime, VoidFunction<Long> callback) {
+            }
+        });
+        heap.newContext(global, 0);
+        SourceLocId site = new SourceLocId(1, 5);
+        Set<String> names = FreeVariables.makeNameSet(1);
+        names.add("x");
+        for (int i = 1; i <= 100000; i++) {
+            Context f = new Context(global, "f");
+            if (i % 2 == 0)
+                heap.newFrame(f, 1);
+            else
+                heap.newContext(f, 1);
+            heap.newObject(i);
+            heap.addContextReference(f, "x", i, site);
+            f.seal();
+            heap.contextSealed(f, names, site);
+            heap.flush(site, new HashSet<Integer>(), Collections.singleton(global));
+            heap.functionExit(new HashSet<Integer>());
+        }
+        assertTrue(100000 < new Context(global, "f").getId());
+        assertTrue(heap.nodeTable().contextSlots() <= 4);
+        assertEquals(2048, heap.nodeTable().contextIndexSize());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+/**
+ * checks that {@link ParallelMark} marks exactly the nodes reachable from
+ * its roots when it splits a range of roots and when it forks the bottom
+ * of a deep stack, on a graph that numbers its nodes and on one that does
+ * not
+ */
+public class TestParallelMark {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @AfterClass
+    public static void shutdown() {
+        POOL.shutdown();
+    }
+
+    private int nextId = 1;
+
+    private ContextOrObjectId node(ReferenceCountedHeapGraph heap) {
+        ContextOrObjectId n = heap.nodeFor(nextId++);
+        heap.newNode(n);
+        return n;
+    }
+
+    /**
+     * a chain of length nodes from each of count roots, and an unreachable
+     * node pointing into each chain
+     */
+    private Set<ContextOrObjectId> chains(ReferenceCountedHeapGraph heap, List<ContextOrObjectId> roots, int count, int length) {
+        Set<ContextOrObjectId> reachable = new HashSet<ContextOrObjectId>();
+        for (int i = 0; i < count; i++) {
+            ContextOrObjectId n = node(heap);
+            roots.add(n);
+            reachable.add(n);
+            heap.setField(node(heap), "in", n);
+            for (int j = 1; j < length; j++) {
+                ContextOrObjectId next = node(heap);
+                heap.setField(n, "next", next);
+                reachable.add(next);
+                n = next;
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * count children of one root, each with a child
+     */
+    private Set<ContextOrObjectId> fan(ReferenceCountedHeapGraph heap, List<ContextOrObjectId> roots, int count) {
+        Set<ContextOrObjectId> reachable = new HashSet<ContextOrObjectId>();
+        ContextOrObjectId root = node(heap);
+        roots.add(root);
+        reachable.add(root);
+        for (int i = 0; i < count; i++) {
+            ContextOrObjectId child = node(heap);
+            heap.addChild(root, "kids", child);
+            ContextOrObjectId grandChild = node(heap);
+            heap.setField(child, "x", grandChild);
+            reachable.add(child);
+            reachable.add(grandChild);
+        }
+        node(heap);
+        return reachable;
+    }
+
+    private static void check(ReferenceCountedHeapGraph heap, List<ContextOrObjectId> roots, Set<ContextOrObjectId> reachable) {
+        Set<ContextOrObjectId> marks = ParallelMark.mark(heap, roots, POOL);
+        assertEquals(reachable, new HashSet<ContextOrObjectId>(marks));
+        for (ContextOrObjectId n : heap.getAllNodes())
+            assertEquals(reachable.contains(n), marks.contains(n));
+    }
+
+    private void splitRoots(ReferenceCountedHeapGraph heap) {
+        for (int count : new int[] { 1, ParallelMark.SPLIT, ParallelMark.SPLIT + 1, 5 * ParallelMark.SPLIT + 3 }) {
+            List<ContextOrObjectId> roots = new ArrayList<ContextOrObjectId>();
+            check(heap, roots, chains(heap, roots, count, 3));
+        }
+    }
+
+    private void forkDeepStack(ReferenceCountedHeapGraph heap) {
+        for (int count : new int[] { 2 * ParallelMark.SPLIT - 1, 2 * ParallelMark.SPLIT, 7 * ParallelMark.SPLIT + 5 }) {
+            List<ContextOrObjectId> roots = new ArrayList<ContextOrObjectId>();
+            check(heap, roots, fan(heap, roots, count));
+        }
+    }
+
+    @Test
+    public void splitRootsJGraph() {
+        splitRoots(new JGraphHeap());
+    }
+
+    @Test
+    public void splitRootsArray() {
+        splitRoots(new ArrayHeap());
+    }
+
+    @Test
+    public void forkDeepStackJGraph() {
+        forkDeepStack(new JGraphHeap());
+    }
+
+    @Test
+    public void forkDeepStackArray() {
+        forkDeepStack(new ArrayHeap());
+    }
+
+    @Test
+    public void sharedAndRepeatedRoots() {
+        ArrayHeap heap = new ArrayHeap();
+        List<ContextOrObjectId> roots = new ArrayList<ContextOrObjectId>();
+        Set<ContextOrObjectId> reachable = chains(heap, roots, 3 * ParallelMark.SPLIT, 2);
+        roots.addAll(new ArrayList<ContextOrObjectId>(roots));
+        check(heap, roots, reachable);
+    }
+}
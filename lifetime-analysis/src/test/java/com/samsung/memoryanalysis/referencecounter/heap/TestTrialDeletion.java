@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2014 Samsung Electronics Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsung.memoryanalysis.referencecounter.heap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.ibm.wala.util.functions.VoidFunction;
+import com.samsung.memoryanalysis.context.Context;
+import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph.CycleCollector;
+import com.samsung.memoryanalysis.referencecounter.heap.ReferenceCountedHeapGraph.FlushType;
+import com.samsung.memoryanalysis.traceparser.SourceMap.SourceLocId;
+import com.samsung.memoryanalysis.traceparser.Timer;
+
+/**
+ * checks that trial deletion collects the garbage cycles reachable from the
+ * cycle queue, and keeps cycles still referenced from outside them
+ */
+public class TestTrialDeletion {
+
+    private static final SourceLocId SITE = new SourceLocId(1, 5);
+
+    private final Context global = Context.makeGlobal();
+
+    private final ReferenceCountedHeapGraph heap = new JGraphHeap();
+
+    private final List<Integer> unreachable = new ArrayList<Integer>();
+
+    public TestTrialDeletion() {
+        heap.setCycleCollector(CycleCollector.TRIAL_DELETION);
+        heap.setTimer(new Timer() {
+            @Override
+            public long currentTime() {
+                return 0;
+            }
+
+            @Override
+            public void registerAlarm(long atTime, VoidFunction<Long> callback) {
+            }
+        });
+        heap.setUnreachableCallback(new VoidFunction<Unreachability>() {
+            @Override
+            public void apply(Unreachability v) {
+                unreachable.add(v.objId);
+            }
+        });
+        heap.newContext(global, 0);
+    }
+
+    /**
+     * objects from and to, referencing each other through a and b
+     */
+    private void cycle(int from, int to) {
+        heap.newObject(from);
+        heap.newObject(to);
+        heap.addObjectReference(from, "a", to, SITE);
+        heap.addObjectReference(to, "b", from, SITE);
+    }
+
+    private Set<Integer> collect() {
+        heap.flushCycleQueue(new HashSet<Integer>(), FlushType.FORCE, Collections.singleton(global));
+        return new HashSet<Integer>(unreachable);
+    }
+
+    @Test
+    public void garbageCycleIsCollected() {
+        cycle(2, 3);
+        heap.addContextReference(global, "x", 2, SITE);
+        heap.addContextReference(global, "x", 0, SITE);
+        assertEquals(1, heap.referenceCount(2));
+        assertEquals(new HashSet<Integer>(Arrays.asList(2, 3)), collect());
+        assertFalse(heap.containsNode(heap.nodeFor(2)));
+        assertFalse(heap.containsNode(heap.nodeFor(3)));
+    }
+
+    @Test
+    public void cycleHeldFromOutsideIsKept() {
+        cycle(2, 3);
+        heap.newObject(4);
+        heap.addObjectReference(4, "c", 3, SITE);
+        heap.addContextReference(global, "y", 4, SITE);
+        heap.addContextReference(global, "x", 2, SITE);
+        heap.addContextReference(global, "x", 0, SITE);
+        assertEquals(Collections.<Integer>emptySet(), collect());
+        assertEquals(1, heap.referenceCount(2));
+        assertEquals(2, heap.referenceCount(3));
+    }
+
+    @Test
+    public void cycleHeldOnlyByGarbageIsCollected() {
+        cycle(2, 3);
+        cycle(4, 5);
+        heap.addObjectReference(3, "c", 4, SITE);
+        heap.addContextReference(global, "x", 2, SITE);
+        heap.addContextReference(global, "x", 0, SITE);
+        assertEquals(new HashSet<Integer>(Arrays.asList(2, 3, 4, 5)), collect());
+    }
+}